@@ -29,21 +29,28 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.model.DataListModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.domain.node.NodeDAO;
 import org.alfresco.repo.web.scripts.DeclarativeSpreadsheetWebScript;
+import org.alfresco.service.cmr.dictionary.AssociationDefinition;
 import org.alfresco.service.cmr.dictionary.PropertyDefinition;
 import org.alfresco.service.cmr.dictionary.TypeDefinition;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
 import org.alfresco.service.cmr.repository.AssociationRef;
-import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.site.SiteInfo;
@@ -51,26 +58,31 @@ import org.alfresco.service.cmr.site.SiteService;
 import org.alfresco.service.namespace.InvalidQNameException;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
 import org.alfresco.util.Pair;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.DataFormat;
-import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.extensions.webscripts.Cache;
 import org.springframework.extensions.webscripts.Status;
 import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
 
 
 /**
  * Data List Download
  * 
- * Exports the contents of a Data List as an Excel file
+ * Exports the contents of a Data List as an Excel or CSV file
+ * 
+ * The list items are read a page at a time, with their properties and
+ *  association targets fetched in bulk for each page. CSV and XLSX
+ *  exports are streamed straight to the response, so memory use does
+ *  not grow with the size of the list. XLS exports still build the
+ *  workbook in memory, as that format can't be streamed.
  * 
  * @author Nick Burch
  */
@@ -82,11 +94,29 @@ public class DataListDownloadWebScript extends DeclarativeSpreadsheetWebScript
     
     private static final QName DATA_LIST_ITEM_TYPE = DataListModel.PROP_DATALIST_ITEM_TYPE; 
     
+    /** Model key for the streaming export, and the template helper which writes it */
+    private static final String MODEL_EXPORT = "export";
+    private static final String TEMPLATE_WRITE_EXPORT = "writeExport";
+    
+    /**
+     * Items are listed oldest first, as they were in the original list order,
+     *  with the (unique) name breaking ties so that paging is stable
+     */
+    @SuppressWarnings("unchecked")
+    private static final List<Pair<QName, Boolean>> ITEM_SORT = Arrays.asList(
+          new Pair<QName, Boolean>(ContentModel.PROP_CREATED, Boolean.TRUE),
+          new Pair<QName, Boolean>(ContentModel.PROP_NAME, Boolean.TRUE));
+    
     private NodeService nodeService;
     private SiteService siteService;
     private NamespaceService namespaceService;
+    private FileFolderService fileFolderService;
+    private NodeDAO nodeDAO;
     private Map<QName,List<QName>> modelOrder;
     private Map<String,String> rawModelOrder;
+    private int pageSize = 250;
+    private int rowWindowSize = DataListExportWriter.DEFAULT_ROW_WINDOW_SIZE;
+    private boolean streaming = true;
 
     public DataListDownloadWebScript()
     {
@@ -117,10 +147,50 @@ public class DataListDownloadWebScript extends DeclarativeSpreadsheetWebScript
         this.namespaceService = namespaceService; 
     }
 
+    /**
+     * @param fileFolderService FileFolderService, used to page through the list items
+     */
+    public void setFileFolderService(FileFolderService fileFolderService)
+    {
+        this.fileFolderService = fileFolderService; 
+    }
+
+    /**
+     * @param nodeDAO NodeDAO, used to bulk load the association targets of each page
+     */
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO; 
+    }
+
     public void setModelOrder(Map<String,String> rawModelOrder)
     {
     	this.rawModelOrder = rawModelOrder;
     }
+
+    /**
+     * @param pageSize Number of list items loaded at once
+     */
+    public void setPageSize(int pageSize)
+    {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param rowWindowSize Number of XLSX rows kept in memory while streaming
+     */
+    public void setRowWindowSize(int rowWindowSize)
+    {
+        this.rowWindowSize = rowWindowSize;
+    }
+
+    /**
+     * @param streaming Should CSV and XLSX exports be streamed to the response? (default true)
+     */
+    public void setStreaming(boolean streaming)
+    {
+        this.streaming = streaming;
+    }
     
     
     @Override
@@ -263,155 +333,297 @@ public class DataListDownloadWebScript extends DeclarativeSpreadsheetWebScript
        return type;
     }
 
-    private List<NodeRef> getItems(NodeRef list)
+    /**
+     * CSV and XLSX exports are streamed to the response by the template,
+     *  everything else is built in memory by our parent
+     */
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
+    {
+       String format = req.getFormat();
+       if(!streaming || !(DataListExportWriter.FORMAT_CSV.equals(format) || DataListExportWriter.FORMAT_XLSX.equals(format)))
+       {
+          return super.executeImpl(req, status, cache);
+       }
+
+       NodeRef list = (NodeRef)identifyResource(format, req);
+       List<QName> properties = new ArrayList<QName>();
+       List<String> headings = new ArrayList<String>();
+       for(Pair<QName, Boolean> property : buildPropertiesForHeader(list, format, req))
+       {
+          properties.add(property.getFirst());
+          headings.add(buildHeading(property.getFirst()));
+       }
+
+       // The rows are only read when the template writes the export
+       Map<String, Object> model = new HashMap<String, Object>();
+       model.put(MODEL_EXPORT, new DataListExportWriter(headings, new ItemRows(list, properties), rowWindowSize));
+       return model;
+    }
+
+    @Override
+    protected Map<String, Object> createTemplateParameters(WebScriptRequest req, WebScriptResponse res,
+          Map<String, Object> customParams)
     {
-       Set<QName> typeSet = new HashSet<QName>(Arrays.asList(new QName[] { buildType(list) }));
+       Map<String, Object> params = super.createTemplateParameters(req, res, customParams);
+       if(customParams != null && customParams.get(MODEL_EXPORT) instanceof DataListExportWriter)
+       {
+          params.put(TEMPLATE_WRITE_EXPORT, new WriteExport(
+                (DataListExportWriter)customParams.get(MODEL_EXPORT), req.getFormat(), res, filenameBase));
+       }
+       return params;
+    }
 
-       List<NodeRef> items = new ArrayList<NodeRef>();
-       for(ChildAssociationRef ca : nodeService.getChildAssocs(list, typeSet))
+    private String buildHeading(QName qname)
+    {
+       PropertyDefinition property = dictionaryService.getProperty(qname);
+       String title = null;
+       if(property != null)
        {
-          items.add(ca.getChildRef());
+          title = property.getTitle(dictionaryService);
        }
-       return items;
+       else
+       {
+          AssociationDefinition assoc = dictionaryService.getAssociation(qname);
+          if(assoc != null)
+          {
+             title = assoc.getTitle(dictionaryService);
+          }
+       }
+       return (title != null ? title : qname.toPrefixString(namespaceService));
     }
 
     @Override
     protected void populateBody(Object resource, CSVPrinter csv,
           List<QName> properties) throws IOException {
-       throw new WebScriptException(Status.STATUS_BAD_REQUEST, "CSV not currently supported");
+       NodeRef list = (NodeRef)resource;
+       DataListExportWriter.printRows(csv, new ItemRows(list, properties));
     }
 
     @Override
     protected void populateBody(Object resource, Workbook workbook,
           Sheet sheet, List<QName> properties) throws IOException {
        NodeRef list = (NodeRef)resource;
-       List<NodeRef> items = getItems(list);
 
-       // Our various formats
-       DataFormat formatter = workbook.createDataFormat();
+       // Export the items
+       DataListExportWriter.populateRows(workbook, sheet, 1, new ItemRows(list, properties));
+
+       // Sensible column widths please!
+       for(int colNum = 0; colNum < properties.size(); colNum++)
+       {
+          sheet.autoSizeColumn(colNum);
+       }
+    }
+
+    /**
+     * Iterates over the cell values of the items in a Data List, loading
+     *  one page of items at a time. The properties of a page come back
+     *  with the listing, and the association targets of the whole page
+     *  are loaded in one go, rather than querying each cell separately.
+     */
+    private class ItemRows implements Iterator<Object[]>
+    {
+       private final NodeRef list;
+       private final Set<QName> types;
+       private final List<QName> properties;
+       private final boolean[] associations;
+       private final boolean hasAssociations;
 
-       CellStyle styleInt = workbook.createCellStyle();
-       styleInt.setDataFormat( formatter.getFormat("0") );
-       CellStyle styleDate = workbook.createCellStyle();
-       styleDate.setDataFormat( formatter.getFormat("yyyy-mm-dd") );
-       CellStyle styleDouble = workbook.createCellStyle();
-       styleDouble.setDataFormat( formatter.getFormat("General") );
-       CellStyle styleNewLines = workbook.createCellStyle();
-       styleNewLines.setWrapText(true);
+       private int skipCount = 0;
+       private boolean moreItems = true;
+       private Iterator<Object[]> page = Collections.<Object[]>emptyList().iterator();
 
-       // Export the items
-       int rowNum = 1, colNum = 0;
-       for(NodeRef item : items)
+       private ItemRows(NodeRef list, List<QName> properties)
        {
-          Row r = sheet.createRow(rowNum);
+          this.list = list;
+          this.types = Collections.singleton(buildType(list));
+          this.properties = properties;
+
+          // Work out up-front which columns are associations
+          this.associations = new boolean[properties.size()];
+          boolean anyAssociations = false;
+          for(int i = 0; i < properties.size(); i++)
+          {
+             QName prop = properties.get(i);
+             associations[i] = (dictionaryService.getProperty(prop) == null &&
+                                dictionaryService.getAssociation(prop) != null);
+             anyAssociations |= associations[i];
+          }
+          this.hasAssociations = anyAssociations;
+       }
 
-          colNum = 0;
-          for(QName prop : properties)
+       @Override
+       public boolean hasNext()
+       {
+          while(!page.hasNext() && moreItems)
           {
-             Cell c = r.createCell(colNum);
+             page = loadPage().iterator();
+          }
+          return page.hasNext();
+       }
 
-             Serializable val = nodeService.getProperty(item, prop);
-             if(val == null)
-             {
-                // Is it an association, or just missing?
-                List<AssociationRef> assocs =  nodeService.getTargetAssocs(item, prop);
-                if(assocs.size() > 0)
-                {
-                   StringBuffer text = new StringBuffer();
-                   int lines = 1;
+       @Override
+       public Object[] next()
+       {
+          if(!hasNext())
+          {
+             throw new NoSuchElementException();
+          }
+          return page.next();
+       }
 
-                   for(AssociationRef ref : assocs)
-                   {
-                      NodeRef child = ref.getTargetRef();
-                      QName type = nodeService.getType(child);
-                      if(ContentModel.TYPE_PERSON.equals(type))
-                      {
-                         if(text.length() > 0) {
-                            text.append('\n');
-                            lines++;
-                         }
-                         text.append(nodeService.getProperty(
-                               child, ContentModel.PROP_USERNAME
-                         ));
-                      }
-                      else if(ContentModel.TYPE_CONTENT.equals(type))
-                      {
-                         // TODO Link to the content
-                         if(text.length() > 0) {
-                            text.append('\n');
-                            lines++;
-                         }
-                         text.append(nodeService.getProperty(
-                               child, ContentModel.PROP_TITLE
-                         ));
-                      }
-                      else
-                      {
-                         System.err.println("TODO: handle " + type + " for " + child);
-                      }
-                   }
+       @Override
+       public void remove()
+       {
+          throw new UnsupportedOperationException();
+       }
 
-                   String v = text.toString();
-                   c.setCellValue( v );
-                   if(lines > 1) 
-                   {
-                      c.setCellStyle(styleNewLines);
-                      r.setHeightInPoints( lines*sheet.getDefaultRowHeightInPoints() );
-                   }
-                }
-                else
+       private List<Object[]> loadPage()
+       {
+          PagingResults<FileInfo> results = fileFolderService.list(
+                list, types, null, ITEM_SORT, new PagingRequest(skipCount, pageSize));
+          List<FileInfo> items = results.getPage();
+          skipCount += items.size();
+          moreItems = results.hasMoreItems() && items.size() > 0;
+
+          // Fetch all the associations of the page, and bulk load their targets
+          Map<NodeRef, List<AssociationRef>> assocs = Collections.emptyMap();
+          Map<NodeRef, String> targetLabels = Collections.emptyMap();
+          if(hasAssociations)
+          {
+             assocs = new HashMap<NodeRef, List<AssociationRef>>();
+             List<NodeRef> targets = new ArrayList<NodeRef>();
+             for(FileInfo item : items)
+             {
+                List<AssociationRef> itemAssocs = nodeService.getTargetAssocs(item.getNodeRef(), RegexQNamePattern.MATCH_ALL);
+                assocs.put(item.getNodeRef(), itemAssocs);
+                for(AssociationRef ref : itemAssocs)
                 {
-                   // This property isn't set
-                   c.setCellType(Cell.CELL_TYPE_BLANK);
+                   targets.add(ref.getTargetRef());
                 }
              }
-             else
+             if(nodeDAO != null && targets.size() > 0)
+             {
+                nodeDAO.cacheNodes(targets);
+             }
+             targetLabels = new HashMap<NodeRef, String>();
+          }
+
+          List<Object[]> rows = new ArrayList<Object[]>(items.size());
+          for(FileInfo item : items)
+          {
+             Map<QName, Serializable> props = item.getProperties();
+             Object[] row = new Object[properties.size()];
+             for(int i = 0; i < row.length; i++)
              {
-                // Regular property, set
-                if(val instanceof String)
+                if(associations[i])
                 {
-                   c.setCellValue((String)val);
+                   row[i] = buildAssociationText(assocs.get(item.getNodeRef()), properties.get(i), targetLabels);
                 }
-                else if(val instanceof Date)
+                else
                 {
-                   c.setCellValue((Date)val);
-                   c.setCellStyle(styleDate);
+                   row[i] = props.get(properties.get(i));
                 }
-                else if(val instanceof Integer || val instanceof Long)
+             }
+             rows.add(row);
+          }
+
+          if(logger.isDebugEnabled())
+          {
+             logger.debug("Loaded " + items.size() + " items from " + list + ", " + skipCount + " so far");
+          }
+          return rows;
+       }
+
+       private String buildAssociationText(List<AssociationRef> assocs, QName assocType, Map<NodeRef, String> targetLabels)
+       {
+          StringBuilder text = new StringBuilder();
+          if(assocs != null)
+          {
+             for(AssociationRef ref : assocs)
+             {
+                if(!assocType.equals(ref.getTypeQName()))
                 {
-                   double v = 0.0;
-                   if(val instanceof Long) v = (double)(Long)val;
-                   if(val instanceof Integer) v = (double)(Integer)val;
-                   c.setCellValue(v);
-                   c.setCellStyle(styleInt);
+                   continue;
                 }
-                else if(val instanceof Float || val instanceof Double)
+
+                NodeRef child = ref.getTargetRef();
+                String label = targetLabels.get(child);
+                if(label == null && !targetLabels.containsKey(child))
                 {
-                   double v = 0.0;
-                   if(val instanceof Float) v = (double)(Float)val;
-                   if(val instanceof Double) v = (double)(Double)val;
-                   c.setCellValue(v);
-                   c.setCellStyle(styleDouble);
+                   label = buildTargetLabel(child);
+                   targetLabels.put(child, label);
                 }
-                else
+                if(label != null)
                 {
-                   // TODO
-                   System.err.println("TODO: handle " + val.getClass().getName() + " - " + val);
+                   if(text.length() > 0)
+                   {
+                      text.append('\n');
+                   }
+                   text.append(label);
                 }
              }
+          }
+          return (text.length() > 0 ? text.toString() : null);
+       }
 
-             colNum++;
+       private String buildTargetLabel(NodeRef child)
+       {
+          QName type = nodeService.getType(child);
+          if(ContentModel.TYPE_PERSON.equals(type))
+          {
+             return (String)nodeService.getProperty(child, ContentModel.PROP_USERNAME);
+          }
+          else if(ContentModel.TYPE_CONTENT.equals(type))
+          {
+             // TODO Link to the content
+             Serializable title = nodeService.getProperty(child, ContentModel.PROP_TITLE);
+             return (String)(title != null ? title : nodeService.getProperty(child, ContentModel.PROP_NAME));
+          }
+          if(logger.isDebugEnabled())
+          {
+             logger.debug("Skipping association target " + child + " of unsupported type " + type);
           }
+          return null;
+       }
+    }
+
+    /**
+     * Template helper which streams the export to the response,
+     *  used as <code>${writeExport.write()}</code>
+     */
+    public static class WriteExport
+    {
+       private final DataListExportWriter export;
+       private final String format;
+       private final WebScriptResponse res;
+       private final String filenameBase;
 
-          rowNum++;
+       private WriteExport(DataListExportWriter export, String format, WebScriptResponse res, String filenameBase)
+       {
+          this.export = export;
+          this.format = format;
+          this.res = res;
+          this.filenameBase = filenameBase;
        }
 
-       // Sensible column widths please!
-       colNum = 0;
-       for(QName prop : properties)
+       public String write() throws IOException
        {
-          sheet.autoSizeColumn(colNum);
-          colNum++;
+          if(DataListExportWriter.FORMAT_CSV.equals(format))
+          {
+             res.setContentType(MimetypeMap.MIMETYPE_TEXT_CSV);
+             res.setContentEncoding("UTF-8");
+          }
+          else
+          {
+             res.setContentType(MimetypeMap.MIMETYPE_OPENXML_SPREADSHEET);
+          }
+          res.setHeader("Content-Disposition", "attachment; filename=\"" + filenameBase + "." + format + "\"");
+
+          export.write(format, res.getOutputStream());
+
+          // Nothing for the template itself to output
+          return "";
        }
     }
 }
@@ -0,0 +1,279 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.datalist;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Writes the rows of a Data List export as CSV or XLSX without holding
+ *  the whole list in memory.
+ * 
+ * Rows are pulled one at a time from the supplied iterator, so the caller
+ *  controls how many items are loaded at once. CSV rows are written straight
+ *  to the output, and XLSX rows go through a {@link SXSSFWorkbook} which only
+ *  keeps a window of rows in memory, flushing older ones to a temporary file.
+ * 
+ * Each row is an array of cell values, one per heading, which may be a
+ *  String (multi-line for associations), Date, Number or null.
+ */
+public class DataListExportWriter
+{
+    // Logger
+    private static final Log logger = LogFactory.getLog(DataListExportWriter.class);
+    
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_XLSX = "xlsx";
+    
+    /** Number of XLSX rows kept in memory before being flushed */
+    public static final int DEFAULT_ROW_WINDOW_SIZE = 100;
+    
+    private static final String SHEET_NAME = "Export";
+    
+    private final List<String> headings;
+    private final Iterator<Object[]> rows;
+    private final int rowWindowSize;
+    
+    /**
+     * @param headings Column headings
+     * @param rows Row values, pulled lazily while writing
+     * @param rowWindowSize Number of XLSX rows kept in memory
+     */
+    public DataListExportWriter(List<String> headings, Iterator<Object[]> rows, int rowWindowSize)
+    {
+        this.headings = headings;
+        this.rows = rows;
+        this.rowWindowSize = rowWindowSize;
+    }
+    
+    /**
+     * Writes the export in the given format
+     * 
+     * @param format Either {@link #FORMAT_CSV} or {@link #FORMAT_XLSX}
+     * @param out Stream to write to, not closed
+     */
+    public void write(String format, OutputStream out) throws IOException
+    {
+       if (FORMAT_CSV.equals(format))
+       {
+          writeCsv(new OutputStreamWriter(out, "UTF-8"));
+       }
+       else if (FORMAT_XLSX.equals(format))
+       {
+          writeXlsx(out);
+       }
+       else
+       {
+          throw new IllegalArgumentException("Unsupported streaming export format " + format);
+       }
+    }
+    
+    /**
+     * Writes the headings and all the rows as CSV
+     */
+    public void writeCsv(Writer out) throws IOException
+    {
+       CSVPrinter csv = new CSVPrinter(out, CSVFormat.EXCEL);
+       csv.printRecord(headings);
+       int count = printRows(csv, rows);
+       csv.flush();
+       
+       if (logger.isDebugEnabled())
+          logger.debug("Streamed " + count + " rows as CSV");
+    }
+    
+    /**
+     * Writes the headings and all the rows as XLSX, keeping only
+     *  a window of rows in memory
+     */
+    public void writeXlsx(OutputStream out) throws IOException
+    {
+       SXSSFWorkbook workbook = new SXSSFWorkbook(rowWindowSize);
+       workbook.setCompressTempFiles(true);
+       try
+       {
+          Sheet sheet = workbook.createSheet(SHEET_NAME);
+          
+          // Headings, sized as we can't auto-size over flushed rows
+          Row header = sheet.createRow(0);
+          for (int i = 0; i < headings.size(); i++)
+          {
+             String heading = headings.get(i);
+             header.createCell(i).setCellValue(heading);
+             sheet.setColumnWidth(i, Math.min(255, Math.max(12, heading.length() + 4)) * 256);
+          }
+          
+          int count = populateRows(workbook, sheet, 1, rows);
+          workbook.write(out);
+          out.flush();
+          
+          if (logger.isDebugEnabled())
+             logger.debug("Streamed " + count + " rows as XLSX");
+       }
+       finally
+       {
+          // Remove the temporary files holding the flushed rows
+          workbook.dispose();
+       }
+    }
+    
+    /**
+     * Prints the rows to a CSV printer
+     * 
+     * @return the number of rows printed
+     */
+    static int printRows(CSVPrinter csv, Iterator<Object[]> rows) throws IOException
+    {
+       int count = 0;
+       while (rows.hasNext())
+       {
+          for (Object value : rows.next())
+          {
+             csv.print(formatCsvValue(value));
+          }
+          csv.println();
+          count++;
+       }
+       return count;
+    }
+    
+    private static String formatCsvValue(Object value)
+    {
+       if (value == null)
+       {
+          return "";
+       }
+       if (value instanceof Date)
+       {
+          return ISO8601DateFormat.format((Date)value);
+       }
+       return value.toString();
+    }
+    
+    /**
+     * Creates a spreadsheet row for each of the rows, starting at the given row number
+     * 
+     * @return the number of rows created
+     */
+    static int populateRows(Workbook workbook, Sheet sheet, int firstRow, Iterator<Object[]> rows)
+    {
+       // Our various formats
+       DataFormat formatter = workbook.createDataFormat();
+
+       CellStyle styleInt = workbook.createCellStyle();
+       styleInt.setDataFormat( formatter.getFormat("0") );
+       CellStyle styleDate = workbook.createCellStyle();
+       styleDate.setDataFormat( formatter.getFormat("yyyy-mm-dd") );
+       CellStyle styleDouble = workbook.createCellStyle();
+       styleDouble.setDataFormat( formatter.getFormat("General") );
+       CellStyle styleNewLines = workbook.createCellStyle();
+       styleNewLines.setWrapText(true);
+
+       int rowNum = firstRow;
+       while (rows.hasNext())
+       {
+          Object[] values = rows.next();
+          Row r = sheet.createRow(rowNum);
+          
+          for (int colNum = 0; colNum < values.length; colNum++)
+          {
+             Cell c = r.createCell(colNum);
+             Object val = values[colNum];
+             
+             if (val == null)
+             {
+                // This property isn't set
+                c.setCellType(Cell.CELL_TYPE_BLANK);
+             }
+             else if (val instanceof String)
+             {
+                String v = (String)val;
+                c.setCellValue(v);
+                
+                int lines = countLines(v);
+                if (lines > 1)
+                {
+                   c.setCellStyle(styleNewLines);
+                   r.setHeightInPoints( Math.max(r.getHeightInPoints(), lines*sheet.getDefaultRowHeightInPoints()) );
+                }
+             }
+             else if (val instanceof Date)
+             {
+                c.setCellValue((Date)val);
+                c.setCellStyle(styleDate);
+             }
+             else if (val instanceof Integer || val instanceof Long)
+             {
+                c.setCellValue(((Number)val).doubleValue());
+                c.setCellStyle(styleInt);
+             }
+             else if (val instanceof Float || val instanceof Double)
+             {
+                c.setCellValue(((Number)val).doubleValue());
+                c.setCellStyle(styleDouble);
+             }
+             else
+             {
+                c.setCellValue(val.toString());
+             }
+          }
+          
+          rowNum++;
+       }
+       return rowNum - firstRow;
+    }
+    
+    private static int countLines(String text)
+    {
+       int lines = 1;
+       for (int i = 0; i < text.length(); i++)
+       {
+          if (text.charAt(i) == '\n')
+          {
+             lines++;
+          }
+       }
+       return lines;
+    }
+}
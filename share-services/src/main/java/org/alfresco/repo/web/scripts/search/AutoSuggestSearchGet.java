@@ -58,12 +58,21 @@ public class AutoSuggestSearchGet extends DeclarativeWebScript
     private static final String SUGGESTIONS = "suggestions";
 
     private SuggesterService suggesterService;
+    private SuggestionCache suggestionCache;
 
     public void setSuggesterService(SuggesterService suggesterService)
     {
         this.suggesterService = suggesterService;
     }
 
+    /**
+     * @param suggestionCache the cache of suggestions shared across requests, or null to always call the SuggesterService
+     */
+    public void setSuggestionCache(SuggestionCache suggestionCache)
+    {
+        this.suggestionCache = suggestionCache;
+    }
+
     @Override
     protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
     {
@@ -85,8 +94,16 @@ public class AutoSuggestSearchGet extends DeclarativeWebScript
             return model;
         }
 
-        SuggesterResult result = suggesterService.getSuggestions(new SuggesterParameters(term, limit, false));
-        List<Pair<String, Integer>> suggestedTerms = result.getSuggestions();
+        List<Pair<String, Integer>> suggestedTerms;
+        if (suggestionCache != null)
+        {
+            suggestedTerms = suggestionCache.getSuggestions(suggesterService, term, limit);
+        }
+        else
+        {
+            SuggesterResult result = suggesterService.getSuggestions(new SuggesterParameters(term, limit, false));
+            suggestedTerms = result.getSuggestions();
+        }
         for (Pair<String, Integer> pair : suggestedTerms)
         {
             list.add(new SearchSuggestionData(pair.getFirst(), pair.getSecond()));
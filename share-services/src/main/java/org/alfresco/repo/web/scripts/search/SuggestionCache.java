@@ -0,0 +1,452 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package org.alfresco.repo.web.scripts.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.service.cmr.search.SuggesterParameters;
+import org.alfresco.service.cmr.search.SuggesterResult;
+import org.alfresco.service.cmr.search.SuggesterService;
+import org.alfresco.util.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.util.I18NUtil;
+
+/**
+ * Cache of the term suggestions returned by the {@link SuggesterService}, shared by all the
+ * users of a tenant.
+ * <p>
+ * As users type, the same prefixes are requested over and over again. Suggestions are cached by
+ * tenant, locale, normalized prefix (trimmed, whitespace collapsed and lower cased - the suggester
+ * is called with a case insensitive term) and limit. When the suggester returns fewer suggestions
+ * than the limit the result is complete, and it is then also used to answer any longer prefix by
+ * filtering its suggestions, keeping their order. That relies on the suggester being a prefix
+ * suggester, so it can be switched off with {@link #setPrefixFiltering(boolean)}.
+ * <p>
+ * The cache is bounded by both the number of entries and their estimated size, with least recently
+ * used eviction, and each entry expires after a time-to-live as the suggestions change with the
+ * index. Concurrent requests for the same suggestions are coalesced into a single call to the
+ * suggester.
+ */
+public class SuggestionCache
+{
+    private static final Log logger = LogFactory.getLog(SuggestionCache.class);
+    
+    private static final String KEY_SEPARATOR = "\n";
+    private static final String COMPLETE = "*";
+    
+    /** Estimated bytes held for an entry and for each suggestion, in addition to their strings */
+    private static final int ENTRY_OVERHEAD = 160;
+    private static final int SUGGESTION_OVERHEAD = 64;
+    
+    private int maxEntries = 10000;
+    private long maxBytes = 16L * 1024 * 1024;
+    private long timeToLive = 300000L;
+    private boolean prefixFiltering = true;
+    private int minFilterPrefixLength = 1;
+    
+    private final LinkedHashMap<String, CachedSuggestions> entries = new LinkedHashMap<String, CachedSuggestions>(256, 0.75f, true);
+    private long bytes;
+    
+    private final ConcurrentHashMap<String, FutureTask<CachedSuggestions>> inFlight = new ConcurrentHashMap<String, FutureTask<CachedSuggestions>>();
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong filteredHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    
+    
+    /**
+     * @param maxEntries    Maximum number of cached results, zero to disable the cache
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @param maxBytes      Maximum estimated size in bytes of the cached results
+     */
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+    
+    /**
+     * @param timeToLive    Time-to-live of cached results in milliseconds
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * @param prefixFiltering   True to answer a prefix from the complete results of a shorter prefix
+     */
+    public void setPrefixFiltering(boolean prefixFiltering)
+    {
+        this.prefixFiltering = prefixFiltering;
+    }
+    
+    /**
+     * @param minFilterPrefixLength The length of the shortest prefix whose results may be filtered
+     */
+    public void setMinFilterPrefixLength(int minFilterPrefixLength)
+    {
+        this.minFilterPrefixLength = Math.max(1, minFilterPrefixLength);
+    }
+    
+    /**
+     * Get the suggestions for a term in the current tenant and locale, from the cache if possible.
+     * 
+     * @param suggesterService  The service to call on a cache miss
+     * @param term              The term typed by the user
+     * @param limit             The maximum number of suggestions, or -1 for the suggester default
+     * 
+     * @return the suggested terms and their weights, which must not be modified
+     */
+    public List<Pair<String, Integer>> getSuggestions(final SuggesterService suggesterService, final String term, final int limit)
+    {
+        if (this.maxEntries <= 0)
+        {
+            return callSuggester(suggesterService, term, limit).suggestions;
+        }
+        
+        Locale locale = I18NUtil.getLocale();
+        String prefix = normalize(term, locale);
+        String tenantLocale = TenantUtil.getCurrentDomain() + KEY_SEPARATOR + locale + KEY_SEPARATOR;
+        
+        List<Pair<String, Integer>> result = lookup(tenantLocale, prefix, limit, locale);
+        if (result != null)
+        {
+            return result;
+        }
+        
+        // Not cached - make the call, unless another request is already making it
+        final String key = tenantLocale + prefix + KEY_SEPARATOR + limit;
+        FutureTask<CachedSuggestions> task = new FutureTask<CachedSuggestions>(new Callable<CachedSuggestions>()
+        {
+            @Override
+            public CachedSuggestions call() throws Exception
+            {
+                return callSuggester(suggesterService, term, limit);
+            }
+        });
+        FutureTask<CachedSuggestions> existing = this.inFlight.putIfAbsent(key, task);
+        if (existing != null)
+        {
+            this.coalesced.incrementAndGet();
+            return await(existing).suggestions;
+        }
+        
+        this.misses.incrementAndGet();
+        try
+        {
+            task.run();
+            CachedSuggestions suggestions = await(task);
+            put(suggestions.complete ? tenantLocale + prefix + KEY_SEPARATOR + COMPLETE : key, suggestions);
+            return suggestions.suggestions;
+        }
+        finally
+        {
+            this.inFlight.remove(key);
+        }
+    }
+    
+    /**
+     * Find cached suggestions for a prefix, filtering the complete suggestions of a shorter prefix if need be.
+     */
+    private List<Pair<String, Integer>> lookup(String tenantLocale, String prefix, int limit, Locale locale)
+    {
+        CachedSuggestions cached = get(tenantLocale + prefix + KEY_SEPARATOR + limit);
+        if (cached == null)
+        {
+            cached = get(tenantLocale + prefix + KEY_SEPARATOR + COMPLETE);
+        }
+        if (cached != null)
+        {
+            this.hits.incrementAndGet();
+            return truncate(cached.suggestions, limit);
+        }
+        
+        if (this.prefixFiltering)
+        {
+            for (int length = prefix.length() - 1; length >= this.minFilterPrefixLength; length--)
+            {
+                cached = get(tenantLocale + prefix.substring(0, length) + KEY_SEPARATOR + COMPLETE);
+                if (cached != null)
+                {
+                    List<Pair<String, Integer>> filtered = new ArrayList<Pair<String, Integer>>();
+                    for (Pair<String, Integer> suggestion : cached.suggestions)
+                    {
+                        if (suggestion.getFirst() != null && normalize(suggestion.getFirst(), locale).startsWith(prefix))
+                        {
+                            filtered.add(suggestion);
+                            if (filtered.size() == limit)
+                            {
+                                break;
+                            }
+                        }
+                    }
+                    this.filteredHits.incrementAndGet();
+                    return Collections.unmodifiableList(filtered);
+                }
+            }
+        }
+        return null;
+    }
+    
+    private CachedSuggestions callSuggester(SuggesterService suggesterService, String term, int limit)
+    {
+        SuggesterResult result = suggesterService.getSuggestions(new SuggesterParameters(term, limit, false));
+        List<Pair<String, Integer>> suggestions = result.getSuggestions();
+        if (suggestions == null)
+        {
+            suggestions = Collections.emptyList();
+        }
+        // the suggester returned everything it had if it did not reach the limit
+        boolean complete = (limit > 0 && suggestions.size() < limit);
+        return new CachedSuggestions(Collections.unmodifiableList(new ArrayList<Pair<String, Integer>>(suggestions)), complete,
+                    System.currentTimeMillis() + this.timeToLive);
+    }
+    
+    private static CachedSuggestions await(FutureTask<CachedSuggestions> task)
+    {
+        try
+        {
+            return task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for suggestions", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            throw new IllegalStateException("Failed to get suggestions", cause);
+        }
+    }
+    
+    private CachedSuggestions get(String key)
+    {
+        synchronized (this.entries)
+        {
+            CachedSuggestions cached = this.entries.get(key);
+            if (cached != null && cached.expires <= System.currentTimeMillis())
+            {
+                this.entries.remove(key);
+                this.bytes -= cached.bytes + key.length() * 2;
+                cached = null;
+            }
+            return cached;
+        }
+    }
+    
+    private void put(String key, CachedSuggestions suggestions)
+    {
+        synchronized (this.entries)
+        {
+            CachedSuggestions previous = this.entries.put(key, suggestions);
+            if (previous != null)
+            {
+                this.bytes -= previous.bytes + key.length() * 2;
+            }
+            this.bytes += suggestions.bytes + key.length() * 2;
+            
+            for (Iterator<Map.Entry<String, CachedSuggestions>> iter = this.entries.entrySet().iterator();
+                 iter.hasNext() && (this.entries.size() > this.maxEntries || this.bytes > this.maxBytes); /**/)
+            {
+                Map.Entry<String, CachedSuggestions> eldest = iter.next();
+                iter.remove();
+                this.bytes -= eldest.getValue().bytes + eldest.getKey().length() * 2;
+                this.evictions.incrementAndGet();
+            }
+        }
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Cached " + suggestions.suggestions.size() + (suggestions.complete ? " (complete)" : "") +
+                         " suggestions for " + key.replace(KEY_SEPARATOR, "|") + " - " + this);
+    }
+    
+    private static List<Pair<String, Integer>> truncate(List<Pair<String, Integer>> suggestions, int limit)
+    {
+        return (limit > 0 && suggestions.size() > limit) ? suggestions.subList(0, limit) : suggestions;
+    }
+    
+    /**
+     * Normalize a term or suggestion for comparison - trim, collapse whitespace and lower case.
+     */
+    static String normalize(String term, Locale locale)
+    {
+        StringBuilder result = new StringBuilder(term.length());
+        boolean space = false;
+        for (int i = 0; i < term.length(); i++)
+        {
+            char c = term.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                space = result.length() != 0;
+            }
+            else
+            {
+                if (space)
+                {
+                    result.append(' ');
+                    space = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString().toLowerCase(locale);
+    }
+    
+    /**
+     * Invalidate all cached suggestions.
+     */
+    public void invalidateAll()
+    {
+        synchronized (this.entries)
+        {
+            this.entries.clear();
+            this.bytes = 0L;
+        }
+    }
+    
+    /**
+     * @return the number of cached results
+     */
+    public int getSize()
+    {
+        synchronized (this.entries)
+        {
+            return this.entries.size();
+        }
+    }
+    
+    /**
+     * @return the estimated size in bytes of the cached results
+     */
+    public long getBytes()
+    {
+        synchronized (this.entries)
+        {
+            return this.bytes;
+        }
+    }
+    
+    /**
+     * @return the number of requests answered by a cached result for the same prefix
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+    
+    /**
+     * @return the number of requests answered by filtering the complete result of a shorter prefix
+     */
+    public long getFilteredHits()
+    {
+        return this.filteredHits.get();
+    }
+    
+    /**
+     * @return the number of requests which called the suggester
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+    
+    /**
+     * @return the number of requests which waited for the same call made by a concurrent request
+     */
+    public long getCoalesced()
+    {
+        return this.coalesced.get();
+    }
+    
+    /**
+     * @return the number of results evicted to stay within the maximum entries and bytes
+     */
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "SuggestionCache[size=" + getSize() + ", bytes=" + getBytes() + ", hits=" + getHits() +
+               ", filteredHits=" + getFilteredHits() + ", misses=" + getMisses() + ", coalesced=" + getCoalesced() +
+               ", evictions=" + getEvictions() + "]";
+    }
+    
+    
+    /**
+     * The suggestions for a prefix, whether they are all the suggestions for it and when they expire.
+     */
+    private static class CachedSuggestions
+    {
+        final List<Pair<String, Integer>> suggestions;
+        final boolean complete;
+        final long expires;
+        /** estimated size, excluding the key */
+        final long bytes;
+        
+        CachedSuggestions(List<Pair<String, Integer>> suggestions, boolean complete, long expires)
+        {
+            this.suggestions = suggestions;
+            this.complete = complete;
+            this.expires = expires;
+            long size = ENTRY_OVERHEAD;
+            for (Pair<String, Integer> suggestion : suggestions)
+            {
+                size += SUGGESTION_OVERHEAD + (suggestion.getFirst() != null ? suggestion.getFirst().length() * 2 : 0);
+            }
+            this.bytes = size;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.site;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.security.permissions.AccessDeniedException;
+import org.alfresco.repo.site.SiteModel;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Resolves the site of a node, the site container it is in and its folder path within that
+ * container, in a single walk up the primary parent chain.
+ * <p>
+ * The location of every folder found on the way is cached, so the next node below any of them
+ * stops its walk there. Only folders are cached, and only when all of their ancestors up to the
+ * site are folders, as the cache is kept up to date by behaviours bound to <code>cm:folder</code>:
+ * the move, rename or deletion of a folder removes the entries of the folder and everything below
+ * it, at once and again once the transaction has committed. Entries also expire after a
+ * time-to-live, which bounds how long another cluster member can hold a stale location.
+ * <p>
+ * Locations are resolved and cached as the system user, so they do not depend on who asked first.
+ * A location is only returned if the current user can read the node and each of its ancestors up
+ * to the site, so the names of folders the user cannot see are never revealed through the path.
+ */
+public class SitePathCache implements NodeServicePolicies.OnMoveNodePolicy,
+                                      NodeServicePolicies.OnUpdatePropertiesPolicy,
+                                      NodeServicePolicies.BeforeDeleteNodePolicy
+{
+    private static final Log logger = LogFactory.getLog(SitePathCache.class);
+    
+    private static final String KEY_INVALIDATION = SitePathCache.class.getName() + ".invalidation";
+    
+    /** The location of a node that is not in a site */
+    private static final SiteLocation NO_SITE = new SiteLocation(null, null, null, new NodeRef[0]);
+    
+    private NodeService nodeService;
+    private DictionaryService dictionaryService;
+    private PermissionService permissionService;
+    private PolicyComponent policyComponent;
+    private int maxEntries = 5000;
+    private long timeToLive = 300000L;
+    
+    private final LinkedHashMap<NodeRef, SiteLocation> entries = new LinkedHashMap<NodeRef, SiteLocation>(256, 0.75f, true);
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    
+    
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+    
+    public void setDictionaryService(DictionaryService dictionaryService)
+    {
+        this.dictionaryService = dictionaryService;
+    }
+    
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+    
+    public void setPolicyComponent(PolicyComponent policyComponent)
+    {
+        this.policyComponent = policyComponent;
+    }
+    
+    /**
+     * @param maxEntries    Maximum number of cached folder locations, zero to disable the cache
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @param timeToLive    Time-to-live of cached folder locations in milliseconds
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * Init method. Binds the behaviours that invalidate the cache.
+     */
+    public void init()
+    {
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnMoveNodePolicy.QNAME,
+                ContentModel.TYPE_FOLDER, new JavaBehaviour(this, "onMoveNode"));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                ContentModel.TYPE_FOLDER, new JavaBehaviour(this, "onUpdateProperties"));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME,
+                ContentModel.TYPE_FOLDER, new JavaBehaviour(this, "beforeDeleteNode"));
+    }
+    
+    /**
+     * Get the location of a node.
+     * 
+     * @param nodeRef       The node, which must exist
+     * @return the location of the node, with a null site if it is not in a site
+     * @throws AccessDeniedException if the current user cannot read the node or one of its ancestors
+     */
+    public SiteLocation getLocation(final NodeRef nodeRef)
+    {
+        SiteLocation location = AuthenticationUtil.runAs(new RunAsWork<SiteLocation>()
+        {
+            public SiteLocation doWork() throws Exception
+            {
+                return resolve(nodeRef);
+            }
+        }, AuthenticationUtil.getSystemUserName());
+        
+        for (NodeRef ancestor : location.ancestors)
+        {
+            if (permissionService.hasPermission(ancestor, PermissionService.READ) != AccessStatus.ALLOWED)
+            {
+                throw new AccessDeniedException("Unable to read " + ancestor + " in the location of " + nodeRef);
+            }
+        }
+        return location;
+    }
+    
+    private SiteLocation resolve(NodeRef nodeRef)
+    {
+        // walk up until a cached location, a site or the root of the store
+        List<NodeRef> chain = new ArrayList<NodeRef>();
+        List<QName> types = new ArrayList<QName>();
+        SiteLocation base = null;
+        NodeRef current = nodeRef;
+        while (base == null)
+        {
+            base = get(current);
+            if (base == null)
+            {
+                QName type = nodeService.getType(current);
+                if (dictionaryService.isSubClass(type, SiteModel.TYPE_SITE))
+                {
+                    base = new SiteLocation(current, null, "", new NodeRef[] {current});
+                    put(current, base);
+                }
+                else
+                {
+                    NodeRef parent = nodeService.getPrimaryParent(current).getParentRef();
+                    if (parent == null)
+                    {
+                        base = NO_SITE;
+                    }
+                    else
+                    {
+                        chain.add(current);
+                        types.add(type);
+                        current = parent;
+                    }
+                }
+            }
+        }
+        
+        // then back down to the node, working out the location of each node from its parent
+        SiteLocation location = base;
+        boolean cacheable = true;
+        for (int i = chain.size() - 1; i >= 0; i--)
+        {
+            NodeRef node = chain.get(i);
+            location = location.child(node, location.siteContainer != null ? (String)nodeService.getProperty(node, ContentModel.PROP_NAME) : null);
+            cacheable = cacheable && dictionaryService.isSubClass(types.get(i), ContentModel.TYPE_FOLDER);
+            if (cacheable)
+            {
+                put(node, location);
+            }
+        }
+        return location;
+    }
+    
+    private synchronized SiteLocation get(NodeRef nodeRef)
+    {
+        SiteLocation location = this.entries.get(nodeRef);
+        if (location != null)
+        {
+            if (System.currentTimeMillis() - location.created < this.timeToLive)
+            {
+                this.hits.incrementAndGet();
+                return location;
+            }
+            this.entries.remove(nodeRef);
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+    
+    private synchronized void put(NodeRef nodeRef, SiteLocation location)
+    {
+        if (this.maxEntries > 0)
+        {
+            this.entries.put(nodeRef, location);
+            if (this.entries.size() > this.maxEntries)
+            {
+                Iterator<NodeRef> it = this.entries.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * @return true if the location of the node is cached, whether or not it has expired
+     */
+    synchronized boolean isCached(NodeRef nodeRef)
+    {
+        return this.entries.containsKey(nodeRef);
+    }
+    
+    /**
+     * Remove the location of a node and of every node below it.
+     * 
+     * @param nodeRef       The node that has been moved, renamed or deleted
+     */
+    public synchronized void invalidate(NodeRef nodeRef)
+    {
+        Iterator<SiteLocation> it = this.entries.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().hasAncestor(nodeRef))
+            {
+                it.remove();
+                this.invalidations.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Removes all the cached locations
+     */
+    public synchronized void invalidateAll()
+    {
+        this.entries.clear();
+    }
+    
+    @Override
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef)
+    {
+        invalidateOnCommit(newChildAssocRef.getChildRef());
+    }
+    
+    @Override
+    public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after)
+    {
+        Serializable nameBefore = before.get(ContentModel.PROP_NAME);
+        Serializable nameAfter = after.get(ContentModel.PROP_NAME);
+        if (nameBefore != null && !nameBefore.equals(nameAfter))
+        {
+            invalidateOnCommit(nodeRef);
+        }
+    }
+    
+    @Override
+    public void beforeDeleteNode(NodeRef nodeRef)
+    {
+        invalidateOnCommit(nodeRef);
+    }
+    
+    /**
+     * Invalidate now, so the transaction does not see the old location, and again after commit in
+     * case another transaction has cached the old location in the meantime.
+     */
+    private void invalidateOnCommit(NodeRef nodeRef)
+    {
+        invalidate(nodeRef);
+        
+        InvalidationListener listener = AlfrescoTransactionSupport.getResource(KEY_INVALIDATION);
+        if (listener == null)
+        {
+            listener = new InvalidationListener();
+            AlfrescoTransactionSupport.bindResource(KEY_INVALIDATION, listener);
+            AlfrescoTransactionSupport.bindListener(listener);
+        }
+        listener.nodeRefs.add(nodeRef);
+    }
+    
+    @Override
+    public String toString()
+    {
+        int size;
+        synchronized (this)
+        {
+            size = this.entries.size();
+        }
+        return "SitePathCache[size=" + size + ", hits=" + this.hits.get() + ", misses=" + this.misses.get() +
+               ", invalidations=" + this.invalidations.get() + "]";
+    }
+    
+    
+    /**
+     * Invalidates the nodes moved, renamed or deleted by a transaction once it has committed
+     */
+    private class InvalidationListener extends TransactionListenerAdapter
+    {
+        private final Set<NodeRef> nodeRefs = new HashSet<NodeRef>();
+        
+        @Override
+        public void afterCommit()
+        {
+            for (NodeRef nodeRef : this.nodeRefs)
+            {
+                invalidate(nodeRef);
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("Invalidated locations below " + this.nodeRefs.size() + " nodes: " + SitePathCache.this);
+        }
+    }
+    
+    /**
+     * The site of a node, the site container it is in and its path within the container.
+     */
+    public static final class SiteLocation
+    {
+        private final NodeRef siteNodeRef;
+        private final NodeRef siteContainer;
+        private final String path;
+        /** The node and its ancestors up to the site, whose changes can change the location */
+        private final NodeRef[] ancestors;
+        private final long created = System.currentTimeMillis();
+        
+        SiteLocation(NodeRef siteNodeRef, NodeRef siteContainer, String path, NodeRef[] ancestors)
+        {
+            this.siteNodeRef = siteNodeRef;
+            this.siteContainer = siteContainer;
+            this.path = path;
+            this.ancestors = ancestors;
+        }
+        
+        /**
+         * @param name      The name of the child, only needed below a site container
+         */
+        SiteLocation child(NodeRef child, String name)
+        {
+            NodeRef[] childAncestors = new NodeRef[this.ancestors.length + 1];
+            childAncestors[0] = child;
+            System.arraycopy(this.ancestors, 0, childAncestors, 1, this.ancestors.length);
+            if (this.siteNodeRef == null)
+            {
+                return new SiteLocation(null, null, null, childAncestors);
+            }
+            else if (this.siteContainer == null)
+            {
+                // the child of the site is a site container
+                return new SiteLocation(this.siteNodeRef, child, "", childAncestors);
+            }
+            return new SiteLocation(this.siteNodeRef, this.siteContainer, this.path + "/" + name, childAncestors);
+        }
+        
+        boolean hasAncestor(NodeRef nodeRef)
+        {
+            for (NodeRef ancestor : this.ancestors)
+            {
+                if (ancestor.equals(nodeRef))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * @return the site node, null if the node is not in a site
+         */
+        public NodeRef getSiteNodeRef()
+        {
+            return this.siteNodeRef;
+        }
+        
+        /**
+         * @return the site container the node is in, null if it is the site itself or not in a site
+         */
+        public NodeRef getSiteContainer()
+        {
+            return this.siteContainer;
+        }
+        
+        /**
+         * @return the folder path of the node within its site container e.g. /Docs/Beta, empty
+         *         for the site container and the site
+         */
+        public String getPath()
+        {
+            return this.path;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return "SiteLocation[site=" + this.siteNodeRef + ", container=" + this.siteContainer +
+                   ", path=" + this.path + ", ancestors=" + Arrays.toString(this.ancestors) + "]";
+        }
+    }
+}
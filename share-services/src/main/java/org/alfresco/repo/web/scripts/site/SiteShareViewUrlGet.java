@@ -25,11 +25,10 @@
  */
 package org.alfresco.repo.web.scripts.site;
 
+import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.alfresco.model.ContentModel;
@@ -37,10 +36,10 @@ import org.alfresco.model.DataListModel;
 import org.alfresco.model.ForumModel;
 import org.alfresco.repo.admin.SysAdminParams;
 import org.alfresco.repo.calendar.CalendarModel;
-import org.alfresco.repo.site.SiteModel;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.PermissionService;
 import org.alfresco.service.cmr.site.SiteInfo;
 import org.alfresco.service.cmr.site.SiteService;
 import org.alfresco.service.namespace.NamespaceService;
@@ -66,11 +65,22 @@ import org.springframework.extensions.webscripts.WebScriptRequest;
 public class SiteShareViewUrlGet extends DeclarativeWebScript
 {
     private static Log logger = LogFactory.getLog(SiteShareViewUrlGet.class);
+    
+    private static ThreadLocal<DateFormat> dateFormat = new ThreadLocal<DateFormat>()
+    {
+        @Override
+        protected DateFormat initialValue()
+        {
+            return new SimpleDateFormat("yyyy-MM-dd");
+        }
+    };
             
     protected NodeService nodeService;
     protected SiteService siteService;
     protected SysAdminParams sysAdminParams;
     protected DictionaryService dictionaryService;
+    protected PermissionService permissionService;
+    private SitePathCache sitePathCache;
 
     @Override
     protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
@@ -89,27 +99,11 @@ public class SiteShareViewUrlGet extends DeclarativeWebScript
         
         
         // Work out what site it's in, and what container in the site
+        SitePathCache.SiteLocation location = getSitePathCache().getLocation(nodeRef);
         SiteInfo site = null;
-        NodeRef siteContainer = null;
+        if (location.getSiteNodeRef() != null)
         {
-            NodeRef current = nodeRef;
-            NodeRef prev = null;
-            while (current != null)
-            {
-                // Are we at a site yet?
-                QName type = nodeService.getType(current);
-                if (dictionaryService.isSubClass(type, SiteModel.TYPE_SITE))
-                {
-                    // Found it!
-                    siteContainer = prev;
-                    site = siteService.getSite(current);
-                    break;
-                }
-                
-                // Step down
-                prev = current;
-                current = nodeService.getPrimaryParent(current).getParentRef();
-            }
+            site = siteService.getSite(location.getSiteNodeRef());
         }
         if (site == null)
             throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Node isn't part of a site");
@@ -128,15 +122,17 @@ public class SiteShareViewUrlGet extends DeclarativeWebScript
         model.put("type", nodeType);
         
         // Get the URL, and we're done
-        String page = identifySharePage(nodeRef, site, siteContainer, nodeType);
+        String page = identifySharePage(nodeRef, site, location, nodeType);
         model.put("url", baseUrl + page);
         
         return model;
     }
     
     private static QName TYPE_LINK = QName.createQName(NamespaceService.LINKS_MODEL_1_0_URI, "link");
-    protected String identifySharePage(NodeRef nodeRef, SiteInfo site, NodeRef siteContainer, QName nodeType)
+    protected String identifySharePage(NodeRef nodeRef, SiteInfo site, SitePathCache.SiteLocation location, QName nodeType)
     {
+        NodeRef siteContainer = location.getSiteContainer();
+        
         // Grab the name of the Node itself - often used for the URL
         String name = (String)nodeService.getProperty(nodeRef, ContentModel.PROP_NAME);
         
@@ -174,10 +170,9 @@ public class SiteShareViewUrlGet extends DeclarativeWebScript
         {
             // Find the date
             Date date = (Date)nodeService.getProperty(nodeRef, CalendarModel.PROP_FROM_DATE);
-            SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
             
             // Build the URL based on it
-            return "calendar?date=" + fmt.format(date);
+            return "calendar?date=" + dateFormat.get().format(date);
         }
         
         // Is it a discussions topic or post?
@@ -204,27 +199,13 @@ public class SiteShareViewUrlGet extends DeclarativeWebScript
         // Is it a normal folder?
         if (dictionaryService.isSubClass(nodeType, ContentModel.TYPE_FOLDER))
         {
-            // Need the path within the site
-            List<String> paths = new ArrayList<String>();
-            NodeRef current = nodeRef;
-            while (current != null && !current.equals(siteContainer) && !current.equals(site.getNodeRef()))
-            {
-                paths.add( (String)nodeService.getProperty(current, ContentModel.PROP_NAME) );
-                current = nodeService.getPrimaryParent(current).getParentRef();
-            }
-            
-            // Invert to build the path
-            StringBuilder path = new StringBuilder();
-            for (int i=paths.size()-1; i>=0; i--)
-            {
-                path.append('/');
-                path.append(paths.get(i));
-            }
+            // Need the path within the site, already resolved with the site
+            String path = location.getPath();
             
-            if (path.length() > 0)
+            if (path != null && path.length() > 0)
             {
                 // Becomes documentlibrary?path=/Docs/Beta
-                return "documentlibrary?path=" + path.toString();
+                return "documentlibrary?path=" + path;
             }
             else
             {
@@ -275,4 +256,31 @@ public class SiteShareViewUrlGet extends DeclarativeWebScript
     {
         this.dictionaryService = dictionaryService;
     }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setSitePathCache(SitePathCache sitePathCache)
+    {
+        this.sitePathCache = sitePathCache;
+    }
+
+    /**
+     * Returns the cache used to find the site and path of a node, an uncached one if none has been set
+     */
+    protected SitePathCache getSitePathCache()
+    {
+        if (sitePathCache == null)
+        {
+            SitePathCache uncached = new SitePathCache();
+            uncached.setNodeService(nodeService);
+            uncached.setDictionaryService(dictionaryService);
+            uncached.setPermissionService(permissionService);
+            uncached.setMaxEntries(0);
+            sitePathCache = uncached;
+        }
+        return sitePathCache;
+    }
 }
\ No newline at end of file
@@ -203,6 +203,32 @@ public abstract class AbstractWikiWebScript extends DeclarativeWebScript
        }
     }
     
+    /**
+     * Renders just the listing details of a page, without its contents,
+     *  tags or people, so none of those need to be loaded
+     */
+    protected Map<String, Object> renderWikiPageSummary(WikiPageInfo page)
+    {
+       Map<String, Object> res = new HashMap<>();
+       res.put("page", page);
+       res.put("node", page.getNodeRef());
+       res.put("name", page.getSystemName());
+       res.put("title", page.getTitle());
+       
+       // Both forms used for dates
+       res.put("createdOn", page.getCreatedAt());
+       res.put("modifiedOn", page.getModifiedAt());
+       res.put("created", page.getCreatedAt());
+       res.put("modified", page.getModifiedAt());
+       
+       // For most things, we want blank instead of null
+       for (Map.Entry<String, Object> entry : res.entrySet())
+       {
+           if (entry.getValue() == null) entry.setValue("");
+       }
+       return res;
+    }
+    
     protected Map<String, Object> renderWikiPage(WikiPageInfo page)
     {
        Map<String, Object> res = new HashMap<>();
@@ -112,34 +112,23 @@ public class WikiPageListGet extends AbstractWikiWebScript
       
       
       // Get the links for the list
+      // Only summaries are fetched, so the page contents are only read if rendered,
+      //  and the tags are only needed for the full listing
       PagingRequest paging = buildPagingRequest(req);
-      PagingResults<WikiPageInfo> pages;
-      if (userFiltering)
-      {
-         pages = wikiService.listWikiPages(site.getShortName(), user, paging);
-      }
-      else if (dateFiltering)
-      {
-         if (dateIsCreated)
-         {
-            pages = wikiService.listWikiPagesByCreated(site.getShortName(), from, to, paging);
-         }
-         else
-         {
-            pages = wikiService.listWikiPagesByModified(site.getShortName(), from, to, paging);
-         }
-      }
-      else
-      {
-         pages = wikiService.listWikiPages(site.getShortName(), paging);
-      }
+      Date createdFrom = (dateFiltering && dateIsCreated) ? from : null;
+      Date createdTo = (dateFiltering && dateIsCreated) ? to : null;
+      Date modifiedFrom = (dateFiltering && !dateIsCreated) ? from : null;
+      Date modifiedTo = (dateFiltering && !dateIsCreated) ? to : null;
+      PagingResults<WikiPageInfo> pages = wikiService.listWikiPageSummaries(
+            site.getShortName(), user, createdFrom, createdTo, modifiedFrom, modifiedTo, 
+            !pageMetaOnly, paging);
 
       
       // For each one in our page, grab details of any ignored instances
       List<Map<String,Object>> items = new ArrayList<Map<String,Object>>();
       for (WikiPageInfo page : pages.getPage())
       {
-         Map<String, Object> result = renderWikiPage(page);
+         Map<String, Object> result = pageMetaOnly ? renderWikiPageSummary(page) : renderWikiPage(page);
          items.add(result);
       }
       Map<String, Object> data = new HashMap<String, Object>();
@@ -186,7 +175,8 @@ public class WikiPageListGet extends AbstractWikiWebScript
          // We need to get all the wiki pages for "My Pages" filter otherwise 
          // the links for renamed wiki pages won't be rendered correctly, 
          // which were created by other users
-         pages = wikiService.listWikiPages(site.getShortName(), paging);
+         pages = wikiService.listWikiPageSummaries(
+               site.getShortName(), null, null, null, null, null, false, paging);
          List<String> pageTitles = new ArrayList<String>(pages.getPage().size());
          for (WikiPageInfo page : pages.getPage())
          {
@@ -27,6 +27,7 @@ package org.alfresco.repo.wiki;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -161,7 +162,41 @@ public class WikiServiceImpl implements WikiService
     private WikiPageInfo buildPage(NodeRef nodeRef, NodeRef container, String name, String preLoadedContents)
     {
        WikiPageInfoImpl page = new WikiPageInfoImpl(nodeRef, container, name);
+       populateProperties(page, nodeRef);
        
+       // Finally, do the content
+       String contents = preLoadedContents;
+       if (contents == null)
+       {
+          contents = readContents(contentService, nodeRef);
+       }
+       page.setContents(contents);
+       
+       // Finally tags
+       page.setTags(taggingService.getTags(nodeRef));
+       
+       // All done
+       return page;
+    }
+    
+    /**
+     * Builds a page for a listing, from the properties alone. The contents,
+     *  and the tags unless requested, are only fetched if they are asked for.
+     */
+    private WikiPageInfo buildPageSummary(NodeRef nodeRef, NodeRef container, String name, boolean includeTags)
+    {
+       WikiPageSummary page = new WikiPageSummary(nodeRef, container, name, contentService, taggingService);
+       populateProperties(page, nodeRef);
+       
+       if (includeTags)
+       {
+          page.setTags(taggingService.getTags(nodeRef));
+       }
+       return page;
+    }
+    
+    private void populateProperties(WikiPageInfoImpl page, NodeRef nodeRef)
+    {
        // Grab all the properties, we need the bulk of them anyway
        Map<QName,Serializable> props = nodeService.getProperties(nodeRef);
        
@@ -173,24 +208,16 @@ public class WikiServiceImpl implements WikiService
        
        // Now the wiki ones
        page.setTitle(((String)props.get(ContentModel.PROP_TITLE)).replaceAll(" ", "_"));
-       
-       // Finally, do the content
-       String contents = preLoadedContents;
-       if (contents == null)
+    }
+    
+    private static String readContents(ContentService contentService, NodeRef nodeRef)
+    {
+       ContentReader reader = contentService.getReader(nodeRef, ContentModel.PROP_CONTENT);
+       if (reader != null)
        {
-          ContentReader reader = contentService.getReader(nodeRef, ContentModel.PROP_CONTENT);
-          if (reader != null)
-          {
-             contents = reader.getContentString();
-          }
+          return reader.getContentString();
        }
-       page.setContents(contents);
-       
-       // Finally tags
-       page.setTags(taggingService.getTags(nodeRef));
-       
-       // All done
-       return page;
+       return null;
     }
     
     
@@ -336,6 +363,23 @@ public class WikiServiceImpl implements WikiService
 
     public PagingResults<WikiPageInfo> listWikiPages(String siteShortName, String username, 
           Date createdFrom, Date createdTo, Date modifiedFrom, Date modifiedTo, PagingRequest paging) 
+    {
+       return listWikiPages(siteShortName, username, createdFrom, createdTo, modifiedFrom, modifiedTo, 
+             false, false, paging);
+    }
+    
+    @Override
+    public PagingResults<WikiPageInfo> listWikiPageSummaries(String siteShortName, String username,
+          Date createdFrom, Date createdTo, Date modifiedFrom, Date modifiedTo, boolean includeTags, 
+          PagingRequest paging)
+    {
+       return listWikiPages(siteShortName, username, createdFrom, createdTo, modifiedFrom, modifiedTo, 
+             true, includeTags, paging);
+    }
+    
+    private PagingResults<WikiPageInfo> listWikiPages(String siteShortName, String username, 
+          Date createdFrom, Date createdTo, Date modifiedFrom, Date modifiedTo, 
+          boolean summaries, boolean includeTags, PagingRequest paging) 
     {
        NodeRef container = getSiteWikiContainer(siteShortName, false);
        if (container == null)
@@ -360,14 +404,15 @@ public class WikiServiceImpl implements WikiService
        CannedQueryResults<NodeBackedEntity> results = cq.execute();
        
        // Convert to Link objects
-       return wrap(results, container);
+       return wrap(results, container, summaries, includeTags);
     }
     
     /**
      * Our class to wrap up paged results of NodeBackedEntities as
-     *  WikiPageInfo instances
+     *  WikiPageInfo instances, which are built once on first request
      */
-    private PagingResults<WikiPageInfo> wrap(final PagingResults<NodeBackedEntity> results, final NodeRef container)
+    private PagingResults<WikiPageInfo> wrap(final PagingResults<NodeBackedEntity> results, final NodeRef container,
+          final boolean summaries, final boolean includeTags)
     {
        // Pre-load the nodes before we create them
        List<Long> ids = new ArrayList<Long>();
@@ -380,6 +425,8 @@ public class WikiServiceImpl implements WikiService
        // Wrap
        return new PagingResults<WikiPageInfo>()
        {
+           private List<WikiPageInfo> pages;
+           
            @Override
            public String getQueryExecutionId()
            {
@@ -389,12 +436,23 @@ public class WikiServiceImpl implements WikiService
            @Override
            public List<WikiPageInfo> getPage()
            {
-               List<WikiPageInfo> pages = new ArrayList<WikiPageInfo>();
-               for (NodeBackedEntity node : results.getPage())
+               if (pages == null)
                {
-                  NodeRef nodeRef = node.getNodeRef();
-                  String name = node.getName();
-                  pages.add(buildPage(nodeRef, container, name, null));
+                  List<WikiPageInfo> built = new ArrayList<WikiPageInfo>();
+                  for (NodeBackedEntity node : results.getPage())
+                  {
+                     NodeRef nodeRef = node.getNodeRef();
+                     String name = node.getName();
+                     if (summaries)
+                     {
+                        built.add(buildPageSummary(nodeRef, container, name, includeTags));
+                     }
+                     else
+                     {
+                        built.add(buildPage(nodeRef, container, name, null));
+                     }
+                  }
+                  pages = Collections.unmodifiableList(built);
                }
                return pages;
            }
@@ -412,4 +470,60 @@ public class WikiServiceImpl implements WikiService
            }
        };
     }
+    
+    /**
+     * A {@link WikiPageInfo} built for a listing, which only reads the
+     *  page contents and tags from the repository when first asked for them
+     */
+    private static class WikiPageSummary extends WikiPageInfoImpl
+    {
+       private transient ContentService contentService;
+       private transient TaggingService taggingService;
+       private boolean contentsLoaded = false;
+       private boolean tagsLoaded = false;
+       
+       private WikiPageSummary(NodeRef nodeRef, NodeRef containerNodeRef, String systemName,
+             ContentService contentService, TaggingService taggingService)
+       {
+          super(nodeRef, containerNodeRef, systemName);
+          this.contentService = contentService;
+          this.taggingService = taggingService;
+       }
+       
+       @Override
+       public String getContents()
+       {
+          if (!contentsLoaded && contentService != null)
+          {
+             super.setContents(readContents(contentService, getNodeRef()));
+             contentsLoaded = true;
+          }
+          return super.getContents();
+       }
+       
+       @Override
+       public void setContents(String contents)
+       {
+          super.setContents(contents);
+          contentsLoaded = true;
+       }
+       
+       @Override
+       public List<String> getTags()
+       {
+          if (!tagsLoaded && taggingService != null)
+          {
+             super.setTags(taggingService.getTags(getNodeRef()));
+             tagsLoaded = true;
+          }
+          return super.getTags();
+       }
+       
+       @Override
+       public void setTags(List<String> tags)
+       {
+          super.setTags(tags);
+          tagsLoaded = true;
+       }
+    }
 }
@@ -95,4 +95,18 @@ public interface WikiService
     */
    @NotAuditable
    PagingResults<WikiPageInfo> listWikiPagesByModified(String siteShortName, Date from, Date to, PagingRequest paging);
+
+   /**
+    * Retrieves lightweight {@link WikiPageInfo} summaries for listing the
+    *  given site, optionally restricted to a creator and to created and 
+    *  modified date ranges (any of which may be null).
+    * The summaries are built from the page properties alone. The contents of
+    *  a page are only read if {@link WikiPageInfo#getContents()} is called, 
+    *  and its tags are only fetched up-front if includeTags is set, otherwise
+    *  when first requested.
+    */
+   @NotAuditable
+   PagingResults<WikiPageInfo> listWikiPageSummaries(String siteShortName, String user, 
+         Date createdFrom, Date createdTo, Date modifiedFrom, Date modifiedTo, 
+         boolean includeTags, PagingRequest paging);
 }
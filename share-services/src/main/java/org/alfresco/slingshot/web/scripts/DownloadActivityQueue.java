@@ -0,0 +1,428 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package org.alfresco.slingshot.web.scripts;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.Client;
+import org.alfresco.repo.Client.ClientType;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.activities.ActivityPoster;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Queue of the "document downloaded" activities of {@link SlingshotContentGet}, posted in the
+ * background so a download does not wait for a write transaction before its content is streamed.
+ * <p>
+ * Downloads add an event to a bounded in-memory queue. A worker thread takes the events that are
+ * waiting, drops duplicates - the same user downloading the same document in the same site - and
+ * posts the rest in a single transaction, each as the user that downloaded the document. If the
+ * transaction fails the events of the batch are posted one transaction at a time, so one bad
+ * event does not lose the others.
+ * <p>
+ * When the queue is full the event is either discarded or posted by the caller as before, see
+ * {@link #setOverflowPolicy(String)}. On shutdown the events still queued are posted before the
+ * worker stops, for at most {@link #setShutdownTimeout(long)} milliseconds.
+ */
+public class DownloadActivityQueue
+{
+    private static final Log logger = LogFactory.getLog(DownloadActivityQueue.class);
+    
+    /** Discard an event that does not fit in the queue */
+    public static final String OVERFLOW_DISCARD = "discard";
+    /** Post an event that does not fit in the queue in the calling thread */
+    public static final String OVERFLOW_CALLER_POSTS = "callerPosts";
+    
+    private ActivityPoster poster;
+    private RetryingTransactionHelper transactionHelper;
+    private int capacity = 10000;
+    private int batchSize = 100;
+    private long shutdownTimeout = 10000L;
+    private String overflowPolicy = OVERFLOW_DISCARD;
+    
+    private BlockingQueue<DownloadActivity> queue;
+    private volatile Thread worker;
+    private volatile boolean abandoned;
+    
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong callerPosted = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    
+    
+    public void setPoster(ActivityPoster poster)
+    {
+        this.poster = poster;
+    }
+    
+    public void setTransactionHelper(RetryingTransactionHelper transactionHelper)
+    {
+        this.transactionHelper = transactionHelper;
+    }
+    
+    /**
+     * @param capacity      Maximum number of events waiting to be posted
+     */
+    public void setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+    }
+    
+    /**
+     * @param batchSize     Maximum number of events posted in a single transaction
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = Math.max(1, batchSize);
+    }
+    
+    /**
+     * @param shutdownTimeout   Time in milliseconds allowed to post the queued events on shutdown
+     */
+    public void setShutdownTimeout(long shutdownTimeout)
+    {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+    
+    /**
+     * @param overflowPolicy    What to do with an event when the queue is full, either
+     *                          {@link #OVERFLOW_DISCARD} or {@link #OVERFLOW_CALLER_POSTS}
+     */
+    public void setOverflowPolicy(String overflowPolicy)
+    {
+        if (!OVERFLOW_DISCARD.equals(overflowPolicy) && !OVERFLOW_CALLER_POSTS.equals(overflowPolicy))
+        {
+            throw new IllegalArgumentException("Unknown overflow policy: " + overflowPolicy);
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * Start the worker that posts the queued events
+     */
+    public synchronized void init()
+    {
+        if (this.worker == null)
+        {
+            this.queue = new LinkedBlockingQueue<DownloadActivity>(this.capacity);
+            this.abandoned = false;
+            Thread thread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    processQueue();
+                }
+            }, "Share download activity poster");
+            thread.setDaemon(true);
+            this.worker = thread;
+            thread.start();
+        }
+    }
+    
+    /**
+     * Stop the worker, once the queued events have been posted or the shutdown timeout has passed
+     */
+    public synchronized void destroy()
+    {
+        Thread thread = this.worker;
+        this.worker = null;
+        if (thread != null)
+        {
+            thread.interrupt();
+            try
+            {
+                thread.join(this.shutdownTimeout);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive())
+            {
+                this.abandoned = true;
+                logger.warn("Stopped with " + this.queue.size() + " download activities not posted");
+            }
+        }
+    }
+    
+    /**
+     * Queue a download activity, to be posted as the given user. The activity is posted by the
+     * caller if the worker is not running.
+     * 
+     * @param userName      The user that downloaded the document
+     * @param siteName      The short name of the site of the document
+     * @param nodeRef       The document
+     * @param filename      The name of the document
+     */
+    public void add(String userName, String siteName, NodeRef nodeRef, String filename)
+    {
+        DownloadActivity activity = new DownloadActivity(userName, siteName, nodeRef, filename);
+        if (this.worker != null && this.queue.offer(activity))
+        {
+            this.queued.incrementAndGet();
+        }
+        else if (this.worker == null || OVERFLOW_CALLER_POSTS.equals(this.overflowPolicy))
+        {
+            this.callerPosted.incrementAndGet();
+            postInTransaction(activity);
+        }
+        else
+        {
+            // only the first event lost is logged as a warning, as the queue stays full under load
+            if (this.discarded.incrementAndGet() == 1)
+            {
+                logger.warn("Download activity queue is full, discarding activities: " + this);
+            }
+            else if (logger.isDebugEnabled())
+            {
+                logger.debug("Discarded download activity: " + activity);
+            }
+        }
+    }
+    
+    /**
+     * @return the number of events waiting to be posted
+     */
+    public int getQueueSize()
+    {
+        return this.worker != null ? this.queue.size() : 0;
+    }
+    
+    public long getQueued()
+    {
+        return this.queued.get();
+    }
+    
+    public long getCoalesced()
+    {
+        return this.coalesced.get();
+    }
+    
+    public long getPosted()
+    {
+        return this.posted.get();
+    }
+    
+    public long getDiscarded()
+    {
+        return this.discarded.get();
+    }
+    
+    public long getFailed()
+    {
+        return this.failed.get();
+    }
+    
+    private void processQueue()
+    {
+        Thread thisThread = Thread.currentThread();
+        List<DownloadActivity> batch = new ArrayList<DownloadActivity>(this.batchSize);
+        while (true)
+        {
+            boolean running = (this.worker == thisThread);
+            if (!running && (this.queue.isEmpty() || this.abandoned))
+            {
+                break;
+            }
+            try
+            {
+                if (running)
+                {
+                    batch.add(this.queue.take());
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // stopping, carry on until the queue is empty
+                continue;
+            }
+            // clear a stop request that arrived since, so it does not abort the transaction
+            Thread.interrupted();
+            this.queue.drainTo(batch, this.batchSize - batch.size());
+            if (!batch.isEmpty())
+            {
+                postBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+    
+    private void postBatch(List<DownloadActivity> batch)
+    {
+        // the events are equal when they would post the same activity
+        final Set<DownloadActivity> activities = new LinkedHashSet<DownloadActivity>(batch);
+        this.coalesced.addAndGet(batch.size() - activities.size());
+        this.batches.incrementAndGet();
+        try
+        {
+            this.transactionHelper.doInTransaction(new RetryingTransactionCallback<Void>()
+            {
+                @Override
+                public Void execute() throws Throwable
+                {
+                    for (DownloadActivity activity : activities)
+                    {
+                        post(activity);
+                    }
+                    return null;
+                }
+            }, false, true);
+            this.posted.addAndGet(activities.size());
+        }
+        catch (Throwable e)
+        {
+            if (activities.size() == 1)
+            {
+                this.failed.incrementAndGet();
+                logger.error("Failed to post download activity: " + activities.iterator().next(), e);
+            }
+            else
+            {
+                logger.warn("Failed to post a batch of " + activities.size() + " download activities, posting them individually", e);
+                for (DownloadActivity activity : activities)
+                {
+                    try
+                    {
+                        postInTransaction(activity);
+                    }
+                    catch (Throwable ex)
+                    {
+                        this.failed.incrementAndGet();
+                        logger.error("Failed to post download activity: " + activity, ex);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void postInTransaction(final DownloadActivity activity)
+    {
+        this.transactionHelper.doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                post(activity);
+                return null;
+            }
+        }, false, true);
+        this.posted.incrementAndGet();
+    }
+    
+    /**
+     * Post an activity as the user that downloaded the document - mirror the mechanism as if from the Share application
+     */
+    protected void post(final DownloadActivity activity)
+    {
+        AuthenticationUtil.runAs(new RunAsWork<Void>()
+        {
+            public Void doWork() throws Exception
+            {
+                poster.postFileFolderActivity(ActivityPoster.DOWNLOADED, null, null,
+                        activity.siteName, null, activity.nodeRef, activity.filename, "documentlibrary", Client.asType(ClientType.webclient), null);
+                return null;
+            }
+        }, activity.userName);
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "DownloadActivityQueue[size=" + getQueueSize() + ", queued=" + this.queued.get() +
+               ", coalesced=" + this.coalesced.get() + ", posted=" + this.posted.get() +
+               ", callerPosted=" + this.callerPosted.get() + ", discarded=" + this.discarded.get() +
+               ", failed=" + this.failed.get() + ", batches=" + this.batches.get() + "]";
+    }
+    
+    
+    /**
+     * A download to post as an activity
+     */
+    protected static final class DownloadActivity
+    {
+        final String userName;
+        final String siteName;
+        final NodeRef nodeRef;
+        final String filename;
+        
+        DownloadActivity(String userName, String siteName, NodeRef nodeRef, String filename)
+        {
+            this.userName = userName;
+            this.siteName = siteName;
+            this.nodeRef = nodeRef;
+            this.filename = filename;
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof DownloadActivity))
+            {
+                return false;
+            }
+            DownloadActivity other = (DownloadActivity)obj;
+            return equal(this.userName, other.userName) && equal(this.siteName, other.siteName) &&
+                   equal(this.nodeRef, other.nodeRef) && equal(this.filename, other.filename);
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return (this.nodeRef != null ? this.nodeRef.hashCode() : 0) * 31 + (this.userName != null ? this.userName.hashCode() : 0);
+        }
+        
+        private static boolean equal(Object a, Object b)
+        {
+            return a == null ? b == null : a.equals(b);
+        }
+        
+        @Override
+        public String toString()
+        {
+            return "DownloadActivity[user=" + this.userName + ", site=" + this.siteName + ", node=" + this.nodeRef + "]";
+        }
+    }
+}
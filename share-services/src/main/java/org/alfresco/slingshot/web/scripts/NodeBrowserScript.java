@@ -27,7 +27,10 @@ package org.alfresco.slingshot.web.scripts;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,7 +42,9 @@ import org.alfresco.repo.web.scripts.admin.NodeBrowserPost;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.StoreRef;
 import org.alfresco.service.cmr.search.LimitBy;
+import org.alfresco.service.cmr.search.ResultSet;
 import org.alfresco.service.cmr.search.SearchParameters;
+import org.apache.commons.codec.binary.Base64;
 import org.springframework.extensions.webscripts.Cache;
 import org.springframework.extensions.webscripts.Status;
 import org.springframework.extensions.webscripts.WebScriptException;
@@ -56,7 +61,16 @@ public class NodeBrowserScript extends NodeBrowserPost implements Serializable
 {
     private static final long serialVersionUID = 48743409337475896L;
 
-    private Long searchElapsedTime = null;
+    /** The most rows returned by a search, whatever the page size requested */
+    private int maxResultsCap = 1000;
+
+    /**
+     * @param maxResultsCap the most rows returned in a single page of search results
+     */
+    public void setMaxResultsCap(int maxResultsCap)
+    {
+        this.maxResultsCap = maxResultsCap;
+    }
 
     /**
      * Action to submit search
@@ -64,21 +78,32 @@ public class NodeBrowserScript extends NodeBrowserPost implements Serializable
      * @return next action
      */
     public List<Node> submitSearch(final String store, final String query, final String queryLanguage, final int maxResults) throws IOException
+    {
+        return search(store, query, queryLanguage, 0, maxResults).getResults();
+    }
+
+    /**
+     * Search for a page of nodes. Only the NodeRefs are retrieved by the search, the nodes
+     * are resolved one at a time as the results are iterated e.g. as they are written to the
+     * response, so a page is never held in memory in full.
+     * 
+     * @param skipCount the number of results to skip
+     * @param maxItems the page size, capped at the maximum result cap - zero or less for the cap
+     * @return the page of results with the time taken by the search
+     */
+    public SearchResults search(final String store, final String query, final String queryLanguage, final int skipCount, final int maxItems) throws IOException
     {
         long start = System.currentTimeMillis();
-    	final StoreRef storeRef = new StoreRef(store);
-        RetryingTransactionCallback<List<Node>> searchCallback = new RetryingTransactionCallback<List<Node>>()
+        final StoreRef storeRef = new StoreRef(store);
+        final int pageSize = (maxItems > 0 && maxItems < this.maxResultsCap) ? maxItems : this.maxResultsCap;
+        RetryingTransactionCallback<List<NodeRef>> searchCallback = new RetryingTransactionCallback<List<NodeRef>>()
         {
-            public List<Node> execute() throws Throwable
+            public List<NodeRef> execute() throws Throwable
             {
-                List<Node> searchResults = null;
-                
                 if (queryLanguage.equals("storeroot"))
                 {
                     NodeRef rootNodeRef = getNodeService().getRootNode(storeRef);
-                    searchResults = new ArrayList<Node>(1);
-                    searchResults.add(new Node(rootNodeRef));
-                    return searchResults;
+                    return Collections.singletonList(rootNodeRef);
                 }
                 else if (queryLanguage.equals("noderef"))
                 {
@@ -89,35 +114,34 @@ public class NodeBrowserScript extends NodeBrowserPost implements Serializable
                     {
                         throw new WebScriptException(500, "Node " + nodeRef + " does not exist.");
                     }
-                    searchResults = new ArrayList<Node>(1);
-                    searchResults.add(new Node(nodeRef));
-                    return searchResults;
+                    return Collections.singletonList(nodeRef);
                 }
                 SearchParameters sp = new SearchParameters();
                 sp.addStore(storeRef);
                 sp.setLanguage(queryLanguage);
                 sp.setQuery(query);
-                if (maxResults > 0)
-                {
-                    sp.setLimit(maxResults);
-                    sp.setLimitBy(LimitBy.FINAL_SIZE);
-                }
+                // one more than the page, to find out whether there are more results
+                sp.setSkipCount(skipCount);
+                sp.setMaxItems(pageSize + 1);
+                sp.setLimit(skipCount + pageSize + 1);
+                sp.setLimitBy(LimitBy.FINAL_SIZE);
 
                 // perform search
-                List<NodeRef> nodeRefs = getSearchService().query(sp).getNodeRefs();
-                searchResults = new ArrayList<Node>(nodeRefs.size());
-                for (NodeRef nodeRef : nodeRefs) {
-                	searchResults.add(new Node(nodeRef));
-				}
-                return searchResults;
+                return queryNodeRefs(sp);
             }
         };
 
         try
         {
-            List<Node> results = getTransactionService().getRetryingTransactionHelper().doInTransaction(searchCallback, true);
-            this.searchElapsedTime = System.currentTimeMillis() - start;
-            return results;
+            List<NodeRef> nodeRefs = getTransactionService().getRetryingTransactionHelper().doInTransaction(searchCallback, true);
+            boolean hasMoreItems = nodeRefs.size() > pageSize;
+            if (hasMoreItems)
+            {
+                nodeRefs = nodeRefs.subList(0, pageSize);
+            }
+            String nextPageToken = hasMoreItems ? encodePageToken(store, query, queryLanguage, skipCount + pageSize) : null;
+            return new SearchResults(new NodeList(nodeRefs), skipCount, pageSize, hasMoreItems, nextPageToken,
+                    System.currentTimeMillis() - start);
         }
         catch (Throwable e)
         {
@@ -126,11 +150,76 @@ public class NodeBrowserScript extends NodeBrowserPost implements Serializable
     }
 
     /**
-     * @return the searchElapsedTime
+     * Run the search, returning the NodeRefs of the results
+     */
+    protected List<NodeRef> queryNodeRefs(SearchParameters sp)
+    {
+        ResultSet results = getSearchService().query(sp);
+        try
+        {
+            return new ArrayList<NodeRef>(results.getNodeRefs());
+        }
+        finally
+        {
+            results.close();
+        }
+    }
+
+    /**
+     * Encode the token used to continue a search from the given number of results. The token
+     * includes a hash of the search, so it cannot be used to continue a different search.
+     */
+    static String encodePageToken(String store, String query, String queryLanguage, int skipCount)
+    {
+        String token = skipCount + ":" + Integer.toHexString(searchHash(store, query, queryLanguage));
+        return Base64.encodeBase64URLSafeString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a token from {@link #encodePageToken(String, String, String, int)}.
+     * 
+     * @return the number of results to skip, or -1 if the token is not valid for the search or
+     *         its skip count is negative
      */
-    protected Long getSearchElapsedTime()
+    static int decodePageToken(String token, String store, String query, String queryLanguage)
+    {
+        String decoded = new String(Base64.decodeBase64(token), StandardCharsets.UTF_8);
+        int idx = decoded.indexOf(':');
+        if (idx > 0 && decoded.substring(idx + 1).equals(Integer.toHexString(searchHash(store, query, queryLanguage))))
+        {
+            try
+            {
+                int skipCount = Integer.parseInt(decoded.substring(0, idx));
+                if (skipCount >= 0)
+                {
+                    return skipCount;
+                }
+            }
+            catch (NumberFormatException ex)
+            {
+            }
+        }
+        return -1;
+    }
+
+    private static int searchHash(String store, String query, String queryLanguage)
+    {
+        return (store + "\n" + queryLanguage + "\n" + query).hashCode();
+    }
+
+    private static int parseInt(String value, int defaultValue)
     {
-        return this.searchElapsedTime;
+        if (value != null)
+        {
+            try
+            {
+                return Integer.parseInt(value);
+            }
+            catch (NumberFormatException ex)
+            {
+            }
+        }
+        return defaultValue;
     }
 
     @Override
@@ -138,8 +227,7 @@ public class NodeBrowserScript extends NodeBrowserPost implements Serializable
     {
     	if (req.getPathInfo().equals("/slingshot/node/search"))
     	{
-    		List<Node> nodes;
-    		Map<String, Object> tmplMap = new HashMap<String, Object>(1);
+    		Map<String, Object> tmplMap = new HashMap<String, Object>(4);
 			try
 			{
 				if (req.getParameter("store") == null || req.getParameter("store").length() == 0)
@@ -164,18 +252,26 @@ public class NodeBrowserScript extends NodeBrowserPost implements Serializable
 					return null;
 				}
 
-                int maxResult = 0;
-                try
-                {
-                    maxResult = Integer.parseInt(req.getParameter("maxResults"));
-                }
-                catch (NumberFormatException ex)
+                // maxResults is the original name of the page size
+                int maxItems = parseInt(req.getParameter("maxItems"), parseInt(req.getParameter("maxResults"), 0));
+                int skipCount = Math.max(0, parseInt(req.getParameter("skipCount"), 0));
+                String pageToken = req.getParameter("pageToken");
+                if (pageToken != null && pageToken.length() != 0)
                 {
+                    skipCount = decodePageToken(pageToken, req.getParameter("store"), req.getParameter("q"), req.getParameter("lang"));
+                    if (skipCount == -1)
+                    {
+                        status.setCode(HttpServletResponse.SC_BAD_REQUEST);
+                        status.setMessage("Page token is not valid for this search");
+                        status.setRedirect(true);
+                        return null;
+                    }
                 }
 
-				nodes = submitSearch(req.getParameter("store"), req.getParameter("q"), req.getParameter("lang"), maxResult);
-	    		tmplMap.put("results", nodes);
-	    		tmplMap.put("searchElapsedTime", getSearchElapsedTime());
+				SearchResults results = search(req.getParameter("store"), req.getParameter("q"), req.getParameter("lang"), skipCount, maxItems);
+	    		tmplMap.put("results", results.getResults());
+	    		tmplMap.put("paging", results);
+	    		tmplMap.put("searchElapsedTime", results.getSearchElapsedTime());
 			}
 			catch (IOException e)
 			{
@@ -224,4 +320,95 @@ public class NodeBrowserScript extends NodeBrowserPost implements Serializable
     		return model;
     	}
     }
+
+    /**
+     * A page of search results with the time taken by the search. Returned by each search
+     * rather than held by the web script, which is shared by concurrent requests.
+     */
+    public static class SearchResults
+    {
+        private final List<Node> results;
+        private final int skipCount;
+        private final int maxItems;
+        private final boolean hasMoreItems;
+        private final String nextPageToken;
+        private final long searchElapsedTime;
+
+        SearchResults(List<Node> results, int skipCount, int maxItems, boolean hasMoreItems, String nextPageToken, long searchElapsedTime)
+        {
+            this.results = results;
+            this.skipCount = skipCount;
+            this.maxItems = maxItems;
+            this.hasMoreItems = hasMoreItems;
+            this.nextPageToken = nextPageToken;
+            this.searchElapsedTime = searchElapsedTime;
+        }
+
+        /**
+         * @return the nodes of the page, resolved as they are accessed
+         */
+        public List<Node> getResults()
+        {
+            return this.results;
+        }
+
+        public int getSkipCount()
+        {
+            return this.skipCount;
+        }
+
+        /**
+         * @return the page size after the result cap has been applied
+         */
+        public int getMaxItems()
+        {
+            return this.maxItems;
+        }
+
+        public boolean getHasMoreItems()
+        {
+            return this.hasMoreItems;
+        }
+
+        /**
+         * @return the token to pass as the pageToken parameter for the next page, null if this is the last page
+         */
+        public String getNextPageToken()
+        {
+            return this.nextPageToken;
+        }
+
+        /**
+         * @return the time taken by the search in milliseconds
+         */
+        public long getSearchElapsedTime()
+        {
+            return this.searchElapsedTime;
+        }
+    }
+
+    /**
+     * List of the nodes of a page of results, each created from its NodeRef when accessed.
+     */
+    private class NodeList extends AbstractList<Node>
+    {
+        private final List<NodeRef> nodeRefs;
+
+        NodeList(List<NodeRef> nodeRefs)
+        {
+            this.nodeRefs = nodeRefs;
+        }
+
+        @Override
+        public Node get(int index)
+        {
+            return new Node(this.nodeRefs.get(index));
+        }
+
+        @Override
+        public int size()
+        {
+            return this.nodeRefs.size();
+        }
+    }
 }
@@ -31,6 +31,7 @@ import java.util.Map;
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.Client;
 import org.alfresco.repo.Client.ClientType;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.permissions.AccessDeniedException;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
@@ -50,6 +51,8 @@ import org.springframework.extensions.webscripts.WebScriptResponse;
  * b) the requested NodeRef within the context of a Share Site
  * <p>
  * If both tests are true then generates an Activity feed item to record the Download request.
+ * The activity is posted in the background by the {@link DownloadActivityQueue} when one is set,
+ * so the content is streamed without waiting for the activity to be saved.
  * All other requests and any further processing is performed by the super class.
  *
  * @author Kevin Roast
@@ -59,6 +62,7 @@ public class SlingshotContentGet extends ContentGet
     protected SiteService siteService;
     private ActivityPoster poster;
     private RetryingTransactionHelper transactionHelper;
+    private DownloadActivityQueue activityQueue;
 
     public void setSiteService(SiteService siteService)
     {
@@ -75,6 +79,11 @@ public class SlingshotContentGet extends ContentGet
         this.transactionHelper = transactionHelper;
     }
 
+    public void setActivityQueue(DownloadActivityQueue activityQueue)
+    {
+        this.activityQueue = activityQueue;
+    }
+
 
     @Override
     public void execute(final WebScriptRequest req, final WebScriptResponse res) throws IOException
@@ -82,7 +91,7 @@ public class SlingshotContentGet extends ContentGet
         // are we downloading content as an attachment?
         if (Boolean.valueOf(req.getParameter("a")))
         {
-            // is this    private ActivityPoster poster; node part of a Site context?
+            // is this node part of a Site context?
             Map<String, String> templateVars = req.getServiceMatch().getTemplateVars();
             String storeType = templateVars.get("store_type");
             String storeId = templateVars.get("store_id");
@@ -121,17 +130,24 @@ public class SlingshotContentGet extends ContentGet
                     }
                     final String strFilename = filename;
                     final String siteName = site.getShortName();
-                    transactionHelper.doInTransaction(new RetryingTransactionCallback<Void>()
+                    if (activityQueue != null)
                     {
-                        @Override
-                        public Void execute() throws Throwable
+                        activityQueue.add(AuthenticationUtil.getFullyAuthenticatedUser(), siteName, nodeRef, strFilename);
+                    }
+                    else
+                    {
+                        transactionHelper.doInTransaction(new RetryingTransactionCallback<Void>()
                         {
-                            // post an activity - mirror the mechanism as if from the Share application
-                            poster.postFileFolderActivity(ActivityPoster.DOWNLOADED, null, null,
-                                    siteName, null, nodeRef, strFilename, "documentlibrary", Client.asType(ClientType.webclient), null);
-                            return null;
-                        }
-                    }, false, true);
+                            @Override
+                            public Void execute() throws Throwable
+                            {
+                                // post an activity - mirror the mechanism as if from the Share application
+                                poster.postFileFolderActivity(ActivityPoster.DOWNLOADED, null, null,
+                                        siteName, null, nodeRef, strFilename, "documentlibrary", Client.asType(ClientType.webclient), null);
+                                return null;
+                            }
+                        }, false, true);
+                    }
                 }
             }
         }
@@ -0,0 +1 @@
+<#-- Must not have a newline or any other contents! --><#if writeExport??>${writeExport.write()}<#else>${csv}</#if>
\ No newline at end of file
@@ -1 +1 @@
-<#-- Must not have a newline or any other contents! -->${writeExcel.write()}
\ No newline at end of file
+<#-- Must not have a newline or any other contents! --><#if writeExport??>${writeExport.write()}<#else>${writeExcel.write()}</#if>
\ No newline at end of file
@@ -198,6 +198,14 @@
       }<#if result_has_next>,</#if>
    </#list>
    ],
+   <#if paging??>
+   "paging": {
+      "skipCount": ${paging.skipCount?c},
+      "maxItems": ${paging.maxItems?c},
+      "hasMoreItems": ${paging.hasMoreItems?string},
+      "nextPageToken": <#if paging.nextPageToken??>"${paging.nextPageToken}"<#else>null</#if>
+   },
+   </#if>
    "searchElapsedTime": ${(searchElapsedTime!0)?c}
    <#elseif stores??>
    "stores": [
@@ -0,0 +1,225 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.datalist;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.model.DataListModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.site.SiteModel;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.web.scripts.BaseWebScriptTest;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.PersonService;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.cmr.site.SiteVisibility;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.GUID;
+import org.springframework.extensions.webscripts.TestWebScriptServer.GetRequest;
+import org.springframework.extensions.webscripts.TestWebScriptServer.Response;
+
+/**
+ * Test for the {@link DataListDownloadWebScript}, exporting a Data List
+ *  which spans several pages of items.
+ */
+public class DataListDownloadWebScriptTest extends BaseWebScriptTest
+{
+    private static final String URL_LIST = "/slingshot/datalists/list/node/";
+    private static final String WEBSCRIPT_BEAN = "webscript.org.alfresco.slingshot.datalists.list.get";
+    
+    /** Small pages, so that a modest list is read in several of them */
+    private static final int PAGE_SIZE = 20;
+    /** Two full pages and a partial one */
+    private static final int ITEMS = PAGE_SIZE * 2 + 7;
+    /** The page size in module-context.xml */
+    private static final int DEFAULT_PAGE_SIZE = 250;
+    
+    private static final QName TYPE_TODO = QName.createQName(NamespaceService.DATALIST_MODEL_1_0_URI, "todoList");
+    private static final QName PROP_TODO_TITLE = QName.createQName(NamespaceService.DATALIST_MODEL_1_0_URI, "todoTitle");
+    private static final QName PROP_TODO_PRIORITY = QName.createQName(NamespaceService.DATALIST_MODEL_1_0_URI, "todoPriority");
+    private static final QName ASSOC_ASSIGNEE = QName.createQName(NamespaceService.DATALIST_MODEL_1_0_URI, "assignee");
+    
+    private SiteService siteService;
+    private NodeService nodeService;
+    private PersonService personService;
+    private TransactionService transactionService;
+    private DataListDownloadWebScript webScript;
+    
+    private String siteName;
+    private NodeRef list;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.siteService = (SiteService)getServer().getApplicationContext().getBean("SiteService");
+        this.nodeService = (NodeService)getServer().getApplicationContext().getBean("NodeService");
+        this.personService = (PersonService)getServer().getApplicationContext().getBean("PersonService");
+        this.transactionService = (TransactionService)getServer().getApplicationContext().getBean("transactionService");
+        this.webScript = (DataListDownloadWebScript)getServer().getApplicationContext().getBean(WEBSCRIPT_BEAN);
+        this.webScript.setPageSize(PAGE_SIZE);
+        AuthenticationUtil.setAdminUserAsFullyAuthenticatedUser();
+        
+        this.siteName = "DataListDownloadWebScriptTest" + GUID.generate();
+        this.siteService.createSite("sitePreset", this.siteName, "title", "description", SiteVisibility.PUBLIC, SiteModel.TYPE_SITE);
+        this.list = createList();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        this.webScript.setPageSize(DEFAULT_PAGE_SIZE);
+        AuthenticationUtil.setAdminUserAsFullyAuthenticatedUser();
+        this.siteService.deleteSite(this.siteName);
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
+    
+    public void testCsvExportOverSeveralPages() throws Exception
+    {
+        Response response = sendRequest(new GetRequest(URL_LIST + this.list.toString().replace("://", "/") + "?format=csv"), 200);
+        String[] lines = response.getContentAsString().split("\r\n");
+        
+        // The header, then every item exactly once, in the order they were created
+        assertEquals(ITEMS + 1, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("Title,"));
+        for (int i = 0; i < ITEMS; i++)
+        {
+            String line = lines[i + 1];
+            assertTrue(line, line.startsWith(title(i) + ","));
+            
+            // Association targets are loaded a page at a time too
+            assertEquals(line, isAssigned(i), line.contains(",admin,"));
+        }
+    }
+    
+    public void testXlsxExportOverSeveralPages() throws Exception
+    {
+        Response response = sendRequest(new GetRequest(URL_LIST + this.list.toString().replace("://", "/") + "?format=xlsx"), 200);
+        
+        assertEquals(ITEMS + 1, countSheetRows(new ByteArrayInputStream(response.getContentAsByteArray())));
+    }
+    
+    /**
+     * Creates a To Do list with {@link #ITEMS} items, every third one
+     *  assigned to the admin user
+     */
+    private NodeRef createList()
+    {
+        return this.transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<NodeRef>()
+        {
+            @Override
+            public NodeRef execute() throws Throwable
+            {
+                NodeRef container = siteService.createContainer(siteName, "dataLists", null, null);
+                
+                Map<QName, Serializable> listProps = new HashMap<QName, Serializable>();
+                listProps.put(ContentModel.PROP_NAME, "todo");
+                listProps.put(DataListModel.PROP_DATALIST_ITEM_TYPE, "dl:todoList");
+                NodeRef list = nodeService.createNode(container, ContentModel.ASSOC_CONTAINS,
+                      QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "todo"),
+                      DataListModel.TYPE_DATALIST, listProps).getChildRef();
+                
+                NodeRef admin = personService.getPerson(AuthenticationUtil.getAdminUserName());
+                for (int i = 0; i < ITEMS; i++)
+                {
+                    // Created in one transaction, so only the names keep them in order
+                    Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+                    props.put(ContentModel.PROP_NAME, String.format("item-%03d", i));
+                    props.put(PROP_TODO_TITLE, title(i));
+                    props.put(PROP_TODO_PRIORITY, (i % 3) + 1);
+                    NodeRef item = nodeService.createNode(list, ContentModel.ASSOC_CONTAINS,
+                          QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "item" + i),
+                          TYPE_TODO, props).getChildRef();
+                    if (isAssigned(i))
+                    {
+                        nodeService.createAssociation(item, admin, ASSOC_ASSIGNEE);
+                    }
+                }
+                return list;
+            }
+        });
+    }
+    
+    private static String title(int i)
+    {
+        return String.format("Task %03d", i);
+    }
+    
+    private static boolean isAssigned(int i)
+    {
+        return (i % 3 == 0);
+    }
+    
+    /**
+     * Counts the rows in the first sheet of an XLSX file
+     */
+    private static int countSheetRows(InputStream in) throws IOException
+    {
+        ZipInputStream zip = new ZipInputStream(in);
+        try
+        {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null)
+            {
+                if (entry.getName().equals("xl/worksheets/sheet1.xml"))
+                {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = zip.read(buffer)) > 0)
+                    {
+                        bytes.write(buffer, 0, read);
+                    }
+                    String xml = bytes.toString("UTF-8");
+                    int count = 0;
+                    for (int idx = xml.indexOf("<row "); idx != -1; idx = xml.indexOf("<row ", idx + 1))
+                    {
+                        count++;
+                    }
+                    return count;
+                }
+            }
+            return -1;
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+}
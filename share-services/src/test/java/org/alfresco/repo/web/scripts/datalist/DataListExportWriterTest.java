@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.datalist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests that large Data List exports are written as they are read.
+ * 
+ * The rows are generated on demand. A CSV export must have written
+ *  most of its lines before the last row has been generated, and both
+ *  formats must contain every row.
+ */
+public class DataListExportWriterTest
+{
+    private static final int ROWS = 200000;
+    
+    private static final List<String> HEADINGS = Arrays.asList("Title", "Due Date", "Priority", "Assignee", "Notes");
+    
+    @Test
+    public void testCsvOutput() throws Exception
+    {
+       Iterator<Object[]> rows = Arrays.asList(
+             new Object[] { "First", new Date(0), 1, "admin", null },
+             new Object[] { "Second, with comma", null, 2L, "admin\nabeecher", "Says \"hi\"" }).iterator();
+       
+       ByteArrayOutputStream out = new ByteArrayOutputStream();
+       new DataListExportWriter(HEADINGS, rows, 10).write(DataListExportWriter.FORMAT_CSV, out);
+       
+       String csv = out.toString("UTF-8");
+       assertTrue(csv, csv.startsWith("Title,Due Date,Priority,Assignee,Notes\r\n"));
+       assertTrue(csv, csv.contains("\r\nFirst,19"));
+       assertTrue(csv, csv.contains(",1,admin,\r\n"));
+       assertTrue(csv, csv.contains("\"Second, with comma\",,2,\"admin\nabeecher\",\"Says \"\"hi\"\"\"\r\n"));
+    }
+    
+    @Test
+    public void testLargeCsvExport() throws Exception
+    {
+       CountingOutputStream out = new CountingOutputStream();
+       GeneratedRows rows = new GeneratedRows(ROWS, out);
+       
+       new DataListExportWriter(HEADINGS, rows, DataListExportWriter.DEFAULT_ROW_WINDOW_SIZE)
+             .write(DataListExportWriter.FORMAT_CSV, out);
+       
+       // Header plus one line per row, none of which contain new lines
+       assertEquals(ROWS + 1, out.lines);
+       
+       // The rows were written out while later ones were still to be generated,
+       //  allowing for what the writer buffers
+       assertTrue("Only " + rows.linesWritten + " lines had been written part way through",
+             rows.linesWritten > ROWS / 2);
+    }
+    
+    @Test
+    public void testLargeXlsxExport() throws Exception
+    {
+       GeneratedRows rows = new GeneratedRows(ROWS, null);
+       File file = File.createTempFile("DataListExportWriterTest", ".xlsx");
+       try
+       {
+          OutputStream out = new FileOutputStream(file);
+          try
+          {
+             new DataListExportWriter(HEADINGS, rows, DataListExportWriter.DEFAULT_ROW_WINDOW_SIZE)
+                   .write(DataListExportWriter.FORMAT_XLSX, out);
+          }
+          finally
+          {
+             out.close();
+          }
+          
+          assertEquals(ROWS + 1, countSheetRows(file));
+       }
+       finally
+       {
+          file.delete();
+       }
+    }
+    
+    /**
+     * Counts the rows in the first sheet, reading the zipped XML as a stream
+     */
+    private static int countSheetRows(File file) throws IOException
+    {
+       ZipInputStream zip = new ZipInputStream(new FileInputStream(file));
+       try
+       {
+          ZipEntry entry;
+          while ((entry = zip.getNextEntry()) != null)
+          {
+             if (entry.getName().equals("xl/worksheets/sheet1.xml"))
+             {
+                return countOccurrences(zip, "<row ".getBytes("UTF-8"));
+             }
+          }
+          return -1;
+       }
+       finally
+       {
+          zip.close();
+       }
+    }
+    
+    private static int countOccurrences(InputStream in, byte[] pattern) throws IOException
+    {
+       int count = 0, matched = 0, b;
+       byte[] buffer = new byte[8192];
+       int read;
+       while ((read = in.read(buffer)) > 0)
+       {
+          for (int i = 0; i < read; i++)
+          {
+             b = buffer[i];
+             if (b == pattern[matched])
+             {
+                if (++matched == pattern.length)
+                {
+                   count++;
+                   matched = 0;
+                }
+             }
+             else
+             {
+                matched = (b == pattern[0] ? 1 : 0);
+             }
+          }
+       }
+       return count;
+    }
+    
+    /**
+     * Generates rows on demand, noting how many lines had been written
+     *  to the output once most of the rows have been handed out
+     */
+    private static class GeneratedRows implements Iterator<Object[]>
+    {
+       private final int total;
+       private final CountingOutputStream out;
+       private final Date date = new Date();
+       private int next = 0;
+       private int linesWritten = -1;
+       
+       private GeneratedRows(int total, CountingOutputStream out)
+       {
+          this.total = total;
+          this.out = out;
+       }
+       
+       @Override
+       public boolean hasNext()
+       {
+          if (next == total * 9 / 10 && out != null && linesWritten < 0)
+          {
+             linesWritten = out.lines;
+          }
+          return next < total;
+       }
+       
+       @Override
+       public Object[] next()
+       {
+          if (!hasNext())
+          {
+             throw new NoSuchElementException();
+          }
+          next++;
+          return new Object[] {
+                "Task number " + next, date, next % 5, "user" + (next % 100),
+                "Some notes about task " + next + " which make the row a little longer"
+          };
+       }
+       
+       @Override
+       public void remove()
+       {
+          throw new UnsupportedOperationException();
+       }
+    }
+    
+    /**
+     * Discards its output, counting the lines written
+     */
+    private static class CountingOutputStream extends OutputStream
+    {
+       private int lines = 0;
+       
+       @Override
+       public void write(int b)
+       {
+          if (b == '\n')
+          {
+             lines++;
+          }
+       }
+    }
+}
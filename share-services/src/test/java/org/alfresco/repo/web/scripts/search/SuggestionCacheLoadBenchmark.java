@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.alfresco.repo.web.scripts.search.SuggestionCacheTest.FakeSuggesterService;
+import org.alfresco.service.cmr.search.SuggesterParameters;
+
+/**
+ * Load test of the {@link SuggestionCache}. Simulated users type words from a shared vocabulary
+ * one character at a time, requesting suggestions for each prefix from a fake suggester which
+ * takes a few milliseconds per call. Reports the number of calls made to the suggester and the
+ * median and 99th percentile request latency, with and without the cache.
+ * 
+ * Not a unit test, run with <code>main()</code>, optionally giving the number of users and the
+ * number of words each of them types (defaults 100 and 50).
+ */
+public class SuggestionCacheLoadBenchmark
+{
+    private static final int VOCABULARY = 5000;
+    private static final int LIMIT = 10;
+    private static final long LATENCY = 5L;
+    
+    public static void main(String[] args) throws Exception
+    {
+        final int users = (args.length > 0 ? Integer.parseInt(args[0]) : 100);
+        final int words = (args.length > 1 ? Integer.parseInt(args[1]) : 50);
+        final List<String> vocabulary = generateVocabulary(VOCABULARY);
+        
+        for (int round = 0; round < 2; round++)
+        {
+            run("no cache", null, vocabulary, users, words);
+            run("cache", new SuggestionCache(), vocabulary, users, words);
+        }
+    }
+    
+    private static void run(String name, final SuggestionCache cache, final List<String> vocabulary,
+                final int users, final int words) throws Exception
+    {
+        final FakeSuggesterService suggester = new FakeSuggesterService(vocabulary, LATENCY);
+        ExecutorService executor = Executors.newFixedThreadPool(users);
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>(users);
+        long start = System.currentTimeMillis();
+        for (int u = 0; u < users; u++)
+        {
+            final Random random = new Random(u);
+            futures.add(executor.submit(new Callable<long[]>()
+            {
+                @Override
+                public long[] call() throws Exception
+                {
+                    List<Long> latencies = new ArrayList<Long>();
+                    for (int w = 0; w < words; w++)
+                    {
+                        // popular words are typed far more often than the rest
+                        String word = vocabulary.get((int)(vocabulary.size() * Math.pow(random.nextDouble(), 4)));
+                        for (int length = 1; length <= word.length(); length++)
+                        {
+                            String prefix = word.substring(0, length);
+                            long requestStart = System.nanoTime();
+                            if (cache != null)
+                            {
+                                cache.getSuggestions(suggester, prefix, LIMIT);
+                            }
+                            else
+                            {
+                                suggester.getSuggestions(new SuggesterParameters(prefix, LIMIT, false));
+                            }
+                            latencies.add(System.nanoTime() - requestStart);
+                        }
+                    }
+                    long[] result = new long[latencies.size()];
+                    for (int i = 0; i < result.length; i++)
+                    {
+                        result[i] = latencies.get(i);
+                    }
+                    return result;
+                }
+            }));
+        }
+        List<long[]> all = new ArrayList<long[]>(users);
+        int requests = 0;
+        for (Future<long[]> future : futures)
+        {
+            long[] latencies = future.get();
+            all.add(latencies);
+            requests += latencies.length;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        executor.shutdown();
+        
+        long[] latencies = new long[requests];
+        int i = 0;
+        for (long[] userLatencies : all)
+        {
+            System.arraycopy(userLatencies, 0, latencies, i, userLatencies.length);
+            i += userLatencies.length;
+        }
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-9s %7d requests %7d suggester calls (%5.1f%%)  p50 %7.3f ms  p99 %7.3f ms  total %6d ms",
+                    name, requests, suggester.calls.get(), 100.0 * suggester.calls.get() / requests,
+                    latencies[requests / 2] / 1e6, latencies[(int)(requests * 0.99)] / 1e6, elapsed));
+        if (cache != null)
+        {
+            System.out.println("          " + cache);
+        }
+    }
+    
+    private static List<String> generateVocabulary(int size)
+    {
+        Random random = new Random(42);
+        String[] syllables = { "al", "fre", "sco", "doc", "ment", "re", "port", "pro", "ject", "con", "tract", "in", "voice", "plan", "sum", "ma", "ry" };
+        List<String> vocabulary = new ArrayList<String>(size);
+        while (vocabulary.size() < size)
+        {
+            StringBuilder word = new StringBuilder();
+            int count = 2 + random.nextInt(3);
+            for (int i = 0; i < count; i++)
+            {
+                word.append(syllables[random.nextInt(syllables.length)]);
+            }
+            vocabulary.add(word.toString());
+        }
+        return vocabulary;
+    }
+}
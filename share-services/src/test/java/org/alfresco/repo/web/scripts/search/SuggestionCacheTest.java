@@ -0,0 +1,280 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.service.cmr.search.SuggesterParameters;
+import org.alfresco.service.cmr.search.SuggesterResult;
+import org.alfresco.service.cmr.search.SuggesterService;
+import org.alfresco.util.Pair;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SuggestionCache} used by {@link AutoSuggestSearchGet}.
+ */
+public class SuggestionCacheTest
+{
+    private static final List<String> TERMS = Arrays.asList("alfresco", "alfa", "algorithm", "alpha", "beta", "Alfred");
+    
+    private SuggestionCache cache;
+    private FakeSuggesterService suggester;
+    
+    @Before
+    public void setUp()
+    {
+        cache = new SuggestionCache();
+        suggester = new FakeSuggesterService(TERMS, 0L);
+    }
+    
+    @Test
+    public void testSamePrefixCached()
+    {
+        List<Pair<String, Integer>> first = cache.getSuggestions(suggester, "alf", 2);
+        assertEquals(2, first.size());
+        assertSame(first, cache.getSuggestions(suggester, " ALF ", 2));
+        assertEquals(1, suggester.calls.get());
+        assertEquals(1, cache.getHits());
+        
+        // another limit is another call, as the result above was not complete
+        assertEquals(3, cache.getSuggestions(suggester, "alf", 10).size());
+        assertEquals(2, suggester.calls.get());
+    }
+    
+    @Test
+    public void testLongerPrefixFiltered()
+    {
+        // complete, as fewer than the limit
+        assertEquals(5, cache.getSuggestions(suggester, "al", 10).size());
+        
+        assertEquals(terms("alfresco", "alfa", "Alfred"), terms(cache.getSuggestions(suggester, "alf", 10)));
+        assertEquals(terms("alfresco", "alfa"), terms(cache.getSuggestions(suggester, "alf", 2)));
+        assertEquals(terms("alfresco", "Alfred"), terms(cache.getSuggestions(suggester, " ALFRE ", 10)));
+        assertEquals(0, cache.getSuggestions(suggester, "alx", 10).size());
+        assertEquals(1, suggester.calls.get());
+        assertEquals(4, cache.getFilteredHits());
+        
+        // a result which reached its limit is not used for longer prefixes
+        cache.invalidateAll();
+        cache.getSuggestions(suggester, "al", 3);
+        cache.getSuggestions(suggester, "alf", 3);
+        assertEquals(3, suggester.calls.get());
+        
+        cache.invalidateAll();
+        cache.setPrefixFiltering(false);
+        cache.getSuggestions(suggester, "al", 10);
+        cache.getSuggestions(suggester, "alf", 10);
+        assertEquals(5, suggester.calls.get());
+    }
+    
+    @Test
+    public void testBounds()
+    {
+        cache.setMaxEntries(2);
+        cache.getSuggestions(suggester, "a", 1);
+        cache.getSuggestions(suggester, "b", 1);
+        cache.getSuggestions(suggester, "a", 1);
+        cache.getSuggestions(suggester, "c", 1);
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        cache.getSuggestions(suggester, "a", 1);
+        assertEquals(3, suggester.calls.get());
+        
+        long bytes = cache.getBytes();
+        cache.setMaxEntries(100);
+        cache.setMaxBytes(bytes);
+        cache.getSuggestions(suggester, "al", 1);
+        assertEquals(true, cache.getBytes() <= bytes);
+        
+        cache.invalidateAll();
+        assertEquals(0, cache.getBytes());
+        cache.setTimeToLive(0L);
+        cache.getSuggestions(suggester, "a", 1);
+        cache.getSuggestions(suggester, "a", 1);
+        assertEquals(6, suggester.calls.get());
+        
+        cache.setMaxEntries(0);
+        cache.invalidateAll();
+        cache.getSuggestions(suggester, "a", 1);
+        assertEquals(0, cache.getSize());
+        assertEquals(7, suggester.calls.get());
+    }
+    
+    @Test
+    public void testConcurrentRequestsCoalesced() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final FakeSuggesterService slow = new FakeSuggesterService(TERMS, 0L)
+        {
+            @Override
+            public SuggesterResult getSuggestions(SuggesterParameters parameters)
+            {
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getSuggestions(parameters);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<List<Pair<String, Integer>>>> results = new ArrayList<Future<List<Pair<String, Integer>>>>();
+            for (int i = 0; i < 8; i++)
+            {
+                results.add(executor.submit(new Callable<List<Pair<String, Integer>>>()
+                {
+                    @Override
+                    public List<Pair<String, Integer>> call() throws Exception
+                    {
+                        return cache.getSuggestions(slow, "alp", 5);
+                    }
+                }));
+            }
+            // wait for the requests to queue up behind the first
+            for (int i = 0; i < 100 && cache.getCoalesced() < 7; i++)
+            {
+                Thread.sleep(20);
+            }
+            release.countDown();
+            for (Future<List<Pair<String, Integer>>> result : results)
+            {
+                assertEquals(terms("alpha"), terms(result.get()));
+            }
+            assertEquals(1, slow.calls.get());
+            assertEquals(7, cache.getCoalesced());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    private static List<String> terms(String... terms)
+    {
+        return Arrays.asList(terms);
+    }
+    
+    private static List<String> terms(List<Pair<String, Integer>> suggestions)
+    {
+        List<String> terms = new ArrayList<String>(suggestions.size());
+        for (Pair<String, Integer> suggestion : suggestions)
+        {
+            terms.add(suggestion.getFirst());
+        }
+        return terms;
+    }
+    
+    /**
+     * A prefix suggester over a fixed list of terms, weighted by their position in the list.
+     */
+    static class FakeSuggesterService implements SuggesterService
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        private final List<String> terms;
+        private final List<String> normalizedTerms;
+        private final long latency;
+        
+        FakeSuggesterService(List<String> terms, long latency)
+        {
+            this.terms = terms;
+            this.normalizedTerms = new ArrayList<String>(terms.size());
+            for (String term : terms)
+            {
+                this.normalizedTerms.add(term.toLowerCase().replaceAll("\\s+", " "));
+            }
+            this.latency = latency;
+        }
+        
+        @Override
+        public boolean isEnabled()
+        {
+            return true;
+        }
+        
+        @Override
+        public SuggesterResult getSuggestions(SuggesterParameters parameters)
+        {
+            calls.incrementAndGet();
+            if (latency > 0)
+            {
+                try
+                {
+                    Thread.sleep(latency);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String prefix = parameters.getTerm().trim().toLowerCase().replaceAll("\\s+", " ");
+            final List<Pair<String, Integer>> suggestions = new ArrayList<Pair<String, Integer>>();
+            for (int i = 0; i < terms.size(); i++)
+            {
+                if (normalizedTerms.get(i).startsWith(prefix))
+                {
+                    suggestions.add(new Pair<String, Integer>(terms.get(i), terms.size() - i));
+                    if (suggestions.size() == parameters.getLimit())
+                    {
+                        break;
+                    }
+                }
+            }
+            return new SuggesterResult()
+            {
+                @Override
+                public long getNumberFound()
+                {
+                    return suggestions.size();
+                }
+                
+                @Override
+                public List<Pair<String, Integer>> getSuggestions()
+                {
+                    return Collections.unmodifiableList(suggestions);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.site;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.permissions.AccessDeniedException;
+import org.alfresco.repo.site.SiteModel;
+import org.alfresco.repo.web.scripts.BaseWebScriptTest;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.security.MutableAuthenticationService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.cmr.security.PersonService;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.cmr.site.SiteVisibility;
+import org.alfresco.util.GUID;
+import org.alfresco.util.PropertyMap;
+import org.json.JSONObject;
+import org.springframework.extensions.webscripts.TestWebScriptServer.GetRequest;
+import org.springframework.extensions.webscripts.TestWebScriptServer.Response;
+
+/**
+ * Test for the SiteShareViewUrlGet web script and its {@link SitePathCache}, with deep folder
+ * hierarchies that are moved, renamed and deleted.
+ */
+public class SiteShareViewUrlGetTest extends BaseWebScriptTest
+{
+    private static final String URL_SHARE_URL = "/api/sites/shareUrl?nodeRef=";
+    private static final int DEPTH = 12;
+    private static final String USER_ONE = "SiteShareViewUrlGetTest" + GUID.generate();
+
+    private SiteService siteService;
+    private FileFolderService fileFolderService;
+    private PermissionService permissionService;
+    private MutableAuthenticationService authenticationService;
+    private PersonService personService;
+    private SitePathCache sitePathCache;
+
+    private List<String> createdSites = new ArrayList<String>(2);
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.siteService = (SiteService)getServer().getApplicationContext().getBean("SiteService");
+        this.fileFolderService = (FileFolderService)getServer().getApplicationContext().getBean("FileFolderService");
+        this.permissionService = (PermissionService)getServer().getApplicationContext().getBean("PermissionService");
+        this.authenticationService = (MutableAuthenticationService)getServer().getApplicationContext().getBean("AuthenticationService");
+        this.personService = (PersonService)getServer().getApplicationContext().getBean("PersonService");
+        this.sitePathCache = (SitePathCache)getServer().getApplicationContext().getBean("shareSitePathCache");
+        AuthenticationUtil.setAdminUserAsFullyAuthenticatedUser();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        AuthenticationUtil.setAdminUserAsFullyAuthenticatedUser();
+        for (String shortName : this.createdSites)
+        {
+            this.siteService.deleteSite(shortName);
+        }
+        if (this.personService.personExists(USER_ONE))
+        {
+            this.personService.deletePerson(USER_ONE);
+        }
+        if (this.authenticationService.authenticationExists(USER_ONE))
+        {
+            this.authenticationService.deleteAuthentication(USER_ONE);
+        }
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
+
+    public void testDeepHierarchy() throws Exception
+    {
+        String siteName = createSite();
+        NodeRef docLib = this.siteService.createContainer(siteName, SiteService.DOCUMENT_LIBRARY, ContentModel.TYPE_FOLDER, null);
+        List<NodeRef> folders = createFolders(docLib);
+        NodeRef doc = this.fileFolderService.create(folders.get(DEPTH - 1), "doc.txt", ContentModel.TYPE_CONTENT).getNodeRef();
+
+        assertUrl(siteName, "documentlibrary", docLib);
+        assertUrl(siteName, "documentlibrary?path=" + path(0, DEPTH), folders.get(DEPTH - 1));
+        assertUrl(siteName, "document-details?nodeRef=" + doc, doc);
+
+        // the folders above have been cached, so a sibling is resolved from its parent
+        NodeRef sibling = this.fileFolderService.create(folders.get(DEPTH - 2), "sibling", ContentModel.TYPE_FOLDER).getNodeRef();
+        assertUrl(siteName, "documentlibrary?path=" + path(0, DEPTH - 1) + "/sibling", sibling);
+        assertUrl(siteName, "documentlibrary?path=" + path(0, 3), folders.get(2));
+    }
+
+    public void testMoveAndRename() throws Exception
+    {
+        String siteName = createSite();
+        NodeRef docLib = this.siteService.createContainer(siteName, SiteService.DOCUMENT_LIBRARY, ContentModel.TYPE_FOLDER, null);
+        List<NodeRef> folders = createFolders(docLib);
+        NodeRef deepest = folders.get(DEPTH - 1);
+        assertUrl(siteName, "documentlibrary?path=" + path(0, DEPTH), deepest);
+
+        // move the middle of the hierarchy to the root of the document library
+        this.fileFolderService.move(folders.get(5), docLib, null);
+        assertUrl(siteName, "documentlibrary?path=" + path(5, DEPTH), deepest);
+
+        // rename a folder above the node
+        this.fileFolderService.rename(folders.get(6), "renamed");
+        assertUrl(siteName, "documentlibrary?path=/f5/renamed" + path(7, DEPTH), deepest);
+
+        // move it to another site
+        String otherSiteName = createSite();
+        NodeRef otherDocLib = this.siteService.createContainer(otherSiteName, SiteService.DOCUMENT_LIBRARY, ContentModel.TYPE_FOLDER, null);
+        this.fileFolderService.move(folders.get(8), otherDocLib, null);
+        assertUrl(otherSiteName, "documentlibrary?path=" + path(8, DEPTH), deepest);
+        assertUrl(siteName, "documentlibrary?path=/f5/renamed/f7", folders.get(7));
+    }
+
+    public void testDelete() throws Exception
+    {
+        String siteName = createSite();
+        NodeRef docLib = this.siteService.createContainer(siteName, SiteService.DOCUMENT_LIBRARY, ContentModel.TYPE_FOLDER, null);
+        List<NodeRef> folders = createFolders(docLib);
+        assertUrl(siteName, "documentlibrary?path=" + path(0, DEPTH), folders.get(DEPTH - 1));
+        for (NodeRef folder : folders)
+        {
+            assertTrue(this.sitePathCache.isCached(folder));
+        }
+
+        // the deleted folder and the folders below it are removed from the cache, those above are kept
+        this.fileFolderService.delete(folders.get(3));
+        for (int i = 0; i < DEPTH; i++)
+        {
+            assertEquals("f" + i, i < 3, this.sitePathCache.isCached(folders.get(i)));
+        }
+        assertUrl(siteName, "documentlibrary?path=" + path(0, 3), folders.get(2));
+    }
+
+    public void testUnreadableAncestor() throws Exception
+    {
+        String siteName = createSite();
+        NodeRef docLib = this.siteService.createContainer(siteName, SiteService.DOCUMENT_LIBRARY, ContentModel.TYPE_FOLDER, null);
+        List<NodeRef> folders = createFolders(docLib);
+        NodeRef deepest = folders.get(DEPTH - 1);
+        assertUrl(siteName, "documentlibrary?path=" + path(0, DEPTH), deepest);
+
+        // a user who can read the deepest folder but not one of the folders above it
+        createUser(USER_ONE);
+        this.permissionService.setInheritParentPermissions(folders.get(3), false);
+        this.permissionService.setPermission(deepest, USER_ONE, PermissionService.CONSUMER, true);
+
+        AuthenticationUtil.setFullyAuthenticatedUser(USER_ONE);
+        assertEquals("/f0/f1/f2", this.sitePathCache.getLocation(folders.get(2)).getPath());
+        try
+        {
+            this.sitePathCache.getLocation(deepest);
+            fail("The cached path of the deepest folder includes the name of an unreadable folder");
+        }
+        catch (AccessDeniedException e)
+        {
+            // expected
+        }
+    }
+
+    public void testNodeOutsideSite() throws Exception
+    {
+        NodeRef siteRoot = this.siteService.getSiteRoot();
+        assertNull(this.sitePathCache.getLocation(siteRoot).getSiteNodeRef());
+        sendRequest(new GetRequest(URL_SHARE_URL + siteRoot), 400);
+    }
+
+    private void assertUrl(String siteName, String page, NodeRef nodeRef) throws Exception
+    {
+        Response response = sendRequest(new GetRequest(URL_SHARE_URL + nodeRef), 200);
+        JSONObject result = new JSONObject(response.getContentAsString());
+        assertEquals(siteName, result.getString("site"));
+        String url = result.getString("url");
+        assertTrue(url + " does not end with " + page, url.endsWith("/page/site/" + siteName + "/" + page));
+    }
+
+    private void createUser(String userName)
+    {
+        this.authenticationService.createAuthentication(userName, "PWD".toCharArray());
+        PropertyMap properties = new PropertyMap(4);
+        properties.put(ContentModel.PROP_USERNAME, userName);
+        properties.put(ContentModel.PROP_FIRSTNAME, "firstName");
+        properties.put(ContentModel.PROP_LASTNAME, "lastName");
+        properties.put(ContentModel.PROP_EMAIL, "email@email.com");
+        this.personService.createPerson(properties);
+    }
+
+    private String createSite()
+    {
+        String shortName = "SiteShareViewUrlGetTest" + GUID.generate();
+        this.siteService.createSite("sitePreset", shortName, "title", "description", SiteVisibility.PUBLIC, SiteModel.TYPE_SITE);
+        this.createdSites.add(shortName);
+        return shortName;
+    }
+
+    /**
+     * Creates folders f0 to f(DEPTH - 1), each in the one before
+     */
+    private List<NodeRef> createFolders(NodeRef parent)
+    {
+        List<NodeRef> folders = new ArrayList<NodeRef>(DEPTH);
+        for (int i = 0; i < DEPTH; i++)
+        {
+            parent = this.fileFolderService.create(parent, "f" + i, ContentModel.TYPE_FOLDER).getNodeRef();
+            folders.add(parent);
+        }
+        return folders;
+    }
+
+    /**
+     * @return the path of folders f(from) to f(to - 1) e.g. /f0/f1
+     */
+    private static String path(int from, int to)
+    {
+        StringBuilder path = new StringBuilder();
+        for (int i = from; i < to; i++)
+        {
+            path.append("/f").append(i);
+        }
+        return path.toString();
+    }
+}
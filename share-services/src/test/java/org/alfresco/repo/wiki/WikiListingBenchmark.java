@@ -0,0 +1,188 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.wiki;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.site.SiteInfo;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.cmr.site.SiteVisibility;
+import org.alfresco.service.cmr.wiki.WikiPageInfo;
+import org.alfresco.service.cmr.wiki.WikiService;
+import org.alfresco.util.ApplicationContextHelper;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Compares listing a wiki through the full {@link WikiService#listWikiPages(String, PagingRequest)}
+ *  with the metadata-only {@link WikiService#listWikiPageSummaries}, over a generated
+ *  site of wiki pages with large contents.
+ * 
+ * Not a unit test, as generating the wiki takes a while. Run with
+ *  <code>main()</code>, optionally giving the number of pages and the
+ *  size of each page in KB (defaults 500 and 256).
+ */
+public class WikiListingBenchmark
+{
+    private static final int PAGE_SIZE = 50;
+    private static final int ROUNDS = 5;
+    
+    public static void main(String[] args) throws Exception
+    {
+        final int pageCount = (args.length > 0 ? Integer.parseInt(args[0]) : 500);
+        final int pageKB = (args.length > 1 ? Integer.parseInt(args[1]) : 256);
+        
+        ApplicationContext ctx = ApplicationContextHelper.getApplicationContext(
+                new String[] { "classpath:alfresco/application-context.xml",
+                               "classpath:alfresco/web-scripts-application-context.xml" });
+        final WikiService wikiService = (WikiService)ctx.getBean("WikiService");
+        final SiteService siteService = (SiteService)ctx.getBean("SiteService");
+        final WikiServiceImpl privateWikiService = (WikiServiceImpl)ctx.getBean("wikiService");
+        RetryingTransactionHelper txnHelper = (RetryingTransactionHelper)ctx.getBean("retryingTransactionHelper");
+        
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getAdminUserName());
+        try
+        {
+            // Generate the wiki, a batch of pages per transaction
+            final SiteInfo site = txnHelper.doInTransaction(new RetryingTransactionCallback<SiteInfo>()
+            {
+                @Override
+                public SiteInfo execute() throws Throwable
+                {
+                    SiteInfo site = siteService.createSite("WikiSiteTest", 
+                          "WikiListingBenchmark" + System.currentTimeMillis(), 
+                          "benchmark site", "benchmark site", SiteVisibility.PUBLIC);
+                    privateWikiService.getSiteWikiContainer(site.getShortName(), true);
+                    return site;
+                }
+            });
+            final String contents = buildContents(pageKB);
+            for (int start = 0; start < pageCount; start += PAGE_SIZE)
+            {
+                final int first = start;
+                txnHelper.doInTransaction(new RetryingTransactionCallback<Void>()
+                {
+                    @Override
+                    public Void execute() throws Throwable
+                    {
+                        for (int i = first; i < Math.min(first + PAGE_SIZE, pageCount); i++)
+                        {
+                            wikiService.createWikiPage(site.getShortName(), "Page" + i, contents);
+                        }
+                        return null;
+                    }
+                });
+            }
+            System.out.println("Generated " + pageCount + " wiki pages of " + pageKB + "KB");
+            
+            // Time listing every page, one paged request at a time, as the page list does
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                long full = time(txnHelper, new Lister()
+                {
+                    @Override
+                    public PagingResults<WikiPageInfo> list(PagingRequest paging)
+                    {
+                        return wikiService.listWikiPages(site.getShortName(), paging);
+                    }
+                }, pageCount);
+                long summaries = time(txnHelper, new Lister()
+                {
+                    @Override
+                    public PagingResults<WikiPageInfo> list(PagingRequest paging)
+                    {
+                        return wikiService.listWikiPageSummaries(
+                              site.getShortName(), null, null, null, null, null, false, paging);
+                    }
+                }, pageCount);
+                System.out.println("Round " + (round+1) + ": full listing " + full + "ms, summaries " + summaries + "ms");
+            }
+            
+            txnHelper.doInTransaction(new RetryingTransactionCallback<Void>()
+            {
+                @Override
+                public Void execute() throws Throwable
+                {
+                    siteService.deleteSite(site.getShortName());
+                    return null;
+                }
+            });
+        }
+        finally
+        {
+            AuthenticationUtil.clearCurrentSecurityContext();
+            ApplicationContextHelper.closeApplicationContext();
+        }
+    }
+    
+    private interface Lister
+    {
+        PagingResults<WikiPageInfo> list(PagingRequest paging);
+    }
+    
+    private static long time(RetryingTransactionHelper txnHelper, final Lister lister, final int pageCount)
+    {
+        long start = System.currentTimeMillis();
+        final List<String> titles = new ArrayList<String>(pageCount);
+        for (int skip = 0; skip < pageCount; skip += PAGE_SIZE)
+        {
+            final int skipCount = skip;
+            txnHelper.doInTransaction(new RetryingTransactionCallback<Void>()
+            {
+                @Override
+                public Void execute() throws Throwable
+                {
+                    for (WikiPageInfo page : lister.list(new PagingRequest(skipCount, PAGE_SIZE)).getPage())
+                    {
+                        titles.add(page.getTitle());
+                    }
+                    return null;
+                }
+            }, true, false);
+        }
+        if (titles.size() != pageCount)
+        {
+            throw new IllegalStateException("Listed " + titles.size() + " pages, expected " + pageCount);
+        }
+        return System.currentTimeMillis() - start;
+    }
+    
+    private static String buildContents(int kb)
+    {
+        StringBuilder contents = new StringBuilder(kb * 1024);
+        String paragraph = "<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor.</p>\n";
+        while (contents.length() < kb * 1024)
+        {
+            contents.append(paragraph);
+        }
+        return contents.toString();
+    }
+}
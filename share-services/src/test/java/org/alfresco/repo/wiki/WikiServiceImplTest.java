@@ -555,6 +555,52 @@ public class WikiServiceImplTest
        }
     }
 
+    /**
+     * Summaries carry the listing details up-front, and fetch
+     *  the contents and tags only when asked for them
+     */
+    @Test public void pageSummariesListing() throws Exception
+    {
+       WikiPageInfo page = WIKI_SERVICE.createWikiPage(
+             WIKI_SITE.getShortName(), "SummaryTitle", "Summary Content");
+       testNodesToTidy.add(page.getNodeRef());
+       page.getTags().add("summary_tag");
+       WIKI_SERVICE.updateWikiPage(page);
+       
+       // Without tags up-front
+       PagingResults<WikiPageInfo> results = WIKI_SERVICE.listWikiPageSummaries(
+             WIKI_SITE.getShortName(), null, null, null, null, null, false, new PagingRequest(10));
+       assertEquals(1, results.getPage().size());
+       assertTrue("Page should be built once", results.getPage() == results.getPage());
+       
+       WikiPageInfo summary = results.getPage().get(0);
+       assertEquals(page.getNodeRef(), summary.getNodeRef());
+       assertEquals(page.getSystemName(), summary.getSystemName());
+       assertEquals("SummaryTitle", summary.getTitle());
+       assertEquals(ADMIN_USER, summary.getCreator());
+       assertNotNull(summary.getCreatedAt());
+       assertNotNull(summary.getModifiedAt());
+       assertEquals("Summary Content", summary.getContents());
+       assertEquals(1, summary.getTags().size());
+       assertEquals("summary_tag", summary.getTags().get(0));
+       
+       // With tags, and the same filters as the full listing
+       results = WIKI_SERVICE.listWikiPageSummaries(
+             WIKI_SITE.getShortName(), ADMIN_USER, null, null, null, null, true, new PagingRequest(10));
+       assertEquals(1, results.getPage().size());
+       assertEquals(1, results.getPage().get(0).getTags().size());
+       
+       results = WIKI_SERVICE.listWikiPageSummaries(
+             WIKI_SITE.getShortName(), TEST_USER, null, null, null, null, true, new PagingRequest(10));
+       assertEquals(0, results.getPage().size());
+       
+       Date now = new Date();
+       results = WIKI_SERVICE.listWikiPageSummaries(
+             WIKI_SITE.getShortName(), null, null, null, 
+             new Date(now.getTime() - ONE_DAY_MS), new Date(now.getTime() + ONE_DAY_MS), false, new PagingRequest(10));
+       assertEquals(1, results.getPage().size());
+    }
+    
     /**
      * Checks that the correct permission checking occurs on fetching
      *  links listings (which go through canned queries)
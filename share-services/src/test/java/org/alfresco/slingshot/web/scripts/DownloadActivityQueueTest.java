@@ -0,0 +1,273 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package org.alfresco.slingshot.web.scripts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link DownloadActivityQueue} used by {@link SlingshotContentGet}.
+ */
+public class DownloadActivityQueueTest
+{
+    private static final String BLOCK = "block";
+    private static final String FAIL = "fail";
+    
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> posted = Collections.synchronizedList(new ArrayList<String>());
+    private DownloadActivityQueue queue;
+    
+    @Before
+    public void setUp()
+    {
+        this.queue = new DownloadActivityQueue()
+        {
+            @Override
+            protected void post(DownloadActivity activity)
+            {
+                if (BLOCK.equals(activity.filename))
+                {
+                    blocked.countDown();
+                    try
+                    {
+                        release.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                else if (FAIL.equals(activity.filename))
+                {
+                    throw new IllegalStateException("Cannot post " + activity);
+                }
+                posted.add(activity.userName + "/" + activity.filename);
+            }
+        };
+        this.queue.setTransactionHelper(new NoTransactionHelper());
+    }
+    
+    @After
+    public void tearDown()
+    {
+        this.release.countDown();
+        this.queue.destroy();
+    }
+    
+    @Test
+    public void testAddDoesNotWaitForPosting() throws Exception
+    {
+        this.queue.init();
+        this.queue.add("user1", "site1", node(0), BLOCK);
+        assertTrue(this.blocked.await(5, TimeUnit.SECONDS));
+        
+        // the worker is stuck posting, downloads must not wait for it
+        long start = System.nanoTime();
+        for (int i = 1; i <= 50; i++)
+        {
+            this.queue.add("user1", "site1", node(i), "doc" + i);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Adding activities took " + elapsed + "ms", elapsed < 1000);
+        assertEquals(50, this.queue.getQueueSize());
+        assertEquals(0, this.posted.size());
+        
+        this.release.countDown();
+        waitForPosted(51);
+        assertEquals(0, this.queue.getQueueSize());
+    }
+    
+    @Test
+    public void testDuplicatesAreCoalesced() throws Exception
+    {
+        this.queue.init();
+        this.queue.add("user1", "site1", node(0), BLOCK);
+        assertTrue(this.blocked.await(5, TimeUnit.SECONDS));
+        
+        for (int i = 0; i < 10; i++)
+        {
+            this.queue.add("user1", "site1", node(1), "doc");
+        }
+        this.queue.add("user2", "site1", node(1), "doc");
+        this.release.countDown();
+        
+        waitForPosted(3);
+        assertEquals(9, this.queue.getCoalesced());
+        assertEquals(1, Collections.frequency(this.posted, "user1/doc"));
+        assertEquals(1, Collections.frequency(this.posted, "user2/doc"));
+    }
+    
+    @Test
+    public void testOverflowDiscards() throws Exception
+    {
+        this.queue.setCapacity(2);
+        this.queue.init();
+        this.queue.add("user1", "site1", node(0), BLOCK);
+        assertTrue(this.blocked.await(5, TimeUnit.SECONDS));
+        
+        for (int i = 1; i <= 5; i++)
+        {
+            this.queue.add("user1", "site1", node(i), "doc" + i);
+        }
+        assertEquals(3, this.queue.getDiscarded());
+        
+        this.release.countDown();
+        waitForPosted(3);
+    }
+    
+    @Test
+    public void testOverflowPostedByCaller() throws Exception
+    {
+        this.queue.setCapacity(2);
+        this.queue.setOverflowPolicy(DownloadActivityQueue.OVERFLOW_CALLER_POSTS);
+        this.queue.init();
+        this.queue.add("user1", "site1", node(0), BLOCK);
+        assertTrue(this.blocked.await(5, TimeUnit.SECONDS));
+        
+        for (int i = 1; i <= 5; i++)
+        {
+            this.queue.add("user1", "site1", node(i), "doc" + i);
+        }
+        // the three that did not fit were posted by the caller
+        assertEquals(3, this.posted.size());
+        assertEquals(0, this.queue.getDiscarded());
+        
+        this.release.countDown();
+        waitForPosted(6);
+    }
+    
+    @Test
+    public void testQueueDrainedOnShutdown() throws Exception
+    {
+        this.queue.init();
+        this.queue.add("user1", "site1", node(0), BLOCK);
+        assertTrue(this.blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 20; i++)
+        {
+            this.queue.add("user1", "site1", node(i), "doc" + i);
+        }
+        
+        Thread stopper = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                queue.destroy();
+            }
+        });
+        stopper.start();
+        this.release.countDown();
+        stopper.join(10000);
+        
+        assertEquals(21, this.posted.size());
+        assertEquals(21, this.queue.getPosted());
+    }
+    
+    @Test
+    public void testFailedBatchPostedIndividually() throws Exception
+    {
+        this.queue.init();
+        this.queue.add("user1", "site1", node(0), BLOCK);
+        assertTrue(this.blocked.await(5, TimeUnit.SECONDS));
+        this.queue.add("user1", "site1", node(1), "doc1");
+        this.queue.add("user1", "site1", node(2), FAIL);
+        this.queue.add("user1", "site1", node(3), "doc3");
+        this.release.countDown();
+        
+        waitForFailed(1);
+        assertTrue(this.posted.contains("user1/doc1"));
+        assertTrue(this.posted.contains("user1/doc3"));
+        assertEquals(3, this.queue.getPosted());
+    }
+    
+    @Test
+    public void testPostedByCallerWhenNotStarted()
+    {
+        this.queue.add("user1", "site1", node(1), "doc1");
+        assertEquals(1, this.posted.size());
+    }
+    
+    private void waitForPosted(int count) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 10000;
+        while (this.queue.getPosted() < count && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, this.queue.getPosted());
+    }
+    
+    private void waitForFailed(int count) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 10000;
+        while (this.queue.getFailed() < count && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, this.queue.getFailed());
+    }
+    
+    private static NodeRef node(int i)
+    {
+        return new NodeRef("workspace", "SpacesStore", "node-" + i);
+    }
+    
+    /**
+     * Runs the callbacks without a transaction
+     */
+    private static class NoTransactionHelper extends RetryingTransactionHelper
+    {
+        @Override
+        public <R> R doInTransaction(RetryingTransactionCallback<R> cb, boolean readOnly, boolean requiresNew)
+        {
+            try
+            {
+                return cb.execute();
+            }
+            catch (RuntimeException e)
+            {
+                throw e;
+            }
+            catch (Throwable e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
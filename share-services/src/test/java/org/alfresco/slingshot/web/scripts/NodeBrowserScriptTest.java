@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * Alfresco Share Services AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package org.alfresco.slingshot.web.scripts;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.web.scripts.BaseWebScriptTest;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.transaction.TransactionService;
+import org.json.JSONObject;
+import org.springframework.extensions.webscripts.TestWebScriptServer.GetRequest;
+import org.springframework.extensions.webscripts.TestWebScriptServer.Response;
+
+/**
+ * Test for the search support of the NodeBrowserScript web script
+ */
+public class NodeBrowserScriptTest extends BaseWebScriptTest
+{
+    private static final String STORE = StoreRef.STORE_REF_WORKSPACE_SPACESSTORE.toString();
+    private static final String URL_SEARCH = "/slingshot/node/search";
+
+    private TransactionService transactionService;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        this.transactionService = (TransactionService)getServer().getApplicationContext().getBean("TransactionService");
+        AuthenticationUtil.setAdminUserAsFullyAuthenticatedUser();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
+
+    public void testConcurrentSearchTimingsAreIsolated() throws Exception
+    {
+        final TimedNodeBrowserScript script = new TimedNodeBrowserScript(500);
+        script.setTransactionService(this.transactionService);
+
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<long[]>> futures = new ArrayList<Future<long[]>>(threads);
+            for (int i = 0; i < threads; i++)
+            {
+                // each search takes a different time, queries are named after their delay
+                final long delay = 20 + (i * 60);
+                futures.add(executor.submit(new Callable<long[]>()
+                {
+                    public long[] call() throws Exception
+                    {
+                        AuthenticationUtil.setAdminUserAsFullyAuthenticatedUser();
+                        start.await();
+                        long before = System.currentTimeMillis();
+                        NodeBrowserScript.SearchResults results = script.search(STORE, Long.toString(delay), "fts-alfresco", 0, 10);
+                        return new long[] {delay, results.getSearchElapsedTime(), System.currentTimeMillis() - before};
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<long[]> future : futures)
+            {
+                long[] timing = future.get(30, TimeUnit.SECONDS);
+                assertTrue("Search elapsed time " + timing[1] + " is less than its own delay " + timing[0], timing[1] >= timing[0]);
+                assertTrue("Search elapsed time " + timing[1] + " is more than its own wall time " + timing[2], timing[1] <= timing[2]);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testPagingWithContinuationToken() throws Exception
+    {
+        TimedNodeBrowserScript script = new TimedNodeBrowserScript(25);
+        script.setTransactionService(this.transactionService);
+        script.setMaxResultsCap(10);
+
+        // the page size is capped
+        NodeBrowserScript.SearchResults results = script.search(STORE, "0", "fts-alfresco", 0, 0);
+        assertEquals(10, results.getMaxItems());
+        assertEquals(10, results.getResults().size());
+        assertTrue(results.getHasMoreItems());
+
+        int total = results.getResults().size();
+        while (results.getHasMoreItems())
+        {
+            int skipCount = NodeBrowserScript.decodePageToken(results.getNextPageToken(), STORE, "0", "fts-alfresco");
+            assertEquals(total, skipCount);
+            results = script.search(STORE, "0", "fts-alfresco", skipCount, 10);
+            total += results.getResults().size();
+        }
+        assertEquals(25, total);
+        assertNull(results.getNextPageToken());
+
+        // a token cannot be used to continue a different search
+        String token = NodeBrowserScript.encodePageToken(STORE, "0", "fts-alfresco", 10);
+        assertEquals(-1, NodeBrowserScript.decodePageToken(token, STORE, "1", "fts-alfresco"));
+
+        // a token with a negative skip count is rejected
+        token = NodeBrowserScript.encodePageToken(STORE, "0", "fts-alfresco", -5);
+        assertEquals(-1, NodeBrowserScript.decodePageToken(token, STORE, "0", "fts-alfresco"));
+    }
+
+    public void testSearchPaging() throws Exception
+    {
+        String uri = URL_SEARCH + "?store=" + URLEncoder.encode(STORE, "UTF-8") + "&q=root&lang=storeroot";
+        Response response = sendRequest(new GetRequest(uri), 200);
+        JSONObject result = new JSONObject(response.getContentAsString());
+        assertEquals(1, result.getInt("numResults"));
+        JSONObject paging = result.getJSONObject("paging");
+        assertEquals(0, paging.getInt("skipCount"));
+        assertFalse(paging.getBoolean("hasMoreItems"));
+        assertTrue(paging.isNull("nextPageToken"));
+
+        String token = NodeBrowserScript.encodePageToken(STORE, "other", "storeroot", 10);
+        sendRequest(new GetRequest(uri + "&pageToken=" + URLEncoder.encode(token, "UTF-8")), 400);
+
+        token = NodeBrowserScript.encodePageToken(STORE, "root", "storeroot", -5);
+        sendRequest(new GetRequest(uri + "&pageToken=" + URLEncoder.encode(token, "UTF-8")), 400);
+    }
+
+    /**
+     * Node browser that takes the given time to search and has a fixed number of results, neither
+     * of which depend on the repository.
+     */
+    private static class TimedNodeBrowserScript extends NodeBrowserScript
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int totalResults;
+
+        TimedNodeBrowserScript(int totalResults)
+        {
+            this.totalResults = totalResults;
+        }
+
+        @Override
+        protected List<NodeRef> queryNodeRefs(SearchParameters sp)
+        {
+            try
+            {
+                Thread.sleep(Long.parseLong(sp.getQuery()));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            List<NodeRef> nodeRefs = new ArrayList<NodeRef>();
+            for (int i = sp.getSkipCount(); i < this.totalResults && nodeRefs.size() < sp.getMaxItems(); i++)
+            {
+                nodeRefs.add(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-" + i));
+            }
+            return nodeRefs;
+        }
+    }
+}
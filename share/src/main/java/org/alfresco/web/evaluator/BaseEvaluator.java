@@ -38,6 +38,13 @@ import java.util.HashMap;
 
 /**
  * Base class for all UI evaluators.
+ * <p>
+ * Evaluators are singleton beans evaluated concurrently for every record in a document list, so
+ * they must not hold per-call state. The optional webscript args and response metadata are passed
+ * down the evaluator tree in an immutable {@link EvaluatorContext}; evaluators that need them should
+ * override {@link #evaluate(JSONObject, EvaluatorContext)}. Evaluators that only override
+ * {@link #evaluate(JSONObject)} can still use {@link #getArg(String)} and {@link #getMetadata()},
+ * which read the context bound to the calling thread for the duration of the evaluation.
  *
  * @author mikeh
  */
@@ -45,10 +52,26 @@ public abstract class BaseEvaluator implements Evaluator
 {
     private static final String PORTLET_HOST = "portletHost";
 
-    // optional args from the calling webscript
+    // context of the evaluation currently running on this thread
+    private static final ThreadLocal<EvaluatorContext> currentContext = new ThreadLocal<EvaluatorContext>();
+
+    /**
+     * optional args from the calling webscript
+     *
+     * @deprecated evaluators are shared between concurrent requests so this field may hold another
+     *             request's args - use {@link #getArgs()} or {@link #getArg(String)} instead
+     */
+    @Deprecated
     protected HashMap<String, String> args = null;
-    // metadata from the webscript response
+    /**
+     * metadata from the webscript response
+     *
+     * @deprecated evaluators are shared between concurrent requests so this field may hold another
+     *             request's metadata - use {@link #getMetadata()} instead
+     */
+    @Deprecated
     protected JSONObject metadata = null;
+
     // negate output flag
     protected boolean negateOutput = false;
 
@@ -98,7 +121,7 @@ public abstract class BaseEvaluator implements Evaluator
     public final boolean evaluate(Object record, Object metadata, HashMap<String, String> args)
     {
         JSONObject jsonObject;
-        this.args = args;
+        JSONObject metadataObject;
 
         try
         {
@@ -116,11 +139,11 @@ public abstract class BaseEvaluator implements Evaluator
             }
             if (metadata instanceof JSONObject)
             {
-                this.metadata = (JSONObject)metadata;
+                metadataObject = (JSONObject)metadata;
             }
             else if (metadata instanceof String)
             {
-                this.metadata = (JSONObject)JSONValue.parseWithException((String)metadata);
+                metadataObject = (JSONObject)JSONValue.parseWithException((String)metadata);
             }
             else
             {
@@ -135,7 +158,60 @@ public abstract class BaseEvaluator implements Evaluator
         {
             throw new AlfrescoRuntimeException("Failed to run UI evaluator: " + err.getMessage());
         }
-        return (this.negateOutput ^ evaluate(jsonObject));
+        return matches(jsonObject, new EvaluatorContext(args, metadataObject));
+    }
+
+    /**
+     * Evaluates this evaluator, applying the negateOutput flag. This is the entry point used by the
+     * chained evaluators to call their participants with the caller's context.
+     *
+     * @param jsonObject The object the evaluation is for
+     * @param context Per-call evaluation context
+     * @return boolean indicating evaluator result
+     */
+    public final boolean matches(JSONObject jsonObject, EvaluatorContext context)
+    {
+        // still assigned for evaluators that read the deprecated fields directly
+        this.args = context.getArgs();
+        this.metadata = context.getMetadata();
+
+        return (this.negateOutput ^ evaluate(jsonObject, context));
+    }
+
+    /**
+     * Evaluates the given object with an explicit per-call context.
+     * <p>
+     * The default implementation binds the context to the calling thread and delegates to
+     * {@link #evaluate(JSONObject)}. Evaluators that use the args or metadata should override
+     * this method and read them from the supplied context.
+     *
+     * @param jsonObject The object the evaluation is for
+     * @param context Per-call evaluation context
+     * @return boolean indicating evaluator result
+     */
+    public boolean evaluate(JSONObject jsonObject, EvaluatorContext context)
+    {
+        final EvaluatorContext previous = currentContext.get();
+        if (previous == context)
+        {
+            return evaluate(jsonObject);
+        }
+        currentContext.set(context);
+        try
+        {
+            return evaluate(jsonObject);
+        }
+        finally
+        {
+            if (previous == null)
+            {
+                currentContext.remove();
+            }
+            else
+            {
+                currentContext.set(previous);
+            }
+        }
     }
 
     /**
@@ -146,6 +222,34 @@ public abstract class BaseEvaluator implements Evaluator
      */
     public abstract boolean evaluate(JSONObject jsonObject);
 
+    /**
+     * Evaluates a participant of a chained evaluator with the given context.
+     *
+     * @param evaluator The participating evaluator
+     * @param jsonObject The object the evaluation is for
+     * @param context Per-call evaluation context
+     * @return boolean indicating evaluator result
+     */
+    protected static boolean evaluate(Evaluator evaluator, JSONObject jsonObject, EvaluatorContext context)
+    {
+        if (evaluator instanceof BaseEvaluator)
+        {
+            return ((BaseEvaluator)evaluator).matches(jsonObject, context);
+        }
+        return evaluator.evaluate(jsonObject);
+    }
+
+    /**
+     * Get the context of the evaluation currently running on this thread
+     *
+     * @return EvaluatorContext, never null
+     */
+    protected final EvaluatorContext getContext()
+    {
+        final EvaluatorContext context = currentContext.get();
+        return (context != null ? context : EvaluatorContext.EMPTY);
+    }
+
     /**
      * Simple getter for optional webscript args
      *
@@ -154,7 +258,7 @@ public abstract class BaseEvaluator implements Evaluator
     @SuppressWarnings({"UnusedDeclaration"})
     public final HashMap<String, String> getArgs()
     {
-        return this.args;
+        return getContext().getArgs();
     }
 
     /**
@@ -165,11 +269,7 @@ public abstract class BaseEvaluator implements Evaluator
      */
     public final String getArg(String name)
     {
-        if (this.args != null && this.args.containsKey(name))
-        {
-            return this.args.get(name);
-        }
-        return null;
+        return getContext().getArg(name);
     }
 
     /**
@@ -179,7 +279,7 @@ public abstract class BaseEvaluator implements Evaluator
      */
     public final JSONObject getMetadata()
     {
-        return this.metadata;
+        return getContext().getMetadata();
     }
 
     /**
@@ -476,25 +576,19 @@ public abstract class BaseEvaluator implements Evaluator
      */
     public final Object getJSONValue(JSONObject jsonObject, String accessor)
     {
-        String[] keys = accessor.split("\\.");
-        Object record = jsonObject;
+        return JSONValueAccessor.compile(accessor).getValue(jsonObject);
+    }
 
-        for (String key : keys)
-        {
-            if (record instanceof JSONObject)
-            {
-                record = ((JSONObject)record).get(key);
-            }
-            else if (record instanceof JSONArray)
-            {
-                record = ((JSONArray)record).get(Integer.parseInt(key));
-            }
-            else
-            {
-                return null;
-            }
-        }
-        return record;
+    /**
+     * Retrieve a JSON value given a pre-compiled accessor
+     *
+     * @param jsonObject JSONObject containing a "node" object as returned from the ApplicationScriptUtils class.
+     * @param accessor JSONValueAccessor compiled from a dotted notation path
+     * @return Object value or null
+     */
+    public final Object getJSONValue(JSONObject jsonObject, JSONValueAccessor accessor)
+    {
+        return accessor.getValue(jsonObject);
     }
 
     /**
@@ -29,7 +29,6 @@ package org.alfresco.web.evaluator;
 import org.json.simple.JSONObject;
 
 import java.util.ArrayList;
-import java.util.ListIterator;
 
 /**
  * Calls multiple evaluators in turn until either the last one is called
@@ -40,7 +39,8 @@ import java.util.ListIterator;
  */
 public class ChainedMatchAllEvaluator extends BaseEvaluator
 {
-    private ArrayList<Evaluator> evaluators = null;
+    // participants, copied once at configuration time and never modified afterwards
+    private Evaluator[] evaluators = null;
 
     /**
      * Evaluators to participate in the evaluation chain
@@ -49,7 +49,7 @@ public class ChainedMatchAllEvaluator extends BaseEvaluator
      */
     public void setEvaluators(ArrayList<Evaluator> evaluators)
     {
-        this.evaluators = evaluators;
+        this.evaluators = (evaluators != null ? evaluators.toArray(new Evaluator[evaluators.size()]) : null);
     }
 
     /**
@@ -61,19 +61,27 @@ public class ChainedMatchAllEvaluator extends BaseEvaluator
      */
     @Override
     public boolean evaluate(JSONObject jsonObject)
+    {
+        return evaluate(jsonObject, getContext());
+    }
+
+    /**
+     * Evaluates the participants with the caller's context
+     *
+     * @param jsonObject The object the evaluation is for
+     * @param context Per-call evaluation context
+     * @return boolean
+     */
+    @Override
+    public boolean evaluate(JSONObject jsonObject, EvaluatorContext context)
     {
         boolean result = true;
 
         if (evaluators != null)
         {
-            ListIterator<Evaluator> evalIter = evaluators.listIterator();
-
-            while (result && evalIter.hasNext())
+            for (int i = 0; result && i < evaluators.length; i++)
             {
-                BaseEvaluator evaluator = (BaseEvaluator)evalIter.next();
-                evaluator.args = this.args;
-                evaluator.metadata = this.metadata;
-                result = evaluator.negateOutput ^ evaluator.evaluate(jsonObject);
+                result = evaluate(evaluators[i], jsonObject, context);
             }
         }
 
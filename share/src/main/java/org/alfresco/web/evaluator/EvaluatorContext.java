@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.evaluator;
+
+import org.json.simple.JSONObject;
+
+import java.util.HashMap;
+
+/**
+ * Per-call state for a UI evaluator: the optional webscript arguments and the
+ * metadata from the webscript response.
+ * <p>
+ * Evaluators are singleton beans shared by every concurrent doclist request, so this state
+ * is handed down the evaluator tree explicitly rather than being stored on the evaluators.
+ * The args map is the caller's own map and is not copied, so evaluators must treat it as read-only.
+ */
+public final class EvaluatorContext
+{
+    /** Context with no args and no metadata */
+    public static final EvaluatorContext EMPTY = new EvaluatorContext(null, null);
+
+    private final HashMap<String, String> args;
+    private final JSONObject metadata;
+
+    /**
+     * Constructor
+     *
+     * @param args URL arguments passed to calling webscript (may be null)
+     * @param metadata JSONObject metadata from the webscript response (may be null)
+     */
+    public EvaluatorContext(HashMap<String, String> args, JSONObject metadata)
+    {
+        this.args = args;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @return webscript args map (may be null), not to be modified
+     */
+    public HashMap<String, String> getArgs()
+    {
+        return this.args;
+    }
+
+    /**
+     * Get webscript argument by name
+     *
+     * @param name Argument name
+     * @return string argument value or null
+     */
+    public String getArg(String name)
+    {
+        return (this.args != null ? this.args.get(name) : null);
+    }
+
+    /**
+     * @return JSONObject metadata (may be null)
+     */
+    public JSONObject getMetadata()
+    {
+        return this.metadata;
+    }
+}
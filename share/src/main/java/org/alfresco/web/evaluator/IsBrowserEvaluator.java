@@ -38,7 +38,7 @@ import java.util.regex.Pattern;
  */
 public class IsBrowserEvaluator extends BaseEvaluator
 {
-    private String regex;
+    private Pattern regex;
 
     /**
      * Define the regular expression to test against
@@ -47,7 +47,7 @@ public class IsBrowserEvaluator extends BaseEvaluator
      */
     public void setRegex(String regex)
     {
-        this.regex = regex;
+        this.regex = (regex != null ? Pattern.compile(regex) : null);
     }
 
     @Override
@@ -63,8 +63,7 @@ public class IsBrowserEvaluator extends BaseEvaluator
             String userAgent = getHeader("user-agent");
             if (userAgent != null)
             {
-                Pattern p = Pattern.compile(this.regex);
-                Matcher m = p.matcher(userAgent);
+                Matcher m = this.regex.matcher(userAgent);
                 return m.find();
             }
         }
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.evaluator;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pre-parsed accessor for a value in a JSON structure given in dot notation (e.g. "node.isContainer").
+ * <p>
+ * The accessor string is split once, when the accessor is compiled, so that evaluators configured
+ * with an accessor do not pay for parsing it on every evaluation. Instances are immutable and may be
+ * shared between threads, and compiled accessors are cached so that evaluators passing accessor
+ * strings to {@link BaseEvaluator#getJSONValue(JSONObject, String)} only split each one once.
+ */
+public final class JSONValueAccessor
+{
+    // accessors are taken from evaluator config and code, so only a small number is ever cached
+    private static final int MAX_CACHED_ACCESSORS = 1024;
+    private static final ConcurrentMap<String, JSONValueAccessor> compiled = new ConcurrentHashMap<String, JSONValueAccessor>();
+
+    private final String accessor;
+    private final String[] keys;
+    // array index for each key, or -1 where the key is not a valid index
+    private final int[] indexes;
+
+    private JSONValueAccessor(String accessor)
+    {
+        this.accessor = accessor;
+        this.keys = accessor.split("\\.");
+        this.indexes = new int[this.keys.length];
+        for (int i = 0; i < this.keys.length; i++)
+        {
+            int index;
+            try
+            {
+                index = Integer.parseInt(this.keys[i]);
+            }
+            catch (NumberFormatException e)
+            {
+                index = -1;
+            }
+            this.indexes[i] = index;
+        }
+    }
+
+    /**
+     * Compile an accessor string
+     *
+     * @param accessor String containing dotted notation path to value
+     * @return JSONValueAccessor
+     */
+    public static JSONValueAccessor compile(String accessor)
+    {
+        if (accessor == null)
+        {
+            throw new IllegalArgumentException("Accessor is mandatory.");
+        }
+        JSONValueAccessor result = compiled.get(accessor);
+        if (result == null)
+        {
+            result = new JSONValueAccessor(accessor);
+            if (compiled.size() < MAX_CACHED_ACCESSORS)
+            {
+                compiled.putIfAbsent(accessor, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the value this accessor points to
+     *
+     * @param jsonObject JSONObject to walk
+     * @return Object value or null
+     */
+    public Object getValue(JSONObject jsonObject)
+    {
+        Object record = jsonObject;
+
+        for (int i = 0; i < this.keys.length; i++)
+        {
+            if (record instanceof JSONObject)
+            {
+                record = ((JSONObject)record).get(this.keys[i]);
+            }
+            else if (record instanceof JSONArray)
+            {
+                if (this.indexes[i] < 0)
+                {
+                    throw new NumberFormatException("For input string: \"" + this.keys[i] + "\"");
+                }
+                record = ((JSONArray)record).get(this.indexes[i]);
+            }
+            else
+            {
+                return null;
+            }
+        }
+        return record;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.accessor;
+    }
+}
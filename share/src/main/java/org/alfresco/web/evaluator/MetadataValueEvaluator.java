@@ -35,7 +35,7 @@ import org.json.simple.JSONObject;
 public class MetadataValueEvaluator extends BaseEvaluator
 {
     private Comparator comparator = null;
-    private String accessor = null;
+    private JSONValueAccessor accessor = null;
 
     /**
      * Comparator class
@@ -54,18 +54,24 @@ public class MetadataValueEvaluator extends BaseEvaluator
      */
     public void setAccessor(String accessor)
     {
-        this.accessor = accessor;
+        this.accessor = (accessor != null ? JSONValueAccessor.compile(accessor) : null);
     }
 
     @Override
     public boolean evaluate(JSONObject jsonObject)
+    {
+        return evaluate(jsonObject, getContext());
+    }
+
+    @Override
+    public boolean evaluate(JSONObject jsonObject, EvaluatorContext context)
     {
         if (comparator == null || accessor == null)
         {
             return false;
         }
 
-        Object metaValue = getJSONValue(getMetadata(), accessor);
+        Object metaValue = getJSONValue(context.getMetadata(), accessor);
         return this.comparator.compare(metaValue);
     }
 }
@@ -36,6 +36,8 @@ import org.json.simple.JSONObject;
  */
 public abstract class VirtualBaseEvaluator extends BaseEvaluator
 {
+    private static final JSONValueAccessor IS_CONTAINER = JSONValueAccessor.compile("node.isContainer");
+
     /**
      * Checks if the node is a container.
      * 
@@ -45,7 +47,7 @@ public abstract class VirtualBaseEvaluator extends BaseEvaluator
      */
     Boolean isContainer(JSONObject jsonObject)
     {
-        return (Boolean) getJSONValue(jsonObject,"node.isContainer");
+        return (Boolean) getJSONValue(jsonObject, IS_CONTAINER);
     }
 
     /**
@@ -26,7 +26,6 @@
 package org.alfresco.web.evaluator;
 
 import java.util.ArrayList;
-import java.util.ListIterator;
 
 import org.json.simple.JSONObject;
 
@@ -44,7 +43,8 @@ import org.json.simple.JSONObject;
  */
 public class VirtualChainedMatchOneEvaluator extends VirtualBaseEvaluator
 {
-    private ArrayList<Evaluator> evaluators = null;
+    // participants, copied once at configuration time and never modified afterwards
+    private Evaluator[] evaluators = null;
 
     /**
      * Evaluators to participate in the evaluation chain
@@ -53,7 +53,7 @@ public class VirtualChainedMatchOneEvaluator extends VirtualBaseEvaluator
      */
     public void setEvaluators(ArrayList<Evaluator> evaluators)
     {
-        this.evaluators = evaluators;
+        this.evaluators = (evaluators != null ? evaluators.toArray(new Evaluator[evaluators.size()]) : null);
     }
 
     /**
@@ -69,6 +69,19 @@ public class VirtualChainedMatchOneEvaluator extends VirtualBaseEvaluator
      */
     @Override
     public boolean evaluate(JSONObject jsonObject)
+    {
+        return evaluate(jsonObject, getContext());
+    }
+
+    /**
+     * Evaluates the participants with the caller's context
+     *
+     * @param jsonObject The object the evaluation is for
+     * @param context Per-call evaluation context
+     * @return boolean
+     */
+    @Override
+    public boolean evaluate(JSONObject jsonObject, EvaluatorContext context)
     {
         if(notInVirtualContext(jsonObject))
         {
@@ -77,14 +90,9 @@ public class VirtualChainedMatchOneEvaluator extends VirtualBaseEvaluator
         boolean result = false;
 
         if(evaluators!=null){
-            ListIterator<Evaluator> evalIter = evaluators.listIterator();
-
-            while (!result && evalIter.hasNext())
+            for (int i = 0; !result && i < evaluators.length; i++)
             {
-                BaseEvaluator evaluator = (BaseEvaluator)evalIter.next();
-                evaluator.args = this.args;
-                evaluator.metadata = this.metadata;
-                result = evaluator.negateOutput ^ evaluator.evaluate(jsonObject);
+                result = evaluate(evaluators[i], jsonObject, context);
             }
         }
         return result;
@@ -27,6 +27,7 @@
 package org.alfresco.web.evaluator.doclib.action;
 
 import org.alfresco.web.evaluator.BaseEvaluator;
+import org.alfresco.web.evaluator.EvaluatorContext;
 import org.json.simple.JSONObject;
 
 /**
@@ -40,7 +41,13 @@ public class LocateActionEvaluator extends BaseEvaluator
     @Override
     public boolean evaluate(JSONObject jsonObject)
     {
-        String filter = getArg("filter");
+        return evaluate(jsonObject, getContext());
+    }
+
+    @Override
+    public boolean evaluate(JSONObject jsonObject, EvaluatorContext context)
+    {
+        String filter = context.getArg("filter");
         if (filter instanceof String)
         {
             return !(filter.equalsIgnoreCase("path"));
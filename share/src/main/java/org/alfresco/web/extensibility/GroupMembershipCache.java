@@ -0,0 +1,392 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.extensibility;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.ClusterMessageAware;
+import org.springframework.extensions.surf.ClusterService;
+
+/**
+ * Cache of the groups that each user is a member of, shared across requests and sessions.
+ * <p>
+ * The number of users held is bounded with least recently used eviction. Once the memberships of a user
+ * are older than the configured time-to-live they continue to be served while a single refresh is performed
+ * on a background thread, so a membership change in the repository is seen within the time-to-live without
+ * any request waiting on the remote call. The memberships are held as a hashed set so that each group
+ * membership check is a constant time lookup.
+ * <p>
+ * When the memberships of a user are invalidated or replaced, e.g. on login, the other nodes in a Share
+ * cluster are informed via the {@link ClusterService} if one is configured so they drop their copy too.
+ */
+public class GroupMembershipCache implements ClusterMessageAware
+{
+    private static Log logger = LogFactory.getLog(GroupMembershipCache.class);
+    
+    private int maxEntries = 1000;
+    private long timeToLive = 300000L;
+    private Executor refreshExecutor;
+    private ClusterService clusterService;
+    
+    private final Map<String, Memberships> memberships = new LinkedHashMap<String, Memberships>(64, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Memberships> eldest)
+        {
+            return size() > maxEntries;
+        }
+    };
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    
+    
+    /**
+     * @param maxEntries    Maximum number of users to hold group memberships for
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @param timeToLive    Time in milliseconds after which the group memberships of a user are refreshed
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * @param refreshExecutor   Executor used to refresh expired group memberships. If not set a small
+     *                          bounded pool of daemon threads is used.
+     */
+    public void setRefreshExecutor(Executor refreshExecutor)
+    {
+        this.refreshExecutor = refreshExecutor;
+    }
+    
+    /**
+     * Get the groups that a user is a member of.
+     * 
+     * @param userId    The user Id
+     * @param loader    Retrieves the groups of the user from the repository, returning null if they cannot be
+     *                  retrieved. Called on the current thread if the user has no cached memberships, otherwise
+     *                  on a background thread if the cached memberships have expired.
+     * 
+     * @return the names of the groups the user is a member of, or null if they could not be retrieved. The
+     *         set is shared and must not be modified by the caller.
+     * 
+     * @throws Exception if the loader fails when retrieving memberships that are not cached
+     */
+    public Set<String> getGroups(final String userId, final Callable<Set<String>> loader) throws Exception
+    {
+        final Memberships cached;
+        synchronized (this.memberships)
+        {
+            cached = this.memberships.get(userId);
+        }
+        if (cached == null)
+        {
+            this.misses.incrementAndGet();
+            Set<String> groups = loader.call();
+            if (groups != null)
+            {
+                putLocal(userId, groups);
+            }
+            return groups;
+        }
+        
+        this.hits.incrementAndGet();
+        if (cached.isExpired() && cached.refreshing.compareAndSet(false, true))
+        {
+            // serve the current memberships while a single refresh is performed
+            refresh(userId, cached, loader);
+        }
+        return cached.groups;
+    }
+    
+    /**
+     * Replace the cached group memberships of a user with up-to-date values, such as those retrieved on login.
+     * Other nodes in the cluster are informed that their copy is out of date.
+     * 
+     * @param userId    The user Id
+     * @param groups    The names of the groups the user is a member of - must not be modified once cached
+     */
+    public void put(String userId, Set<String> groups)
+    {
+        putLocal(userId, groups);
+        publishInvalidation(userId);
+    }
+    
+    /**
+     * Invalidate the cached group memberships of a user on this node and all other nodes in the cluster.
+     * 
+     * @param userId    The user Id
+     */
+    public void invalidate(String userId)
+    {
+        removeLocal(userId);
+        publishInvalidation(userId);
+    }
+    
+    /**
+     * Invalidate all cached group memberships on this node and all other nodes in the cluster.
+     */
+    public void invalidateAll()
+    {
+        removeLocal(null);
+        publishInvalidation(null);
+    }
+    
+    /**
+     * @return the number of users with cached group memberships
+     */
+    public int getSize()
+    {
+        synchronized (this.memberships)
+        {
+            return this.memberships.size();
+        }
+    }
+    
+    /**
+     * @return the number of requests served from the cache
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+    
+    /**
+     * @return the number of requests for users with no cached group memberships
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+    
+    /**
+     * @return the number of background refreshes of expired group memberships that have been started
+     */
+    public long getRefreshes()
+    {
+        return this.refreshes.get();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "GroupMembershipCache[size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() +
+               ", refreshes=" + getRefreshes() + "]";
+    }
+    
+    private void putLocal(String userId, Set<String> groups)
+    {
+        Memberships value = new Memberships(groups, this.timeToLive);
+        synchronized (this.memberships)
+        {
+            this.memberships.put(userId, value);
+        }
+    }
+    
+    private void removeLocal(String userId)
+    {
+        synchronized (this.memberships)
+        {
+            if (userId != null)
+            {
+                this.memberships.remove(userId);
+            }
+            else
+            {
+                this.memberships.clear();
+            }
+        }
+    }
+    
+    /**
+     * Refresh the expired memberships of a user. The caller must have set the refreshing flag of the memberships.
+     * Any failure is logged and the current memberships continue to be served until the refresh is retried.
+     */
+    private void refresh(final String userId, final Memberships cached, final Callable<Set<String>> loader)
+    {
+        this.refreshes.incrementAndGet();
+        try
+        {
+            getRefreshExecutor().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        Set<String> groups = loader.call();
+                        if (groups != null)
+                        {
+                            Memberships value = new Memberships(groups, timeToLive);
+                            synchronized (memberships)
+                            {
+                                // do not replace memberships that have been invalidated during the refresh
+                                if (memberships.get(userId) == cached)
+                                {
+                                    memberships.put(userId, value);
+                                }
+                            }
+                        }
+                    }
+                    catch (Throwable err)
+                    {
+                        logger.warn("Unable to refresh group memberships for user: " + userId +
+                                " - continuing with current memberships: " + err.getMessage());
+                    }
+                    finally
+                    {
+                        cached.refreshing.set(false);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException rerr)
+        {
+            cached.refreshing.set(false);
+            if (logger.isDebugEnabled())
+                logger.debug("Background refresh of group memberships rejected, will retry on next access.");
+        }
+    }
+    
+    private synchronized Executor getRefreshExecutor()
+    {
+        if (this.refreshExecutor == null)
+        {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    2, 2, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(64),
+                    new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "GroupMembershipRefresh-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            this.refreshExecutor = executor;
+        }
+        return this.refreshExecutor;
+    }
+    
+    
+    /////////////////////////////////////////////////////////////////
+    // Cluster messaging
+    
+    /**
+     * Cluster message indicating that the cached group memberships of a user should be invalidated.
+     * The payload holds the user Id, or no user Id if the memberships of all users should be invalidated.
+     */
+    static interface GroupMembershipMessage
+    {
+        static final String TYPE = "group-membership-invalidate";
+        static final String PAYLOAD_USERID = "user";
+    }
+    
+    private void publishInvalidation(String userId)
+    {
+        if (this.clusterService != null)
+        {
+            Map<String, Serializable> params = new HashMap<>(2);
+            if (userId != null)
+            {
+                params.put(GroupMembershipMessage.PAYLOAD_USERID, userId);
+            }
+            this.clusterService.publishClusterMessage(GroupMembershipMessage.TYPE, params);
+        }
+    }
+    
+    @Override
+    public void setClusterService(ClusterService service)
+    {
+        this.clusterService = service;
+    }
+    
+    @Override
+    public String getClusterMessageType()
+    {
+        return GroupMembershipMessage.TYPE;
+    }
+    
+    @Override
+    public void onClusterMessage(Map<String, Serializable> payload)
+    {
+        final String userId = (String)payload.get(GroupMembershipMessage.PAYLOAD_USERID);
+        if (logger.isDebugEnabled())
+            logger.debug("Cluster message to invalidate group memberships for " + (userId != null ? "user: " + userId : "all users"));
+        removeLocal(userId);
+    }
+    
+    
+    /**
+     * The group memberships of a user with their expiry state.
+     */
+    private static final class Memberships
+    {
+        final Set<String> groups;
+        final long expires;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        
+        Memberships(Set<String> groups, long timeToLive)
+        {
+            this.groups = groups;
+            this.expires = timeToLive > 0 ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+        }
+        
+        boolean isExpired()
+        {
+            return this.expires != Long.MAX_VALUE && System.currentTimeMillis() >= this.expires;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.extensibility;
+
+import java.io.Serializable;
+
+import org.springframework.extensions.surf.RequestContext;
+
+/**
+ * The site and page context of a request as used by the extensibility evaluators. Each is taken from the
+ * URI tokens of the request, its parameters or failing that its path. The request is examined once and the
+ * result held as a value of the {@link RequestContext} so that it can be reused by every evaluator.
+ */
+public final class RequestUriContext implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+    
+    private static final String VALUE_KEY = RequestUriContext.class.getName();
+    
+    private final String site;
+    private final String pageContext;
+    
+    /**
+     * Get the URI context of a request, parsing it on first use.
+     *
+     * @param context RequestContext
+     * @return the URI context of the request
+     */
+    public static RequestUriContext get(RequestContext context)
+    {
+        RequestUriContext uriContext = (RequestUriContext) context.getValue(VALUE_KEY);
+        if (uriContext == null)
+        {
+            uriContext = new RequestUriContext(context);
+            context.setValue(VALUE_KEY, uriContext);
+        }
+        return uriContext;
+    }
+    
+    private RequestUriContext(RequestContext context)
+    {
+        // Look for the values in url path tokens & parameters
+        String site = context.getUriTokens().get(SlingshotEvaluatorUtil.SITE);
+        if (site == null)
+        {
+            site = context.getParameter(SlingshotEvaluatorUtil.SITE);
+        }
+        String pageContext = context.getUriTokens().get(SlingshotEvaluatorUtil.PAGE_CONTEXT);
+        if (pageContext == null)
+        {
+            pageContext = context.getParameter(SlingshotEvaluatorUtil.PAGE_CONTEXT);
+        }
+        
+        // Otherwise look for them in the path
+        if (site == null || pageContext == null)
+        {
+            String[] pathNames = context.getUri().substring(context.getContextPath().length()).split("/");
+            String pathSite = null;
+            String pathPageContext = null;
+            for (int i = 0; i < pathNames.length - 1; i++)
+            {
+                if (pathSite == null && pathNames[i].equals(SlingshotEvaluatorUtil.SITE))
+                {
+                    pathSite = pathNames[i + 1];
+                }
+                else if (pathPageContext == null && pathNames[i].equals(SlingshotEvaluatorUtil.PAGE_CONTEXT))
+                {
+                    pathPageContext = pathNames[i + 1];
+                }
+            }
+            if (site == null)
+            {
+                site = pathSite;
+            }
+            if (pageContext == null)
+            {
+                pageContext = pathPageContext;
+            }
+        }
+        this.site = site;
+        this.pageContext = pageContext;
+    }
+    
+    /**
+     * @return The current site id OR null if we aren't in a site
+     */
+    public String getSite()
+    {
+        return this.site;
+    }
+    
+    /**
+     * @return The current page context id OR null if there is no page context
+     */
+    public String getPageContext()
+    {
+        return this.pageContext;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.extensibility;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.ClusterMessageAware;
+import org.springframework.extensions.surf.ClusterService;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
+import org.springframework.extensions.webscripts.processor.BaseProcessorExtension;
+
+/**
+ * Cache of site metadata (preset, visibility and title) used by the extensibility evaluators, shared
+ * across requests.
+ * <p>
+ * Entries are keyed by tenant and site short name. The metadata of private sites, and the absence of a site,
+ * depend on the user making the request so these are cached per user instead. Sites that could not be found
+ * are cached for a shorter time than those that were. The number of entries is bounded with least recently
+ * used eviction.
+ * <p>
+ * Also available to scripts as a root object so that the site create and delete scripts can invalidate
+ * the metadata of a site - other nodes in a Share cluster are informed via the {@link ClusterService} if
+ * one is configured.
+ */
+public class SiteMetadataCache extends BaseProcessorExtension implements ClusterMessageAware
+{
+    private static Log logger = LogFactory.getLog(SiteMetadataCache.class);
+    
+    private static final String KEY_SEPARATOR = "\n";
+    
+    private int maxEntries = 1000;
+    private long timeToLive = 300000L;
+    private long missingTimeToLive = 60000L;
+    private ClusterService clusterService;
+    
+    private final Map<String, CachedSite> sites = new LinkedHashMap<String, CachedSite>(64, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSite> eldest)
+        {
+            return size() > maxEntries;
+        }
+    };
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    
+    /**
+     * @param maxEntries    Maximum number of sites to hold
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @param timeToLive    Time-to-live of the cached metadata of a site in milliseconds
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * @param missingTimeToLive     Time-to-live in milliseconds of a site that could not be found
+     */
+    public void setMissingTimeToLive(long missingTimeToLive)
+    {
+        this.missingTimeToLive = missingTimeToLive;
+    }
+    
+    /**
+     * Get the metadata of a site.
+     * 
+     * @param userId    The current user id
+     * @param shortName The site short name
+     * @param loader    Retrieves the site metadata from the repository, returning null if the site cannot
+     *                  be found. Called on the current thread if the site is not cached.
+     * 
+     * @return the site metadata, or null if the site cannot be found
+     * 
+     * @throws Exception if the loader fails
+     */
+    public SiteMetadata getSite(String userId, String shortName, Callable<SiteMetadata> loader) throws Exception
+    {
+        final String siteKey = buildKey(getTenant(userId), shortName);
+        final String userKey = siteKey + KEY_SEPARATOR + userId;
+        CachedSite cached = lookup(siteKey);
+        if (cached == null)
+        {
+            cached = lookup(userKey);
+        }
+        if (cached != null)
+        {
+            this.hits.incrementAndGet();
+            return cached.site;
+        }
+        
+        this.misses.incrementAndGet();
+        SiteMetadata site = loader.call();
+        boolean shared = (site != null && !SiteMetadata.VISIBILITY_PRIVATE.equals(site.getVisibility()));
+        long expires = System.currentTimeMillis() + (site != null ? this.timeToLive : this.missingTimeToLive);
+        synchronized (this.sites)
+        {
+            this.sites.put(shared ? siteKey : userKey, new CachedSite(site, expires));
+        }
+        return site;
+    }
+    
+    /**
+     * Invalidate the cached metadata of a site in the tenant of the current user, on this node and all other
+     * nodes in the cluster. Called by scripts when a site is created or deleted.
+     * 
+     * @param shortName The site short name
+     */
+    public void invalidate(String shortName)
+    {
+        final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
+        final String tenant = getTenant(rc != null ? rc.getUserId() : null);
+        removeLocal(tenant, shortName);
+        publishInvalidation(tenant, shortName);
+    }
+    
+    /**
+     * Invalidate all cached site metadata on this node and all other nodes in the cluster.
+     */
+    public void invalidateAll()
+    {
+        removeLocal(null, null);
+        publishInvalidation(null, null);
+    }
+    
+    /**
+     * @return the number of cached entries
+     */
+    public int getSize()
+    {
+        synchronized (this.sites)
+        {
+            return this.sites.size();
+        }
+    }
+    
+    /**
+     * @return the number of requests served from the cache
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+    
+    /**
+     * @return the number of requests for sites not found in the cache
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "SiteMetadataCache[size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+    
+    private CachedSite lookup(String key)
+    {
+        synchronized (this.sites)
+        {
+            CachedSite cached = this.sites.get(key);
+            if (cached != null && cached.expires <= System.currentTimeMillis())
+            {
+                this.sites.remove(key);
+                cached = null;
+            }
+            return cached;
+        }
+    }
+    
+    private void removeLocal(String tenant, String shortName)
+    {
+        synchronized (this.sites)
+        {
+            if (shortName == null)
+            {
+                this.sites.clear();
+            }
+            else
+            {
+                // the shared entry and any per user entries for the site
+                final String siteKey = buildKey(tenant, shortName);
+                final String userKeys = siteKey + KEY_SEPARATOR;
+                for (Iterator<String> keys = this.sites.keySet().iterator(); keys.hasNext(); /**/)
+                {
+                    String key = keys.next();
+                    if (key.equals(siteKey) || key.startsWith(userKeys))
+                    {
+                        keys.remove();
+                    }
+                }
+            }
+        }
+    }
+    
+    private static String buildKey(String tenant, String shortName)
+    {
+        return tenant + KEY_SEPARATOR + shortName;
+    }
+    
+    /**
+     * @return the tenant domain of the user, or empty string for the default tenant
+     */
+    private static String getTenant(String userId)
+    {
+        int idx = (userId != null ? userId.indexOf('@') : -1);
+        return (idx != -1 ? userId.substring(idx) : "");
+    }
+    
+    
+    /////////////////////////////////////////////////////////////////
+    // Cluster messaging
+    
+    /**
+     * Cluster message indicating that the cached metadata of a site should be invalidated. The payload holds
+     * the tenant and short name of the site, or neither if all sites should be invalidated.
+     */
+    static interface SiteMetadataMessage
+    {
+        static final String TYPE = "site-metadata-invalidate";
+        static final String PAYLOAD_TENANT = "tenant";
+        static final String PAYLOAD_SITE = "site";
+    }
+    
+    private void publishInvalidation(String tenant, String shortName)
+    {
+        if (this.clusterService != null)
+        {
+            Map<String, Serializable> params = new HashMap<>(4);
+            if (shortName != null)
+            {
+                params.put(SiteMetadataMessage.PAYLOAD_TENANT, tenant);
+                params.put(SiteMetadataMessage.PAYLOAD_SITE, shortName);
+            }
+            this.clusterService.publishClusterMessage(SiteMetadataMessage.TYPE, params);
+        }
+    }
+    
+    @Override
+    public void setClusterService(ClusterService service)
+    {
+        this.clusterService = service;
+    }
+    
+    @Override
+    public String getClusterMessageType()
+    {
+        return SiteMetadataMessage.TYPE;
+    }
+    
+    @Override
+    public void onClusterMessage(Map<String, Serializable> payload)
+    {
+        final String tenant = (String)payload.get(SiteMetadataMessage.PAYLOAD_TENANT);
+        final String shortName = (String)payload.get(SiteMetadataMessage.PAYLOAD_SITE);
+        if (logger.isDebugEnabled())
+            logger.debug("Cluster message to invalidate site metadata for " + (shortName != null ? "site: " + shortName : "all sites"));
+        removeLocal(tenant != null ? tenant : "", shortName);
+    }
+    
+    
+    /**
+     * The metadata of a site used by the evaluators.
+     */
+    public static final class SiteMetadata implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        
+        public static final String VISIBILITY_PRIVATE = "PRIVATE";
+        
+        private final String shortName;
+        private final String preset;
+        private final String visibility;
+        private final String title;
+        
+        public SiteMetadata(String shortName, String preset, String visibility, String title)
+        {
+            this.shortName = shortName;
+            this.preset = preset;
+            this.visibility = visibility;
+            this.title = title;
+        }
+        
+        public String getShortName()
+        {
+            return this.shortName;
+        }
+        
+        public String getPreset()
+        {
+            return this.preset;
+        }
+        
+        /**
+         * @return PUBLIC, MODERATED or PRIVATE
+         */
+        public String getVisibility()
+        {
+            return this.visibility;
+        }
+        
+        public String getTitle()
+        {
+            return this.title;
+        }
+    }
+    
+    /**
+     * Cached site metadata, or null for a site that could not be found, with its expiry time.
+     */
+    private static class CachedSite
+    {
+        final SiteMetadata site;
+        final long expires;
+        
+        CachedSite(SiteMetadata site, long expires)
+        {
+            this.site = site;
+            this.expires = expires;
+        }
+    }
+}
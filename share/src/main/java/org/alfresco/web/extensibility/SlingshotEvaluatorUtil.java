@@ -27,12 +27,15 @@ package org.alfresco.web.extensibility;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpSession;
 
+import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.web.site.SlingshotUserFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -75,12 +78,34 @@ public class SlingshotEvaluatorUtil {
     protected static final String PAGE_CONTEXT = "pagecontext";
 
     protected WebFrameworkServiceRegistry serviceRegistry = null;
+    
+    protected GroupMembershipCache groupMembershipCache = null;
+    
+    protected SiteMetadataCache siteMetadataCache = null;
 
     public void setServiceRegistry(WebFrameworkServiceRegistry serviceRegistry)
     {
         this.serviceRegistry = serviceRegistry;
     }
 
+    /**
+     * @param groupMembershipCache  Cache of user group memberships shared across sessions. If not set the group
+     *                              memberships of the current user are held in the HttpSession instead.
+     */
+    public void setGroupMembershipCache(GroupMembershipCache groupMembershipCache)
+    {
+        this.groupMembershipCache = groupMembershipCache;
+    }
+
+    /**
+     * @param siteMetadataCache  Cache of site metadata shared across requests. If not set the site preset is
+     *                           retrieved once per request instead.
+     */
+    public void setSiteMetadataCache(SiteMetadataCache siteMetadataCache)
+    {
+        this.siteMetadataCache = siteMetadataCache;
+    }
+
     /**
      * Helper for getting an evaluator parameter trimmed OR defaultValue if no value has been provided.
      *
@@ -151,24 +176,8 @@ public class SlingshotEvaluatorUtil {
      */
     public String getSite(RequestContext context)
     {
-        // Look for siteId in url path & parameters
-        String site = context.getUriTokens().get(SITE);
-        if (site == null)
-        {
-            site = context.getParameter(SITE);
-        }
-        if (site == null)
-        {
-            String[] pathNames = context.getUri().substring(context.getContextPath().length()).split("/");
-            for (int i = 0; i < pathNames.length; i++) {
-                if (pathNames[i].equals(SITE) && (i + 1 < pathNames.length))
-                {
-                    site = pathNames[i + 1];
-                    break;
-                }
-            }
-        }
-        return site;
+        // Look for siteId in url path & parameters - parsed once per request
+        return RequestUriContext.get(context).getSite();
     }
     
     /**
@@ -179,24 +188,8 @@ public class SlingshotEvaluatorUtil {
      */
     public String getPageContext(RequestContext context)
     {
-        // Look for siteId in url path & parameters
-        String pageContext = context.getUriTokens().get(PAGE_CONTEXT);
-        if (pageContext == null)
-        {
-            pageContext = context.getParameter(PAGE_CONTEXT);
-        }
-        if (pageContext == null)
-        {
-            String[] pathNames = context.getUri().substring(context.getContextPath().length()).split("/");
-            for (int i = 0; i < pathNames.length; i++) {
-                if (pathNames[i].equals(PAGE_CONTEXT) && (i + 1 < pathNames.length))
-                {
-                    pageContext = pathNames[i + 1];
-                    break;
-                }
-            }
-        }
-        return pageContext;
+        // Look for page context in url path & parameters - parsed once per request
+        return RequestUriContext.get(context).getPageContext();
     }
 
     /**
@@ -209,6 +202,12 @@ public class SlingshotEvaluatorUtil {
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public String getSitePreset(RequestContext context, String siteId)
     {
+        if (this.siteMetadataCache != null)
+        {
+            SiteMetadataCache.SiteMetadata site = getSiteMetadata(context, siteId);
+            return (site != null ? site.getPreset() : null);
+        }
+        
         // Get the preset request cache
         HashMap sitePresetCache = (HashMap) context.getAttributes().get(SITE_PRESET_CACHE);
         if (sitePresetCache == null)
@@ -243,6 +242,62 @@ public class SlingshotEvaluatorUtil {
         return sitePresetId;
     }
 
+    /**
+     * The site's metadata from the shared cache OR null if the site cannot be found or something goes wrong.
+     *
+     * @param context RequestContext
+     * @param siteId The id of the site to retrieve the metadata for.
+     * @return The site's metadata OR null if the site cannot be found or something goes wrong.
+     */
+    public SiteMetadataCache.SiteMetadata getSiteMetadata(RequestContext context, final String siteId)
+    {
+        Callable<SiteMetadataCache.SiteMetadata> loader = new Callable<SiteMetadataCache.SiteMetadata>()
+        {
+            @Override
+            public SiteMetadataCache.SiteMetadata call() throws Exception
+            {
+                return retrieveSiteMetadata(siteId);
+            }
+        };
+        try
+        {
+            return (this.siteMetadataCache != null ? this.siteMetadataCache.getSite(context.getUserId(), siteId, loader) : loader.call());
+        }
+        catch (Exception e)
+        {
+            if (logger.isErrorEnabled())
+            {
+                logger.error("Could not get the metadata of site '" + siteId + "': " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Retrieve the metadata of a site from the default repository.
+     *
+     * @param siteId The id of the site to retrieve the metadata for.
+     * @return The site's metadata OR null if the site cannot be found
+     * @throws JSONException
+     */
+    protected SiteMetadataCache.SiteMetadata retrieveSiteMetadata(String siteId) throws JSONException
+    {
+        ScriptRemote scriptRemote = serviceRegistry.getScriptRemote();
+        Response response = scriptRemote.connect().get("/api/sites/" + URLEncoder.encode(siteId));
+        int code = response.getStatus().getCode();
+        if (code == Status.STATUS_NOT_FOUND)
+        {
+            return null;
+        }
+        if (code != Status.STATUS_OK)
+        {
+            throw new AlfrescoRuntimeException("Unexpected status " + code + " retrieving site: " + siteId);
+        }
+        JSONObject site = new JSONObject(response.getResponse());
+        return new SiteMetadataCache.SiteMetadata(siteId, site.getString(SITE_PRESET),
+                site.optString("visibility", null), site.optString("title", null));
+    }
+
     /**
      * Helper method for making a json get remote call to the default repository.
      *
@@ -278,7 +333,7 @@ public class SlingshotEvaluatorUtil {
      * @param memberOfAllGroups boolean
      * @return boolean
      */
-    @SuppressWarnings({ "rawtypes" })
+    @SuppressWarnings("unchecked")
     public boolean isMemberOfGroups(RequestContext context, List<String> groups, boolean memberOfAllGroups)
     {
         // Initialise the default result to be null... we're intentionally using a Boolean object over boolean
@@ -286,12 +341,12 @@ public class SlingshotEvaluatorUtil {
         // any membership information has actually been processed (e.g. when NO groups have been specified).
         Boolean isMember = null;
 
-        // We're going to store GROUP membership in the HttpSession as this changes infrequently but will be
+        // We're going to cache GROUP membership across requests as this changes infrequently but will be
         // accessing SITE membership for every request. Surf will ensure that requests are cached for each
         // page so we are not making the same request more than once per page. Site membership can change more
         // frequently so we need to be sure that the information we have is up-to-date.
-        HttpSession session = ServletUtil.getSession();
-        org.json.simple.JSONArray groupsList = null;
+        final HttpSession session = ServletUtil.getSession();
+        Set<String> groupMemberships = null;
         String GROUP_MEMBERSHIPS = "AlfGroupMembershipsKey";
 
         // Get the current site
@@ -309,12 +364,12 @@ public class SlingshotEvaluatorUtil {
         }
 
         // Get all the group membership first so that we don't perform this operation multiple times... check
-        // the HttpSession and if it's not already available then make a request for it and cache it for future
-        // reference. Note that we're ONLY caching the current users membership information.
-        Object _cachedGroupMemberships = session.getAttribute(GROUP_MEMBERSHIPS);
-        if (_cachedGroupMemberships instanceof org.json.simple.JSONArray)
+        // the cache (or the HttpSession if there is no cache) and if it's not already available then make a request
+        // for it and cache it for future reference.
+        Object _cachedGroupMemberships = (this.groupMembershipCache == null ? session.getAttribute(GROUP_MEMBERSHIPS) : null);
+        if (_cachedGroupMemberships instanceof Set)
         {
-            groupsList = (org.json.simple.JSONArray) _cachedGroupMemberships;
+            groupMemberships = (Set<String>) _cachedGroupMemberships;
         }
         else
         {
@@ -332,19 +387,30 @@ public class SlingshotEvaluatorUtil {
                         // User is not logged in anymore
                         return false;
                     }
-                    String userName = (String)session.getAttribute(UserFactory.SESSION_ATTRIBUTE_KEY_USER_ID);
-                    Connector connector = context.getServiceRegistry().getConnectorService().getConnector(SlingshotUserFactory.ALFRESCO_ENDPOINT_ID, userName, ServletUtil.getSession());
-                    Response res = connector.call("/api/people/" + URLEncoder.encode(context.getUserId()) + "?groups=true");
-                    if (res.getStatus().getCode() == Status.STATUS_OK)
+                    final String userName = (String)session.getAttribute(UserFactory.SESSION_ATTRIBUTE_KEY_USER_ID);
+                    final String userId = context.getUserId();
+                    final WebFrameworkServiceRegistry registry = context.getServiceRegistry();
+                    
+                    // the connector is only created if the memberships are retrieved - possibly on a background thread
+                    Callable<Set<String>> loader = new Callable<Set<String>>()
+                    {
+                        @Override
+                        public Set<String> call() throws Exception
+                        {
+                            Connector connector = registry.getConnectorService().getConnector(SlingshotUserFactory.ALFRESCO_ENDPOINT_ID, userName, session);
+                            return retrieveGroupMemberships(connector, userId);
+                        }
+                    };
+                    if (this.groupMembershipCache != null && userId != null)
+                    {
+                        groupMemberships = this.groupMembershipCache.getGroups(userId, loader);
+                    }
+                    else
                     {
-                        String response = res.getResponse();
-                        org.json.simple.parser.JSONParser p = new org.json.simple.parser.JSONParser();
-                        Object o2 = p.parse(response);
-                        if (o2 instanceof org.json.simple.JSONObject)
+                        groupMemberships = loader.call();
+                        if (groupMemberships != null)
                         {
-                            org.json.simple.JSONObject jsonRes = (org.json.simple.JSONObject) o2;
-                            groupsList = (org.json.simple.JSONArray) jsonRes.get("groups");
-                            session.setAttribute(GROUP_MEMBERSHIPS, groupsList);
+                            session.setAttribute(GROUP_MEMBERSHIPS, groupMemberships);
                         }
                     }
                 }
@@ -357,6 +423,10 @@ public class SlingshotEvaluatorUtil {
             {
                 e.printStackTrace();
             }
+            catch (Exception e)
+            {
+                logger.error("Unable to retrieve group memberships for user: " + context.getUserId(), e);
+            }
         }
 
         // Work through the supplied list of groups to determine whether or not the current user is a member of them...
@@ -424,20 +494,10 @@ public class SlingshotEvaluatorUtil {
                         }
                     }
                 }
-                else if (groupsList != null)
+                else if (groupMemberships != null)
                 {
                     // Check for regular GROUP membership... all non-site groups MUST begin "GROUP"...
-                    Iterator i = groupsList.iterator();
-                    while (i.hasNext())
-                    {
-                        org.json.simple.JSONObject group = (org.json.simple.JSONObject) i.next();
-                        String currGroupName = group.get("itemName").toString();
-                        if (currGroupName.equals(groupName))
-                        {
-                            isMemberOfCurrentGroup = true;
-                            break;
-                        }
-                    }
+                    isMemberOfCurrentGroup = groupMemberships.contains(groupName);
                 }
             }
 
@@ -466,6 +526,40 @@ public class SlingshotEvaluatorUtil {
         return isMember;
     }
 
+    /**
+     * Retrieve the names of the groups that a user is a member of from the repository.
+     *
+     * @param connector Connector to the Alfresco endpoint
+     * @param userId The user to retrieve the group memberships of
+     * @return The names of the groups the user is a member of, or null if they could not be retrieved
+     * @throws ParseException
+     */
+    protected Set<String> retrieveGroupMemberships(Connector connector, String userId) throws ParseException
+    {
+        Set<String> groupMemberships = null;
+        Response res = connector.call("/api/people/" + URLEncoder.encode(userId) + "?groups=true");
+        if (res.getStatus().getCode() == Status.STATUS_OK)
+        {
+            String response = res.getResponse();
+            org.json.simple.parser.JSONParser p = new org.json.simple.parser.JSONParser();
+            Object o2 = p.parse(response);
+            if (o2 instanceof org.json.simple.JSONObject)
+            {
+                org.json.simple.JSONObject jsonRes = (org.json.simple.JSONObject) o2;
+                org.json.simple.JSONArray groupsList = (org.json.simple.JSONArray) jsonRes.get("groups");
+                groupMemberships = new HashSet<String>();
+                if (groupsList != null)
+                {
+                    for (Object group : groupsList)
+                    {
+                        groupMemberships.add(((org.json.simple.JSONObject) group).get("itemName").toString());
+                    }
+                }
+            }
+        }
+        return groupMemberships;
+    }
+
     /**
      * Gets the list of groups to check for membership of. This assumes that the groups have been
      * provided as a comma delimited string and will convert that string into a List removing trailing
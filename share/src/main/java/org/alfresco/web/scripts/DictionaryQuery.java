@@ -27,16 +27,23 @@ package org.alfresco.web.scripts;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.util.ParameterCheck;
 import org.alfresco.web.scripts.Dictionary.DictionaryAssoc;
 import org.alfresco.web.scripts.Dictionary.DictionaryItem;
 import org.alfresco.web.scripts.Dictionary.DictionaryProperty;
+import org.alfresco.web.scripts.forms.FormDefinitionCache;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONArray;
@@ -68,6 +75,16 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
 {
     private static Log logger = LogFactory.getLog(DictionaryQuery.class);
     
+    private FormDefinitionCache formDefinitionCache;
+    
+    
+    /**
+     * @param formDefinitionCache   Cache of form definitions to invalidate when the dictionary is updated
+     */
+    public void setFormDefinitionCache(FormDefinitionCache formDefinitionCache)
+    {
+        this.formDefinitionCache = formDefinitionCache;
+    }
     
     /**
      * getAspects - return Array of all aspects in the dictionary.
@@ -374,6 +391,7 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
         ParameterCheck.mandatoryString("json", json);
         
         getDictionary().updateAddClasses(json);
+        invalidateFormDefinitions();
         
         // inform cluster of update
         if (this.clusterService != null)
@@ -395,6 +413,7 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
         ParameterCheck.mandatoryString("json", json);
         
         getDictionary().updateRemoveClasses(json);
+        invalidateFormDefinitions();
         
         // inform cluster of update
         if (this.clusterService != null)
@@ -406,6 +425,17 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
         }
     }
     
+    /**
+     * Invalidate any cached form definitions as they may reference the updated classes
+     */
+    private void invalidateFormDefinitions()
+    {
+        if (this.formDefinitionCache != null)
+        {
+            this.formDefinitionCache.invalidateAll();
+        }
+    }
+    
     @Override
     public String toString()
     {
@@ -452,12 +482,43 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
     @Override
     protected Dictionary retrieveValue(final String userId, final String storeId)
             throws ConnectorServiceException
+    {
+        return retrieveDictionary(getConnector(userId), storeId);
+    }
+    
+    @Override
+    protected Callable<Dictionary> createRefreshTask(final String userId, final String storeId)
+            throws ConnectorServiceException
+    {
+        // resolve the connector now - the refresh task is executed outside of the request context
+        final Connector conn = getConnector(userId);
+        return new Callable<Dictionary>()
+        {
+            @Override
+            public Dictionary call() throws Exception
+            {
+                return retrieveDictionary(conn, storeId);
+            }
+        };
+    }
+    
+    /**
+     * @return connector to the Alfresco endpoint for the given user in the current request context
+     */
+    private Connector getConnector(final String userId) throws ConnectorServiceException
+    {
+        final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
+        return rc.getServiceRegistry().getConnectorService().getConnector("alfresco", userId, ServletUtil.getSession());
+    }
+    
+    /**
+     * Retrieve the dictionary from the repository using the given connector.
+     */
+    private Dictionary retrieveDictionary(final Connector conn, final String storeId)
     {
         Dictionary dictionary;
         
         // initiate a call to retrieve the dictionary from the repository
-        final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
-        final Connector conn = rc.getServiceRegistry().getConnectorService().getConnector("alfresco", userId, ServletUtil.getSession());
         final Response response = conn.call("/api/dictionary");
         if (response.getStatus().getCode() == Status.STATUS_OK)
         {
@@ -549,19 +610,23 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
         {
             if (logger.isDebugEnabled())
                 logger.debug("Cluster message to update dictionary with ADD operation: " + jsonAdd);
-            if (hasSingletonValue(isTenant(), userId))
+            Dictionary dictionary = getCurrentSingletonValue(isTenant(), userId);
+            if (dictionary != null)
             {
-                getSingletonValue(isTenant(), userId).updateAddClasses(jsonAdd);
+                dictionary.updateAddClasses(jsonAdd);
             }
+            invalidateFormDefinitions();
         }
         if (jsonRemove != null)
         {
             if (logger.isDebugEnabled())
                 logger.debug("Cluster message to update dictionary with REMOVE operation: " + jsonRemove);
-            if (hasSingletonValue(isTenant(), userId))
+            Dictionary dictionary = getCurrentSingletonValue(isTenant(), userId);
+            if (dictionary != null)
             {
-                getSingletonValue(isTenant(), userId).updateRemoveClasses(jsonRemove);
+                dictionary.updateRemoveClasses(jsonRemove);
             }
+            invalidateFormDefinitions();
         }
     }
 }
@@ -571,9 +636,11 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
  * Class representing a Data Dictionary model instance. There will be a DD instance
  * for each tenant in Alfresco, for a single tenant instance there will only be one.
  * <p>
- * Handles the internals of various dictionary queries and manipulates the JSON data
- * that represents each type, aspect and its properties. The various public methods
- * on the DictionaryQuery should stay isolated from the JSON internals.
+ * The JSON data that represents each type, aspect and its properties is parsed once into
+ * typed {@link DictionaryItem} instances when the dictionary is loaded or updated. From those
+ * an immutable {@link DictionaryIndex} is built that holds the pre-computed class hierarchy, so
+ * the various queries are simple lookups rather than walks over the JSON structure. The various
+ * public methods on the DictionaryQuery should stay isolated from the JSON internals.
  * 
  * @author Kevin Roast
  */
@@ -602,8 +669,12 @@ class Dictionary
     static final String JSON_ROLE = "role";
     static final String JSON_MANY = "many";
     
-    private Map<String, DictionaryItem> types;
-    private Map<String, DictionaryItem> aspects;
+    private static final String[] EMPTY_STRINGS = new String[0];
+    private static final DictionaryProperty[] EMPTY_PROPERTIES = new DictionaryProperty[0];
+    private static final DictionaryAssoc[] EMPTY_ASSOCS = new DictionaryAssoc[0];
+
+    /** immutable index of the current types and aspects - replaced as a whole on update */
+    private volatile DictionaryIndex index;
     
     /**
      * Constructor
@@ -613,438 +684,124 @@ class Dictionary
      */
     Dictionary(Map<String, DictionaryItem> types, Map<String, DictionaryItem> aspects)
     {
-        this.types = types;
-        this.aspects = aspects;
+        this.index = new DictionaryIndex(types, aspects);
     }
     
     public DictionaryItem getType(String type)
     {
-        return this.types.get(type);
+        IndexedClass ddclass = this.index.types.get(type);
+        return ddclass != null ? ddclass.item : null;
     }
     
     public DictionaryItem getAspect(String aspect)
     {
-        return this.aspects.get(aspect);
+        IndexedClass ddclass = this.index.aspects.get(aspect);
+        return ddclass != null ? ddclass.item : null;
     }
     
     public DictionaryItem getTypeOrAspect(String ddclass)
     {
-        DictionaryItem item = this.types.get(ddclass);
-        if (item == null)
-        {
-            item = this.aspects.get(ddclass);
-        }
-        return item;
+        IndexedClass indexed = this.index.getTypeOrAspect(ddclass);
+        return indexed != null ? indexed.item : null;
     }
     
     public boolean isSubType(String type, String isType)
     {
-        boolean isSubType = false;
-        try
-        {
-            DictionaryItem ddtype = getType(type);
-            while (!isSubType && ddtype != null)
-            {
-                // the parent JSON object will always exist, but may be empty
-                JSONObject parent = ddtype.data.getJSONObject(JSON_PARENT);
-                if (parent.has(JSON_NAME))
-                {
-                    // found a parent type specified for our type
-                    String parentName = parent.getString(JSON_NAME);
-                    ddtype = this.types.get(parentName);
-                    if (ddtype != null)
-                    {
-                        isSubType = (isType.equals(ddtype.data.getString(JSON_NAME)));
-                    }
-                }
-                else
-                {
-                    // no parent found - end the search
-                    ddtype = null;
-                }
-            }
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'isSubType' information for: " + type, jsonErr);
-        }
-        return isSubType;
+        final DictionaryIndex index = this.index;
+        IndexedClass ddtype = index.types.get(type);
+        IndexedClass ddIsType = index.types.get(isType);
+        return (ddtype != null && ddIsType != null && ddtype.superTypes.get(ddIsType.id));
     }
     
     public String[] getSubTypes(String ddclass)
     {
-        try
-        {
-            List<String> subTypes = new ArrayList<String>();
-            DictionaryItem dditem = getType(ddclass);
-            if (dditem != null)
-            {
-                // TODO: get parent of given ddclass - if that is non-null then can be used as a quick exit for the parent hiearchy search on types
-                for (String typeName : this.types.keySet())
-                {
-                    DictionaryItem ddType = getType(typeName);
-                    String parentType = null;
-                    while (ddType != null)
-                    {
-                        // the parent JSON object will always exist, but name value may be empty
-                        JSONObject parent = ddType.data.getJSONObject(JSON_PARENT);
-                        parentType = parent.optString(JSON_NAME);
-                        if (parentType != null)
-                        {
-                            if (parentType.equals(ddclass))
-                            {
-                                // found a sub-type - store and exit the loop
-                                subTypes.add(parentType);
-                                ddType = null;
-                            }
-                            else
-                            {
-                                // get the parent type for another loop round
-                                ddType = getType(parentType);
-                            }
-                        }
-                    }
-                }
-            }
-            else
-            {
-                dditem = getAspect(ddclass);
-                if (dditem != null)
-                {
-                    for (String aspectName : this.aspects.keySet())
-                    {
-                        DictionaryItem ddAspect = getAspect(aspectName);
-                        String parentAspect = null;
-                        while (ddAspect != null)
-                        {
-                            // the parent JSON object will always exist, but name value may be empty
-                            JSONObject parent = ddAspect.data.getJSONObject(JSON_PARENT);
-                            parentAspect = parent.optString(JSON_NAME);
-                            if (parentAspect != null)
-                            {
-                                if (parentAspect.equals(ddclass))
-                                {
-                                    // found a sub-type - store and exit the loop
-                                    subTypes.add(parentAspect);
-                                    ddAspect = null;
-                                }
-                                else
-                                {
-                                    // get the parent aspect for another loop round
-                                    ddAspect = getAspect(parentAspect);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            return subTypes.toArray(new String[subTypes.size()]);
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'subtype' information for: " + ddclass, jsonErr);
-        }
+        IndexedClass indexed = this.index.getTypeOrAspect(ddclass);
+        return indexed != null ? indexed.subTypes.clone() : EMPTY_STRINGS;
     }
     
     public String[] getAllTypes()
     {
-        return this.types.keySet().toArray(new String[this.types.keySet().size()]);
+        return this.index.allTypes.clone();
     }
     
     public String[] getAllAspects()
     {
-        return this.aspects.keySet().toArray(new String[this.aspects.keySet().size()]);
+        return this.index.allAspects.clone();
     }
     
     public boolean hasDefaultAspect(String type, String aspect)
     {
-        boolean hasAspect = false;
-        try
-        {
-            DictionaryItem ddtype = getType(type);
-            if (ddtype != null)
-            {
-                JSONObject aspects = ddtype.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                Iterator<String> keys = aspects.keys();
-                while (!hasAspect && keys.hasNext())
-                {
-                    hasAspect = (aspect.equals(keys.next()));
-                }
-            }
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'defaultAspects' information for: " + type, jsonErr);
-        }
-        return hasAspect;
+        IndexedClass ddtype = this.index.types.get(type);
+        return ddtype != null && ddtype.item.defaultAspectSet.contains(aspect);
     }
     
     public String[] getDefaultAspects(String type)
     {
-        String[] defaultAspects = null;
-        try
-        {
-            DictionaryItem ddtype = getType(type);
-            if (ddtype != null)
-            {
-                JSONObject aspects = ddtype.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                defaultAspects = new String[aspects.length()];
-                int count = 0;
-                Iterator<String> keys = aspects.keys();
-                while (keys.hasNext())
-                {
-                    defaultAspects[count++] = keys.next();
-                }
-            }
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'defaultAspects' information for: " + type, jsonErr);
-        }
-        return defaultAspects != null ? defaultAspects : new String[0];
+        IndexedClass ddtype = this.index.types.get(type);
+        return ddtype != null ? ddtype.item.defaultAspects.clone() : EMPTY_STRINGS;
     }
     
     public boolean hasProperty(String ddclass, String property, boolean checkDefaultAspects)
     {
-        boolean hasProperty = false;
-        try
-        {
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                JSONObject properties = dditem.data.getJSONObject(JSON_PROPERTIES);
-                Iterator<String> props = properties.keys();
-                while (!hasProperty && props.hasNext())
-                {
-                    // test properties and inherited properties
-                    hasProperty = (property.equals(props.next()));
-                }
-                if (checkDefaultAspects && !hasProperty)
-                {
-                    // test each default aspect for the property
-                    JSONObject aspects = dditem.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                    Iterator<String> keys = aspects.keys();
-                    while (!hasProperty && keys.hasNext())
-                    {
-                        // get each aspect defined on the type
-                        DictionaryItem aspect = getAspect(keys.next());
-                        if (aspect != null)
-                        {
-                            props = aspect.data.getJSONObject(JSON_PROPERTIES).keys();
-                            while (!hasProperty && props.hasNext())
-                            {
-                                // test properties on each aspect
-                                hasProperty = (property.equals(props.next()));
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'properties' information for: " + ddclass, jsonErr);
-        }
-        return hasProperty;
+        return getProperty(ddclass, property, checkDefaultAspects) != null;
     }
    
     public String getTitle(String ddclass)
     {
-        try
-        {
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            return dditem != null ? dditem.data.getString(JSON_TITLE) : null;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'title' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.title : null;
     }
     
     public String getDescription(String ddclass)
     {
-        try
-        {
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            return dditem != null ? dditem.data.getString(JSON_DESCRIPTION) : null;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'description' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.description : null;
     }
     
     public String getParent(String ddclass)
     {
-        try
-        {
-            String parentType = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                // the parent JSON object will always exist, but may be empty
-                JSONObject parent = dditem.data.getJSONObject(JSON_PARENT);
-                parentType = parent.optString(JSON_NAME);
-            }
-            return parentType;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'parent' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.parent : null;
     }
     
     public boolean isContainer(String type)
     {
-        try
-        {
-            DictionaryItem ddtype = getType(type);
-            return ddtype != null ? ddtype.data.getBoolean(JSON_IS_CONTAINER) : false;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'isContainer' information for: " + type, jsonErr);
-        }
+        DictionaryItem ddtype = getType(type);
+        return ddtype != null ? ddtype.isContainer : false;
     }
     
     public DictionaryProperty getProperty(String ddclass, String property, boolean checkDefaultAspects)
     {
-        try
+        IndexedClass indexed = this.index.getTypeOrAspect(ddclass);
+        DictionaryProperty ddprop = null;
+        if (indexed != null)
         {
-            DictionaryProperty ddprop = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                JSONObject properties = dditem.data.getJSONObject(JSON_PROPERTIES);
-                if (properties.has(property))
-                {
-                    ddprop = new DictionaryProperty(property, properties.getJSONObject(property));
-                }
-                else if (checkDefaultAspects)
-                {
-                    // test each default aspect for the property
-                    JSONObject aspects = dditem.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                    Iterator<String> keys = aspects.keys();
-                    while (ddprop == null && keys.hasNext())
-                    {
-                        // get each aspect defined on the type
-                        DictionaryItem aspect = getAspect(keys.next());
-                        if (aspect != null)
-                        {
-                            properties = aspect.data.getJSONObject(JSON_PROPERTIES);
-                            if (properties.has(property))
-                            {
-                                ddprop = new DictionaryProperty(property, properties.getJSONObject(property));
-                            }
-                        }
-                    }
-                }
-            }
-            return ddprop;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'properties' information for: " + ddclass, jsonErr);
+            ddprop = checkDefaultAspects ? indexed.allProperties.get(property) : indexed.item.properties.get(property);
         }
+        return ddprop;
     }
     
     public DictionaryProperty[] getProperties(String ddclass, boolean checkDefaultAspects)
     {
-        try
+        IndexedClass indexed = this.index.getTypeOrAspect(ddclass);
+        DictionaryProperty[] ddprops = null;
+        if (indexed != null)
         {
-            DictionaryProperty[] ddprops = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                JSONObject properties = dditem.data.getJSONObject(JSON_PROPERTIES);
-                List<DictionaryProperty> propList = new ArrayList<DictionaryProperty>(properties.length());
-                Iterator<String> props = properties.keys();
-                while (props.hasNext())
-                {
-                    String propName = props.next();
-                    propList.add(new DictionaryProperty(propName, properties.getJSONObject(propName)));
-                }
-                if (checkDefaultAspects)
-                {
-                    JSONObject aspects = dditem.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                    Iterator<String> keys = aspects.keys();
-                    while (keys.hasNext())
-                    {
-                        // get each aspect defined on the type
-                        DictionaryItem aspect = getAspect(keys.next());
-                        if (aspect != null)
-                        {
-                            properties = aspect.data.getJSONObject(JSON_PROPERTIES);
-                            props = properties.keys();
-                            while (props.hasNext())
-                            {
-                                String propName = props.next();
-                                propList.add(new DictionaryProperty(propName, properties.getJSONObject(propName)));
-                            }
-                        }
-                    }
-                }
-                ddprops = new DictionaryProperty[propList.size()];
-                propList.toArray(ddprops);
-            }
-            return ddprops != null ? ddprops : new DictionaryProperty[0];
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'properties' information for: " + ddclass, jsonErr);
+            ddprops = checkDefaultAspects ? indexed.allPropertiesList : indexed.item.propertiesList;
         }
+        return ddprops != null ? ddprops.clone() : EMPTY_PROPERTIES;
     }
     
     public DictionaryAssoc[] getAssociations(String ddclass)
     {
-        try
-        {
-            DictionaryAssoc[] ddassocs = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                JSONObject assocs = dditem.data.getJSONObject(JSON_ASSOCIATIONS);
-                ddassocs = new DictionaryAssoc[assocs.length()];
-                int count = 0;
-                Iterator<String> assocNames = assocs.keys();
-                while (assocNames.hasNext())
-                {
-                    String assocName = assocNames.next();
-                    ddassocs[count++] = new DictionaryAssoc(assocName, assocs.getJSONObject(assocName));
-                }
-            }
-            return ddassocs != null ? ddassocs : new DictionaryAssoc[0];
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'associations' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.associations.clone() : EMPTY_ASSOCS;
     }
     
     public DictionaryAssoc[] getChildAssociations(String ddclass)
     {
-        try
-        {
-            DictionaryAssoc[] ddassocs = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                JSONObject assocs = dditem.data.getJSONObject(JSON_CHILDASSOCIATIONS);
-                ddassocs = new DictionaryAssoc[assocs.length()];
-                int count = 0;
-                Iterator<String> assocNames = assocs.keys();
-                while (assocNames.hasNext())
-                {
-                    String assocName = assocNames.next();
-                    ddassocs[count++] = new DictionaryAssoc(assocName, assocs.getJSONObject(assocName));
-                }
-            }
-            return ddassocs != null ? ddassocs : new DictionaryAssoc[0];
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'childassociations' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.childAssociations.clone() : EMPTY_ASSOCS;
     }
     
     public void updateAddClasses(String classes)
@@ -1053,9 +810,10 @@ class Dictionary
         {
             JSONArray json = new JSONArray(classes);
             
-            // shallow copy types and aspects maps - do not modify the originals as iterators could be running in threads 
-            final Map<String, DictionaryItem> types = (Map<String, DictionaryItem>)((HashMap)this.types).clone();
-            final Map<String, DictionaryItem> aspects = (Map<String, DictionaryItem>)((HashMap)this.aspects).clone();
+            // copy types and aspects maps - do not modify the current index as queries could be running in threads
+            final DictionaryIndex current = this.index;
+            final Map<String, DictionaryItem> types = current.getTypeItems();
+            final Map<String, DictionaryItem> aspects = current.getAspectItems();
             for (int i=0; i<json.length(); i++)
             {
                 // get the object representing the dd class
@@ -1074,11 +832,10 @@ class Dictionary
                     types.put(typeName, new DictionaryItem(typeName, ddclass));
                 }
             }
-            // Update the instance collection references - threads already iterating the original collections will not be
-            // affected - when a new iterator is created it will have visibility of the new references and see the updates.
+            // Update the instance index reference - threads already querying the original index will not be
+            // affected - subsequent queries will have visibility of the new index and see the updates.
             // It is acceptable for this data to be "eventually consistent" and does not need to be a transactional update.
-            this.types = types;
-            this.aspects = aspects;
+            this.index = new DictionaryIndex(types, aspects);
         }
         catch (JSONException e)
         {
@@ -1092,9 +849,10 @@ class Dictionary
         {
             JSONArray json = new JSONArray(classes);
             
-            // shallow copy types and aspects maps - do not modify the originals as iterators could be running in threads 
-            final Map<String, DictionaryItem> types = (Map<String, DictionaryItem>)((HashMap)this.types).clone();
-            final Map<String, DictionaryItem> aspects = (Map<String, DictionaryItem>)((HashMap)this.aspects).clone();
+            // copy types and aspects maps - do not modify the current index as queries could be running in threads
+            final DictionaryIndex current = this.index;
+            final Map<String, DictionaryItem> types = current.getTypeItems();
+            final Map<String, DictionaryItem> aspects = current.getAspectItems();
             for (int i=0; i<json.length(); i++)
             {
                 // get the object representing the dd class
@@ -1113,11 +871,10 @@ class Dictionary
                     types.remove(typeName);
                 }
             }
-            // Update the instance collection references - threads already iterating the original collections will not be
-            // affected - when a new iterator is created it will have visibility of the new references and see the updates.
+            // Update the instance index reference - threads already querying the original index will not be
+            // affected - subsequent queries will have visibility of the new index and see the updates.
             // It is acceptable for this data to be "eventually consistent" and does not need to be a transactional update.
-            this.types = types;
-            this.aspects = aspects;
+            this.index = new DictionaryIndex(types, aspects);
         }
         catch (JSONException e)
         {
@@ -1128,24 +885,280 @@ class Dictionary
     @Override
     public String toString()
     {
-        return "Dictionary contains " + this.types.size() + " types and " + this.aspects.size() + " aspects.";
+        final DictionaryIndex index = this.index;
+        return "Dictionary contains " + index.types.size() + " types and " + index.aspects.size() + " aspects.";
+    }
+
+
+    /**
+     * Immutable index over a set of types and aspects.
+     * <p>
+     * Each class is given a dense integer id within its kind (type or aspect) and the transitive
+     * super-type closure is held as a BitSet of those ids, making isSubType a constant time test.
+     * The sub-types of each class and the merged property lookups including default aspects are
+     * computed once when the index is built.
+     */
+    static final class DictionaryIndex
+    {
+        final Map<String, IndexedClass> types;
+        final Map<String, IndexedClass> aspects;
+        final String[] allTypes;
+        final String[] allAspects;
+
+        DictionaryIndex(Map<String, DictionaryItem> types, Map<String, DictionaryItem> aspects)
+        {
+            this.types = indexHierarchy(types);
+            this.aspects = indexHierarchy(aspects);
+            this.allTypes = types.keySet().toArray(new String[types.size()]);
+            this.allAspects = aspects.keySet().toArray(new String[aspects.size()]);
+
+            // resolve the default aspect properties now that all aspects are known
+            for (IndexedClass ddclass : this.types.values())
+            {
+                ddclass.resolveDefaultAspects(this.aspects);
+            }
+            for (IndexedClass ddclass : this.aspects.values())
+            {
+                ddclass.resolveDefaultAspects(this.aspects);
+            }
+        }
+
+        IndexedClass getTypeOrAspect(String ddclass)
+        {
+            IndexedClass indexed = this.types.get(ddclass);
+            if (indexed == null)
+            {
+                indexed = this.aspects.get(ddclass);
+            }
+            return indexed;
+        }
+
+        /**
+         * @return a new modifiable copy of the type items in this index
+         */
+        Map<String, DictionaryItem> getTypeItems()
+        {
+            return toItems(this.types);
+        }
+
+        /**
+         * @return a new modifiable copy of the aspect items in this index
+         */
+        Map<String, DictionaryItem> getAspectItems()
+        {
+            return toItems(this.aspects);
+        }
+
+        private static Map<String, DictionaryItem> toItems(Map<String, IndexedClass> classes)
+        {
+            final Map<String, DictionaryItem> items = new HashMap<String, DictionaryItem>(classes.size() + 16);
+            for (IndexedClass ddclass : classes.values())
+            {
+                items.put(ddclass.item.type, ddclass.item);
+            }
+            return items;
+        }
+
+        /**
+         * Assign ids to a set of classes of the same kind and compute the super-type closure and
+         * sub-types of each. Parent classes that are not present in the set end the hierarchy as
+         * they would for a walk of the parent chain.
+         */
+        private static Map<String, IndexedClass> indexHierarchy(Map<String, DictionaryItem> items)
+        {
+            final Map<String, IndexedClass> classes = new HashMap<String, IndexedClass>(items.size() * 2);
+            final IndexedClass[] byId = new IndexedClass[items.size()];
+            int id = 0;
+            for (DictionaryItem item : items.values())
+            {
+                IndexedClass ddclass = new IndexedClass(id, item);
+                byId[id++] = ddclass;
+                classes.put(item.type, ddclass);
+            }
+
+            // the super-type closure of each class - guarding against any cycle in the parent chain
+            for (IndexedClass ddclass : byId)
+            {
+                IndexedClass parent = classes.get(ddclass.item.parent);
+                while (parent != null && !ddclass.superTypes.get(parent.id) && parent != ddclass)
+                {
+                    ddclass.superTypes.set(parent.id);
+                    parent = classes.get(parent.item.parent);
+                }
+            }
+
+            // invert the closure to give the sub-types of each class
+            final List<List<String>> subTypes = new ArrayList<List<String>>(byId.length);
+            for (int i=0; i<byId.length; i++)
+            {
+                subTypes.add(null);
+            }
+            for (IndexedClass ddclass : byId)
+            {
+                for (int i = ddclass.superTypes.nextSetBit(0); i >= 0; i = ddclass.superTypes.nextSetBit(i + 1))
+                {
+                    List<String> list = subTypes.get(i);
+                    if (list == null)
+                    {
+                        list = new ArrayList<String>(4);
+                        subTypes.set(i, list);
+                    }
+                    list.add(ddclass.item.type);
+                }
+            }
+            for (IndexedClass ddclass : byId)
+            {
+                List<String> list = subTypes.get(ddclass.id);
+                if (list != null)
+                {
+                    Collections.sort(list);
+                    ddclass.subTypes = list.toArray(new String[list.size()]);
+                }
+            }
+
+            return Collections.unmodifiableMap(classes);
+        }
+    }
+
+
+    /**
+     * A single type or aspect within a {@link DictionaryIndex}. The pre-computed state is only
+     * assigned while the index is being built and is never modified once it has been published.
+     */
+    static final class IndexedClass
+    {
+        final int id;
+        final DictionaryItem item;
+        final BitSet superTypes = new BitSet();
+        String[] subTypes = EMPTY_STRINGS;
+        Map<String, DictionaryProperty> allProperties;
+        DictionaryProperty[] allPropertiesList;
+
+        IndexedClass(int id, DictionaryItem item)
+        {
+            this.id = id;
+            this.item = item;
+        }
+
+        /**
+         * Build the property lookups that include the properties of the default aspects.
+         * Properties on the class itself take precedence over those on the default aspects.
+         */
+        void resolveDefaultAspects(Map<String, IndexedClass> aspects)
+        {
+            if (this.item.defaultAspects.length == 0)
+            {
+                this.allProperties = this.item.properties;
+                this.allPropertiesList = this.item.propertiesList;
+            }
+            else
+            {
+                final Map<String, DictionaryProperty> props = new HashMap<String, DictionaryProperty>(this.item.properties);
+                final List<DictionaryProperty> propList = new ArrayList<DictionaryProperty>(Arrays.asList(this.item.propertiesList));
+                for (String aspectName : this.item.defaultAspects)
+                {
+                    IndexedClass aspect = aspects.get(aspectName);
+                    if (aspect != null)
+                    {
+                        for (DictionaryProperty prop : aspect.item.propertiesList)
+                        {
+                            if (!props.containsKey(prop.getName()))
+                            {
+                                props.put(prop.getName(), prop);
+                            }
+                            propList.add(prop);
+                        }
+                    }
+                }
+                this.allProperties = Collections.unmodifiableMap(props);
+                this.allPropertiesList = propList.toArray(new DictionaryProperty[propList.size()]);
+            }
+        }
     }
     
     
     /**
      * Simple wrapper class representing a single Data Dictionary type or aspect instance.
      * <p>
-     * The dd item is backed by the underlying JSON structure from the parent dictionary.
+     * The dd item is parsed once from the underlying JSON structure from the parent dictionary,
+     * the property and association definitions are created up front and shared by all queries.
      */
     public static class DictionaryItem
     {
         final private String type;
         final private JSONObject data;
+        final String title;
+        final String description;
+        final String parent;
+        final boolean isContainer;
+        final String[] defaultAspects;
+        final Set<String> defaultAspectSet;
+        final Map<String, DictionaryProperty> properties;
+        final DictionaryProperty[] propertiesList;
+        final DictionaryAssoc[] associations;
+        final DictionaryAssoc[] childAssociations;
         
-        DictionaryItem(String type, JSONObject data)
+        DictionaryItem(String type, JSONObject data) throws JSONException
         {
             this.type = type;
             this.data = data;
+            this.title = data.has(JSON_TITLE) ? data.getString(JSON_TITLE) : null;
+            this.description = data.has(JSON_DESCRIPTION) ? data.getString(JSON_DESCRIPTION) : null;
+            this.isContainer = data.optBoolean(JSON_IS_CONTAINER);
+
+            // the parent JSON object will always exist, but may be empty
+            JSONObject parent = data.optJSONObject(JSON_PARENT);
+            this.parent = parent != null ? parent.optString(JSON_NAME) : "";
+
+            JSONObject aspects = data.optJSONObject(JSON_DEFAULT_ASPECTS);
+            List<String> aspectNames = new ArrayList<String>(aspects != null ? aspects.length() : 0);
+            if (aspects != null)
+            {
+                Iterator<String> keys = aspects.keys();
+                while (keys.hasNext())
+                {
+                    aspectNames.add(keys.next());
+                }
+            }
+            this.defaultAspects = aspectNames.toArray(new String[aspectNames.size()]);
+            this.defaultAspectSet = Collections.unmodifiableSet(new HashSet<String>(aspectNames));
+
+            JSONObject props = data.optJSONObject(JSON_PROPERTIES);
+            Map<String, DictionaryProperty> propMap = new HashMap<String, DictionaryProperty>(props != null ? props.length() * 2 : 0);
+            List<DictionaryProperty> propList = new ArrayList<DictionaryProperty>(props != null ? props.length() : 0);
+            if (props != null)
+            {
+                Iterator<String> propNames = props.keys();
+                while (propNames.hasNext())
+                {
+                    String propName = propNames.next();
+                    DictionaryProperty prop = new DictionaryProperty(propName, props.getJSONObject(propName));
+                    propMap.put(propName, prop);
+                    propList.add(prop);
+                }
+            }
+            this.properties = Collections.unmodifiableMap(propMap);
+            this.propertiesList = propList.toArray(new DictionaryProperty[propList.size()]);
+
+            this.associations = toAssocs(data.optJSONObject(JSON_ASSOCIATIONS));
+            this.childAssociations = toAssocs(data.optJSONObject(JSON_CHILDASSOCIATIONS));
+        }
+
+        private static DictionaryAssoc[] toAssocs(JSONObject assocs) throws JSONException
+        {
+            if (assocs == null || assocs.length() == 0)
+            {
+                return EMPTY_ASSOCS;
+            }
+            DictionaryAssoc[] ddassocs = new DictionaryAssoc[assocs.length()];
+            int count = 0;
+            Iterator<String> assocNames = assocs.keys();
+            while (assocNames.hasNext())
+            {
+                String assocName = assocNames.next();
+                ddassocs[count++] = new DictionaryAssoc(assocName, assocs.getJSONObject(assocName));
+            }
+            return ddassocs;
         }
         
         @Override
@@ -36,10 +36,14 @@ import java.util.Map;
 
 import org.alfresco.web.site.EditionInfo;
 import org.alfresco.web.site.EditionInterceptor;
+import org.springframework.extensions.surf.ModuleDeploymentService;
 import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
+import org.springframework.extensions.surf.types.ModuleDeployment;
 import org.springframework.extensions.surf.util.I18NUtil;
 import org.springframework.extensions.surf.util.StringBuilderWriter;
+import org.springframework.extensions.webscripts.Container;
+import org.springframework.extensions.webscripts.Description;
 import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
@@ -53,11 +57,107 @@ import org.springframework.extensions.webscripts.json.JSONWriter;
  * <code>
  * var msg = Alfresco.messages["messageid"];
  * </code>
+ * <p>
+ * If a {@link MessagesBundleCache} is configured then the generated response is cached per locale, theme,
+ * set of deployed extension modules and edition, and served with an ETag so that clients holding the current
+ * version receive a 304 Not Modified response.
  *
  * @author Kevin Roast
  */
 public class MessagesWebScript extends org.springframework.extensions.webscripts.MessagesWebScript
 {
+    private MessagesBundleCache messagesCache;
+    private ModuleDeploymentService moduleDeploymentService;
+    
+    /**
+     * @param messagesCache     cache of generated messages responses - if not set every response is generated
+     */
+    public void setMessagesCache(MessagesBundleCache messagesCache)
+    {
+        this.messagesCache = messagesCache;
+    }
+    
+    /**
+     * @param moduleDeploymentService   used to key cached responses on the set of deployed extension modules
+     */
+    public void setModuleDeploymentService(ModuleDeploymentService moduleDeploymentService)
+    {
+        this.moduleDeploymentService = moduleDeploymentService;
+    }
+    
+    @Override
+    public void init(Container container, Description description)
+    {
+        super.init(container, description);
+        
+        // web scripts and message bundles have been reset - cached responses may no longer be valid
+        if (this.messagesCache != null)
+        {
+            this.messagesCache.clear();
+        }
+    }
+    
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
+    {
+        if (this.messagesCache == null)
+        {
+            super.execute(req, res);
+        }
+        else
+        {
+            String locale = req.getParameter("locale");
+            if (locale == null || locale.length() == 0)
+            {
+                locale = I18NUtil.getLocale().toString();
+            }
+            else
+            {
+                // locales written differently but parsed the same give the same messages - key them as one bundle
+                locale = I18NUtil.parseLocale(locale).toString();
+            }
+            final String key = getCacheKey(req, locale);
+            MessagesBundleCache.Bundle bundle = this.messagesCache.get(key);
+            if (bundle == null)
+            {
+                bundle = this.messagesCache.put(key, generateMessages(req, res, locale));
+            }
+            this.messagesCache.write(bundle, req, res);
+        }
+    }
+    
+    /**
+     * Build the key for a cached messages response - made up of everything the generated response depends on.
+     * 
+     * @param locale    Java locale format
+     * 
+     * @return cache key
+     */
+    protected String getCacheKey(WebScriptRequest req, String locale)
+    {
+        StringBuilder key = new StringBuilder(128);
+        key.append(locale);
+        final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
+        if (rc != null)
+        {
+            key.append('|').append(rc.getThemeId());
+        }
+        if (this.moduleDeploymentService != null)
+        {
+            for (ModuleDeployment module : this.moduleDeploymentService.getDeployedModules())
+            {
+                key.append('|').append(module.getId());
+            }
+        }
+        if (isCommunity())
+        {
+            // the community logo url follows the request scheme
+            final String serverPath = req.getServerPath();
+            key.append('|').append(serverPath.substring(0, serverPath.indexOf(':')));
+        }
+        return key.toString();
+    }
+    
     /**
      * Generate the message for a given locale.
      *
@@ -33,6 +33,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.apache.commons.logging.Log;
@@ -155,12 +156,42 @@ public class MimetypesQuery extends SingletonValueProcessorExtension<Map<String,
     
     @Override
     protected Map<String, Mimetype> retrieveValue(final String userId, final String storeId) throws ConnectorServiceException
+    {
+        return retrieveMimetypes(getConnector(userId));
+    }
+    
+    @Override
+    protected Callable<Map<String, Mimetype>> createRefreshTask(final String userId, final String storeId) throws ConnectorServiceException
+    {
+        // resolve the connector now - the refresh task is executed outside of the request context
+        final Connector conn = getConnector(userId);
+        return new Callable<Map<String, Mimetype>>()
+        {
+            @Override
+            public Map<String, Mimetype> call() throws Exception
+            {
+                return retrieveMimetypes(conn);
+            }
+        };
+    }
+    
+    /**
+     * @return connector to the Alfresco endpoint for the given user in the current request context
+     */
+    private Connector getConnector(final String userId) throws ConnectorServiceException
+    {
+        final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
+        return rc.getServiceRegistry().getConnectorService().getConnector("alfresco", userId, ServletUtil.getSession());
+    }
+    
+    /**
+     * Retrieve the mimetypes information from the repository using the given connector.
+     */
+    private Map<String, Mimetype> retrieveMimetypes(final Connector conn)
     {
         Map<String,Mimetype> mimetypes;
         
-        // initiate a call to retrieve the dictionary from the repository
-        final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
-        final Connector conn = rc.getServiceRegistry().getConnectorService().getConnector("alfresco", userId, ServletUtil.getSession());
+        // initiate a call to retrieve the mimetypes from the repository
         final Response response = conn.call("/api/mimetypes/descriptions");
         if (response.getStatus().getCode() == Status.STATUS_OK)
         {
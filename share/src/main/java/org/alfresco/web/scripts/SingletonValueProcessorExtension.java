@@ -1,36 +1,47 @@
-/*
- * #%L
- * Alfresco Share WAR
- * %%
- * Copyright (C) 2005 - 2016 Alfresco Software Limited
- * %%
- * This file is part of the Alfresco software. 
- * If the software was purchased under a paid Alfresco license, the terms of 
- * the paid license agreement will prevail.  Otherwise, the software is 
- * provided under the following open source license terms:
- * 
- * Alfresco is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * Alfresco is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
- * #L%
- */
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
 package org.alfresco.web.scripts;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.io.Serializable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.alfresco.error.AlfrescoRuntimeException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.extensions.surf.exception.ConnectorServiceException;
 import org.springframework.extensions.surf.site.AuthenticationUtil;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
@@ -44,18 +55,56 @@ import org.springframework.extensions.webscripts.processor.BaseProcessorExtensio
  * <p>
  * The implementing class only needs to provide method to perform the remote retrieval of the
  * value and indicate if the value needs to be stored per-tenant or not. 
+ * <p>
+ * Each store (i.e. tenant) has its own holder and lock, so the first retrieval of the value for
+ * one tenant never blocks access to the values of other tenants. Only a single thread performs
+ * the retrieval for a store, other threads requesting the same store wait for that result.
+ * <p>
+ * Values can optionally expire after a configured time-to-live. An expired value continues to be
+ * served while a single refresh is performed - on the background executor if the implementing class
+ * provides a refresh task via {@link #createRefreshTask(String, String)} or otherwise on the thread
+ * of the request that first noticed the value had expired.
  * 
  * @author Kevin Roast
  */
 public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorExtension
 {
-    /** Map of store ID to value that has been retrieved for it */
-    private final Map<String, T> storeValues = new HashMap<String, T>(); 
+    private static final Log logger = LogFactory.getLog(SingletonValueProcessorExtension.class);
+    
+    /** Delay before retrying a refresh that failed, if less than the time-to-live */
+    private static final long REFRESH_RETRY_DELAY = 30000L;
+    
+    /** Default executor shared by all instances for background refresh of expired values */
+    private static Executor defaultRefreshExecutor;
+    
+    /** Map of store ID to holder for the value that has been retrieved for it */
+    private final ConcurrentMap<String, StoreValue<T>> storeValues = new ConcurrentHashMap<String, StoreValue<T>>();
+    
+    /** Time-to-live of a retrieved value in milliseconds, zero or less for values that never expire */
+    private long timeToLive = 0L;
     
-    /** Lock for access to store values */
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Executor used to perform background refresh of expired values */
+    private transient Executor refreshExecutor;
     
     
+    /**
+     * @param timeToLive    Time-to-live of a retrieved value in milliseconds. Zero or less (the default)
+     *                      means the value is retrieved once and never expires.
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * @param refreshExecutor   Executor used to perform background refresh of expired values. If not set
+     *                          a small bounded pool shared by all instances is used.
+     */
+    public void setRefreshExecutor(Executor refreshExecutor)
+    {
+        this.refreshExecutor = refreshExecutor;
+    }
+    
     /**
      * Thread-safe get of the singleton value.
      * 
@@ -87,54 +136,46 @@ public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorE
      */
     protected final T getSingletonValue(final boolean tenant, final String userId)
     {
-        T result;
-        
         final String storeId = tenant ? getTenantUserStore(userId) : "";
         
-        // NOTE: currently there is a single RRW lock for all values -
-        // in a heavily multi-tenant scenario (especially ones with new tenants
-        // being created often) the first access of a new tenant dictionary would
-        // potentially slow other tenant users access to their dictionary.
-        // In this situation a lock per tenant would be preferable.
-        this.lock.readLock().lock();
-        try
+        StoreValue<T> holder = this.storeValues.get(storeId);
+        if (holder == null)
         {
-            result = storeValues.get(storeId);
-            if (result == null)
+            holder = new StoreValue<T>();
+            StoreValue<T> existing = this.storeValues.putIfAbsent(storeId, holder);
+            if (existing != null)
             {
-                this.lock.readLock().unlock();
-                this.lock.writeLock().lock();
-                try
-                {
-                    // check again, as more than one thread could have been waiting on the Write lock 
-                    result = storeValues.get(storeId);
-                    if (result == null)
-                    {
-                        // call the retrieve implementation - probably going to do a remote call or similar
-                        result = retrieveValue(userId, storeId);
-                        
-                        // store result against the current store i.e. tenant
-                        storeValues.put(storeId, result);
-                    }
-                }
-                catch (ConnectorServiceException cerr)
-                {
-                    throw new AlfrescoRuntimeException("Unable to retrieve " + getValueName() + " configuration from Alfresco: " + cerr.getMessage());
-                }
-                catch (Exception err)
-                {
-                    throw new AlfrescoRuntimeException("Failed during processing of " + getValueName() + " configuration from Alfresco: " + err.getMessage());
-                }
-                finally
+                holder = existing;
+            }
+        }
+        
+        T result = holder.value;
+        if (result == null)
+        {
+            // only threads waiting for the value of this store are held by the lock
+            holder.lock.lock();
+            try
+            {
+                // check again, as more than one thread could have been waiting on the lock
+                result = holder.value;
+                if (result == null)
                 {
-                    this.lock.readLock().lock();
-                    this.lock.writeLock().unlock();
+                    // call the retrieve implementation - probably going to do a remote call or similar
+                    result = retrieve(userId, storeId);
+                    
+                    // store result against the current store i.e. tenant
+                    holder.set(result, this.timeToLive);
                 }
             }
+            finally
+            {
+                holder.lock.unlock();
+            }
         }
-        finally
+        else if (holder.isExpired() && holder.refreshing.compareAndSet(false, true))
         {
-            this.lock.readLock().unlock();
+            // serve the current value while a single refresh is performed
+            refresh(holder, userId, storeId);
         }
         
         return result;
@@ -150,20 +191,48 @@ public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorE
      */
     protected final boolean hasSingletonValue(final boolean tenant, final String userId)
     {
-        boolean result = false;
-        
+        return getCurrentSingletonValue(tenant, userId) != null;
+    }
+    
+    /**
+     * Get the singleton value for the given userId if it has already been retrieved. Never performs
+     * a retrieval or refresh of the value so is safe to call outside of a request context.
+     * 
+     * @param tenant
+     * @param userId
+     * 
+     * @return the current singleton value or null if not yet retrieved
+     */
+    protected final T getCurrentSingletonValue(final boolean tenant, final String userId)
+    {
         final String storeId = tenant ? getTenantUserStore(userId) : "";
-        this.lock.readLock().lock();
-        try
-        {
-            result = (storeValues.get(storeId) != null);
-        }
-        finally
+        final StoreValue<T> holder = this.storeValues.get(storeId);
+        return holder != null ? holder.value : null;
+    }
+    
+    /**
+     * Invalidate the singleton value for the given userId. The value is retrieved again on next access.
+     * 
+     * @param tenant
+     * @param userId
+     */
+    protected final void invalidateSingletonValue(final boolean tenant, final String userId)
+    {
+        final String storeId = tenant ? getTenantUserStore(userId) : "";
+        if (this.storeValues.remove(storeId) != null && logger.isDebugEnabled())
         {
-            this.lock.readLock().unlock();
+            logger.debug("Invalidated " + getValueName() + (storeId.length() != 0 ? (" for domain: " + storeId) : ""));
         }
-        
-        return result;
+    }
+    
+    /**
+     * Invalidate the singleton values for all stores. Each value is retrieved again on next access.
+     */
+    protected final void invalidateAllSingletonValues()
+    {
+        this.storeValues.clear();
+        if (logger.isDebugEnabled())
+            logger.debug("Invalidated all " + getValueName());
     }
     
     /**
@@ -180,6 +249,27 @@ public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorE
      */
     protected abstract T retrieveValue(String userId, String storeId) throws ConnectorServiceException;
     
+    /**
+     * Method for implementing class to optionally provide a task that retrieves a new value for a
+     * store when the current value has expired. This method is called on the request thread so
+     * anything required from the current request context should be resolved here, the returned
+     * task is then executed on a background thread.
+     * <p>
+     * The default implementation returns null - the value is refreshed on the request thread
+     * via {@link #retrieveValue(String, String)} instead.
+     * 
+     * @param userId    Current user Id
+     * @param storeId   Current store Id if any - may be used if per-tenant values are required
+     * 
+     * @return task to retrieve the value from the remote endpoint, or null
+     * 
+     * @throws ConnectorServiceException
+     */
+    protected Callable<T> createRefreshTask(String userId, String storeId) throws ConnectorServiceException
+    {
+        return null;
+    }
+    
     /**
      * Output value name for informational and error messages to the administrator.
      * 
@@ -187,6 +277,136 @@ public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorE
      */
     protected abstract String getValueName();
     
+    /**
+     * Call the retrieve implementation and wrap any error for the caller.
+     */
+    private T retrieve(final String userId, final String storeId)
+    {
+        try
+        {
+            return retrieveValue(userId, storeId);
+        }
+        catch (ConnectorServiceException cerr)
+        {
+            throw new AlfrescoRuntimeException("Unable to retrieve " + getValueName() + " configuration from Alfresco: " + cerr.getMessage());
+        }
+        catch (Exception err)
+        {
+            throw new AlfrescoRuntimeException("Failed during processing of " + getValueName() + " configuration from Alfresco: " + err.getMessage());
+        }
+    }
+    
+    /**
+     * Refresh the expired value of a store. The caller must have set the refreshing flag of the holder.
+     * Any failure is logged and the current value continues to be served until the refresh is retried.
+     */
+    private void refresh(final StoreValue<T> holder, final String userId, final String storeId)
+    {
+        Callable<T> task = null;
+        try
+        {
+            task = createRefreshTask(userId, storeId);
+        }
+        catch (Exception err)
+        {
+            refreshFailed(holder, storeId, err);
+            return;
+        }
+        
+        if (task != null)
+        {
+            final Callable<T> refreshTask = task;
+            try
+            {
+                getRefreshExecutor().execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            refreshed(holder, refreshTask.call(), storeId);
+                        }
+                        catch (Throwable err)
+                        {
+                            refreshFailed(holder, storeId, err);
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException rejected)
+            {
+                // executor is saturated - leave the value expired so the next request tries again
+                holder.refreshing.set(false);
+                if (logger.isDebugEnabled())
+                    logger.debug("Background refresh of " + getValueName() + " rejected, will retry on next access.");
+            }
+        }
+        else
+        {
+            try
+            {
+                refreshed(holder, retrieve(userId, storeId), storeId);
+            }
+            catch (Exception err)
+            {
+                refreshFailed(holder, storeId, err);
+            }
+        }
+    }
+    
+    private void refreshed(final StoreValue<T> holder, final T value, final String storeId)
+    {
+        if (value != null)
+        {
+            holder.set(value, this.timeToLive);
+            if (logger.isDebugEnabled())
+                logger.debug("Refreshed " + getValueName() + (storeId.length() != 0 ? (" for domain: " + storeId) : ""));
+        }
+        holder.refreshing.set(false);
+    }
+    
+    private void refreshFailed(final StoreValue<T> holder, final String storeId, final Throwable err)
+    {
+        // continue to serve the current value and try again later
+        holder.expires = System.currentTimeMillis() + Math.min(this.timeToLive, REFRESH_RETRY_DELAY);
+        holder.refreshing.set(false);
+        logger.warn("Unable to refresh " + getValueName() + (storeId.length() != 0 ? (" for domain: " + storeId) : "") +
+                    " - continuing with current value: " + err.getMessage());
+    }
+    
+    private Executor getRefreshExecutor()
+    {
+        if (this.refreshExecutor == null)
+        {
+            this.refreshExecutor = getDefaultRefreshExecutor();
+        }
+        return this.refreshExecutor;
+    }
+    
+    private static synchronized Executor getDefaultRefreshExecutor()
+    {
+        if (defaultRefreshExecutor == null)
+        {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    2, 2, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(32),
+                    new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "SingletonValueRefresh-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            defaultRefreshExecutor = executor;
+        }
+        return defaultRefreshExecutor;
+    }
+    
     /**
      * Calculate the tenant store for the given user Id.
      * 
@@ -209,4 +429,28 @@ public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorE
         }
         return storeId;
     }
-}
\ No newline at end of file
+    
+    
+    /**
+     * Holder for the value of a single store, with the lock used to retrieve it and its expiry state.
+     */
+    @SuppressWarnings("serial")
+    private static final class StoreValue<T> implements Serializable
+    {
+        final ReentrantLock lock = new ReentrantLock();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile T value;
+        volatile long expires;
+        
+        void set(T value, long timeToLive)
+        {
+            this.expires = timeToLive > 0 ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+            this.value = value;
+        }
+        
+        boolean isExpired()
+        {
+            return this.expires != Long.MAX_VALUE && System.currentTimeMillis() >= this.expires;
+        }
+    }
+}
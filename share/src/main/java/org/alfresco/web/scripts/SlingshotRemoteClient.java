@@ -26,10 +26,15 @@
 package org.alfresco.web.scripts;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.Vector;
 import java.util.regex.Pattern;
 
@@ -64,12 +69,22 @@ public class SlingshotRemoteClient extends RemoteClient
     private static final Pattern SLINGSHOT_WIKI_VERSION_PATTERN = Pattern.compile(".*/slingshot/wiki/version/.*");
 
     private boolean swfEnabled = false;
+    private boolean streamingHtmlSanitizer = false;
     
     public void setSwfEnabled(boolean swfEnabled)
     {
         this.swfEnabled = swfEnabled;
     }
     
+    /**
+     * @param streamingHtmlSanitizer    true to sanitize HTML responses as they are streamed through, rather than
+     *                                  buffering the whole document in memory first - see {@link StreamingHtmlSanitizer}
+     */
+    public void setStreamingHtmlSanitizer(boolean streamingHtmlSanitizer)
+    {
+        this.streamingHtmlSanitizer = streamingHtmlSanitizer;
+    }
+    
     @Override
     protected void copyResponseStreamOutput(URL url, HttpServletResponse res, OutputStream out,
             HttpResponse response, String contentType, int bufferSize) throws IOException
@@ -100,7 +115,18 @@ public class SlingshotRemoteClient extends RemoteClient
                     }
                     
                     // examine the mimetype to see if additional processing is required
-                    if (mimetype.contains("text/html") || mimetype.contains("application/xhtml+xml") || mimetype.contains("text/xml"))
+                    if (streamingHtmlSanitizer &&
+                        (mimetype.contains("text/html") || mimetype.contains("application/xhtml+xml") || mimetype.contains("text/xml")))
+                    {
+                        // found HTML content we need to process and perform stripping on as it streams through
+                        final InputStream input;
+                        if (response.getEntity() != null && (input = response.getEntity().getContent()) != null)
+                        {
+                            copyStreamingResponseOutput(res, out, input, mimetype, encoding, bufferSize);
+                        }
+                        processed = true;
+                    }
+                    else if (mimetype.contains("text/html") || mimetype.contains("application/xhtml+xml") || mimetype.contains("text/xml"))
                     {
                         // found HTML content we need to process in-memory and perform stripping on
                         ByteArrayOutputStream bos = new ByteArrayOutputStream(bufferSize);
@@ -200,8 +226,82 @@ public class SlingshotRemoteClient extends RemoteClient
         }
     }
 
+    /**
+     * Streaming equivalent of the in-memory processing of HTML and XML responses. The length of the processed
+     * content is not known until it has all been sent, so no Content-Length is set. As before the response is
+     * halted on finding a NUL byte - if it is only found once processed content has been committed to the client
+     * then the response is truncated at that point. A document that cannot be split within the sanitizer's maximum
+     * buffer size is truncated in the same way.
+     */
+    private void copyStreamingResponseOutput(HttpServletResponse res, OutputStream out, InputStream input,
+            String mimetype, String encoding, int bufferSize) throws IOException
+    {
+        NulDetectingInputStream in = new NulDetectingInputStream(input);
+        try
+        {
+            res.setContentLength(-1);
+            if (mimetype.contains("text/html") || mimetype.contains("application/xhtml+xml"))
+            {
+                // process with streaming HTML stripper
+                Charset charset = encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+                Reader reader = new InputStreamReader(in, charset);
+                StreamingHtmlSanitizer sanitizer = new StreamingHtmlSanitizer(new OutputStreamWriter(out, charset));
+                final char[] buffer = new char[bufferSize];
+                int read = reader.read(buffer);
+                while (read != -1)
+                {
+                    sanitizer.write(buffer, 0, read);
+                    read = reader.read(buffer);
+                }
+                if (!in.isNulDetected())
+                {
+                    sanitizer.close();
+                }
+            }
+            else
+            {
+                // we cannot be sure what we are processing here - see above
+                res.setContentType("text/plain");
+                final byte[] buffer = new byte[bufferSize];
+                int read = in.read(buffer);
+                while (read != -1)
+                {
+                    out.write(buffer, 0, read);
+                    read = in.read(buffer);
+                }
+            }
+            if (in.isNulDetected() && !res.isCommitted())
+            {
+                // discard what was processed before the NUL byte but not yet sent
+                res.resetBuffer();
+                res.setContentLength(0);
+            }
+        }
+        finally
+        {
+            try
+            {
+                input.close();
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+    }
+
     protected boolean hasDocType(String content, String docType, boolean encode)
     {
+        // no need to parse the content if it has no doctype declaration to find
+        boolean found = false;
+        for (int i = content.indexOf('<'); i != -1 && !found; i = content.indexOf('<', i + 1))
+        {
+            found = content.regionMatches(true, i, "<!DOCTYPE", 0, 9);
+        }
+        if (!found)
+        {
+            return false;
+        }
         try
         {
             Parser parser = Parser.createParser(content, "UTF-8");
@@ -236,4 +336,50 @@ public class SlingshotRemoteClient extends RemoteClient
         }
         return false;
     }
+
+    /**
+     * Halts the stream, as though it had ended, on reading a NUL byte. We assume HTML content will not
+     * contain one - if it does it is most likely a binary file.
+     */
+    private static class NulDetectingInputStream extends FilterInputStream
+    {
+        private boolean nulDetected = false;
+        
+        NulDetectingInputStream(InputStream in)
+        {
+            super(in);
+        }
+        
+        boolean isNulDetected()
+        {
+            return nulDetected;
+        }
+        
+        @Override
+        public int read() throws IOException
+        {
+            int b = nulDetected ? -1 : super.read();
+            if (b == 0x00)
+            {
+                nulDetected = true;
+                b = -1;
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int read = nulDetected ? -1 : super.read(b, off, len);
+            for (int i=off; i<off + read; i++)
+            {
+                if (b[i] == 0x00)
+                {
+                    nulDetected = true;
+                    read = -1;
+                }
+            }
+            return read;
+        }
+    }
 }
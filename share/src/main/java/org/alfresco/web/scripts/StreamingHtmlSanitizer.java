@@ -0,0 +1,359 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.extensions.webscripts.ui.common.StringUtils;
+
+/**
+ * A Writer that strips unsafe HTML from a document as it is written, rather than requiring the whole
+ * document to be held in memory first.
+ * <p>
+ * The characters written are tokenized incrementally and split into segments at tag boundaries. Each segment
+ * is passed through {@link StringUtils#stripUnsafeHTMLDocument(String, boolean)}, the same processing that is
+ * applied to whole documents, and the result written to the underlying Writer. A segment is never ended inside
+ * a tag, comment or other markup declaration, inside the raw text of an element such as script, or inside an
+ * element whose content may be stripped along with it, so the output is the same as sanitizing the document in
+ * one piece. Text outside of markup may also be split at whitespace. A segment is only ended once at least the
+ * segment size has been buffered.
+ * <p>
+ * Memory use is limited by the maximum buffer size. A document with a region that cannot be split and is longer
+ * than that, such as a very large script or an unterminated tag, makes the write fail with an IOException; the
+ * output written up to that point has already been sanitized.
+ */
+public class StreamingHtmlSanitizer extends Writer
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 16384;
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1048576;
+
+    /** elements whose content is raw text rather than markup */
+    private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "script", "style", "xmp", "textarea", "title", "iframe", "noembed", "noframes"));
+
+    /** elements whose content may be removed along with them - the document is never split inside these */
+    private static final Set<String> PROTECTED_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "object", "applet", "frameset", "noscript", "xml", "svg", "math", "template"));
+
+    private enum State
+    {
+        TEXT, OPEN, TAG, DECLARATION, COMMENT, CDATA, SERVER, RAW_TEXT
+    }
+
+    private final Writer out;
+    private final int segmentSize;
+    private final int maxBufferSize;
+    private final StringBuilder buffer;
+    private State state = State.TEXT;
+    private int markupStart;
+    private char quote;
+    private String rawTextEnd;
+    private int protectedDepth;
+    private int maxBuffered;
+    private boolean closed;
+
+    /**
+     * @param out           Writer to receive the sanitized document
+     */
+    public StreamingHtmlSanitizer(Writer out)
+    {
+        this(out, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param out           Writer to receive the sanitized document
+     * @param segmentSize   number of characters to buffer before looking to end a segment
+     */
+    public StreamingHtmlSanitizer(Writer out, int segmentSize)
+    {
+        this(out, segmentSize, Math.max(segmentSize, DEFAULT_MAX_BUFFER_SIZE));
+    }
+
+    /**
+     * @param out           Writer to receive the sanitized document
+     * @param segmentSize   number of characters to buffer before looking to end a segment
+     * @param maxBufferSize most characters that may be buffered before the write fails
+     */
+    public StreamingHtmlSanitizer(Writer out, int segmentSize, int maxBufferSize)
+    {
+        if (segmentSize < 1)
+        {
+            throw new IllegalArgumentException("segmentSize must be at least 1");
+        }
+        if (maxBufferSize < segmentSize)
+        {
+            throw new IllegalArgumentException("maxBufferSize must be at least the segmentSize");
+        }
+        this.out = out;
+        this.segmentSize = segmentSize;
+        this.maxBufferSize = maxBufferSize;
+        this.buffer = new StringBuilder(Math.min(segmentSize, DEFAULT_SEGMENT_SIZE) * 2);
+    }
+
+    /**
+     * @return the most characters that have been buffered at any one time
+     */
+    public int getMaxBuffered()
+    {
+        return maxBuffered;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Writer has been closed");
+        }
+        for (int i = off; i < off + len; i++)
+        {
+            char c = cbuf[i];
+            buffer.append(c);
+            process(c, buffer.length() - 1);
+            if (buffer.length() > maxBufferSize)
+            {
+                throw new IOException("Unable to sanitize document: more than " + maxBufferSize +
+                        " characters could not be split into segments");
+            }
+        }
+        if (buffer.length() > maxBuffered)
+        {
+            maxBuffered = buffer.length();
+        }
+    }
+
+    /**
+     * Flushes the underlying Writer. Buffered characters that do not yet make up a complete segment are held back.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    /**
+     * Sanitizes and writes whatever remains of the document, then closes the underlying Writer.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            if (buffer.length() != 0)
+            {
+                emit(buffer.length());
+            }
+            out.close();
+        }
+    }
+
+    private void process(char c, int pos) throws IOException
+    {
+        switch (state)
+        {
+            case TEXT:
+                if (c == '<')
+                {
+                    markupStart = pos;
+                    state = State.OPEN;
+                }
+                else if (Character.isWhitespace(c) && protectedDepth == 0 && pos >= segmentSize)
+                {
+                    // text can be split between words
+                    emit(pos + 1);
+                }
+                break;
+
+            case OPEN:
+                if (c == '<')
+                {
+                    markupStart = pos;
+                }
+                else if (Character.isLetter(c) || c == '/' || c == '!' || c == '?' || c == '%')
+                {
+                    // the start of some markup - the previous segment can end here
+                    if (protectedDepth == 0 && markupStart >= segmentSize)
+                    {
+                        emit(markupStart);
+                    }
+                    quote = 0;
+                    state = (c == '!' || c == '?') ? State.DECLARATION : (c == '%' ? State.SERVER : State.TAG);
+                }
+                else
+                {
+                    state = State.TEXT;
+                }
+                break;
+
+            case TAG:
+                if (quote != 0)
+                {
+                    if (c == quote)
+                    {
+                        quote = 0;
+                    }
+                }
+                else if (c == '"' || c == '\'')
+                {
+                    quote = c;
+                }
+                else if (c == '>')
+                {
+                    endTag(pos);
+                }
+                break;
+
+            case DECLARATION:
+                if (pos == markupStart + 3 && startsWith(markupStart, "<!--"))
+                {
+                    state = State.COMMENT;
+                }
+                else if (pos == markupStart + 8 && startsWith(markupStart, "<![CDATA["))
+                {
+                    state = State.CDATA;
+                }
+                else if (c == '>')
+                {
+                    state = State.TEXT;
+                }
+                break;
+
+            case COMMENT:
+                if (c == '>' && pos >= markupStart + 6 && buffer.charAt(pos - 1) == '-' && buffer.charAt(pos - 2) == '-')
+                {
+                    state = State.TEXT;
+                }
+                break;
+
+            case CDATA:
+                if (c == '>' && pos >= markupStart + 11 && buffer.charAt(pos - 1) == ']' && buffer.charAt(pos - 2) == ']')
+                {
+                    state = State.TEXT;
+                }
+                break;
+
+            case SERVER:
+                if (c == '>' && buffer.charAt(pos - 1) == '%' && pos >= markupStart + 3)
+                {
+                    state = State.TEXT;
+                }
+                break;
+
+            case RAW_TEXT:
+                // the element name must be followed by whitespace, '/' or '>' - </scripts> does not end a script
+                int endStart = pos - rawTextEnd.length();
+                if ((Character.isWhitespace(c) || c == '/' || c == '>') && endStart >= 0 && startsWith(endStart, rawTextEnd))
+                {
+                    // the end tag of the raw text element - processed as an ordinary tag when it completes
+                    markupStart = endStart;
+                    quote = 0;
+                    state = State.TAG;
+                    if (c == '>')
+                    {
+                        endTag(pos);
+                    }
+                }
+                break;
+        }
+    }
+
+    private void endTag(int pos)
+    {
+        int i = markupStart + 1;
+        boolean endTag = buffer.charAt(i) == '/';
+        if (endTag)
+        {
+            i++;
+        }
+        int nameStart = i;
+        while (i < pos && !Character.isWhitespace(buffer.charAt(i)) && buffer.charAt(i) != '/' && buffer.charAt(i) != '>')
+        {
+            i++;
+        }
+        String name = buffer.substring(nameStart, i).toLowerCase();
+        boolean emptyTag = buffer.charAt(pos - 1) == '/';
+
+        state = State.TEXT;
+        if (endTag)
+        {
+            if (protectedDepth > 0 && PROTECTED_ELEMENTS.contains(name))
+            {
+                protectedDepth--;
+            }
+        }
+        else if (!emptyTag)
+        {
+            if (RAW_TEXT_ELEMENTS.contains(name))
+            {
+                rawTextEnd = "</" + name;
+                state = State.RAW_TEXT;
+            }
+            else if (PROTECTED_ELEMENTS.contains(name))
+            {
+                protectedDepth++;
+            }
+        }
+    }
+
+    /**
+     * Case insensitive test for the given ASCII text at the given position in the buffer
+     */
+    private boolean startsWith(int pos, String text)
+    {
+        if (pos + text.length() > buffer.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (Character.toLowerCase(buffer.charAt(pos + i)) != Character.toLowerCase(text.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sanitize and write out the given number of characters from the start of the buffer
+     */
+    private void emit(int length) throws IOException
+    {
+        String segment = buffer.substring(0, length);
+        buffer.delete(0, length);
+        markupStart -= length;
+        String sanitized = StringUtils.stripUnsafeHTMLDocument(segment, false);
+        if (sanitized != null)
+        {
+            out.write(sanitized);
+        }
+    }
+}
@@ -25,10 +25,14 @@
  */
 package org.alfresco.web.site.servlet;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.alfresco.web.extensibility.GroupMembershipCache;
 import org.alfresco.web.site.SlingshotUser;
 import org.alfresco.web.site.SlingshotUserFactory;
 import org.json.simple.JSONObject;
@@ -57,6 +61,16 @@ public class SlingshotLoginController extends LoginController
 {
     public static String SESSION_ATTRIBUTE_KEY_USER_GROUPS = "_alf_USER_GROUPS";
     
+    private GroupMembershipCache groupMembershipCache = null;
+    
+    /**
+     * @param groupMembershipCache  Cache of user group memberships - updated with the memberships retrieved on login
+     */
+    public void setGroupMembershipCache(GroupMembershipCache groupMembershipCache)
+    {
+        this.groupMembershipCache = groupMembershipCache;
+    }
+    
     /**
      * Overrides the inherited method to retrieve the groups that the authenticated user is a member
      * of and stores them as a comma delimited {@link String} in the {@link HttpSession}. This {@link String}
@@ -108,6 +122,7 @@ public class SlingshotLoginController extends LoginController
     
                     // Step 3: Iterate through the JSON object getting all the groups that the user is a member of...
                     StringBuilder groups = new StringBuilder(512);
+                    Set<String> groupNames = new HashSet<String>();
                     if (userData instanceof JSONObject)
                     {
                         Object groupsArray = ((JSONObject) userData).get("groups");
@@ -121,6 +136,7 @@ public class SlingshotLoginController extends LoginController
                                     if (groupName != null)
                                     {
                                         groups.append(groupName.toString()).append(',');
+                                        groupNames.add(groupName.toString());
                                     }
                                 }
                             }
@@ -135,6 +151,12 @@ public class SlingshotLoginController extends LoginController
                     
                     // Step 5: Store the groups on the session...
                     session.setAttribute(SESSION_ATTRIBUTE_KEY_USER_GROUPS, groups.toString());
+                    
+                    // Step 6: The memberships are up-to-date so replace any cached for the user...
+                    if (this.groupMembershipCache != null)
+                    {
+                        this.groupMembershipCache.put(username, groupNames);
+                    }
                 }
                 else
                 {
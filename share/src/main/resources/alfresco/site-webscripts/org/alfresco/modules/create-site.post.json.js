@@ -29,6 +29,9 @@ function main()
       // Check if we got a positive result from create site
       if (repoJSON.shortName)
       {
+         // The site may have been cached by the evaluators as not found
+         siteMetadata.invalidate(repoJSON.shortName);
+         
          // Yes we did, now create the Surf objects in the web-tier and the associated configuration elements
          // Retry a number of times until success - remove the site on total failure
          for (var r=0; r<3 && !model.success; r++)
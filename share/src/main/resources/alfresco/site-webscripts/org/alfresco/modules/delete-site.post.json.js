@@ -24,6 +24,9 @@ function main()
          viewResolverUtils.removeFromCache(dashboardURL);
       }
       
+      // remove cached site metadata used by the evaluators
+      siteMetadata.invalidate(reqJSON.shortName);
+      
       // the client will refresh on success
       model.success = true;
    }
@@ -0,0 +1,196 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.evaluator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.web.evaluator.doclib.action.LocateActionEvaluator;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that evaluators and evaluator chains shared between threads do not leak the
+ * per-call args and metadata of one evaluation into another.
+ */
+public class EvaluatorConcurrencyTest
+{
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 20000;
+
+    private ExecutorService threads;
+
+    @Before
+    public void setUp()
+    {
+        threads = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown()
+    {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void testAccessor()
+    {
+        JSONObject record = record("a", "cm:titled");
+        assertEquals("a", JSONValueAccessor.compile("node.properties.cm:name").getValue(record));
+        assertEquals("cm:titled", JSONValueAccessor.compile("node.aspects.0").getValue(record));
+        assertNull(JSONValueAccessor.compile("node.properties.cm:name.length").getValue(record));
+        assertNull(JSONValueAccessor.compile("node.missing.value").getValue(record));
+        assertSame(JSONValueAccessor.compile("node.aspects.0"), JSONValueAccessor.compile("node.aspects.0"));
+    }
+
+    @Test
+    public void testNegateAppliedToParticipants()
+    {
+        LocateActionEvaluator locate = new LocateActionEvaluator();
+        locate.setNegateOutput(true);
+        ChainedMatchAllEvaluator chain = new ChainedMatchAllEvaluator();
+        chain.setEvaluators(new ArrayList<Evaluator>(Arrays.<Evaluator>asList(locate)));
+
+        assertTrue(chain.evaluate(record("a", "cm:titled"), new JSONObject(), args("path")));
+        assertFalse(chain.evaluate(record("a", "cm:titled"), new JSONObject(), args("all")));
+    }
+
+    @Test
+    public void testNoCrossTalk() throws Exception
+    {
+        // legacy evaluator reading the thread-bound context, in a chain with one reading the explicit context
+        final BaseEvaluator argMatches = new BaseEvaluator()
+        {
+            @Override
+            public boolean evaluate(JSONObject jsonObject)
+            {
+                Thread.yield();
+                return getArg("id").equals(getJSONValue(jsonObject, "node.properties.cm:name"));
+            }
+        };
+        final BaseEvaluator metadataMatches = new BaseEvaluator()
+        {
+            @Override
+            public boolean evaluate(JSONObject jsonObject)
+            {
+                return evaluate(jsonObject, getContext());
+            }
+
+            @Override
+            public boolean evaluate(JSONObject jsonObject, EvaluatorContext context)
+            {
+                Thread.yield();
+                return context.getMetadata().get("id").equals(getJSONValue(jsonObject, "node.properties.cm:name"));
+            }
+        };
+        AlwaysFalseEvaluator alwaysFalse = new AlwaysFalseEvaluator();
+        ChainedMatchOneEvaluator matchOne = new ChainedMatchOneEvaluator();
+        matchOne.setEvaluators(new ArrayList<Evaluator>(Arrays.<Evaluator>asList(alwaysFalse, metadataMatches)));
+        final ChainedMatchAllEvaluator chain = new ChainedMatchAllEvaluator();
+        chain.setEvaluators(new ArrayList<Evaluator>(Arrays.<Evaluator>asList(argMatches, matchOne, new LocateActionEvaluator())));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < THREADS; t++)
+        {
+            final String id = "thread" + t;
+            results.add(threads.submit(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    start.await();
+                    int errors = 0;
+                    for (int i = 0; i < ITERATIONS; i++)
+                    {
+                        // even iterations should match, odd ones use the "path" filter which fails the Locate action
+                        boolean expected = (i % 2 == 0);
+                        JSONObject metadata = new JSONObject();
+                        metadata.put("id", id);
+                        boolean result = chain.evaluate(record(id, "cm:titled"), metadata, args(id, expected ? "all" : "path"));
+                        if (result != expected)
+                        {
+                            errors++;
+                        }
+                    }
+                    return errors;
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<Integer> result : results)
+        {
+            assertEquals("Evaluations saw another thread's args or metadata", 0, result.get(60, TimeUnit.SECONDS).intValue());
+        }
+        assertNull("Context must not outlive the evaluation", argMatches.getMetadata());
+    }
+
+    private static HashMap<String, String> args(String filter)
+    {
+        return args(null, filter);
+    }
+
+    private static HashMap<String, String> args(String id, String filter)
+    {
+        HashMap<String, String> args = new HashMap<String, String>();
+        args.put("id", id);
+        args.put("filter", filter);
+        return args;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject record(String name, String aspect)
+    {
+        JSONObject properties = new JSONObject();
+        properties.put("cm:name", name);
+        JSONArray aspects = new JSONArray();
+        aspects.add(aspect);
+        JSONObject node = new JSONObject();
+        node.put("properties", properties);
+        node.put("aspects", aspects);
+        JSONObject record = new JSONObject();
+        record.put("node", node);
+        return record;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.extensibility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.extensions.surf.ClusterService;
+
+/**
+ * Tests for the {@link GroupMembershipCache} used by the group evaluators.
+ */
+public class GroupMembershipCacheTest
+{
+    private GroupMembershipCache cache;
+    private ClusterService clusterService;
+    
+    @Before
+    public void setUp() throws Exception
+    {
+        cache = new GroupMembershipCache();
+        cache.setRefreshExecutor(new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        });
+        clusterService = mock(ClusterService.class);
+        cache.setClusterService(clusterService);
+    }
+    
+    @Test
+    public void testLoadedOnce() throws Exception
+    {
+        CountingLoader loader = new CountingLoader("GROUP_A", "GROUP_B");
+        Set<String> groups = cache.getGroups("alice", loader);
+        assertTrue(groups.contains("GROUP_A"));
+        assertSame(groups, cache.getGroups("alice", loader));
+        assertEquals(1, loader.calls.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+    
+    @Test
+    public void testFailedLoadNotCached() throws Exception
+    {
+        CountingLoader loader = new CountingLoader((String[])null);
+        assertNull(cache.getGroups("alice", loader));
+        assertNull(cache.getGroups("alice", loader));
+        assertEquals(2, loader.calls.get());
+        assertEquals(0, cache.getSize());
+    }
+    
+    @Test
+    public void testExpiredRefreshed() throws Exception
+    {
+        cache.setTimeToLive(1L);
+        Set<String> groups = cache.getGroups("alice", new CountingLoader("GROUP_A"));
+        Thread.sleep(5L);
+        cache.setTimeToLive(60000L);
+        
+        // the expired memberships are served while they are refreshed
+        CountingLoader refresh = new CountingLoader("GROUP_B");
+        assertSame(groups, cache.getGroups("alice", refresh));
+        assertEquals(1, refresh.calls.get());
+        assertEquals(1, cache.getRefreshes());
+        
+        CountingLoader none = new CountingLoader("GROUP_C");
+        assertEquals(Collections.singleton("GROUP_B"), cache.getGroups("alice", none));
+        assertEquals(0, none.calls.get());
+    }
+    
+    @Test
+    public void testFailedRefreshKeepsMemberships() throws Exception
+    {
+        cache.setTimeToLive(1L);
+        Set<String> groups = cache.getGroups("alice", new CountingLoader("GROUP_A"));
+        Thread.sleep(5L);
+        Callable<Set<String>> failing = new Callable<Set<String>>()
+        {
+            @Override
+            public Set<String> call() throws Exception
+            {
+                throw new IllegalStateException("repository unavailable");
+            }
+        };
+        assertSame(groups, cache.getGroups("alice", failing));
+        assertSame(groups, cache.getGroups("alice", failing));
+        assertEquals(2, cache.getRefreshes());
+    }
+    
+    @Test
+    public void testBounded() throws Exception
+    {
+        cache.setMaxEntries(2);
+        cache.getGroups("alice", new CountingLoader("GROUP_A"));
+        cache.getGroups("bob", new CountingLoader("GROUP_A"));
+        cache.getGroups("alice", new CountingLoader("GROUP_A"));
+        cache.getGroups("carol", new CountingLoader("GROUP_A"));
+        assertEquals(2, cache.getSize());
+        
+        // bob was least recently used
+        CountingLoader loader = new CountingLoader("GROUP_A");
+        cache.getGroups("alice", loader);
+        cache.getGroups("bob", loader);
+        assertEquals(1, loader.calls.get());
+    }
+    
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        cache.getGroups("alice", new CountingLoader("GROUP_A"));
+        cache.getGroups("bob", new CountingLoader("GROUP_A"));
+        cache.invalidate("alice");
+        assertEquals(1, cache.getSize());
+        Map<String, Serializable> payload = new HashMap<>();
+        payload.put("user", "alice");
+        verify(clusterService).publishClusterMessage(cache.getClusterMessageType(), payload);
+        
+        cache.invalidateAll();
+        assertEquals(0, cache.getSize());
+        verify(clusterService).publishClusterMessage(cache.getClusterMessageType(), new HashMap<String, Serializable>());
+    }
+    
+    @Test
+    public void testPut() throws Exception
+    {
+        cache.getGroups("alice", new CountingLoader("GROUP_A"));
+        cache.put("alice", new HashSet<String>(Arrays.asList("GROUP_B")));
+        CountingLoader loader = new CountingLoader("GROUP_C");
+        assertEquals(Collections.singleton("GROUP_B"), cache.getGroups("alice", loader));
+        assertEquals(0, loader.calls.get());
+        verify(clusterService).publishClusterMessage(eq(cache.getClusterMessageType()), anyMapOf(String.class, Serializable.class));
+    }
+    
+    @Test
+    public void testClusterMessage() throws Exception
+    {
+        cache.getGroups("alice", new CountingLoader("GROUP_A"));
+        cache.getGroups("bob", new CountingLoader("GROUP_A"));
+        Map<String, Serializable> payload = new HashMap<>();
+        payload.put("user", "alice");
+        cache.onClusterMessage(payload);
+        assertEquals(1, cache.getSize());
+        cache.onClusterMessage(new HashMap<String, Serializable>());
+        assertEquals(0, cache.getSize());
+        
+        // received invalidations are not published again
+        verify(clusterService, never()).publishClusterMessage(anyString(), anyMapOf(String.class, Serializable.class));
+    }
+    
+    private static class CountingLoader implements Callable<Set<String>>
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        final Set<String> groups;
+        
+        CountingLoader(String... groups)
+        {
+            this.groups = groups != null ? new HashSet<String>(Arrays.asList(groups)) : null;
+        }
+        
+        @Override
+        public Set<String> call() throws Exception
+        {
+            calls.incrementAndGet();
+            return groups;
+        }
+    }
+}
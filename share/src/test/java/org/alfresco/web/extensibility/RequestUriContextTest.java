@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.extensibility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.*;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.extensions.surf.RequestContext;
+
+/**
+ * Tests for the {@link RequestUriContext} used by the extensibility evaluators.
+ */
+public class RequestUriContextTest
+{
+    @Test
+    public void testFromPath() throws Exception
+    {
+        RequestContext context = context("/share/page/site/marketing/documentlibrary", new HashMap<String, String>());
+        RequestUriContext uriContext = RequestUriContext.get(context);
+        assertEquals("marketing", uriContext.getSite());
+        assertNull(uriContext.getPageContext());
+        
+        context = context("/share/page/pagecontext/shared/site/legal", new HashMap<String, String>());
+        uriContext = RequestUriContext.get(context);
+        assertEquals("legal", uriContext.getSite());
+        assertEquals("shared", uriContext.getPageContext());
+        
+        // a trailing token has no value
+        assertNull(RequestUriContext.get(context("/share/page/site", new HashMap<String, String>())).getSite());
+    }
+    
+    @Test
+    public void testTokensAndParameters() throws Exception
+    {
+        Map<String, String> tokens = new HashMap<String, String>();
+        tokens.put("site", "fromtoken");
+        RequestContext context = context("/share/page/site/frompath", tokens);
+        when(context.getParameter("pagecontext")).thenReturn("fromparam");
+        RequestUriContext uriContext = RequestUriContext.get(context);
+        assertEquals("fromtoken", uriContext.getSite());
+        assertEquals("fromparam", uriContext.getPageContext());
+    }
+    
+    @Test
+    public void testParsedOnce() throws Exception
+    {
+        RequestContext context = context("/share/page/site/marketing/dashboard", new HashMap<String, String>());
+        RequestUriContext uriContext = RequestUriContext.get(context);
+        assertSame(uriContext, RequestUriContext.get(context));
+        verify(context, times(1)).getUri();
+    }
+    
+    private static RequestContext context(String uri, Map<String, String> tokens)
+    {
+        final Map<String, Serializable> values = new HashMap<String, Serializable>();
+        RequestContext context = mock(RequestContext.class);
+        when(context.getUri()).thenReturn(uri);
+        when(context.getContextPath()).thenReturn("/share");
+        when(context.getUriTokens()).thenReturn(tokens);
+        when(context.getValue(anyString())).thenAnswer(new Answer<Serializable>()
+        {
+            @Override
+            public Serializable answer(InvocationOnMock invocation) throws Throwable
+            {
+                return values.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                values.put((String)invocation.getArguments()[0], (Serializable)invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(context).setValue(anyString(), any(Serializable.class));
+        return context;
+    }
+}
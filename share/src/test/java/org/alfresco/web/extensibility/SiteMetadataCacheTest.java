@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.extensibility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.*;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.web.extensibility.SiteMetadataCache.SiteMetadata;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.extensions.surf.ClusterService;
+
+/**
+ * Tests for the {@link SiteMetadataCache} used by the site evaluators.
+ */
+public class SiteMetadataCacheTest
+{
+    private SiteMetadataCache cache;
+    private ClusterService clusterService;
+    
+    @Before
+    public void setUp() throws Exception
+    {
+        cache = new SiteMetadataCache();
+        clusterService = mock(ClusterService.class);
+        cache.setClusterService(clusterService);
+    }
+    
+    @Test
+    public void testSharedBetweenUsers() throws Exception
+    {
+        CountingLoader loader = new CountingLoader(site("marketing", "PUBLIC"));
+        SiteMetadata site = cache.getSite("alice", "marketing", loader);
+        assertEquals("site-dashboard", site.getPreset());
+        assertSame(site, cache.getSite("bob", "marketing", loader));
+        assertEquals(1, loader.calls.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+    
+    @Test
+    public void testKeyedByTenant() throws Exception
+    {
+        CountingLoader loader = new CountingLoader(site("marketing", "PUBLIC"));
+        cache.getSite("alice@acme.com", "marketing", loader);
+        cache.getSite("bob@example.com", "marketing", loader);
+        cache.getSite("carol@acme.com", "marketing", loader);
+        assertEquals(2, loader.calls.get());
+    }
+    
+    @Test
+    public void testPrivateSitesPerUser() throws Exception
+    {
+        CountingLoader loader = new CountingLoader(site("secret", "PRIVATE"));
+        cache.getSite("alice", "secret", loader);
+        cache.getSite("alice", "secret", loader);
+        cache.getSite("bob", "secret", loader);
+        assertEquals(2, loader.calls.get());
+    }
+    
+    @Test
+    public void testMissingSites() throws Exception
+    {
+        CountingLoader loader = new CountingLoader(null);
+        assertNull(cache.getSite("alice", "nosuchsite", loader));
+        assertNull(cache.getSite("alice", "nosuchsite", loader));
+        assertEquals(1, loader.calls.get());
+        
+        // the site may exist for another user
+        assertNull(cache.getSite("bob", "nosuchsite", loader));
+        assertEquals(2, loader.calls.get());
+        
+        // and missing sites expire separately
+        cache.setMissingTimeToLive(0L);
+        cache.invalidateAll();
+        cache.getSite("alice", "nosuchsite", loader);
+        cache.getSite("alice", "nosuchsite", loader);
+        assertEquals(4, loader.calls.get());
+    }
+    
+    @Test
+    public void testExpired() throws Exception
+    {
+        cache.setTimeToLive(0L);
+        CountingLoader loader = new CountingLoader(site("marketing", "PUBLIC"));
+        cache.getSite("alice", "marketing", loader);
+        cache.getSite("alice", "marketing", loader);
+        assertEquals(2, loader.calls.get());
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testFailureNotCached() throws Exception
+    {
+        Callable<SiteMetadata> failing = new Callable<SiteMetadata>()
+        {
+            @Override
+            public SiteMetadata call() throws Exception
+            {
+                throw new IllegalStateException("repository unavailable");
+            }
+        };
+        try
+        {
+            cache.getSite("alice", "marketing", failing);
+        }
+        finally
+        {
+            assertEquals(0, cache.getSize());
+        }
+    }
+    
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        cache.getSite("alice", "marketing", new CountingLoader(site("marketing", "PUBLIC")));
+        cache.getSite("alice", "secret", new CountingLoader(site("secret", "PRIVATE")));
+        cache.getSite("bob", "secret", new CountingLoader(site("secret", "PRIVATE")));
+        assertEquals(3, cache.getSize());
+        
+        cache.invalidate("secret");
+        assertEquals(1, cache.getSize());
+        Map<String, Serializable> payload = new HashMap<>();
+        payload.put("tenant", "");
+        payload.put("site", "secret");
+        verify(clusterService).publishClusterMessage(cache.getClusterMessageType(), payload);
+        
+        cache.invalidateAll();
+        assertEquals(0, cache.getSize());
+    }
+    
+    @Test
+    public void testClusterMessage() throws Exception
+    {
+        cache.getSite("alice@acme.com", "marketing", new CountingLoader(site("marketing", "PUBLIC")));
+        cache.getSite("alice", "marketing", new CountingLoader(site("marketing", "PUBLIC")));
+        Map<String, Serializable> payload = new HashMap<>();
+        payload.put("tenant", "@acme.com");
+        payload.put("site", "marketing");
+        cache.onClusterMessage(payload);
+        assertEquals(1, cache.getSize());
+        cache.onClusterMessage(new HashMap<String, Serializable>());
+        assertEquals(0, cache.getSize());
+        verify(clusterService, never()).publishClusterMessage(anyString(), anyMapOf(String.class, Serializable.class));
+    }
+    
+    private static SiteMetadata site(String shortName, String visibility)
+    {
+        return new SiteMetadata(shortName, "site-dashboard", visibility, "Title of " + shortName);
+    }
+    
+    private static class CountingLoader implements Callable<SiteMetadata>
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        final SiteMetadata site;
+        
+        CountingLoader(SiteMetadata site)
+        {
+            this.site = site;
+        }
+        
+        @Override
+        public SiteMetadata call() throws Exception
+        {
+            calls.incrementAndGet();
+            return site;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.web.scripts.Dictionary.DictionaryItem;
+import org.json.JSONObject;
+
+/**
+ * Micro-benchmark comparing the indexed {@link Dictionary} against the previous approach of walking
+ * the raw JSON class definitions for each query. Not run as part of the unit tests, execute the
+ * main method directly to report the average cost per call of each approach.
+ */
+public class DictionaryBenchmark
+{
+    private static final int TYPES = 600;
+    private static final int ASPECTS = 200;
+    private static final int PROPERTIES = 20;
+    private static final int DEPTH = 8;
+    private static final int ITERATIONS = 200000;
+    
+    public static void main(String[] args) throws Exception
+    {
+        final Map<String, DictionaryItem> types = new HashMap<String, DictionaryItem>();
+        final Map<String, DictionaryItem> aspects = new HashMap<String, DictionaryItem>();
+        final Map<String, JSONObject> jsonTypes = new HashMap<String, JSONObject>();
+        final Map<String, JSONObject> jsonAspects = new HashMap<String, JSONObject>();
+        for (int i=0; i<ASPECTS; i++)
+        {
+            String name = "bm:aspect" + i;
+            JSONObject json = DictionaryTest.ddclass(name, null, true, null, properties(name));
+            aspects.put(name, new DictionaryItem(name, json));
+            jsonAspects.put(name, json);
+        }
+        for (int i=0; i<TYPES; i++)
+        {
+            // chains of types DEPTH deep
+            String name = "bm:type" + i;
+            String parent = (i % DEPTH == 0) ? null : "bm:type" + (i - 1);
+            String[] defaultAspects = new String[] {"bm:aspect" + (i % ASPECTS), "bm:aspect" + ((i + 1) % ASPECTS)};
+            JSONObject json = DictionaryTest.ddclass(name, parent, false, defaultAspects, properties(name));
+            types.put(name, new DictionaryItem(name, json));
+            jsonTypes.put(name, json);
+        }
+        final Dictionary dictionary = new Dictionary(types, aspects);
+        
+        final String leaf = "bm:type" + (DEPTH - 1);
+        final String root = "bm:type0";
+        final String aspectProp = "bm:aspect1-prop" + (PROPERTIES - 1);
+        
+        for (int run=0; run<3; run++)
+        {
+            System.out.println("Run " + (run + 1));
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                if (jsonIsSubType(jsonTypes, leaf, root)) hits++;
+            }
+            report("isSubType (json)", start, ITERATIONS, hits);
+            start = System.nanoTime();
+            hits = 0;
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                if (dictionary.isSubType(leaf, root)) hits++;
+            }
+            report("isSubType (indexed)", start, ITERATIONS, hits);
+            
+            start = System.nanoTime();
+            hits = 0;
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                if (jsonHasProperty(jsonTypes, jsonAspects, root, aspectProp)) hits++;
+            }
+            report("hasProperty (json)", start, ITERATIONS, hits);
+            start = System.nanoTime();
+            hits = 0;
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                if (dictionary.hasProperty(root, aspectProp, true)) hits++;
+            }
+            report("hasProperty (indexed)", start, ITERATIONS, hits);
+            
+            start = System.nanoTime();
+            hits = 0;
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                hits += jsonGetPropertyNames(jsonTypes, leaf).size();
+            }
+            report("getProperties (json)", start, ITERATIONS, hits);
+            start = System.nanoTime();
+            hits = 0;
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                hits += dictionary.getProperties(leaf, false).length;
+            }
+            report("getProperties (indexed)", start, ITERATIONS, hits);
+            
+            start = System.nanoTime();
+            hits = 0;
+            for (int i=0; i<ITERATIONS / 100; i++)
+            {
+                hits += jsonGetSubTypes(jsonTypes, root).size();
+            }
+            report("getSubTypes (json)", start, ITERATIONS / 100, hits);
+            start = System.nanoTime();
+            hits = 0;
+            for (int i=0; i<ITERATIONS / 100; i++)
+            {
+                hits += dictionary.getSubTypes(root).length;
+            }
+            report("getSubTypes (indexed)", start, ITERATIONS / 100, hits);
+        }
+    }
+    
+    private static String[] properties(String name)
+    {
+        String[] props = new String[PROPERTIES];
+        for (int i=0; i<PROPERTIES; i++)
+        {
+            props[i] = name + "-prop" + i;
+        }
+        return props;
+    }
+    
+    private static void report(String name, long start, int iterations, int hits)
+    {
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("  %-28s %8.1f ns/op  (%d)", name, (double)elapsed / iterations, hits));
+    }
+    
+    // The previous JSON walking implementations of the dictionary queries
+    
+    private static boolean jsonIsSubType(Map<String, JSONObject> types, String type, String isType) throws Exception
+    {
+        JSONObject ddtype = types.get(type);
+        while (ddtype != null)
+        {
+            JSONObject parent = ddtype.getJSONObject(Dictionary.JSON_PARENT);
+            if (!parent.has(Dictionary.JSON_NAME))
+            {
+                break;
+            }
+            ddtype = types.get(parent.getString(Dictionary.JSON_NAME));
+            if (ddtype != null && isType.equals(ddtype.getString(Dictionary.JSON_NAME)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static boolean jsonHasProperty(Map<String, JSONObject> types, Map<String, JSONObject> aspects, String ddclass, String property)
+        throws Exception
+    {
+        JSONObject dditem = types.get(ddclass);
+        Iterator<String> props = dditem.getJSONObject(Dictionary.JSON_PROPERTIES).keys();
+        while (props.hasNext())
+        {
+            if (property.equals(props.next())) return true;
+        }
+        Iterator<String> keys = dditem.getJSONObject(Dictionary.JSON_DEFAULT_ASPECTS).keys();
+        while (keys.hasNext())
+        {
+            JSONObject aspect = aspects.get(keys.next());
+            if (aspect != null)
+            {
+                props = aspect.getJSONObject(Dictionary.JSON_PROPERTIES).keys();
+                while (props.hasNext())
+                {
+                    if (property.equals(props.next())) return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<Object> jsonGetPropertyNames(Map<String, JSONObject> types, String ddclass) throws Exception
+    {
+        JSONObject properties = types.get(ddclass).getJSONObject(Dictionary.JSON_PROPERTIES);
+        List<Object> propList = new ArrayList<Object>(properties.length());
+        Iterator<String> props = properties.keys();
+        while (props.hasNext())
+        {
+            String propName = props.next();
+            propList.add(new Object[] {propName, properties.getJSONObject(propName)});
+        }
+        return propList;
+    }
+    
+    private static List<String> jsonGetSubTypes(Map<String, JSONObject> types, String ddclass) throws Exception
+    {
+        List<String> subTypes = new ArrayList<String>();
+        for (String typeName : types.keySet())
+        {
+            if (jsonIsSubType(types, typeName, ddclass))
+            {
+                subTypes.add(typeName);
+            }
+        }
+        return subTypes;
+    }
+}
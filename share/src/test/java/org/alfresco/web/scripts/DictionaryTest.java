@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.web.scripts.Dictionary.DictionaryAssoc;
+import org.alfresco.web.scripts.Dictionary.DictionaryItem;
+import org.alfresco.web.scripts.Dictionary.DictionaryProperty;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the indexed {@link Dictionary} model that backs the {@link DictionaryQuery}.
+ */
+public class DictionaryTest
+{
+    private Dictionary dictionary;
+    
+    @Before
+    public void setUp() throws Exception
+    {
+        JSONArray json = new JSONArray();
+        json.put(ddclass("sys:base", null, false, new String[] {"sys:referenceable"}, new String[] {"sys:node-uuid"}));
+        json.put(ddclass("cm:cmobject", "sys:base", false, new String[] {"cm:auditable"}, new String[] {"cm:name"}));
+        json.put(ddclass("cm:content", "cm:cmobject", false, null, new String[] {"cm:name", "cm:content"}));
+        json.put(ddclass("cm:folder", "cm:cmobject", false, null, new String[] {"cm:name"}));
+        json.put(ddclass("my:doc", "cm:content", false, new String[] {"cm:titled"}, new String[] {"cm:name", "my:ref"}));
+        json.put(ddclass("sys:referenceable", null, true, null, new String[] {"sys:node-uuid"}));
+        json.put(ddclass("cm:auditable", null, true, null, new String[] {"cm:created", "cm:modified"}));
+        json.put(ddclass("cm:titled", null, true, null, new String[] {"cm:title", "cm:description"}));
+        json.put(ddclass("my:titled", "cm:titled", true, null, new String[] {"cm:title", "cm:description"}));
+        
+        Map<String, DictionaryItem> types = new HashMap<String, DictionaryItem>();
+        Map<String, DictionaryItem> aspects = new HashMap<String, DictionaryItem>();
+        for (int i=0; i<json.length(); i++)
+        {
+            JSONObject ddclass = json.getJSONObject(i);
+            String name = ddclass.getString(Dictionary.JSON_NAME);
+            (ddclass.getBoolean(Dictionary.JSON_IS_ASPECT) ? aspects : types).put(name, new DictionaryItem(name, ddclass));
+        }
+        dictionary = new Dictionary(types, aspects);
+    }
+    
+    @Test
+    public void isSubTypeFollowsHierarchy()
+    {
+        assertTrue(dictionary.isSubType("my:doc", "cm:content"));
+        assertTrue(dictionary.isSubType("my:doc", "cm:cmobject"));
+        assertTrue(dictionary.isSubType("my:doc", "sys:base"));
+        assertTrue(dictionary.isSubType("cm:folder", "cm:cmobject"));
+        assertFalse(dictionary.isSubType("cm:folder", "cm:content"));
+        assertFalse(dictionary.isSubType("cm:content", "my:doc"));
+        assertFalse(dictionary.isSubType("my:titled", "cm:titled"));
+        assertFalse(dictionary.isSubType("unknown:type", "cm:content"));
+        assertFalse(dictionary.isSubType("cm:content", "unknown:type"));
+    }
+    
+    @Test
+    public void getSubTypesReturnsDescendants()
+    {
+        String[] subTypes = dictionary.getSubTypes("cm:cmobject");
+        Arrays.sort(subTypes);
+        assertArrayEquals(new String[] {"cm:content", "cm:folder", "my:doc"}, subTypes);
+        assertArrayEquals(new String[] {"my:doc"}, dictionary.getSubTypes("cm:content"));
+        assertArrayEquals(new String[] {"my:titled"}, dictionary.getSubTypes("cm:titled"));
+        assertEquals(0, dictionary.getSubTypes("my:doc").length);
+        assertEquals(0, dictionary.getSubTypes("unknown:type").length);
+    }
+    
+    @Test
+    public void propertiesAndDefaultAspects()
+    {
+        assertTrue(dictionary.hasProperty("my:doc", "my:ref", false));
+        assertFalse(dictionary.hasProperty("my:doc", "cm:title", false));
+        assertTrue(dictionary.hasProperty("my:doc", "cm:title", true));
+        assertNull(dictionary.getProperty("my:doc", "cm:title", false));
+        
+        DictionaryProperty prop = dictionary.getProperty("my:doc", "cm:title", true);
+        assertNotNull(prop);
+        assertEquals("cm:title", prop.getName());
+        assertEquals("d:text", prop.getDataType());
+        
+        assertEquals(2, dictionary.getProperties("my:doc", false).length);
+        assertEquals(4, dictionary.getProperties("my:doc", true).length);
+        assertEquals(0, dictionary.getProperties("unknown:type", true).length);
+        
+        assertTrue(dictionary.hasDefaultAspect("my:doc", "cm:titled"));
+        assertFalse(dictionary.hasDefaultAspect("my:doc", "cm:auditable"));
+        assertArrayEquals(new String[] {"cm:titled"}, dictionary.getDefaultAspects("my:doc"));
+    }
+    
+    @Test
+    public void classMetadata()
+    {
+        assertEquals("cm:content", dictionary.getParent("my:doc"));
+        assertEquals("", dictionary.getParent("sys:base"));
+        assertEquals("my:doc title", dictionary.getTitle("my:doc"));
+        assertEquals("my:doc description", dictionary.getDescription("my:doc"));
+        assertTrue(dictionary.isContainer("cm:folder"));
+        assertFalse(dictionary.isContainer("cm:content"));
+        assertNotNull(dictionary.getType("cm:content"));
+        assertNull(dictionary.getType("cm:titled"));
+        assertNotNull(dictionary.getAspect("cm:titled"));
+        assertEquals(5, dictionary.getAllTypes().length);
+        assertEquals(4, dictionary.getAllAspects().length);
+        
+        DictionaryAssoc[] assocs = dictionary.getAssociations("my:doc");
+        assertEquals(1, assocs.length);
+        assertEquals("my:doc-assoc", assocs[0].getName());
+        assertEquals("cm:content", assocs[0].getTargetClass());
+        assertTrue(assocs[0].getTargetIsMany());
+        assertEquals(0, dictionary.getChildAssociations("my:doc").length);
+    }
+    
+    @Test
+    public void updatesRebuildTheIndex() throws Exception
+    {
+        JSONArray added = new JSONArray();
+        added.put(ddclass("my:subdoc", "my:doc", false, null, new String[] {"my:extra"}));
+        dictionary.updateAddClasses(added.toString());
+        
+        assertTrue(dictionary.isSubType("my:subdoc", "cm:content"));
+        assertTrue(Arrays.asList(dictionary.getSubTypes("cm:content")).contains("my:subdoc"));
+        assertTrue(dictionary.hasProperty("my:subdoc", "my:extra", false));
+        
+        dictionary.updateRemoveClasses(added.toString());
+        
+        assertNull(dictionary.getType("my:subdoc"));
+        assertFalse(dictionary.isSubType("my:subdoc", "cm:content"));
+        assertArrayEquals(new String[] {"my:doc"}, dictionary.getSubTypes("cm:content"));
+    }
+    
+    @Test
+    public void returnedArraysAreNotShared()
+    {
+        String[] types = dictionary.getAllTypes();
+        types[0] = null;
+        assertNotNull(dictionary.getAllTypes()[0]);
+    }
+    
+    /**
+     * Build the JSON for a dd class in the format returned by the /api/dictionary webscript.
+     */
+    static JSONObject ddclass(String name, String parent, boolean isAspect, String[] defaultAspects, String[] properties)
+        throws Exception
+    {
+        JSONObject ddclass = new JSONObject();
+        ddclass.put(Dictionary.JSON_NAME, name);
+        ddclass.put(Dictionary.JSON_IS_ASPECT, isAspect);
+        ddclass.put(Dictionary.JSON_IS_CONTAINER, name.endsWith("folder"));
+        ddclass.put(Dictionary.JSON_TITLE, name + " title");
+        ddclass.put(Dictionary.JSON_DESCRIPTION, name + " description");
+        JSONObject parentObj = new JSONObject();
+        if (parent != null)
+        {
+            parentObj.put(Dictionary.JSON_NAME, parent);
+        }
+        ddclass.put(Dictionary.JSON_PARENT, parentObj);
+        JSONObject aspects = new JSONObject();
+        if (defaultAspects != null)
+        {
+            for (String aspect : defaultAspects)
+            {
+                aspects.put(aspect, new JSONObject().put(Dictionary.JSON_NAME, aspect));
+            }
+        }
+        ddclass.put(Dictionary.JSON_DEFAULT_ASPECTS, aspects);
+        JSONObject props = new JSONObject();
+        for (String property : properties)
+        {
+            JSONObject prop = new JSONObject();
+            prop.put(Dictionary.JSON_NAME, property);
+            prop.put(Dictionary.JSON_TITLE, property);
+            prop.put(Dictionary.JSON_DESCRIPTION, property);
+            prop.put(Dictionary.JSON_DATATYPE, "d:text");
+            prop.put(Dictionary.JSON_MULTIVALUED, false);
+            prop.put(Dictionary.JSON_MANDATORY, false);
+            props.put(property, prop);
+        }
+        ddclass.put(Dictionary.JSON_PROPERTIES, props);
+        JSONObject assocs = new JSONObject();
+        if (!isAspect && name.startsWith("my:"))
+        {
+            JSONObject assoc = new JSONObject();
+            assoc.put(Dictionary.JSON_TITLE, name + "-assoc");
+            assoc.put(Dictionary.JSON_SOURCE, new JSONObject().put(Dictionary.JSON_CLASS, name)
+                    .put(Dictionary.JSON_MANDATORY, false).put(Dictionary.JSON_MANY, true));
+            assoc.put(Dictionary.JSON_TARGET, new JSONObject().put(Dictionary.JSON_CLASS, "cm:content")
+                    .put(Dictionary.JSON_MANDATORY, false).put(Dictionary.JSON_MANY, true));
+            assocs.put(name + "-assoc", assoc);
+        }
+        ddclass.put(Dictionary.JSON_ASSOCIATIONS, assocs);
+        ddclass.put(Dictionary.JSON_CHILDASSOCIATIONS, new JSONObject());
+        return ddclass;
+    }
+}
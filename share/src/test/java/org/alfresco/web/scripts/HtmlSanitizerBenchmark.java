@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+import org.springframework.extensions.webscripts.ui.common.StringUtils;
+
+/**
+ * Benchmark comparing the in-memory HTML sanitization performed by {@link SlingshotRemoteClient} against the
+ * {@link StreamingHtmlSanitizer}. Not run as part of the unit tests, execute the main method directly to report
+ * the time to the first byte of output, the total time, the memory allocated and the most characters held in
+ * memory for each approach. The optional argument is the number of sections in the generated document.
+ */
+public class HtmlSanitizerBenchmark
+{
+    private static final int ITERATIONS = 20;
+    
+    public static void main(String[] args) throws Exception
+    {
+        final int sections = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final String document = StreamingHtmlSanitizerTest.generate(sections);
+        System.out.println("Document of " + document.length() + " characters");
+        
+        for (int run=0; run<3; run++)
+        {
+            System.out.println("Run " + (run + 1));
+            long firstByte = 0, total = 0, allocated = 0;
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+                // as the buffered response: the whole document is read then sanitized
+                StringBuilder in = new StringBuilder(document.length());
+                in.append(document);
+                String result = StringUtils.stripUnsafeHTMLDocument(in.toString(), false);
+                TimingWriter out = new TimingWriter(start);
+                out.write(result);
+                firstByte += out.firstByte;
+                total += System.nanoTime() - start;
+                allocated += allocatedBytes() - bytes;
+            }
+            report("buffered", firstByte, total, allocated, document.length() * 2);
+            
+            firstByte = total = allocated = 0;
+            int maxBuffered = 0;
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+                TimingWriter out = new TimingWriter(start);
+                StreamingHtmlSanitizer sanitizer = new StreamingHtmlSanitizer(out);
+                for (int n=0; n<document.length(); n+=8192)
+                {
+                    sanitizer.write(document, n, Math.min(8192, document.length() - n));
+                }
+                sanitizer.close();
+                firstByte += out.firstByte;
+                total += System.nanoTime() - start;
+                allocated += allocatedBytes() - bytes;
+                maxBuffered = sanitizer.getMaxBuffered();
+            }
+            report("streaming", firstByte, total, allocated, maxBuffered);
+        }
+    }
+    
+    private static void report(String name, long firstByte, long total, long allocated, int maxBuffered)
+    {
+        System.out.println(String.format("  %-10s first byte %8.2f ms  total %8.2f ms  allocated %8d KB  buffered %8d chars",
+                name, firstByte / 1e6 / ITERATIONS, total / 1e6 / ITERATIONS, allocated / 1024 / ITERATIONS, maxBuffered));
+    }
+    
+    /**
+     * @return bytes allocated by the current thread, or zero if that is not supported by the JVM
+     */
+    private static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0L;
+    }
+    
+    /**
+     * Discards the output, recording when the first of it was written
+     */
+    private static class TimingWriter extends Writer
+    {
+        private final long start;
+        long firstByte = -1;
+        
+        TimingWriter(long start)
+        {
+            this.start = start;
+        }
+        
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            if (firstByte == -1 && len != 0)
+            {
+                firstByte = System.nanoTime() - start;
+            }
+        }
+        
+        @Override
+        public void flush() throws IOException
+        {
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+        }
+    }
+}
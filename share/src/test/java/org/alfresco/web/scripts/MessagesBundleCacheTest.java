@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Tests for the {@link MessagesBundleCache} used by the {@link MessagesWebScript}.
+ */
+public class MessagesBundleCacheTest
+{
+    private static final String MESSAGES = "Alfresco.messages.global = {\"label.ok\":\"OK\",\"label.caf\\u00e9\":\"Caf\u00e9\"};\r\n";
+    
+    private MessagesBundleCache cache;
+    
+    @Before
+    public void setUp() throws Exception
+    {
+        cache = new MessagesBundleCache();
+    }
+    
+    @Test
+    public void testPutAndGet() throws Exception
+    {
+        assertNull(cache.get("en_GB"));
+        MessagesBundleCache.Bundle bundle = cache.put("en_GB", MESSAGES);
+        assertSame(bundle, cache.get("en_GB"));
+        assertArrayEquals(MESSAGES.getBytes("UTF-8"), bundle.getContent());
+        assertNull(bundle.getGzipped());
+        assertNull(cache.get("fr_FR"));
+        
+        cache.clear();
+        assertNull(cache.get("en_GB"));
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    public void testETag() throws Exception
+    {
+        MessagesBundleCache.Bundle bundle = cache.put("en_GB", MESSAGES);
+        assertEquals(bundle.getETag(), cache.put("en_US", MESSAGES).getETag());
+        assertFalse(bundle.getETag().equals(cache.put("fr_FR", MESSAGES + " ").getETag()));
+        assertFalse(bundle.getETag().equals(bundle.getGzipETag()));
+        assertEquals('"', bundle.getETag().charAt(0));
+        assertEquals('"', bundle.getETag().charAt(bundle.getETag().length() - 1));
+    }
+    
+    @Test
+    public void testMaxBundles() throws Exception
+    {
+        cache.setMaxBundles(2);
+        cache.put("a", MESSAGES);
+        cache.put("b", MESSAGES);
+        assertNotNull(cache.get("a"));
+        
+        // the least recently used bundle makes way for the new one
+        assertNotNull(cache.put("c", MESSAGES));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.size());
+    }
+    
+    @Test
+    public void testWrite() throws Exception
+    {
+        MessagesBundleCache.Bundle bundle = cache.put("en_GB", MESSAGES);
+        WebScriptRequest req = mock(WebScriptRequest.class);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebScriptResponse res = response(out);
+        
+        cache.write(bundle, req, res);
+        verify(res).setHeader("ETag", bundle.getETag());
+        verify(res, never()).setStatus(anyInt());
+        assertArrayEquals(bundle.getContent(), out.toByteArray());
+    }
+    
+    @Test
+    public void testNotModified() throws Exception
+    {
+        MessagesBundleCache.Bundle bundle = cache.put("en_GB", MESSAGES);
+        WebScriptRequest req = mock(WebScriptRequest.class);
+        when(req.getHeader("If-None-Match")).thenReturn("\"other\", " + bundle.getETag());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebScriptResponse res = response(out);
+        
+        cache.write(bundle, req, res);
+        verify(res).setStatus(Status.STATUS_NOT_MODIFIED);
+        assertEquals(0, out.size());
+        
+        // a stale ETag gets the content
+        when(req.getHeader("If-None-Match")).thenReturn("\"other\"");
+        res = response(out);
+        cache.write(bundle, req, res);
+        verify(res, never()).setStatus(anyInt());
+        assertArrayEquals(bundle.getContent(), out.toByteArray());
+    }
+    
+    @Test
+    public void testGzip() throws Exception
+    {
+        cache.setGzip(true);
+        MessagesBundleCache.Bundle bundle = cache.put("en_GB", MESSAGES);
+        assertNotNull(bundle.getGzipped());
+        
+        WebScriptRequest req = mock(WebScriptRequest.class);
+        when(req.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebScriptResponse res = response(out);
+        cache.write(bundle, req, res);
+        verify(res).setHeader("Content-Encoding", "gzip");
+        verify(res).setHeader("ETag", bundle.getGzipETag());
+        assertArrayEquals(bundle.getContent(), gunzip(out.toByteArray()));
+        
+        // clients that do not accept gzip get the uncompressed bundle
+        when(req.getHeader("Accept-Encoding")).thenReturn(null);
+        out.reset();
+        res = response(out);
+        cache.write(bundle, req, res);
+        verify(res, never()).setHeader("Content-Encoding", "gzip");
+        verify(res).setHeader("ETag", bundle.getETag());
+        assertArrayEquals(bundle.getContent(), out.toByteArray());
+    }
+    
+    private static WebScriptResponse response(ByteArrayOutputStream out) throws Exception
+    {
+        WebScriptResponse res = mock(WebScriptResponse.class);
+        when(res.getOutputStream()).thenReturn(out);
+        return res;
+    }
+    
+    private static byte[] gunzip(byte[] bytes) throws Exception
+    {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+        {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.extensions.surf.exception.ConnectorServiceException;
+
+/**
+ * Tests for the per-store locking, expiry and refresh of the {@link SingletonValueProcessorExtension}.
+ */
+public class SingletonValueProcessorExtensionTest
+{
+    private TestValueExtension extension;
+    private ExecutorService threads;
+    
+    @Before
+    public void setUp()
+    {
+        extension = new TestValueExtension();
+        threads = Executors.newFixedThreadPool(8);
+    }
+    
+    @After
+    public void tearDown()
+    {
+        threads.shutdownNow();
+    }
+    
+    @Test
+    public void valueIsRetrievedOncePerStore() throws Exception
+    {
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i=0; i<16; i++)
+        {
+            results.add(threads.submit(get("admin@acme.com")));
+        }
+        for (Future<String> result : results)
+        {
+            assertEquals("@acme.com-1", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, extension.retrievals.get());
+        
+        assertEquals("-2", extension.getSingletonValue(true, "admin"));
+        assertEquals(2, extension.retrievals.get());
+    }
+    
+    @Test
+    public void slowStoreDoesNotBlockOtherStores() throws Exception
+    {
+        extension.blockStore("@slow.com");
+        Future<String> slow = threads.submit(get("admin@slow.com"));
+        assertTrue(extension.blocked.await(5, TimeUnit.SECONDS));
+        
+        // other tenants are retrieved while the slow tenant is still being retrieved
+        assertEquals("@fast.com-2", threads.submit(get("admin@fast.com")).get(5, TimeUnit.SECONDS));
+        assertFalse(slow.isDone());
+        
+        extension.release.countDown();
+        assertEquals("@slow.com-1", slow.get(5, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void expiredValueIsServedWhileRefreshed() throws Exception
+    {
+        extension.setTimeToLive(1);
+        extension.useRefreshTask = true;
+        extension.setRefreshExecutor(threads);
+        
+        assertEquals("@acme.com-1", extension.getSingletonValue(true, "admin@acme.com"));
+        Thread.sleep(5);
+        
+        // the stale value is returned and a refresh is executed in the background
+        extension.blockStore("@acme.com");
+        assertEquals("@acme.com-1", extension.getSingletonValue(true, "admin@acme.com"));
+        assertTrue(extension.blocked.await(5, TimeUnit.SECONDS));
+        assertEquals("@acme.com-1", extension.getSingletonValue(true, "admin@acme.com"));
+        extension.release.countDown();
+        
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!"@acme.com-2".equals(extension.getCurrentSingletonValue(true, "admin@acme.com")) && System.currentTimeMillis() < timeout)
+        {
+            Thread.sleep(5);
+        }
+        assertEquals("@acme.com-2", extension.getCurrentSingletonValue(true, "admin@acme.com"));
+    }
+    
+    @Test
+    public void failedRefreshKeepsCurrentValue() throws Exception
+    {
+        extension.setTimeToLive(1);
+        
+        assertEquals("-1", extension.getSingletonValue(true, "admin"));
+        Thread.sleep(5);
+        extension.fail = true;
+        assertEquals("-1", extension.getSingletonValue(true, "admin"));
+        assertEquals("-1", extension.getCurrentSingletonValue(true, "admin"));
+    }
+    
+    @Test
+    public void invalidation() throws Exception
+    {
+        assertEquals("@acme.com-1", extension.getSingletonValue(true, "admin@acme.com"));
+        assertEquals("-2", extension.getSingletonValue(true, "admin"));
+        
+        extension.invalidateSingletonValue(true, "user@acme.com");
+        assertNull(extension.getCurrentSingletonValue(true, "admin@acme.com"));
+        assertTrue(extension.hasSingletonValue(true, "admin"));
+        assertEquals("@acme.com-3", extension.getSingletonValue(true, "admin@acme.com"));
+        
+        extension.invalidateAllSingletonValues();
+        assertFalse(extension.hasSingletonValue(true, "admin"));
+        assertFalse(extension.hasSingletonValue(true, "admin@acme.com"));
+    }
+    
+    private Callable<String> get(final String userId)
+    {
+        return new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                return extension.getSingletonValue(true, userId);
+            }
+        };
+    }
+    
+    
+    /**
+     * Test implementation returning the store id and a count of the retrievals as the value.
+     */
+    private static class TestValueExtension extends SingletonValueProcessorExtension<String>
+    {
+        final AtomicInteger retrievals = new AtomicInteger();
+        final ConcurrentHashMap<String, Boolean> blockedStores = new ConcurrentHashMap<String, Boolean>();
+        volatile CountDownLatch blocked = new CountDownLatch(1);
+        volatile CountDownLatch release = new CountDownLatch(1);
+        volatile boolean useRefreshTask;
+        volatile boolean fail;
+        
+        void blockStore(String storeId)
+        {
+            blocked = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+            blockedStores.put(storeId, Boolean.TRUE);
+        }
+        
+        @Override
+        protected String retrieveValue(String userId, String storeId) throws ConnectorServiceException
+        {
+            if (fail)
+            {
+                throw new ConnectorServiceException("Unavailable");
+            }
+            int count = retrievals.incrementAndGet();
+            if (blockedStores.remove(storeId) != null)
+            {
+                blocked.countDown();
+                try
+                {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return storeId + "-" + count;
+        }
+        
+        @Override
+        protected Callable<String> createRefreshTask(final String userId, final String storeId) throws ConnectorServiceException
+        {
+            if (!useRefreshTask)
+            {
+                return null;
+            }
+            return new Callable<String>()
+            {
+                @Override
+                public String call() throws Exception
+                {
+                    return retrieveValue(userId, storeId);
+                }
+            };
+        }
+        
+        @Override
+        protected String getValueName()
+        {
+            return "test value";
+        }
+    }
+}
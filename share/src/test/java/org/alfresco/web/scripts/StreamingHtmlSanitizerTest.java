@@ -0,0 +1,194 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.springframework.extensions.webscripts.ui.common.StringUtils;
+
+/**
+ * Tests that the {@link StreamingHtmlSanitizer} produces the same output as sanitizing a whole document in memory.
+ */
+public class StreamingHtmlSanitizerTest
+{
+    private static final int[] SEGMENT_SIZES = new int[] {1, 16, 64, StreamingHtmlSanitizer.DEFAULT_SEGMENT_SIZE};
+    
+    private static final String[] DOCUMENTS = new String[] {
+        "",
+        "plain text with no markup at all",
+        "<!DOCTYPE html>\n<html><head><title>A <b>title</b></title></head><body><p>Hello</p></body></html>",
+        "<html><body onload=\"alert('x')\"><p class=\"a>b\" title='c>d'>text</p><a href=\"javascript:alert(1)\">link</a></body></html>",
+        "<p>before</p><script type=\"text/javascript\">if (a < b && c > d) { document.write('<p>written</p>'); }</script><p>after</p>",
+        "<style>p > a { color: red; }</style><p>styled</p><SCRIPT>var s = '</scr' + 'ipt>';</SCRIPT><p>end</p>",
+        "<script>var s = '</scripts><p>not markup</p>';</script\n><p>after</p><title>a</titles> b</title ><p>end</p>",
+        "<p>a</p><!-- a comment with <script>alert(1)</script> and > inside --><p>b</p>",
+        "<div><![CDATA[ <script>alert(1)</script> ]]></div><p>after cdata</p>",
+        "<p>one</p><object data=\"x.swf\"><param name=\"a\" value=\"b\"><embed src=\"x.swf\"></object><p>two</p>",
+        "<p>one</p><iframe src=\"http://example.com\"><p>fallback</p></iframe><noscript><p>no script</p></noscript><p>two</p>",
+        "<% out.println(\"<p>jsp</p>\"); %><p>text &lt; &amp; &gt;</p><img src=x onerror=alert(1)><br/><hr />",
+        "text with a lone < and a < b comparison and <<p>double</p> and unclosed <p",
+        "<?xml version=\"1.0\"?><svg><script>alert(1)</script><circle r=\"1\"/></svg><p>after svg</p>"
+    };
+    
+    @Test
+    public void testSameAsInMemory() throws Exception
+    {
+        for (String document : DOCUMENTS)
+        {
+            String expected = StringUtils.stripUnsafeHTMLDocument(document, false);
+            if (expected == null)
+            {
+                expected = "";
+            }
+            for (int segmentSize : SEGMENT_SIZES)
+            {
+                assertEquals("segment size " + segmentSize + ": " + document, expected, sanitize(document, segmentSize, 1));
+                assertEquals("segment size " + segmentSize + ": " + document, expected, sanitize(document, segmentSize, 7));
+            }
+        }
+    }
+    
+    @Test
+    public void testLargeDocument() throws Exception
+    {
+        String document = generate(2000);
+        String expected = StringUtils.stripUnsafeHTMLDocument(document, false);
+        assertEquals(expected, sanitize(document, 1024, 4096));
+    }
+    
+    @Test
+    public void testBufferIsBounded() throws Exception
+    {
+        String document = generate(2000);
+        StreamingHtmlSanitizer sanitizer = new StreamingHtmlSanitizer(new StringWriter(), 1024);
+        sanitizer.write(document);
+        assertTrue("buffered " + sanitizer.getMaxBuffered(), sanitizer.getMaxBuffered() < 4096);
+        sanitizer.close();
+        
+        // text with no markup is split between words
+        StringBuilder text = new StringBuilder();
+        for (int i=0; i<10000; i++)
+        {
+            text.append("word ");
+        }
+        sanitizer = new StreamingHtmlSanitizer(new StringWriter(), 1024);
+        for (int i=0; i<text.length(); i+=4096)
+        {
+            sanitizer.write(text.toString(), i, Math.min(4096, text.length() - i));
+        }
+        assertTrue("buffered " + sanitizer.getMaxBuffered(), sanitizer.getMaxBuffered() < 4096);
+        sanitizer.close();
+    }
+    
+    @Test
+    public void testRawTextEndTagNeedsBoundary() throws Exception
+    {
+        // nothing may be split off before the real end of the script
+        StringBuilder document = new StringBuilder("<script>var s = '</scripts>");
+        for (int i=0; i<100; i++)
+        {
+            document.append("<b>").append(i).append("</b>");
+        }
+        document.append("';</script>");
+        StreamingHtmlSanitizer sanitizer = new StreamingHtmlSanitizer(new StringWriter(), 16);
+        sanitizer.write(document.toString());
+        assertEquals(document.length(), sanitizer.getMaxBuffered());
+        sanitizer.close();
+    }
+    
+    @Test
+    public void testMaxBufferSize() throws Exception
+    {
+        String safe = "<p>first paragraph</p>";
+        StringWriter out = new StringWriter();
+        StreamingHtmlSanitizer sanitizer = new StreamingHtmlSanitizer(out, 1, 64);
+        try
+        {
+            sanitizer.write(safe + "<script>");
+            for (int i=0; i<10; i++)
+            {
+                sanitizer.write("var a = 1;");
+            }
+            fail("Unterminated script should exceed the buffer size");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        assertTrue("buffered " + sanitizer.getMaxBuffered(), sanitizer.getMaxBuffered() <= 64);
+        assertEquals(StringUtils.stripUnsafeHTMLDocument(safe, false), out.toString());
+    }
+    
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws Exception
+    {
+        StreamingHtmlSanitizer sanitizer = new StreamingHtmlSanitizer(new StringWriter());
+        sanitizer.close();
+        sanitizer.write("<p>");
+    }
+    
+    /**
+     * Sanitize the document, writing it in chunks of the given size
+     */
+    private static String sanitize(String document, int segmentSize, int chunkSize) throws IOException
+    {
+        StringWriter out = new StringWriter();
+        StreamingHtmlSanitizer sanitizer = new StreamingHtmlSanitizer(out, segmentSize);
+        for (int i=0; i<document.length(); i+=chunkSize)
+        {
+            sanitizer.write(document, i, Math.min(chunkSize, document.length() - i));
+        }
+        sanitizer.close();
+        return out.toString();
+    }
+    
+    /**
+     * Generate a document made up of the given number of repeated sections
+     */
+    static String generate(int sections)
+    {
+        StringBuilder sb = new StringBuilder(sections * 300);
+        sb.append("<!DOCTYPE html>\n<html><head><title>Generated</title></head><body>\n");
+        for (int i=0; i<sections; i++)
+        {
+            sb.append("<div class=\"section\" id=\"s").append(i).append("\"><h2>Section ").append(i).append("</h2>\n");
+            sb.append("<p onclick=\"alert(").append(i).append(")\">Some text &amp; a <a href=\"javascript:go()\">link</a>.</p>\n");
+            if (i % 10 == 0)
+            {
+                sb.append("<script>var x = ").append(i).append(" < 10;</script>\n");
+            }
+            sb.append("<!-- end of section ").append(i).append(" --></div>\n");
+        }
+        sb.append("</body></html>");
+        return sb.toString();
+    }
+}
@@ -25,15 +25,29 @@
  */
 package org.alfresco.wcm.client.impl;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.wcm.client.AssetFactory;
 import org.alfresco.wcm.client.CollectionFactory;
 import org.alfresco.wcm.client.DictionaryService;
+import org.alfresco.wcm.client.Resource;
 import org.alfresco.wcm.client.Section;
 import org.alfresco.wcm.client.SectionFactory;
 import org.alfresco.wcm.client.Tag;
@@ -43,17 +57,52 @@ import org.apache.commons.logging.LogFactory;
 /**
  * Factory class for creating Sections from the repository. This abstract implementation handles all the necessary caching logic.
  * Concrete implementations just need to implement the findSectionWithChildren(String) operation.
+ * <p>
+ * The section tree of each website is held in an immutable snapshot with an index of its sections by path, which
+ * is swapped when the tree is refreshed, so readers never block once the tree has first been loaded. While one
+ * thread refreshes an expired tree the others carry on using the current snapshot.
+ * <p>
+ * By default an expired tree is reloaded in full. With {@link #setIncrementalRefresh(boolean)} the modified time
+ * and parent of every section are fetched instead, and only the sections that have been added, modified or moved
+ * since the last refresh are loaded, for implementations that support {@link #findSectionVersions(String)} and
+ * {@link #findSections(Collection)}. The changed sections replace the cached ones, and their parents and the
+ * ancestors of those are copied with new child lists, so the previous tree is left as it was for the readers still
+ * using it.
+ * <p>
+ * When an {@link AssetChangePoller} is set, the trees are treated as expired as soon as the poller reports a change
+ * to a cached section, rather than when their time-to-live runs out.
  * 
  * @author Chris Lack
  * @author Brian Remmington
  */
-public abstract class AbstractCachingSectionFactoryImpl implements SectionFactory
+public abstract class AbstractCachingSectionFactoryImpl implements SectionFactory, AssetChangeListener
 {
     protected static final String PROPERTY_TAG_SUMMARY = "cm:tagScopeSummary";
+    protected static final String PROPERTY_ORDER_INDEX = "ws:orderIndex";
 
     private final static Log log = LogFactory.getLog(AbstractCachingSectionFactoryImpl.class);
 
+    /** Orders the sections within their parent, as the repository does */
+    private static final Comparator<Section> SECTION_ORDER = new Comparator<Section>()
+    {
+        @Override
+        public int compare(Section s1, Section s2)
+        {
+            //The order index is read as a Long or an Integer depending on how the section was loaded
+            Number order1 = (Number) s1.getProperty(PROPERTY_ORDER_INDEX);
+            Number order2 = (Number) s2.getProperty(PROPERTY_ORDER_INDEX);
+            if (order1 == null || order2 == null)
+            {
+                return order1 == order2 ? 0 : (order1 == null ? 1 : -1);
+            }
+            long value1 = order1.longValue();
+            long value2 = order2.longValue();
+            return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+        }
+    };
+
     private long sectionsRefreshAfter;
+    private boolean incrementalRefresh = false;
 
     /**
      * Map of sections. If a section is present then all of its descendents will
@@ -65,7 +114,11 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
     /** Cache of all sections under a website */
     private Map<String, SectionCache> rootSectionsByWebsite = new ConcurrentSkipListMap<String, SectionCache>();
 
-    private ConcurrentMap<String, String> sectionsBeingLoaded = new ConcurrentSkipListMap<String, String>();
+    /** The number of reported changes to cached sections. A tree loaded before the latest change has expired. */
+    private final AtomicLong sectionChangeCount = new AtomicLong();
+
+    /** The loads of section trees in progress, by root section id */
+    private ConcurrentMap<String, FutureTask<SectionCache>> sectionsBeingLoaded = new ConcurrentHashMap<String, FutureTask<SectionCache>>();
 
     private AssetFactory assetFactory;
     private DictionaryService dictionaryService;
@@ -98,6 +151,50 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
         this.collectionFactory = collectionFactory;
     }
 
+    /**
+     * @param assetChangePoller the source of notifications of changed sections. This factory registers
+     *            itself as a listener.
+     */
+    public void setAssetChangePoller(AssetChangePoller assetChangePoller)
+    {
+        assetChangePoller.addListener(this);
+    }
+
+    /**
+     * Expire the section trees if any of the changed assets is a cached section, so they are refreshed on next use.
+     * This includes trees that are being loaded while the change is reported.
+     * 
+     * @see org.alfresco.wcm.client.impl.AssetChangeListener#assetsChanged(java.util.Collection)
+     */
+    @Override
+    public void assetsChanged(Collection<String> ids)
+    {
+        for (SectionCache cache : rootSectionsByWebsite.values())
+        {
+            for (String id : ids)
+            {
+                if (cache.sectionsById.containsKey(id))
+                {
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("Section " + id + " has changed, expiring the section trees");
+                    }
+                    sectionChangeCount.incrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @see org.alfresco.wcm.client.impl.AssetChangeListener#allAssetsChanged()
+     */
+    @Override
+    public void allAssetsChanged()
+    {
+        sectionChangeCount.incrementAndGet();
+    }
+
     public AssetFactory getAssetFactory()
     {
         return assetFactory;
@@ -173,117 +270,274 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
     @Override
     public Section getSectionFromPathSegments(String rootSectionId, String[] pathSegments)
     {
-        refreshCacheIfRequired(rootSectionId);
-
-        SectionCache cache = rootSectionsByWebsite.get(rootSectionId);
-        Section currentSection = cache.rootSection;
+        SectionCache cache = refreshCacheIfRequired(rootSectionId);
 
+        StringBuilder path = new StringBuilder();
         for (String segment : pathSegments)
         {
             if (segment.length() > 0)
-                currentSection = currentSection.getSection(segment);
-            if (currentSection == null)
-                return null;
+                path.append('/').append(segment);
         }
-        return currentSection;
+        return cache.sectionsByPath.get(path.toString());
     }
 
     /**
-     * Refreshes the section cache if empty or expired.
+     * Refreshes the section cache if empty or expired. Only waits when the section tree has not been loaded yet,
+     * otherwise returns the current tree while another thread refreshes it.
      * 
      * @param rootSectionId
      *            the id of the parent web root
+     * @return the cached section tree
      */
-    private void refreshCacheIfRequired(String rootSectionId)
+    private SectionCache refreshCacheIfRequired(final String rootSectionId)
     {
         SectionCache cache = rootSectionsByWebsite.get(rootSectionId);
-        while (cache == null || cache.isExpired())
+        if (cache != null && !cache.isExpired())
         {
-            String existingSectionToken = sectionsBeingLoaded.putIfAbsent(rootSectionId, rootSectionId);
-            if (existingSectionToken == null)
+            return cache;
+        }
+
+        FutureTask<SectionCache> task = new FutureTask<SectionCache>(new Callable<SectionCache>()
+        {
+            @Override
+            public SectionCache call() throws Exception
             {
-                try
-                {
-                    //It looks like we have to load this section tree, 
-                    //but before we do, let's just check that another thread hasn't got in between us checking the cache
-                    //and checking whether it's already being loaded...
-                    cache = rootSectionsByWebsite.get(rootSectionId);
-                    if (cache != null && !cache.isExpired())
-                    {
-                        //This section is now in the cache, so we don't need to do anything 
-                        return;
-                    }
-                    if (log.isDebugEnabled())
-                    {
-                        log.debug(Thread.currentThread().getName() + " started refreshing tree cache for section " + rootSectionId);
-                    }
+                return loadSections(rootSectionId);
+            }
+        });
+        FutureTask<SectionCache> existingTask = sectionsBeingLoaded.putIfAbsent(rootSectionId, task);
+        if (existingTask == null)
+        {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                sectionsBeingLoaded.remove(rootSectionId, task);
+            }
+            existingTask = task;
+        }
+        else if (cache != null)
+        {
+            //We are currently refreshing the cache, but the requested section does already 
+            //appear in the cache. Therefore we'll let the caller simply use the currently-cached 
+            //copy
+            return cache;
+        }
 
-                    //This section isn't currently being loaded. Load it.
-                    Map<String, Section> sections = findSectionWithChildren(rootSectionId);
-                    Section rootSection = sections.get(rootSectionId);
-                    SectionCache cachedRootSection = new SectionCache(rootSection);
-                    rootSectionsByWebsite.put(rootSectionId, cachedRootSection);
-                    sectionsById.putAll(sections);
-                    if (log.isDebugEnabled())
-                    {
-                        log.debug(Thread.currentThread().getName() + " finished refreshing tree cache for section " + rootSectionId);
-                    }
-                    return;
-                }
-                finally
+        try
+        {
+            if (log.isDebugEnabled() && existingTask != task)
+            {
+                log.debug(Thread.currentThread().getName() + " waiting for section tree to be loaded " + rootSectionId);
+            }
+            return existingTask.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for section tree " + rootSectionId, e);
+        }
+        catch (ExecutionException e)
+        {
+            if (cache != null)
+            {
+                //Keep using the expired tree rather than fail the request, the next request will try again
+                log.warn("Failed to refresh section tree " + rootSectionId + ", using the cached tree", e.getCause());
+                return cache;
+            }
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to load section tree " + rootSectionId, e.getCause());
+        }
+    }
+
+    /**
+     * Load or refresh the section tree of a website, and cache it.
+     */
+    private SectionCache loadSections(String rootSectionId)
+    {
+        //Another thread may have finished loading the tree between us checking the cache and starting the load
+        SectionCache cache = rootSectionsByWebsite.get(rootSectionId);
+        if (cache != null && !cache.isExpired())
+        {
+            return cache;
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug(Thread.currentThread().getName() + " started refreshing tree cache for section " + rootSectionId);
+        }
+
+        //Changes reported from now on are not known to be included in the refreshed tree
+        long changeCount = sectionChangeCount.get();
+        SectionCache refreshedCache = null;
+        if (cache != null && incrementalRefresh)
+        {
+            refreshedCache = refreshSections(rootSectionId, cache, changeCount);
+        }
+        if (refreshedCache == null)
+        {
+            Map<String, Section> sections = findSectionWithChildren(rootSectionId);
+            Section rootSection = sections.get(rootSectionId);
+            sectionsById.putAll(sections);
+            refreshedCache = new SectionCache(rootSection, changeCount);
+        }
+        rootSectionsByWebsite.put(rootSectionId, refreshedCache);
+
+        if (log.isDebugEnabled())
+        {
+            log.debug(Thread.currentThread().getName() + " finished refreshing tree cache for section " + rootSectionId);
+        }
+        return refreshedCache;
+    }
+
+    /**
+     * Refresh a section tree by loading only the sections that have changed since it was cached.
+     * 
+     * @return the refreshed tree, or null if it has to be reloaded in full
+     */
+    private SectionCache refreshSections(String rootSectionId, SectionCache cache, long changeCount)
+    {
+        Map<String, SectionVersion> versions = findSectionVersions(rootSectionId);
+        if (versions == null || !versions.containsKey(rootSectionId))
+        {
+            return null;
+        }
+
+        Set<String> changedIds = new HashSet<String>();
+        for (Map.Entry<String, SectionVersion> version : versions.entrySet())
+        {
+            Section cachedSection = cache.sectionsById.get(version.getKey());
+            if (cachedSection == null || isChanged(cachedSection, version.getValue(), version.getKey().equals(rootSectionId)))
+            {
+                changedIds.add(version.getKey());
+            }
+        }
+        Set<String> removedIds = new HashSet<String>(cache.sectionsById.keySet());
+        removedIds.removeAll(versions.keySet());
+        if (changedIds.isEmpty() && removedIds.isEmpty())
+        {
+            return new SectionCache(cache, changeCount);
+        }
+
+        Map<String, Section> changedSections = Collections.emptyMap();
+        if (!changedIds.isEmpty())
+        {
+            changedSections = findSections(changedIds);
+            if (changedSections == null)
+            {
+                return null;
+            }
+            //A section may have been deleted since its version was fetched
+            for (String changedId : changedIds)
+            {
+                if (!changedSections.containsKey(changedId))
                 {
-                    //There may be other threads waiting for us to finish loading this section tree.
-                    //Let them know that we've finished
-                    synchronized (rootSectionId)
-                    {
-                        sectionsBeingLoaded.remove(rootSectionId);
-                        rootSectionId.notifyAll();
-                    }
+                    removedIds.add(changedId);
                 }
             }
-            else
+        }
+        if (!changedSections.containsKey(rootSectionId) && removedIds.contains(rootSectionId))
+        {
+            return null;
+        }
+
+        //The sections of the refreshed tree
+        Map<String, Section> sections = new HashMap<String, Section>(cache.sectionsById);
+        sections.keySet().removeAll(removedIds);
+        sections.putAll(changedSections);
+
+        //The sections whose children have changed are the old and new parents of the changed and removed
+        //sections, and the changed sections themselves as they are new objects
+        Set<String> changedParentIds = new HashSet<String>();
+        for (String id : removedIds)
+        {
+            changedParentIds.add(getParentId(cache.sectionsById.get(id)));
+        }
+        for (Section changedSection : changedSections.values())
+        {
+            changedParentIds.add(getParentId(cache.sectionsById.get(changedSection.getId())));
+            changedParentIds.add(getParentId(changedSection));
+            changedParentIds.add(changedSection.getId());
+        }
+        //The ancestors of those sections need new child lists too, to reach them from the root of the refreshed
+        //tree. The cached tree is still in use, so its sections are copied rather than modified.
+        Map<String, List<Section>> childrenByParent = new HashMap<String, List<Section>>();
+        for (String parentId : changedParentIds)
+        {
+            String id = parentId;
+            while (id != null && sections.containsKey(id) && !childrenByParent.containsKey(id))
             {
-                //This section is currently being loaded
-                if (cache != null)
+                Section section = sections.get(id);
+                if (!(section instanceof SectionImpl))
                 {
-                    //We are currently refreshing the cache, but the requested section does already 
-                    //appear in the cache. Therefore we'll let the caller simply use the currently-cached 
-                    //copy
-                    return;
+                    return null;
                 }
-                else
+                if (!changedSections.containsKey(id))
                 {
-                    //This section isn't currently cached, but is already being loaded
-                    //Wait for it to be loaded...
-                    synchronized (existingSectionToken)
-                    {
-                        if (sectionsBeingLoaded.containsKey(existingSectionToken))
-                        {
-                            try
-                            {
-                                if (log.isDebugEnabled())
-                                {
-                                    log.debug(Thread.currentThread().getName() + 
-                                            " started waiting for section tree to be loaded " + 
-                                            rootSectionId);
-                                }
-                                existingSectionToken.wait();
-                            }
-                            catch (InterruptedException e)
-                            {
-                            }
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug(Thread.currentThread().getName() + 
-                                        " finished waiting for section tree to be loaded " + 
-                                        rootSectionId);
-                            }
-                        }
-                    }
+                    sections.put(id, ((SectionImpl) section).copy());
+                }
+                childrenByParent.put(id, new ArrayList<Section>());
+                id = id.equals(rootSectionId) ? null : getParentId(section);
+            }
+        }
+        for (Section section : sections.values())
+        {
+            List<Section> children = childrenByParent.get(getParentId(section));
+            if (children != null && !section.getId().equals(rootSectionId))
+            {
+                if (section.getName() == null)
+                {
+                    return null;
                 }
+                children.add(section);
             }
-            cache = rootSectionsByWebsite.get(rootSectionId);
         }
+        Map<String, Section> rebuiltSections = new HashMap<String, Section>();
+        for (Map.Entry<String, List<Section>> children : childrenByParent.entrySet())
+        {
+            SectionImpl parent = (SectionImpl) sections.get(children.getKey());
+            Collections.sort(children.getValue(), SECTION_ORDER);
+            parent.setSections(children.getValue());
+            rebuiltSections.put(parent.getId(), parent);
+        }
+
+        sectionsById.keySet().removeAll(removedIds);
+        sectionsById.putAll(rebuiltSections);
+        sectionsById.putAll(changedSections);
+        if (log.isDebugEnabled())
+        {
+            log.debug("Refreshed section tree " + rootSectionId + ": " + changedSections.size() + " sections loaded, " + 
+                    removedIds.size() + " removed, " + (sections.size() - changedSections.size()) + " unchanged");
+        }
+        return new SectionCache(sections.get(rootSectionId), changeCount);
+    }
+
+    /**
+     * Indicates whether a cached section is out of date
+     */
+    private boolean isChanged(Section cachedSection, SectionVersion version, boolean rootSection)
+    {
+        Serializable modifiedTime = cachedSection.getProperty(Resource.PROPERTY_MODIFIED_TIME);
+        if (modifiedTime == null || !modifiedTime.equals(version.modifiedTime))
+        {
+            return true;
+        }
+        //The parent of the web root is not recorded as it is the top of the tree
+        if (rootSection)
+        {
+            return false;
+        }
+        String parentId = getParentId(cachedSection);
+        return (version.parentId == null) ? parentId != null : !version.parentId.equals(parentId);
+    }
+
+    private static String getParentId(Section section)
+    {
+        return (section instanceof ResourceBaseImpl) ? ((ResourceBaseImpl) section).getPrimarySectionId() : null;
     }
 
     /**
@@ -295,11 +549,45 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
      */
     protected abstract Map<String,Section> findSectionWithChildren(String topSectionId);
 
+    /**
+     * Fetch the modified time and parent of a section and all of its descendants, for the incremental refresh of
+     * the section tree.
+     * 
+     * @param topSectionId
+     *            the section id to start from
+     * @return the versions of the sections by section id, null if not supported
+     */
+    protected Map<String, SectionVersion> findSectionVersions(String topSectionId)
+    {
+        return null;
+    }
+
+    /**
+     * Fetch sections, without populating their children.
+     * 
+     * @param sectionIds
+     *            the ids of the sections
+     * @return the sections that still exist by section id, null if not supported
+     */
+    protected Map<String, Section> findSections(Collection<String> sectionIds)
+    {
+        return null;
+    }
+
     public void setSectionsRefreshAfter(int seconds)
     {
         this.sectionsRefreshAfter = seconds * 1000;
     }
 
+    /**
+     * @param incrementalRefresh
+     *            true to refresh the section trees by loading only the sections that have changed
+     */
+    public void setIncrementalRefresh(boolean incrementalRefresh)
+    {
+        this.incrementalRefresh = incrementalRefresh;
+    }
+
     /**
      * Section with parent id. Used until the section is parented.
      */
@@ -311,17 +599,79 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
     }
 
     /**
-     * A root section and the time the data was cached.
+     * The modified time and parent of a section, as last seen by the repository.
+     */
+    protected static class SectionVersion
+    {
+        final Date modifiedTime;
+        final String parentId;
+
+        public SectionVersion(Date modifiedTime, String parentId)
+        {
+            this.modifiedTime = modifiedTime;
+            this.parentId = parentId;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the section tree of a website, with the time it was cached.
      */
     private class SectionCache
     {
-        Section rootSection;
-        long sectionsRefeshedAt;
+        final Section rootSection;
+        final Map<String, Section> sectionsById;
+        final Map<String, Section> sectionsByPath;
+        final long sectionsRefeshedAt;
+        /** The section change count when the tree was loaded */
+        final long changeCount;
 
-        SectionCache(Section root)
+        SectionCache(Section root, long changeCount)
         {
             this.rootSection = root;
+            Map<String, Section> byId = new HashMap<String, Section>();
+            Map<String, Section> byPath = new HashMap<String, Section>();
+            if (root != null)
+            {
+                index(root, "", byId, byPath);
+            }
+            this.sectionsById = Collections.unmodifiableMap(byId);
+            this.sectionsByPath = Collections.unmodifiableMap(byPath);
+            this.sectionsRefeshedAt = System.currentTimeMillis();
+            this.changeCount = changeCount;
+        }
+
+        /**
+         * The same tree, refreshed now
+         */
+        SectionCache(SectionCache cache, long changeCount)
+        {
+            this.rootSection = cache.rootSection;
+            this.sectionsById = cache.sectionsById;
+            this.sectionsByPath = cache.sectionsByPath;
             this.sectionsRefeshedAt = System.currentTimeMillis();
+            this.changeCount = changeCount;
+        }
+
+        /**
+         * @param path the path of the section, null if it cannot be reached by path
+         */
+        private void index(Section section, String path, Map<String, Section> byId, Map<String, Section> byPath)
+        {
+            if (byId.put(section.getId(), section) != null)
+            {
+                //Already reached by another path
+                return;
+            }
+            if (path != null)
+            {
+                byPath.put(path, section);
+            }
+            for (Section child : section.getSections())
+            {
+                //A section hidden by a sibling with the same name cannot be reached by path
+                boolean reachable = (path != null && section.getSection(child.getName()) == child);
+                index(child, reachable ? path + "/" + child.getName() : null, byId, byPath);
+            }
         }
 
         /**
@@ -333,7 +683,7 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
         {
             long now = System.currentTimeMillis();
             long difference = now - sectionsRefeshedAt;
-            return difference > sectionsRefreshAfter;
+            return changeCount != sectionChangeCount.get() || difference > sectionsRefreshAfter;
         }
     }
 
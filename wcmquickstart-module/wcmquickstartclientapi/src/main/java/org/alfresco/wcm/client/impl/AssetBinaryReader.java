@@ -0,0 +1,369 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import org.alfresco.wcm.client.exception.AssetDeserializationException;
+
+/**
+ * Reads the assets written by the repository's AssetSerializerBinaryImpl one at a time, as they arrive. Each record
+ * is length-prefixed, so it is read in one go and decoded from memory. Property names, types, MIME types and 
+ * encodings are decoded once per response and shared by all the assets that use them. The values have the same 
+ * types as those read by {@link AssetXmlReader}.
+ */
+public class AssetBinaryReader implements AssetReader
+{
+    static final byte[] MAGIC = { 'W', 'Q', 'S', 'B' };
+    static final int VERSION = 1;
+
+    private static final int RECORD_HEADER = 'H';
+    private static final int RECORD_ASSET = 'A';
+    private static final int RECORD_END = 'E';
+
+    private static final int VALUE_MISSING = 0;
+    private static final int VALUE_ID = 1;
+    private static final int VALUE_TEXT = 2;
+    private static final int VALUE_INTEGER = 3;
+    private static final int VALUE_NUMBER = 4;
+    private static final int VALUE_FALSE = 5;
+    private static final int VALUE_TRUE = 6;
+    private static final int VALUE_TIME = 7;
+    private static final int VALUE_CONTENT = 8;
+    private static final int VALUE_LIST = 9;
+    private static final int VALUE_MAP = 10;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+    private final ArrayList<String> names = new ArrayList<String>();
+    private byte[] record = new byte[1024];
+    private int position;
+    private int limit;
+
+    private TreeMap<String, Serializable> header = new TreeMap<String, Serializable>();
+    private TreeMap<String, Serializable> nextAsset;
+    private boolean started = false;
+    private boolean finished = false;
+
+    public AssetBinaryReader(InputStream in)
+    {
+        this.in = in;
+    }
+
+    @Override
+    public TreeMap<String, Serializable> getHeader()
+    {
+        return header;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (nextAsset == null && !finished)
+        {
+            nextAsset = readNextAsset();
+        }
+        return nextAsset != null;
+    }
+
+    @Override
+    public TreeMap<String, Serializable> next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        TreeMap<String, Serializable> asset = nextAsset;
+        nextAsset = null;
+        return asset;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+        finished = true;
+    }
+
+    private TreeMap<String, Serializable> readNextAsset()
+    {
+        try
+        {
+            if (!started)
+            {
+                started = true;
+                readStart();
+            }
+            while (true)
+            {
+                int recordType = readByte();
+                if (recordType == RECORD_END)
+                {
+                    finished = true;
+                    return null;
+                }
+                readRecord();
+                if (recordType == RECORD_ASSET)
+                {
+                    TreeMap<String, Serializable> asset = new TreeMap<String, Serializable>();
+                    asset.put("id", readString());
+                    asset.put("type", readName());
+                    readProperties(asset);
+                    return asset;
+                }
+                else if (recordType == RECORD_HEADER)
+                {
+                    readProperties(header);
+                }
+                else
+                {
+                    throw new AssetDeserializationException("Unknown record type " + recordType);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            finished = true;
+            throw new AssetDeserializationException("Failed to read assets", ex);
+        }
+        catch (RuntimeException ex)
+        {
+            finished = true;
+            throw ex;
+        }
+    }
+
+    private void readStart() throws IOException
+    {
+        for (byte b : MAGIC)
+        {
+            if (readByte() != b)
+            {
+                throw new AssetDeserializationException("Response is not in the binary asset format");
+            }
+        }
+        int version = readByte();
+        if (version != VERSION)
+        {
+            throw new AssetDeserializationException("Unsupported binary asset format version " + version);
+        }
+    }
+
+    /**
+     * Read the length of the next record and then the record itself into memory
+     */
+    private void readRecord() throws IOException
+    {
+        long length = 0;
+        int shift = 0;
+        int b;
+        do
+        {
+            b = readByte();
+            length |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0 && shift < 35);
+        if ((b & 0x80) != 0 || length > Integer.MAX_VALUE - 8)
+        {
+            throw new AssetDeserializationException("Invalid record length " + length);
+        }
+        if (length > record.length)
+        {
+            record = new byte[Math.max((int) length, record.length * 2)];
+        }
+        int read = 0;
+        while (read < length)
+        {
+            int count = in.read(record, read, (int) length - read);
+            if (count < 0)
+            {
+                throw new AssetDeserializationException("Unexpected end of assets");
+            }
+            read += count;
+        }
+        position = 0;
+        limit = (int) length;
+    }
+
+    private int readByte() throws IOException
+    {
+        int b = in.read();
+        if (b < 0)
+        {
+            throw new AssetDeserializationException("Unexpected end of assets");
+        }
+        return b;
+    }
+
+    private void readProperties(TreeMap<String, Serializable> properties)
+    {
+        long count = readVarLong();
+        for (long i = 0; i < count; i++)
+        {
+            String propertyName = readName();
+            properties.put(propertyName, readValue());
+        }
+    }
+
+    private Serializable readValue()
+    {
+        int valueType = nextByte();
+        switch (valueType)
+        {
+        case VALUE_MISSING:
+            return null;
+
+        case VALUE_ID:
+        case VALUE_TEXT:
+            return readString();
+
+        case VALUE_INTEGER:
+            long integer = readVarLong();
+            return (integer >>> 1) ^ -(integer & 1);
+
+        case VALUE_NUMBER:
+            return Double.longBitsToDouble(readLong());
+
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+
+        case VALUE_TIME:
+            return new Date(readLong());
+
+        case VALUE_CONTENT:
+            ContentInfo info = new ContentInfo();
+            info.setMimeType(readName());
+            info.setSize(readVarLong());
+            info.setEncoding(readName());
+            return info;
+
+        case VALUE_LIST:
+            long count = readVarLong();
+            ArrayList<Serializable> list = new ArrayList<Serializable>((int) Math.min(count, limit - position));
+            for (long i = 0; i < count; i++)
+            {
+                list.add(readValue());
+            }
+            return list;
+
+        case VALUE_MAP:
+            TreeMap<String, Serializable> map = new TreeMap<String, Serializable>();
+            readProperties(map);
+            return map;
+
+        default:
+            throw new AssetDeserializationException("Unknown value type " + valueType);
+        }
+    }
+
+    /**
+     * Read a reference to a name, adding the name to those received if this is its first use
+     */
+    private String readName()
+    {
+        long reference = readVarLong();
+        if (reference == 0)
+        {
+            return null;
+        }
+        else if (reference <= names.size())
+        {
+            return names.get((int) reference - 1);
+        }
+        else if (reference == names.size() + 1)
+        {
+            String name = AssetXmlReader.name(readString());
+            names.add(name);
+            return name;
+        }
+        throw new AssetDeserializationException("Invalid name reference " + reference);
+    }
+
+    private String readString()
+    {
+        long length = readVarLong();
+        if (length > limit - position)
+        {
+            throw new AssetDeserializationException("Invalid string length " + length);
+        }
+        String value = new String(record, position, (int) length, UTF8);
+        position += length;
+        return value;
+    }
+
+    private long readVarLong()
+    {
+        long value = 0;
+        int shift = 0;
+        while (shift < 64)
+        {
+            int b = nextByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+            shift += 7;
+        }
+        throw new AssetDeserializationException("Invalid variable length number");
+    }
+
+    private long readLong()
+    {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+        {
+            value = (value << 8) | nextByte();
+        }
+        return value;
+    }
+
+    private int nextByte()
+    {
+        if (position >= limit)
+        {
+            throw new AssetDeserializationException("Record ended unexpectedly");
+        }
+        return record[position++] & 0xFF;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+/**
+ * A source of the ids of assets and sections that have changed in the repository.
+ */
+public interface AssetChangeFeed
+{
+    /**
+     * Fetch the changes made since the given point in the repository's change log.
+     * 
+     * @param logId the id of the change log last returned by the feed, or null on the first call
+     * @param since the sequence number last returned by the feed
+     * @return the changes. If the result is flagged as a reset then the feed could not say what has
+     *         changed and everything should be treated as changed.
+     */
+    AssetChanges getChanges(String logId, long since);
+}
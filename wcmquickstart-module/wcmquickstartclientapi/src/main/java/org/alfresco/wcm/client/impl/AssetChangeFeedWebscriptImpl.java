@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads asset changes from the repository's "webassetchanges" web script.
+ */
+public class AssetChangeFeedWebscriptImpl implements AssetChangeFeed
+{
+    private WebScriptCaller webscriptCaller;
+
+    public void setWebscriptCaller(WebScriptCaller webscriptCaller)
+    {
+        this.webscriptCaller = webscriptCaller;
+    }
+
+    @Override
+    public AssetChanges getChanges(String logId, long since)
+    {
+        List<WebscriptParam> params = new ArrayList<WebscriptParam>(2);
+        if (logId != null)
+        {
+            params.add(new WebscriptParam("logid", logId));
+        }
+        params.add(new WebscriptParam("since", Long.toString(since)));
+        JSONObject jsonObject = webscriptCaller.getJsonObject("webassetchanges", params);
+        if (jsonObject == null)
+        {
+            throw new IllegalStateException("No response from the asset changes web script");
+        }
+        try
+        {
+            JSONObject data = jsonObject.getJSONObject("data");
+            JSONArray changes = data.getJSONArray("changes");
+            List<String> changedIds = new ArrayList<String>(changes.length());
+            for (int i = 0; i < changes.length(); i++)
+            {
+                changedIds.add(changes.getJSONObject(i).getString("id"));
+            }
+            return new AssetChanges(data.getString("logId"), data.getLong("sequence"), data.getBoolean("reset"),
+                    data.optBoolean("more"), changedIds);
+        }
+        catch (JSONException ex)
+        {
+            throw new IllegalStateException("Unexpected response from the asset changes web script", ex);
+        }
+    }
+}
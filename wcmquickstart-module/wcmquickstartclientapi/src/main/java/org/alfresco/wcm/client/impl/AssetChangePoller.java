@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Periodically polls an {@link AssetChangeFeed} and tells the registered
+ * listeners exactly which assets have changed, so that cached data can be
+ * evicted as soon as it goes stale rather than being revalidated on a timer.
+ * While the feed is not reachable {@link #isLive()} returns false and the
+ * listeners are expected to fall back to their own revalidation.
+ */
+public class AssetChangePoller implements Runnable
+{
+    private final static Log log = LogFactory.getLog(AssetChangePoller.class);
+
+    private AssetChangeFeed feed;
+    private long pollInterval = 2000L;
+    private final List<AssetChangeListener> listeners = new CopyOnWriteArrayList<AssetChangeListener>();
+    private volatile Thread pollThread;
+
+    private String logId;
+    private long sequence;
+    private volatile long lastSuccessfulPoll = 0L;
+
+    public void setFeed(AssetChangeFeed feed)
+    {
+        this.feed = feed;
+    }
+
+    /**
+     * @param pollInterval the number of milliseconds between polls of the feed. If zero or less then
+     *            no polling thread is started and {@link #poll()} must be called explicitly.
+     */
+    public void setPollInterval(long pollInterval)
+    {
+        this.pollInterval = pollInterval;
+    }
+
+    public void addListener(AssetChangeListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void init()
+    {
+        if (pollInterval > 0)
+        {
+            Thread thread = new Thread(this, "WQS asset change poller");
+            thread.setDaemon(true);
+            this.pollThread = thread;
+            thread.start();
+        }
+    }
+
+    public void stop()
+    {
+        Thread thread = pollThread;
+        pollThread = null;
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        Thread thisThread = Thread.currentThread();
+        while (pollThread == thisThread)
+        {
+            poll();
+            try
+            {
+                Thread.sleep(pollInterval);
+            }
+            catch (InterruptedException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * @return true if the feed has been read successfully recently enough for
+     *         listeners to rely on it to report changes
+     */
+    public boolean isLive()
+    {
+        long maxAge = Math.max(pollInterval, 1000L) * 3;
+        return System.currentTimeMillis() - lastSuccessfulPoll < maxAge;
+    }
+
+    /**
+     * Read the feed once, draining any backlog, and notify the listeners.
+     */
+    public synchronized void poll()
+    {
+        try
+        {
+            boolean more = true;
+            while (more)
+            {
+                AssetChanges changes = feed.getChanges(logId, sequence);
+                more = false;
+                if (changes.isReset())
+                {
+                    // Either this is our first poll or we can't tell what has changed since the last one
+                    if (logId != null)
+                    {
+                        log.info("Asset change log has been reset. Discarding all cached assets.");
+                    }
+                    for (AssetChangeListener listener : listeners)
+                    {
+                        listener.allAssetsChanged();
+                    }
+                }
+                else
+                {
+                    if (!changes.getChangedIds().isEmpty())
+                    {
+                        if (log.isDebugEnabled())
+                        {
+                            log.debug("Assets changed: " + changes.getChangedIds());
+                        }
+                        for (AssetChangeListener listener : listeners)
+                        {
+                            listener.assetsChanged(changes.getChangedIds());
+                        }
+                    }
+                    // The repository leaves out changes that we can't read, so a batch may be empty
+                    more = changes.isMore();
+                }
+                logId = changes.getLogId();
+                sequence = changes.getSequence();
+            }
+            lastSuccessfulPoll = System.currentTimeMillis();
+        }
+        catch (Exception ex)
+        {
+            if (isLive())
+            {
+                log.warn("Unable to read asset changes from the repository: " + ex.getMessage());
+            }
+            if (log.isDebugEnabled())
+            {
+                log.debug("Caught exception while polling for asset changes", ex);
+            }
+            lastSuccessfulPoll = 0L;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of changes returned by an {@link AssetChangeFeed}.
+ */
+public class AssetChanges
+{
+    private final String logId;
+    private final long sequence;
+    private final boolean reset;
+    private final boolean more;
+    private final List<String> changedIds;
+
+    public AssetChanges(String logId, long sequence, boolean reset, List<String> changedIds)
+    {
+        this(logId, sequence, reset, false, changedIds);
+    }
+
+    public AssetChanges(String logId, long sequence, boolean reset, boolean more, List<String> changedIds)
+    {
+        this.logId = logId;
+        this.sequence = sequence;
+        this.reset = reset;
+        this.more = more;
+        this.changedIds = changedIds == null ? Collections.<String> emptyList() : changedIds;
+    }
+
+    public String getLogId()
+    {
+        return logId;
+    }
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    public boolean isReset()
+    {
+        return reset;
+    }
+
+    /**
+     * @return true if there are more changes to read straight away
+     */
+    public boolean isMore()
+    {
+        return more;
+    }
+
+    public List<String> getChangedIds()
+    {
+        return changedIds;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+/**
+ * Deserializes a complete response of the asset web scripts in any of the {@link AssetFormat}s. Callers that can 
+ * consume the assets one at a time should override {@link #handleAsset(TreeMap)}, so that the response is never 
+ * held as a list, or use an {@link AssetReader} directly.
+ */
+public class AssetDeserializerImpl implements WebscriptResponseHandler
+{
+    private LinkedList<TreeMap<String, Serializable>> assets;
+    private TreeMap<String, Serializable> headerProperties;
+
+    public AssetDeserializerImpl()
+    {
+        reset();
+    }
+
+    public void reset()
+    {
+        assets = new LinkedList<TreeMap<String, Serializable>>();
+        headerProperties = new TreeMap<String, Serializable>();
+    }
+
+    /**
+     * Read all of the assets in a response.
+     * 
+     * @throws org.alfresco.wcm.client.exception.AssetDeserializationException if the response is malformed
+     */
+    public LinkedList<TreeMap<String, Serializable>> deserialize(InputStream in)
+    {
+        reset();
+        AssetReader reader = createReader(in);
+        try
+        {
+            while (reader.hasNext())
+            {
+                handleAsset(reader.next());
+            }
+            headerProperties = reader.getHeader();
+        }
+        finally
+        {
+            reader.close();
+        }
+        return assets;
+    }
+
+    /**
+     * Called with each asset as it is read. This one adds the asset to the list returned by {@link #getAssets()}.
+     * 
+     * @param asset    the properties of the asset
+     */
+    protected void handleAsset(TreeMap<String, Serializable> asset)
+    {
+        assets.add(asset);
+    }
+
+    /**
+     * Create the reader for a response. This one recognises the format from the response itself.
+     */
+    protected AssetReader createReader(InputStream in)
+    {
+        return AssetFormat.openReader(in);
+    }
+
+    @Override
+    public void handleResponse(InputStream in)
+    {
+        deserialize(in);
+    }
+    
+
+    /**
+     * Retrieve the list of assets that were deserialized. Never null, may be empty.
+     * Note that concrete collection classes used in the return value to guarantee they're
+     * serializable.
+     * @return LinkedList
+     */
+    public LinkedList<TreeMap<String, Serializable>> getAssets()
+    {
+        return assets;
+    }
+
+    /**
+     * Retrieve any properties that were deserialized from the header of the response. Never null, may be empty.
+     * Note that the concrete collection class used in the return value is to guarantee that it's
+     * serializable.
+     * @return TreeMap
+     */
+    public TreeMap<String, Serializable> getHeader()
+    {
+        return headerProperties;
+    }
+}
@@ -53,6 +53,7 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
     private SectionFactory sectionFactory;
     private CollectionFactory collectionFactory;
     private AssetFactory supportingAssetFactory;
+    private AssetFormat wireFormat = AssetFormat.xml;
     
     private ThreadLocal<List<WebscriptParam>> localParamList = new ThreadLocal<List<WebscriptParam>>() 
     {
@@ -92,6 +93,17 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
         this.supportingAssetFactory = supportingAssetFactory;
     }
 
+    /**
+     * Set the format in which assets are requested from the repository: "xml" (the default), "json" or "binary".
+     * Responses are read in whichever format the repository actually sends.
+     * 
+     * @param wireFormat String
+     */
+    public void setWireFormat(String wireFormat)
+    {
+        this.wireFormat = AssetFormat.forName(wireFormat);
+    }
+
     @Override
     public SearchResults findByQuery(Query query)
     {
@@ -121,16 +133,19 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
                 }
                 params.add(new WebscriptParam("skip", Integer.toString(query.getResultsToSkip())));
                 params.add(new WebscriptParam("max", Integer.toString(query.getMaxResults())));
-                Map<String, Serializable> headerProps = new TreeMap<String, Serializable>();
-                LinkedList<TreeMap<String, Serializable>> assets = searchAssetsInRepo(params, headerProps);
-
-                Long totalResults = (Long) headerProps.get("totalResults");
-                results.setTotalSize(totalResults == null ? assets.size() : totalResults);
-                List<SearchResult> resultList = new ArrayList<SearchResult>(assets.size());
-                for (TreeMap<String, Serializable> assetData : assets)
+                final List<SearchResult> resultList = new ArrayList<SearchResult>();
+                AssetDeserializerImpl deserializer = new AssetDeserializerXmlImpl()
                 {
-                    resultList.add(buildSearchResult(assetData));
-                }
+                    @Override
+                    protected void handleAsset(TreeMap<String, Serializable> assetData)
+                    {
+                        resultList.add(buildSearchResult(assetData));
+                    }
+                };
+                webscriptCaller.get("webassetsearch", deserializer, params);
+
+                Long totalResults = (Long) deserializer.getHeader().get("totalResults");
+                results.setTotalSize(totalResults == null ? resultList.size() : totalResults);
                 results.setResults(resultList);
             }
         }
@@ -164,17 +179,20 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
     @Override
     public List<Asset> getAssetsById(Collection<String> ids, boolean deferredLoad)
     {
-        List<Asset> results = new ArrayList<Asset>(ids.size());
+        final List<Asset> results = new ArrayList<Asset>(ids.size());
         List<WebscriptParam> params = localParamList.get();
         for (String id : ids)
         {
             params.add(new WebscriptParam("noderef", id));
         }
-        LinkedList<TreeMap<String, Serializable>> assetDataList = getAssetsFromRepo(params);
-        for (TreeMap<String, Serializable> assetData : assetDataList)
+        readAssetsFromRepo(params, new AssetDeserializerImpl()
         {
-            results.add(buildAsset(assetData));
-        }
+            @Override
+            protected void handleAsset(TreeMap<String, Serializable> assetData)
+            {
+                results.add(buildAsset(assetData));
+            }
+        });
         return results;
     }
 
@@ -197,18 +215,21 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
     @Override
     public Map<String, Date> getModifiedTimesOfAssets(Collection<String> assetIds)
     {
-        Map<String, Date> result = new TreeMap<String, Date>();
+        final Map<String, Date> result = new TreeMap<String, Date>();
         List<WebscriptParam> params = localParamList.get();
         for (String id : assetIds)
         {
             params.add(new WebscriptParam("noderef", id));
         }
         params.add(new WebscriptParam("modifiedTimeOnly", "true"));
-        LinkedList<TreeMap<String, Serializable>> assetList = getAssetsFromRepo(params);
-        for (TreeMap<String, Serializable> asset : assetList)
+        readAssetsFromRepo(params, new AssetDeserializerImpl()
         {
-            result.put((String) asset.get("id"), (Date) asset.get("cm:modified"));
-        }
+            @Override
+            protected void handleAsset(TreeMap<String, Serializable> asset)
+            {
+                result.put((String) asset.get("id"), (Date) asset.get("cm:modified"));
+            }
+        });
         return result;
     }
 
@@ -257,33 +278,22 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
 
     private LinkedList<TreeMap<String, Serializable>> getAssetsFromRepo(List<WebscriptParam> params)
     {
-        return getAssetsFromRepo(params, null);
+        AssetDeserializerImpl deserializer = new AssetDeserializerImpl();
+        readAssetsFromRepo(params, deserializer);
+        return deserializer.getAssets();
     }
 
-    private LinkedList<TreeMap<String, Serializable>> getAssetsFromRepo(List<WebscriptParam> params,
-            Map<String, Serializable> header)
+    /**
+     * Load assets, passing each to the deserializer as it is read from the response
+     */
+    private void readAssetsFromRepo(List<WebscriptParam> params, AssetDeserializerImpl deserializer)
     {
-        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
-        webscriptCaller.post("webasset", deserializer, params);
-        LinkedList<TreeMap<String, Serializable>> assetList = deserializer.getAssets();
-        if (header != null)
+        if (wireFormat != AssetFormat.xml)
         {
-            header.putAll(deserializer.getHeader());
+            params = new ArrayList<WebscriptParam>(params);
+            params.add(new WebscriptParam("format", wireFormat.name()));
         }
-        return assetList;
-    }
-
-    private LinkedList<TreeMap<String, Serializable>> searchAssetsInRepo(List<WebscriptParam> params,
-            Map<String, Serializable> header)
-    {
-        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
-        webscriptCaller.get("webassetsearch", deserializer, params);
-        LinkedList<TreeMap<String, Serializable>> assetList = deserializer.getAssets();
-        if (header != null && deserializer.getHeader() != null)
-        {
-            header.putAll(deserializer.getHeader());
-        }
-        return assetList;
+        webscriptCaller.post("webasset", deserializer, params);
     }
 
     @SuppressWarnings("unchecked")
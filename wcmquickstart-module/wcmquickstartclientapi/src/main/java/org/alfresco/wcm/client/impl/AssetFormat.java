@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.alfresco.wcm.client.exception.AssetDeserializationException;
+
+/**
+ * The formats in which the repository can send assets, named as the web script "format" argument that requests 
+ * them. Responses are recognised by their first byte rather than trusted to be in the requested format, so a 
+ * repository that only writes XML can still be read whichever format is configured.
+ */
+public enum AssetFormat
+{
+    xml
+    {
+        @Override
+        public AssetReader createReader(InputStream in)
+        {
+            return new AssetXmlReader(in);
+        }
+    },
+    json
+    {
+        @Override
+        public AssetReader createReader(InputStream in)
+        {
+            return new AssetJsonReader(in);
+        }
+    },
+    binary
+    {
+        @Override
+        public AssetReader createReader(InputStream in)
+        {
+            return new AssetBinaryReader(in);
+        }
+    };
+
+    /**
+     * Create a reader for a response known to be in this format
+     */
+    public abstract AssetReader createReader(InputStream in);
+
+    /**
+     * @return the format with the given name, or XML if the name is empty
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public static AssetFormat forName(String name)
+    {
+        if (name == null || name.trim().length() == 0)
+        {
+            return xml;
+        }
+        return valueOf(name.trim().toLowerCase());
+    }
+
+    /**
+     * Create a reader for a response in any of the formats, found from its first byte
+     */
+    public static AssetReader openReader(InputStream in)
+    {
+        if (!in.markSupported())
+        {
+            in = new BufferedInputStream(in);
+        }
+        int first;
+        try
+        {
+            in.mark(1);
+            first = in.read();
+            in.reset();
+        }
+        catch (IOException ex)
+        {
+            throw new AssetDeserializationException("Failed to read assets", ex);
+        }
+        if (first == AssetBinaryReader.MAGIC[0])
+        {
+            return binary.createReader(in);
+        }
+        else if (first == '{')
+        {
+            return json.createReader(in);
+        }
+        return xml.createReader(in);
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import org.alfresco.wcm.client.exception.AssetDeserializationException;
+
+/**
+ * Reads the assets written by the repository's AssetSerializerJsonImpl one at a time, as they arrive. The response
+ * is tokenized directly rather than through a JSON object model, so only the asset being read is held in memory.
+ * The values have the same types as those read by {@link AssetXmlReader}.
+ */
+public class AssetJsonReader implements AssetReader
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+    private long offset = 0;
+    private final StringBuilder text = new StringBuilder();
+
+    private TreeMap<String, Serializable> header = new TreeMap<String, Serializable>();
+    private TreeMap<String, Serializable> nextAsset;
+    private boolean started = false;
+    private boolean finished = false;
+
+    public AssetJsonReader(InputStream in)
+    {
+        this.in = new InputStreamReader(in, UTF8);
+    }
+
+    @Override
+    public TreeMap<String, Serializable> getHeader()
+    {
+        return header;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (nextAsset == null && !finished)
+        {
+            nextAsset = readNextAsset();
+        }
+        return nextAsset != null;
+    }
+
+    @Override
+    public TreeMap<String, Serializable> next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        TreeMap<String, Serializable> asset = nextAsset;
+        nextAsset = null;
+        return asset;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+        finished = true;
+    }
+
+    private TreeMap<String, Serializable> readNextAsset()
+    {
+        try
+        {
+            boolean first = false;
+            if (!started)
+            {
+                started = true;
+                first = true;
+                expect('{');
+                if (!"assets".equals(readString()))
+                {
+                    throw new AssetDeserializationException("Expected \"assets\" at character " + (offset + position));
+                }
+                expect(':');
+                expect('[');
+            }
+            while (true)
+            {
+                if (peek() == ']')
+                {
+                    position++;
+                    expect('}');
+                    finished = true;
+                    return null;
+                }
+                if (!first)
+                {
+                    expect(',');
+                }
+                first = false;
+                TreeMap<String, Serializable> asset = readRecord();
+                if (asset != null)
+                {
+                    return asset;
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            finished = true;
+            throw new AssetDeserializationException("Failed to read assets", ex);
+        }
+        catch (RuntimeException ex)
+        {
+            finished = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Read a header or an asset
+     * 
+     * @return the asset, or null if the record was the header
+     */
+    private TreeMap<String, Serializable> readRecord() throws IOException
+    {
+        TreeMap<String, Serializable> asset = new TreeMap<String, Serializable>();
+        boolean isHeader = false;
+        expect('{');
+        if (peek() == '}')
+        {
+            position++;
+            return asset;
+        }
+        do
+        {
+            String key = readString();
+            expect(':');
+            if ("header".equals(key))
+            {
+                isHeader = true;
+                readProperties(header);
+            }
+            else if ("id".equals(key))
+            {
+                asset.put("id", readString());
+            }
+            else if ("type".equals(key))
+            {
+                asset.put("type", AssetXmlReader.name(readString()));
+            }
+            else if ("properties".equals(key))
+            {
+                readProperties(asset);
+            }
+            else
+            {
+                throw new AssetDeserializationException("Unexpected key \"" + key + "\" at character " + (offset + position));
+            }
+        }
+        while (nextMember('}'));
+        return isHeader ? null : asset;
+    }
+
+    private void readProperties(TreeMap<String, Serializable> properties) throws IOException
+    {
+        expect('{');
+        if (peek() == '}')
+        {
+            position++;
+            return;
+        }
+        do
+        {
+            String propertyName = AssetXmlReader.name(readString());
+            expect(':');
+            properties.put(propertyName, readValue());
+        }
+        while (nextMember('}'));
+    }
+
+    private Serializable readValue() throws IOException
+    {
+        if (peek() == 'n')
+        {
+            readLiteral("null");
+            return null;
+        }
+        expect('[');
+        String type = readString();
+        expect(',');
+        Serializable value;
+        if ("text".equals(type) || "id".equals(type))
+        {
+            value = readString();
+        }
+        else if ("integer".equals(type))
+        {
+            String number = readNumber();
+            try
+            {
+                value = Long.valueOf(number);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new AssetDeserializationException("Invalid integer value \"" + number + "\"", ex);
+            }
+        }
+        else if ("number".equals(type))
+        {
+            //Values that aren't valid JSON numbers, such as NaN, are sent as strings
+            String number = (peek() == '"') ? readString() : readNumber();
+            try
+            {
+                value = Double.valueOf(number);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new AssetDeserializationException("Invalid number value \"" + number + "\"", ex);
+            }
+        }
+        else if ("bool".equals(type))
+        {
+            if (peek() == 't')
+            {
+                readLiteral("true");
+                value = Boolean.TRUE;
+            }
+            else
+            {
+                readLiteral("false");
+                value = Boolean.FALSE;
+            }
+        }
+        else if ("time".equals(type))
+        {
+            value = AssetXmlReader.parseTime(readString());
+        }
+        else if ("content".equals(type))
+        {
+            value = readContent();
+        }
+        else if ("list".equals(type))
+        {
+            value = readList();
+        }
+        else if ("map".equals(type))
+        {
+            TreeMap<String, Serializable> map = new TreeMap<String, Serializable>();
+            readProperties(map);
+            value = map;
+        }
+        else
+        {
+            throw new AssetDeserializationException("Unknown value type \"" + type + "\" at character " + (offset + position));
+        }
+        expect(']');
+        return value;
+    }
+
+    private ArrayList<Serializable> readList() throws IOException
+    {
+        ArrayList<Serializable> list = new ArrayList<Serializable>();
+        expect('[');
+        if (peek() == ']')
+        {
+            position++;
+            return list;
+        }
+        do
+        {
+            list.add(readValue());
+        }
+        while (nextMember(']'));
+        list.trimToSize();
+        return list;
+    }
+
+    private ContentInfo readContent() throws IOException
+    {
+        ContentInfo info = new ContentInfo();
+        expect('{');
+        if (peek() == '}')
+        {
+            position++;
+            return info;
+        }
+        do
+        {
+            String key = readString();
+            expect(':');
+            if ("size".equals(key))
+            {
+                info.setSize(Long.parseLong(readNumber()));
+            }
+            else
+            {
+                String value = (peek() == 'n') ? readNull() : AssetXmlReader.name(readString());
+                if ("mime".equals(key))
+                {
+                    info.setMimeType(value);
+                }
+                else if ("enc".equals(key))
+                {
+                    info.setEncoding(value);
+                }
+            }
+        }
+        while (nextMember('}'));
+        return info;
+    }
+
+    private String readNull() throws IOException
+    {
+        readLiteral("null");
+        return null;
+    }
+
+    /**
+     * @return true if a comma follows, false if the given closing character does
+     */
+    private boolean nextMember(char close) throws IOException
+    {
+        char c = peek();
+        position++;
+        if (c == ',')
+        {
+            return true;
+        }
+        else if (c != close)
+        {
+            throw unexpected(c, close);
+        }
+        return false;
+    }
+
+    private String readString() throws IOException
+    {
+        expect('"');
+        //Most strings have no escapes and lie within the buffer
+        for (int i = position; i < limit; i++)
+        {
+            char c = buffer[i];
+            if (c == '"')
+            {
+                String value = new String(buffer, position, i - position);
+                position = i + 1;
+                return value;
+            }
+            else if (c == '\\')
+            {
+                break;
+            }
+        }
+
+        text.setLength(0);
+        while (true)
+        {
+            char c = read();
+            if (c == '"')
+            {
+                return text.toString();
+            }
+            else if (c == '\\')
+            {
+                c = read();
+                switch (c)
+                {
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0)
+                        {
+                            throw new AssetDeserializationException("Invalid escape at character " + offset);
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    text.append((char) code);
+                    break;
+                default:
+                    // '"', '\\' and '/'
+                    text.append(c);
+                    break;
+                }
+            }
+            else
+            {
+                text.append(c);
+            }
+        }
+    }
+
+    private String readNumber() throws IOException
+    {
+        peek();
+        text.setLength(0);
+        while (true)
+        {
+            if (position == limit && !fill())
+            {
+                break;
+            }
+            char c = buffer[position];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E')
+            {
+                text.append(c);
+                position++;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (text.length() == 0)
+        {
+            throw new AssetDeserializationException("Expected a number at character " + offset);
+        }
+        return text.toString();
+    }
+
+    private void readLiteral(String literal) throws IOException
+    {
+        peek();
+        for (int i = 0; i < literal.length(); i++)
+        {
+            char c = read();
+            if (c != literal.charAt(i))
+            {
+                throw unexpected(c, literal.charAt(i));
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException
+    {
+        char c = peek();
+        if (c != expected)
+        {
+            throw unexpected(c, expected);
+        }
+        position++;
+    }
+
+    /**
+     * Skip any whitespace and return the next character without consuming it
+     */
+    private char peek() throws IOException
+    {
+        while (true)
+        {
+            if (position == limit && !fill())
+            {
+                throw new AssetDeserializationException("Unexpected end of assets at character " + offset);
+            }
+            char c = buffer[position];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+            {
+                return c;
+            }
+            position++;
+        }
+    }
+
+    private char read() throws IOException
+    {
+        if (position == limit && !fill())
+        {
+            throw new AssetDeserializationException("Unexpected end of assets at character " + offset);
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException
+    {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        int count = in.read(buffer);
+        if (count <= 0)
+        {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    private AssetDeserializationException unexpected(char found, char expected)
+    {
+        return new AssetDeserializationException("Unexpected character '" + found + "' received where '" + expected + 
+                "' was expected at character " + (offset + position));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * Reads the assets in a response of the asset web scripts one at a time, as they arrive. Each call to 
+ * {@link #next()} returns the properties of the next asset. Any header properties are available from 
+ * {@link #getHeader()} once they have been read, which is once the assets have been exhausted at the latest.
+ * <p>
+ * A reader is used by one thread. Malformed responses are reported as 
+ * {@link org.alfresco.wcm.client.exception.AssetDeserializationException}s.
+ * 
+ * @see AssetFormat
+ */
+public interface AssetReader extends Iterator<TreeMap<String, Serializable>>, Closeable
+{
+    /**
+     * Retrieve the properties from the header of the response. Never null, may be empty.
+     * @return TreeMap
+     */
+    TreeMap<String, Serializable> getHeader();
+
+    /**
+     * Release the reader. The underlying stream is left open.
+     */
+    @Override
+    void close();
+}
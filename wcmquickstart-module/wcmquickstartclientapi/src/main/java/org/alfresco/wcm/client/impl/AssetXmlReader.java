@@ -0,0 +1,499 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.alfresco.wcm.client.exception.AssetDeserializationException;
+
+/**
+ * Reads the assets written by the repository's AssetSerializerXmlImpl one at a time, as they arrive, rather than
+ * building the whole list up front. Each call to {@link #next()} parses and returns the properties of the next
+ * asset. Any header properties are available from {@link #getHeader()} once they have been read, which is once
+ * the assets have been exhausted at the latest.
+ * <p>
+ * A reader is used by one thread. Malformed responses are reported as {@link AssetDeserializationException}s.
+ */
+public class AssetXmlReader implements AssetReader
+{
+    private static enum ValueType
+    {
+        id, text, integer, number, bool, time, content, missing
+    };
+
+    /** Parser factories are thread-safe once configured, so one is shared by all readers */
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    /** Property names repeat across assets and responses, so all assets share the same name strings */
+    private static final int MAX_NAMES = 10000;
+    private static final ConcurrentMap<String, String> names = new ConcurrentHashMap<String, String>();
+
+    private static ThreadLocal<DateFormat> dateFormat = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue()
+        {
+            return new SimpleDateFormat("yyyyMMdd-HH:mm:ss.SSSZ");
+        }
+    };
+
+    private final XMLStreamReader reader;
+    private TreeMap<String, Serializable> header = new TreeMap<String, Serializable>();
+    private TreeMap<String, Serializable> nextAsset;
+    private boolean started = false;
+    private boolean finished = false;
+
+    public AssetXmlReader(InputStream in)
+    {
+        try
+        {
+            reader = inputFactory.createXMLStreamReader(in);
+        }
+        catch (XMLStreamException ex)
+        {
+            throw new AssetDeserializationException("Failed to start reading assets", ex);
+        }
+    }
+
+    private static XMLInputFactory createInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory;
+    }
+
+    @Override
+    public TreeMap<String, Serializable> getHeader()
+    {
+        return header;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (nextAsset == null && !finished)
+        {
+            nextAsset = readNextAsset();
+        }
+        return nextAsset != null;
+    }
+
+    @Override
+    public TreeMap<String, Serializable> next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        TreeMap<String, Serializable> asset = nextAsset;
+        nextAsset = null;
+        return asset;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+        finished = true;
+        try
+        {
+            reader.close();
+        }
+        catch (XMLStreamException ex)
+        {
+            //Nothing more will be read
+        }
+    }
+
+    private TreeMap<String, Serializable> readNextAsset()
+    {
+        try
+        {
+            if (!started)
+            {
+                started = true;
+                if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !"assets".equals(reader.getLocalName()))
+                {
+                    throw invalidElement("assets");
+                }
+            }
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+            {
+                String element = reader.getLocalName();
+                if ("asset".equals(element))
+                {
+                    TreeMap<String, Serializable> asset = new TreeMap<String, Serializable>();
+                    asset.put("id", reader.getAttributeValue(null, "id"));
+                    asset.put("type", name(reader.getAttributeValue(null, "type")));
+                    readProperties(asset);
+                    return asset;
+                }
+                else if ("header".equals(element))
+                {
+                    readProperties(header);
+                }
+                else
+                {
+                    throw invalidElement("asset");
+                }
+            }
+            finished = true;
+            return null;
+        }
+        catch (XMLStreamException ex)
+        {
+            finished = true;
+            throw new AssetDeserializationException("Failed to read assets", ex);
+        }
+        catch (RuntimeException ex)
+        {
+            finished = true;
+            throw ex;
+        }
+    }
+
+    /**
+     * Read property elements into the given map up to the end of the current element
+     */
+    private void readProperties(TreeMap<String, Serializable> properties) throws XMLStreamException
+    {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            if (!"property".equals(reader.getLocalName()))
+            {
+                throw invalidElement("property");
+            }
+            String propertyName = name(reader.getAttributeValue(null, "name"));
+            Serializable value = null;
+            if (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+            {
+                String element = reader.getLocalName();
+                if ("value".equals(element))
+                {
+                    value = readValue();
+                }
+                else if ("list".equals(element))
+                {
+                    value = readList();
+                }
+                else if ("map".equals(element))
+                {
+                    TreeMap<String, Serializable> map = new TreeMap<String, Serializable>();
+                    readProperties(map);
+                    value = map;
+                }
+                else
+                {
+                    throw invalidElement("value");
+                }
+                if (reader.nextTag() != XMLStreamConstants.END_ELEMENT)
+                {
+                    throw invalidElement("/property");
+                }
+            }
+            properties.put(propertyName, value);
+        }
+    }
+
+    private ArrayList<Serializable> readList() throws XMLStreamException
+    {
+        ArrayList<Serializable> list = new ArrayList<Serializable>();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            if (!"value".equals(reader.getLocalName()))
+            {
+                throw invalidElement("value");
+            }
+            list.add(readValue());
+        }
+        list.trimToSize();
+        return list;
+    }
+
+    private Serializable readValue() throws XMLStreamException
+    {
+        String type = reader.getAttributeValue(null, "type");
+        ValueType valueType;
+        try
+        {
+            valueType = ValueType.valueOf(type);
+        }
+        catch (RuntimeException ex)
+        {
+            throw new AssetDeserializationException("Unknown value type \"" + type + "\" at " + reader.getLocation(), ex);
+        }
+
+        if (valueType == ValueType.content)
+        {
+            if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !"content".equals(reader.getLocalName()))
+            {
+                throw invalidElement("content");
+            }
+            ContentInfo info = new ContentInfo();
+            info.setMimeType(reader.getAttributeValue(null, "mime"));
+            info.setEncoding(reader.getAttributeValue(null, "enc"));
+            info.setSize(parseLong(reader.getAttributeValue(null, "size")));
+            //The end of the content element and then the end of the value
+            if (reader.nextTag() != XMLStreamConstants.END_ELEMENT || reader.nextTag() != XMLStreamConstants.END_ELEMENT)
+            {
+                throw invalidElement("/value");
+            }
+            return info;
+        }
+
+        String valueText = reader.getElementText();
+        switch (valueType)
+        {
+        case bool:
+            return Boolean.valueOf(valueText);
+
+        case id:
+        case text:
+            return valueText;
+
+        case time:
+            return parseTime(valueText);
+
+        case integer:
+            return parseLong(valueText);
+
+        case number:
+            try
+            {
+                return Double.valueOf(valueText);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new AssetDeserializationException("Invalid number value \"" + valueText + "\"", ex);
+            }
+
+        default:
+            //"missing" maps to null
+            return null;
+        }
+    }
+
+    private AssetDeserializationException invalidElement(String expected)
+    {
+        String found = reader.isStartElement() ? reader.getLocalName() : 
+            (reader.isEndElement() ? "/" + reader.getLocalName() : "event " + reader.getEventType());
+        return new AssetDeserializationException("Unexpected element \"" + found + "\" received where \"" + expected + 
+                "\" was expected at " + reader.getLocation());
+    }
+
+    private static Long parseLong(String text)
+    {
+        try
+        {
+            return Long.valueOf(text);
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new AssetDeserializationException("Invalid integer value \"" + text + "\"", ex);
+        }
+    }
+
+    /**
+     * Return the shared instance of a property name or type
+     */
+    static String name(String name)
+    {
+        if (name == null)
+        {
+            return null;
+        }
+        String sharedName = names.get(name);
+        if (sharedName == null)
+        {
+            if (names.size() >= MAX_NAMES)
+            {
+                return name;
+            }
+            sharedName = names.putIfAbsent(name, name);
+            if (sharedName == null)
+            {
+                sharedName = name;
+            }
+        }
+        return sharedName;
+    }
+
+    /**
+     * Parse a time as written by the repository ("yyyyMMdd-HH:mm:ss.SSSZ") or in ISO 8601 format 
+     * ("yyyy-MM-ddTHH:mm:ss.SSS" followed by "Z" or an offset). The fixed layouts are decoded directly, anything 
+     * else is handed to a date format.
+     */
+    static Date parseTime(String text)
+    {
+        long time = parseFixedTime(text);
+        if (time != Long.MIN_VALUE)
+        {
+            return new Date(time);
+        }
+        try
+        {
+            return dateFormat.get().parse(text);
+        }
+        catch (ParseException ex)
+        {
+            throw new AssetDeserializationException("Invalid time value \"" + text + "\"", ex);
+        }
+    }
+
+    /**
+     * @return the time in milliseconds, or Long.MIN_VALUE if the text is not in one of the fixed layouts
+     */
+    private static long parseFixedTime(String text)
+    {
+        int year, month, day, pos;
+        if (text.length() > 10 && text.charAt(8) == '-')
+        {
+            //yyyyMMdd-
+            year = digits(text, 0, 4);
+            month = digits(text, 4, 2);
+            day = digits(text, 6, 2);
+            pos = 9;
+        }
+        else if (text.length() > 10 && text.charAt(4) == '-' && text.charAt(7) == '-' && text.charAt(10) == 'T')
+        {
+            //yyyy-MM-ddT
+            year = digits(text, 0, 4);
+            month = digits(text, 5, 2);
+            day = digits(text, 8, 2);
+            pos = 11;
+        }
+        else
+        {
+            return Long.MIN_VALUE;
+        }
+
+        //HH:mm:ss
+        if (text.length() < pos + 8 || text.charAt(pos + 2) != ':' || text.charAt(pos + 5) != ':')
+        {
+            return Long.MIN_VALUE;
+        }
+        int hour = digits(text, pos, 2);
+        int minute = digits(text, pos + 3, 2);
+        int second = digits(text, pos + 6, 2);
+        pos += 8;
+
+        //Optional .SSS
+        int millis = 0;
+        if (pos < text.length() && text.charAt(pos) == '.')
+        {
+            millis = digits(text, pos + 1, 3);
+            pos += 4;
+        }
+        //Older dates are left to the date format, which switches to the Julian calendar
+        if (year < 1600 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || 
+                minute > 59 || second < 0 || second > 59 || millis < 0 || pos >= text.length())
+        {
+            return Long.MIN_VALUE;
+        }
+
+        //Z, +hhmm or +hh:mm
+        int offsetMinutes;
+        char sign = text.charAt(pos);
+        if (sign == 'Z' && pos + 1 == text.length())
+        {
+            offsetMinutes = 0;
+        }
+        else if ((sign == '+' || sign == '-') && (pos + 5 == text.length() || pos + 6 == text.length()))
+        {
+            int offsetHours = digits(text, pos + 1, 2);
+            int offsetMins = digits(text, text.length() - 2, 2);
+            if (offsetHours < 0 || offsetMins < 0 || (pos + 6 == text.length() && text.charAt(pos + 3) != ':'))
+            {
+                return Long.MIN_VALUE;
+            }
+            offsetMinutes = (offsetHours * 60 + offsetMins) * (sign == '-' ? -1 : 1);
+        }
+        else
+        {
+            return Long.MIN_VALUE;
+        }
+
+        long days = daysFromCivil(year, month, day);
+        long seconds = ((days * 24 + hour) * 60 + minute - offsetMinutes) * 60 + second;
+        return seconds * 1000 + millis;
+    }
+
+    /**
+     * @return the value of a run of decimal digits, or -1 if any of the characters isn't a digit
+     */
+    private static int digits(String text, int start, int count)
+    {
+        if (start + count > text.length())
+        {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < start + count; i++)
+        {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of days from 1970-01-01 to the given date in the proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, int month, int day)
+    {
+        int y = (month <= 2) ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
@@ -33,6 +33,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.alfresco.wcm.client.Asset;
 import org.alfresco.wcm.client.AssetFactory;
@@ -42,26 +44,44 @@ import org.alfresco.wcm.client.Rendition;
 import org.alfresco.wcm.client.SearchResults;
 import org.alfresco.wcm.client.WebSite;
 import org.alfresco.wcm.client.WebSiteService;
+import org.alfresco.wcm.client.impl.cache.ContentCache;
 import org.alfresco.wcm.client.impl.cache.SimpleCache;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * A proxying implementation of the {@link AssetFactory} interface that caches
- * loaded assets
+ * loaded assets.
+ * <p>
+ * If an {@link AssetChangePoller} is supplied then changed assets are evicted
+ * as soon as the repository reports them, and cached assets are only
+ * revalidated against the repository every <tt>feedRevalidationSeconds</tt>
+ * while the feed is live. Otherwise they are revalidated once
+ * <tt>minimumCacheSeconds</tt> have passed. An asset that is evicted while
+ * it is being loaded is not cached, as what was loaded may predate the change.
  * 
  * @author Brian
  * 
  */
-public class CachingAssetFactoryImpl implements AssetFactory
+public class CachingAssetFactoryImpl implements AssetFactory, AssetChangeListener
 {
     private static final Log log = LogFactory.getLog(CachingAssetFactoryImpl.class);
+    private static final String RENDITION_KEY_SEPARATOR = "/rendition/";
+    private static final int EVICTION_STRIPES = 1024;
 
     private AssetFactory delegate;
     private SimpleCache<String, CacheEntry> cache;
     private long minimumCacheMilliseconds = 30000L;
+    private long feedRevalidationMilliseconds = 600000L;
+    private AssetChangePoller assetChangePoller;
     private boolean cacheContent = true;
     private boolean cacheRelationships = true;
+    private ContentCache contentCache = new ContentCache();
+
+    /** Evictions of changed assets, counted by a hash of the asset id */
+    private final AtomicLongArray evictionCounts = new AtomicLongArray(EVICTION_STRIPES);
+    /** Evictions of all the assets */
+    private final AtomicLong clearCount = new AtomicLong();
 
     public void setDelegate(AssetFactory delegate)
     {
@@ -78,6 +98,21 @@ public class CachingAssetFactoryImpl implements AssetFactory
         minimumCacheMilliseconds = seconds * 1000L;
     }
 
+    public void setFeedRevalidationSeconds(int seconds)
+    {
+        feedRevalidationMilliseconds = seconds * 1000L;
+    }
+
+    /**
+     * @param assetChangePoller the source of notifications of changed assets. This factory registers
+     *            itself as a listener.
+     */
+    public void setAssetChangePoller(AssetChangePoller assetChangePoller)
+    {
+        this.assetChangePoller = assetChangePoller;
+        assetChangePoller.addListener(this);
+    }
+
     public void setCacheContent(boolean cacheContent)
     {
         this.cacheContent = cacheContent;
@@ -88,6 +123,14 @@ public class CachingAssetFactoryImpl implements AssetFactory
         this.cacheRelationships = cacheRelationships;
     }
 
+    /**
+     * @param contentCache the bounded store that holds the bytes of cached content streams and renditions
+     */
+    public void setContentCache(ContentCache contentCache)
+    {
+        this.contentCache = contentCache;
+    }
+
     public SearchResults findByQuery(Query query)
     {
         return delegate.findByQuery(query);
@@ -110,6 +153,7 @@ public class CachingAssetFactoryImpl implements AssetFactory
             {
                 log.debug("Missed cache for asset: " + id);
             }
+            long evictionCount = getEvictionCount(id);
             Asset asset = delegate.getAssetById(id, deferredLoad);
             //Make sure that subsequent requests from this asset come through this asset factory
             if (AssetImpl.class.isAssignableFrom(asset.getClass()))
@@ -117,7 +161,7 @@ public class CachingAssetFactoryImpl implements AssetFactory
                 ((AssetImpl)asset).setAssetFactory(this);
             }
             cacheEntry = new CacheEntry(asset);
-            cache.put(id, cacheEntry);
+            putLoadedEntry(id, cacheEntry, evictionCount);
         }
         return cacheEntry;
     }
@@ -149,6 +193,7 @@ public class CachingAssetFactoryImpl implements AssetFactory
                     // asset from the cache and
                     // forget we ever found it there...
                     cache.remove(id);
+                    removeCachedContent(id);
                     cacheEntry = null;
                 }
                 else
@@ -226,6 +271,7 @@ public class CachingAssetFactoryImpl implements AssetFactory
                     // from our cache and add it
                     // to our list of assets to load
                     cache.remove(assetId);
+                    removeCachedContent(assetId);
                     idsToLoad.add(assetId);
                 }
                 else
@@ -249,6 +295,11 @@ public class CachingAssetFactoryImpl implements AssetFactory
         // modified since being cached)
         if (!idsToLoad.isEmpty())
         {
+            Map<String, Long> loadEvictionCounts = new TreeMap<String, Long>();
+            for (String id : idsToLoad)
+            {
+                loadEvictionCounts.put(id, getEvictionCount(id));
+            }
             List<Asset> assets = delegate.getAssetsById(idsToLoad, deferredLoad);
             for (Asset asset : assets)
             {
@@ -258,7 +309,11 @@ public class CachingAssetFactoryImpl implements AssetFactory
                     ((AssetImpl)asset).setAssetFactory(this);
                 }
                 foundAssets.put(asset.getId(), asset);
-                cache.put(asset.getId(), new CacheEntry(asset));
+                Long evictionCount = loadEvictionCounts.get(asset.getId());
+                if (evictionCount != null)
+                {
+                    putLoadedEntry(asset.getId(), new CacheEntry(asset), evictionCount);
+                }
             }
         }
 
@@ -313,12 +368,21 @@ public class CachingAssetFactoryImpl implements AssetFactory
                     Map<String,Rendition> sourceRenditions = delegate.getRenditions(assetId);
                     for (Map.Entry<String, Rendition> entry : sourceRenditions.entrySet())
                     {
+                        Rendition rendition = entry.getValue();
+                        if (!contentCache.isCacheable(rendition.getLength()))
+                        {
+                            returnRenditions.put(entry.getKey(), rendition);
+                            continue;
+                        }
                         try
                         {
-                            returnRenditions.put(entry.getKey(), new CachingRenditionImpl(entry.getValue()));
+                            returnRenditions.put(entry.getKey(), new CachingRenditionImpl(rendition, contentCache,
+                                    assetId + RENDITION_KEY_SEPARATOR + entry.getKey(),
+                                    new RenditionSource(assetId, entry.getKey())));
                         }
                         catch(IOException ex)
                         {
+                            log.warn("Failed to cache rendition " + entry.getKey() + " of asset " + assetId, ex);
                         }
                     }
                     returnRenditions = Collections.unmodifiableMap(returnRenditions);
@@ -385,11 +449,74 @@ public class CachingAssetFactoryImpl implements AssetFactory
         WebSite currentSite = WebSiteService.getThreadWebSite();
         if (currentSite == null || !currentSite.isEditorialSite())
         {
-            result = minimumCacheMilliseconds;
+            if (assetChangePoller != null && assetChangePoller.isLive())
+            {
+                // Changes are pushed to us, so revalidation is only a safety net
+                result = Math.max(minimumCacheMilliseconds, feedRevalidationMilliseconds);
+            }
+            else
+            {
+                result = minimumCacheMilliseconds;
+            }
         }
         return result;
     }
 
+    /**
+     * @return a count that moves on whenever the asset is evicted
+     */
+    private long getEvictionCount(String id)
+    {
+        return clearCount.get() + evictionCounts.get(getEvictionStripe(id));
+    }
+
+    private static int getEvictionStripe(String id)
+    {
+        return (id.hashCode() & Integer.MAX_VALUE) % EVICTION_STRIPES;
+    }
+
+    /**
+     * Cache an asset that has been loaded, unless it has been evicted since the load began. The eviction count is
+     * checked again once the entry is in the cache, so that an eviction between the check and the put is not lost.
+     * 
+     * @param evictionCount the eviction count of the asset from before it was loaded
+     */
+    private void putLoadedEntry(String id, CacheEntry cacheEntry, long evictionCount)
+    {
+        if (getEvictionCount(id) != evictionCount)
+        {
+            return;
+        }
+        cache.put(id, cacheEntry);
+        if (getEvictionCount(id) != evictionCount)
+        {
+            cache.remove(id);
+        }
+    }
+
+    @Override
+    public void assetsChanged(Collection<String> ids)
+    {
+        for (String id : ids)
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Evicting changed asset: " + id);
+            }
+            evictionCounts.incrementAndGet(getEvictionStripe(id));
+            cache.remove(id);
+            removeCachedContent(id);
+        }
+    }
+
+    @Override
+    public void allAssetsChanged()
+    {
+        clearCount.incrementAndGet();
+        cache.clear();
+        contentCache.clear();
+    }
+
     @Override
     public ContentStream getContentStream(String assetId)
     {
@@ -412,16 +539,24 @@ public class CachingAssetFactoryImpl implements AssetFactory
                             log.debug("Missed cache for content stream: " + assetId);
                         }
                         contentStream = delegate.getContentStream(assetId);
-                        try
+                        if (contentStream != null && contentCache.isCacheable(contentStream.getLength()))
                         {
-                            cacheEntry.contentStream = new CachingContentStreamImpl(contentStream);
-                            contentStream = cacheEntry.contentStream;
-                        }
-                        catch (Exception ex)
-                        {
-                            log.warn("Failed to create cached content stream for asset " + assetId, ex);
+                            try
+                            {
+                                cacheEntry.contentStream = new CachingContentStreamImpl(contentStream, contentCache,
+                                        assetId, new ContentSource(assetId));
+                                contentStream = cacheEntry.contentStream;
+                            }
+                            catch (Exception ex)
+                            {
+                                log.warn("Failed to create cached content stream for asset " + assetId, ex);
+                            }
                         }
                     }
+                    else
+                    {
+                        contentStream = cacheEntry.contentStream;
+                    }
                 }
             }
             else
@@ -440,6 +575,45 @@ public class CachingAssetFactoryImpl implements AssetFactory
         return contentStream;
     }
 
+    private void removeCachedContent(String assetId)
+    {
+        contentCache.removeAll(assetId, assetId + RENDITION_KEY_SEPARATOR);
+    }
+
+    private class ContentSource implements CachingContentStreamImpl.Source
+    {
+        private final String assetId;
+
+        public ContentSource(String assetId)
+        {
+            this.assetId = assetId;
+        }
+
+        @Override
+        public ContentStream getContentStream()
+        {
+            return delegate.getContentStream(assetId);
+        }
+    }
+
+    private class RenditionSource implements CachingContentStreamImpl.Source
+    {
+        private final String assetId;
+        private final String renditionName;
+
+        public RenditionSource(String assetId, String renditionName)
+        {
+            this.assetId = assetId;
+            this.renditionName = renditionName;
+        }
+
+        @Override
+        public ContentStream getContentStream()
+        {
+            return delegate.getRenditions(assetId).get(renditionName);
+        }
+    }
+
     private static class CacheEntry
     {
         public long cacheTime;
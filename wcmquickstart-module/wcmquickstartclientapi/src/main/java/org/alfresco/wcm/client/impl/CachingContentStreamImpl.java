@@ -25,87 +25,57 @@
  */
 package org.alfresco.wcm.client.impl;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
 
 import org.alfresco.wcm.client.ContentStream;
+import org.alfresco.wcm.client.impl.cache.CachedContent;
+import org.alfresco.wcm.client.impl.cache.ContentCache;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+/**
+ * A content stream whose bytes are held by a {@link ContentCache}. Instances
+ * are lightweight handles: if the cached bytes have been evicted then they are
+ * reloaded from the supplied {@link Source} on the next read.
+ */
 public class CachingContentStreamImpl implements ContentStream
 {
     private static final Log log = LogFactory.getLog(CachingContentStreamImpl.class);
-    private static final String SYSTEM_PROPERTY_TEMP_DIR = "java.io.tmpdir";
-    private static String WQS_TEMP_FOLDER_NAME = "alfresco-wqs";
-        
+
+    /**
+     * Supplies a fresh copy of the content when the cached copy has been evicted.
+     */
+    public interface Source
+    {
+        ContentStream getContentStream();
+    }
+
     private final String fileName;
     private final String mimeType;
     private final long length;
-    private transient final File cacheFile;
+    private final ContentCache contentCache;
+    private final String cacheKey;
+    private final Source source;
 
-    public CachingContentStreamImpl(ContentStream contentStream) throws IOException
+    public CachingContentStreamImpl(ContentStream contentStream, ContentCache contentCache, String cacheKey,
+            Source source) throws IOException
     {
         this.fileName = contentStream.getFileName();
         this.length = contentStream.getLength();
         this.mimeType = contentStream.getMimeType();
-        File tempFile = File.createTempFile("wqscontent-", null, getTempDir());
-        tempFile.deleteOnExit();
-        log.debug("Created temp cache file: " + tempFile.getPath());
-        OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile));
-        contentStream.output(os);
-        os.flush();
-        os.close();
-        this.cacheFile = tempFile;
-    }
-
-    public static void setTempFolderName(String folderName)
-    {
-        WQS_TEMP_FOLDER_NAME = folderName;
-    }
-    
-    private File getSystemTempDir() throws IOException
-    {
-        String systemTempDirPath = System.getProperty(SYSTEM_PROPERTY_TEMP_DIR);
-        if (systemTempDirPath == null)
+        this.contentCache = contentCache;
+        this.cacheKey = cacheKey;
+        this.source = source;
+        CachedContent content = contentCache.put(cacheKey, contentStream);
+        if (content != null)
         {
-            throw new IOException("System property not available: " + SYSTEM_PROPERTY_TEMP_DIR);
+            content.release();
         }
-        return new File(systemTempDirPath);
     }
-    
-    private File getTempDir() throws IOException
-    {
-        File systemTempDir = getSystemTempDir();
-        // append the Alfresco directory
-        File tempDir = new File(systemTempDir, WQS_TEMP_FOLDER_NAME);
-        // ensure that the temp directory exists
-        if (tempDir.exists())
-        {
-            // nothing to do
-        }
-        else
-        {
-            // not there yet
-            if (!tempDir.mkdirs())
-            {
-                throw new IOException("Failed to create temp directory: " + tempDir);
-            }
-            if (log.isDebugEnabled())
-            {
-                log.debug("Created temp directory: " + tempDir);
-            }
-        }
-        // done
-        return tempDir;
-    }
-    
+
     @Override
     public String getFileName()
     {
@@ -124,16 +94,53 @@ public class CachingContentStreamImpl implements ContentStream
         return mimeType;
     }
 
+    /**
+     * Obtain the cached content, reloading it if necessary. A null result means
+     * that the content is too large to cache, in which case the returned
+     * stream must be read directly.
+     */
+    private CachedContent acquire(ContentStream[] uncached) throws IOException
+    {
+        CachedContent content = contentCache.get(cacheKey);
+        if (content == null)
+        {
+            synchronized (this)
+            {
+                content = contentCache.get(cacheKey);
+                if (content == null)
+                {
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("Reloading evicted content: " + cacheKey);
+                    }
+                    ContentStream contentStream = source.getContentStream();
+                    if (contentStream == null)
+                    {
+                        throw new IOException("Content is no longer available: " + cacheKey);
+                    }
+                    content = contentCache.put(cacheKey, contentStream);
+                    if (content == null)
+                    {
+                        uncached[0] = contentStream;
+                    }
+                }
+            }
+        }
+        return content;
+    }
+
     @Override
     public InputStream getStream()
     {
         try
         {
-            return new FileInputStream(cacheFile);
+            ContentStream[] uncached = new ContentStream[1];
+            CachedContent content = acquire(uncached);
+            return content == null ? uncached[0].getStream() : content.openStream();
         }
-        catch (FileNotFoundException e)
+        catch (IOException e)
         {
-            log.warn("Failed to open input stream for cached content file", e);
+            log.warn("Failed to open input stream for cached content " + cacheKey, e);
             return null;
         }
     }
@@ -141,35 +148,40 @@ public class CachingContentStreamImpl implements ContentStream
     @Override
     public void output(OutputStream output) throws IOException
     {
-        InputStream is = new FileInputStream(cacheFile);
+        ContentStream[] uncached = new ContentStream[1];
+        CachedContent content = acquire(uncached);
+        if (content == null)
+        {
+            uncached[0].output(output);
+            return;
+        }
         try
         {
-            StreamUtils.output(is, output);
+            content.output(output);
         }
         finally
         {
-            is.close();
+            content.release();
         }
     }
 
     @Override
     public void write(Writer writer) throws IOException
     {
-        InputStream is = new FileInputStream(cacheFile);
-        try
-        {
-            StreamUtils.write(is, writer, "UTF-8");
-        }
-        finally
-        {
-            is.close();
-        }
+        write(writer, "UTF-8");
     }
 
     @Override
     public void write(Writer writer, String encoding) throws IOException
     {
-        InputStream is = new FileInputStream(cacheFile);
+        ContentStream[] uncached = new ContentStream[1];
+        CachedContent content = acquire(uncached);
+        if (content == null)
+        {
+            uncached[0].write(writer, encoding);
+            return;
+        }
+        InputStream is = content.openStream();
         try
         {
             StreamUtils.write(is, writer, encoding);
@@ -179,16 +191,4 @@ public class CachingContentStreamImpl implements ContentStream
             is.close();
         }
     }
-
-    public void finalize()
-    {
-        if (cacheFile != null)
-        {
-            if (log.isDebugEnabled())
-            {
-                log.debug("Attempting to delete temp cache file " + cacheFile.getPath());
-            }
-            cacheFile.delete();
-        }
-    }
 }
@@ -28,15 +28,17 @@ package org.alfresco.wcm.client.impl;
 import java.io.IOException;
 
 import org.alfresco.wcm.client.Rendition;
+import org.alfresco.wcm.client.impl.cache.ContentCache;
 
 public class CachingRenditionImpl extends CachingContentStreamImpl implements Rendition
 {
     private final long height;
     private final long width;
     
-    public CachingRenditionImpl(Rendition rendition) throws IOException
+    public CachingRenditionImpl(Rendition rendition, ContentCache contentCache, String cacheKey, Source source)
+            throws IOException
     {
-        super(rendition);
+        super(rendition, contentCache, cacheKey, source);
         this.height = rendition.getHeight();
         this.width = rendition.getWidth();
     }
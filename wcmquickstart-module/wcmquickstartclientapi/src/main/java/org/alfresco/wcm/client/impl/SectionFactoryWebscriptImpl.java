@@ -27,6 +27,8 @@ package org.alfresco.wcm.client.impl;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -154,4 +156,63 @@ public class SectionFactoryWebscriptImpl extends AbstractCachingSectionFactoryIm
         }
         return loadedSections;
     }
+
+    /**
+     * @see org.alfresco.wcm.client.impl.AbstractCachingSectionFactoryImpl#findSectionVersions(java.lang.String)
+     */
+    @Override
+    protected Map<String, SectionVersion> findSectionVersions(String topSectionId)
+    {
+        List<WebscriptParam> params = localParamList.get();
+        params.add(new WebscriptParam("sectionId", topSectionId));
+        params.add(new WebscriptParam("includeChildren", "true"));
+        params.add(new WebscriptParam("modifiedTimeOnly", "true"));
+        WebSite currentSite = WebSiteService.getThreadWebSite();
+        if (currentSite != null)
+        {
+            params.add(new WebscriptParam("siteId", currentSite.getId()));
+        }
+        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
+        webscriptCaller.post("websection", deserializer, params);
+
+        Map<String, SectionVersion> versions = new TreeMap<String, SectionVersion>();
+        for (TreeMap<String, Serializable> result : deserializer.getAssets())
+        {
+            String parentId = (String) result.get("ws:parentId");
+            if (parentId == null)
+            {
+                // The repository does not report the parents of the sections, so moves can't be detected
+                return null;
+            }
+            versions.put((String) result.get("id"), new SectionVersion((Date) result.get("cm:modified"), parentId));
+        }
+        return versions;
+    }
+
+    /**
+     * @see org.alfresco.wcm.client.impl.AbstractCachingSectionFactoryImpl#findSections(java.util.Collection)
+     */
+    @Override
+    protected Map<String, Section> findSections(Collection<String> sectionIds)
+    {
+        Map<String,Section> loadedSections = new TreeMap<String, Section>();
+        List<WebscriptParam> params = localParamList.get();
+        for (String sectionId : sectionIds)
+        {
+            params.add(new WebscriptParam("sectionId", sectionId));
+        }
+        WebSite currentSite = WebSiteService.getThreadWebSite();
+        if (currentSite != null)
+        {
+            params.add(new WebscriptParam("siteId", currentSite.getId()));
+        }
+        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
+        webscriptCaller.post("websection", deserializer, params);
+        for (TreeMap<String, Serializable> result : deserializer.getAssets())
+        {
+            SectionImpl section = buildSection(result).section;
+            loadedSections.put(section.getId(), section);
+        }
+        return loadedSections;
+    }
 }
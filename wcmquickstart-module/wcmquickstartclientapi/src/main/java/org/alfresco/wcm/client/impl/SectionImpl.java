@@ -53,16 +53,13 @@ import org.apache.commons.logging.LogFactory;
  * 
  * @author Roy Wetherall
  */
-public class SectionImpl extends ResourceBaseImpl implements Section
+public class SectionImpl extends ResourceBaseImpl implements Section, Cloneable
 {
     private static final long serialVersionUID = -443446798048387948L;
     private final static Log log = LogFactory.getLog(SectionImpl.class);
 
-    /** Section children */
-    private List<Section> sections = new ArrayList<Section>();
-
-    /** Sections by name */
-    private Map<String, Section> sectionsByName = new TreeMap<String, Section>();
+    /** Section children, replaced rather than modified once the section is cached */
+    private volatile Children children = new Children(new ArrayList<Section>(), new TreeMap<String, Section>());
 
     private ConcurrentMap<String, String> assetIdByAssetName = new ConcurrentHashMap<String, String>(89);
 
@@ -86,7 +83,7 @@ public class SectionImpl extends ResourceBaseImpl implements Section
     @Override
     public List<Section> getSections()
     {
-        return Collections.unmodifiableList(sections);
+        return Collections.unmodifiableList(children.sections);
     }
 
     /**
@@ -95,7 +92,7 @@ public class SectionImpl extends ResourceBaseImpl implements Section
     @Override
     public Section getSection(String sectionName)
     {
-        return sectionsByName.get(sectionName);
+        return children.sectionsByName.get(sectionName);
     }
 
     /**
@@ -145,20 +142,38 @@ public class SectionImpl extends ResourceBaseImpl implements Section
 
     /**
      * Sets the child sections. Package visibility since this is only used
-     * during construction of the section hierarchy.
+     * during construction of the section hierarchy and when it is refreshed.
+     * The list must not be modified afterwards, as it is used as it is.
      * 
      * @param sections
      *            child sections
      */
     /* package */void setSections(List<Section> sections)
     {
-        this.sections = sections;
         Map<String, Section> newMap = new TreeMap<String, Section>();
         for (Section section : sections)
         {
             newMap.put(section.getName(), section);
         }
-        sectionsByName = newMap;
+        this.children = new Children(sections, newMap);
+    }
+
+    /**
+     * Copies the section, so that the copy can be given different child sections
+     * while the section itself is still in use. Everything else is shared.
+     * 
+     * @return the copy
+     */
+    /* package */SectionImpl copy()
+    {
+        try
+        {
+            return (SectionImpl) clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            throw new IllegalStateException(e);
+        }
     }
 
     /**
@@ -224,8 +239,8 @@ public class SectionImpl extends ResourceBaseImpl implements Section
      */
     void addChild(Section section)
     {
-        this.sections.add(section);
-        this.sectionsByName.put(section.getName(), section);
+        this.children.sections.add(section);
+        this.children.sectionsByName.put(section.getName(), section);
     }
 
     /**
@@ -474,4 +489,21 @@ public class SectionImpl extends ResourceBaseImpl implements Section
         }
         return redirects.get(path);
     }
+
+    /**
+     * The child sections and the same sections by name, so that both are replaced together
+     */
+    private static class Children implements Serializable
+    {
+        private static final long serialVersionUID = 4627314935867203115L;
+
+        private final List<Section> sections;
+        private final Map<String, Section> sectionsByName;
+
+        private Children(List<Section> sections, Map<String, Section> sectionsByName)
+        {
+            this.sections = sections;
+            this.sectionsByName = sectionsByName;
+        }
+    }
 }
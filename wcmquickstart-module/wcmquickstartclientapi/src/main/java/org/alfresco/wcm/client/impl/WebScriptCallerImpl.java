@@ -25,14 +25,31 @@
  */
 package org.alfresco.wcm.client.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -46,6 +63,8 @@ import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.EncodingUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONException;
@@ -55,6 +74,18 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+/**
+ * Calls Alfresco web scripts over a bounded pool of HTTP connections.
+ * <p>
+ * Identical GET requests that are in flight at the same time are collapsed into a single call to the repository.
+ * The first caller streams the response to its handler, and it is copied for the callers that joined it while it
+ * waited for the repository. So are identical POST requests to the endpoints that
+ * only read, by default "webasset" and "websection", which take their ids as form parameters as there may be too
+ * many for a query string. When the ticket expires it is renewed once, by the first request to be refused, and the
+ * other refused requests retry with the new ticket. The time allowed for a request and the number of concurrent
+ * requests can be limited per endpoint, the endpoint being the first segment of the service path (e.g.
+ * "webassetsearch").
+ */
 public class WebScriptCallerImpl implements WebScriptCaller
 {
     static Log log = LogFactory.getLog(WebScriptCallerImpl.class);
@@ -75,6 +106,36 @@ public class WebScriptCallerImpl implements WebScriptCaller
     private String username = null;
     private String password = null;;
 
+    private int maxConnections = 20;
+    private int connectionTimeout = 10000;
+    private int readTimeout = 60000;
+    private boolean coalesceRequests = true;
+    private Map<String, Integer> endpointTimeouts = Collections.emptyMap();
+    private Map<String, Semaphore> endpointPermits = Collections.emptyMap();
+    private Set<String> coalescedPostEndpoints = new HashSet<String>(Arrays.asList("webasset", "websection"));
+
+    /** Orders form parameters by name, keeping the order of parameters with the same name */
+    private static final Comparator<NameValuePair> PARAMETER_NAME_ORDER = new Comparator<NameValuePair>()
+    {
+        @Override
+        public int compare(NameValuePair p1, NameValuePair p2)
+        {
+            return p1.getName().compareTo(p2.getName());
+        }
+    };
+
+    /** Requests in flight that may be shared, by method and URL */
+    private final ConcurrentMap<String, SharedRequest> requestsInFlight = new ConcurrentHashMap<String, SharedRequest>();
+
+    /** Incremented each time the credentials are replaced, so that refused requests renew the ticket only once */
+    private volatile int credentialsVersion = 0;
+    private final Object ticketLock = new Object();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    private final AtomicLong ticketRenewals = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+
     public WebScriptCallerImpl()
     {
         httpClient = new HttpClient();
@@ -112,8 +173,78 @@ public class WebScriptCallerImpl implements WebScriptCaller
         this.password = password;
      }
 
+    /**
+     * @param maxConnections    the maximum number of connections to the repository
+     */
+    public void setMaxConnections(int maxConnections)
+    {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @param connectionTimeout    milliseconds to wait for a connection to the repository to be established, or
+     *            for a free connection in the pool or a free slot at a limited endpoint
+     */
+    public void setConnectionTimeout(int connectionTimeout)
+    {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * @param readTimeout    milliseconds to wait for data from the repository, unless set for the endpoint
+     */
+    public void setReadTimeout(int readTimeout)
+    {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @param coalesceRequests    true to collapse identical GET requests, and identical POST requests to the
+     *            endpoints that only read, in flight into one call to the repository
+     */
+    public void setCoalesceRequests(boolean coalesceRequests)
+    {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    /**
+     * @param coalescedPostEndpoints    the endpoints whose POST requests only read, so identical requests in flight
+     *            can be collapsed into one call to the repository
+     */
+    public void setCoalescedPostEndpoints(Set<String> coalescedPostEndpoints)
+    {
+        this.coalescedPostEndpoints = new HashSet<String>(coalescedPostEndpoints);
+    }
+
+    /**
+     * @param endpointTimeouts    milliseconds to wait for data from the repository, by endpoint
+     */
+    public void setEndpointTimeouts(Map<String, Integer> endpointTimeouts)
+    {
+        this.endpointTimeouts = new HashMap<String, Integer>(endpointTimeouts);
+    }
+
+    /**
+     * @param endpointConcurrencyLimits    the maximum number of concurrent requests, by endpoint
+     */
+    public void setEndpointConcurrencyLimits(Map<String, Integer> endpointConcurrencyLimits)
+    {
+        Map<String, Semaphore> permits = new HashMap<String, Semaphore>();
+        for (Map.Entry<String, Integer> limit : endpointConcurrencyLimits.entrySet())
+        {
+            permits.put(limit.getKey(), new Semaphore(limit.getValue(), true));
+        }
+        this.endpointPermits = permits;
+    }
+
     public void init()
     {
+        HttpConnectionManagerParams connectionParams = httpClient.getHttpConnectionManager().getParams();
+        connectionParams.setMaxTotalConnections(maxConnections);
+        connectionParams.setDefaultMaxConnectionsPerHost(maxConnections);
+        connectionParams.setConnectionTimeout(connectionTimeout);
+        connectionParams.setSoTimeout(readTimeout);
+        httpClient.getParams().setConnectionManagerTimeout(connectionTimeout);
     }
 
     public String getTicket(String user, String password)
@@ -130,17 +261,33 @@ public class WebScriptCallerImpl implements WebScriptCaller
         }
         httpClient.getState().setCredentials(authScope, credentials);
         httpClient.getParams().setAuthenticationPreemptive(true);
+        credentialsVersion++;
         return responseHandler.ticket;
     }
+
+    /**
+     * Renew the ticket after a request using the given version of the credentials was refused, unless another 
+     * request has already renewed it.
+     */
+    private void renewTicket(int refusedCredentialsVersion)
+    {
+        synchronized (ticketLock)
+        {
+            if (credentialsVersion == refusedCredentialsVersion)
+            {
+                ticketRenewals.incrementAndGet();
+                getTicket(username, password);
+            }
+        }
+    }
     
     /* (non-Javadoc)
      * @see org.alfresco.wcm.client.impl.WebScriptCaller#getJsonObject(java.lang.String, java.util.List)
      */
     public JSONObject getJsonObject(String servicePath, List<WebscriptParam> params)
     {
-        GetMethod getMethod = getGETMethod(servicePath, params);
         JsonResponseHandler handler = new JsonResponseHandler();
-        executeRequest(handler, getMethod);
+        get(servicePath, handler, params);
         return handler.jsonObject;
     }
     
@@ -152,60 +299,159 @@ public class WebScriptCallerImpl implements WebScriptCaller
     private void get(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params, boolean ignoreUnauthorized)
     {
         GetMethod getMethod = getGETMethod(servicePath, params);
-        executeRequest(handler, getMethod, ignoreUnauthorized);
+        if (coalesceRequests && !ignoreUnauthorized)
+        {
+            String key = "GET " + getMethod.getPath() + "?" + getMethod.getQueryString();
+            executeSharedRequest(handler, getMethod, servicePath, key);
+        }
+        else
+        {
+            executeRequest(handler, getMethod, servicePath, ignoreUnauthorized);
+        }
     }
     
     public void post(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params)
     {
         PostMethod postMethod = getPOSTMethod(servicePath, params);
-        executeRequest(handler, postMethod);
+        if (coalesceRequests && coalescedPostEndpoints.contains(getEndpoint(servicePath)))
+        {
+            // The order of differently named form parameters makes no difference to the response
+            List<NameValuePair> parameters = new ArrayList<NameValuePair>(Arrays.asList(postMethod.getParameters()));
+            Collections.sort(parameters, PARAMETER_NAME_ORDER);
+            String key = "POST " + postMethod.getPath() + "?" + 
+                    EncodingUtil.formUrlEncode(parameters.toArray(new NameValuePair[parameters.size()]), "UTF-8");
+            executeSharedRequest(handler, postMethod, servicePath, key);
+        }
+        else
+        {
+            executeRequest(handler, postMethod, servicePath, false);
+        }
     }
 
-    private void executeRequest(WebscriptResponseHandler handler, HttpMethod httpMethod)
+    private void executeRequest(WebscriptResponseHandler handler, HttpMethod httpMethod, String servicePath, 
+            boolean ignoreUnauthorized)
     {
-        executeRequest(handler, httpMethod, false);
+        long startTime = 0L;
+        if (log.isDebugEnabled())
+        {
+            startTime = System.currentTimeMillis();
+        }
+        Semaphore permits = null;
+        try
+        {
+            permits = acquirePermit(servicePath);
+            if (execute(httpMethod, servicePath, ignoreUnauthorized))
+            {
+                handler.handleResponse(httpMethod.getResponseBodyAsStream());
+            }
+            else
+            {
+                // Must read the response, even though we don't use it
+                discardResponse(httpMethod);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            log.error("Rethrowing runtime exception.", ex);
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            log.error("Failed to make request to Alfresco web script", ex);
+        }
+        finally
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug(httpMethod.getName() + " request to " + httpMethod.getPath() + "?" + 
+                        httpMethod.getQueryString() + " completed in " + 
+                        (System.currentTimeMillis() - startTime) + "ms");
+            }
+            httpMethod.releaseConnection();
+            releasePermit(permits);
+        }
     }
 
-    private void executeRequest(WebscriptResponseHandler handler, HttpMethod httpMethod, boolean ignoreUnauthorized)
+    /**
+     * Execute a request, or wait for an identical request that is already in flight. The caller that makes the
+     * request streams the response to its handler, copying it only for the callers that joined while it was waiting
+     * for the repository. A caller that arrives once the response is being read makes a request of its own.
+     * 
+     * @param url    identifies the request, including its method and parameters
+     */
+    private void executeSharedRequest(WebscriptResponseHandler handler, HttpMethod httpMethod, String servicePath, 
+            String url)
     {
+        SharedRequest request = new SharedRequest();
+        SharedRequest requestInFlight;
+        while ((requestInFlight = requestsInFlight.putIfAbsent(url, request)) != null)
+        {
+            if (requestInFlight.join())
+            {
+                coalescedRequests.incrementAndGet();
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Waiting for request in flight: " + url);
+                }
+                waitForResponse(handler, requestInFlight);
+                return;
+            }
+            // Too late to share the response of the request in flight
+            requestsInFlight.remove(url, requestInFlight);
+        }
+
         long startTime = 0L;
         if (log.isDebugEnabled())
         {
             startTime = System.currentTimeMillis();
         }
+        Semaphore permits = null;
         try
         {
-            httpClient.executeMethod(httpMethod);
-            
-            if ((httpMethod.getStatusCode() == 401 || httpMethod.getStatusCode() == 403) && !ignoreUnauthorized)
+            permits = acquirePermit(servicePath);
+            boolean succeeded = execute(httpMethod, servicePath, false);
+            requestsInFlight.remove(url, request);
+            boolean shared = request.close();
+            if (!succeeded)
             {
+                request.complete(null, null);
+                // Must read the response, even though we don't use it
                 discardResponse(httpMethod);
-                
-                this.getTicket(username, password);
-                httpClient.executeMethod(httpMethod);
             }
-            
-            if (httpMethod.getStatusCode() == 200)
+            else if (!shared)
             {
                 handler.handleResponse(httpMethod.getResponseBodyAsStream());
             }
             else
             {
-                // Must read the response, even though we don't use it
-                discardResponse(httpMethod);
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                TeeInputStream responseStream = new TeeInputStream(httpMethod.getResponseBodyAsStream(), body);
+                try
+                {
+                    handler.handleResponse(responseStream);
+                }
+                finally
+                {
+                    // The waiting callers need the whole response, however much of it the handler read
+                    responseStream.drain();
+                    request.complete(new BufferedResponse(body.toByteArray()), null);
+                }
             }
         }
         catch (RuntimeException ex)
         {
+            request.complete(null, ex);
             log.error("Rethrowing runtime exception.", ex);
             throw ex;
         }
         catch (Exception ex)
         {
+            request.complete(null, ex);
             log.error("Failed to make request to Alfresco web script", ex);
         }
         finally
         {
+            requestsInFlight.remove(url, request);
             if (log.isDebugEnabled())
             {
                 log.debug(httpMethod.getName() + " request to " + httpMethod.getPath() + "?" + 
@@ -213,9 +459,113 @@ public class WebScriptCallerImpl implements WebScriptCaller
                         (System.currentTimeMillis() - startTime) + "ms");
             }
             httpMethod.releaseConnection();
+            releasePermit(permits);
+        }
+    }
+
+    /**
+     * Wait for the response of a request in flight and pass it to the handler
+     */
+    private void waitForResponse(WebscriptResponseHandler handler, SharedRequest requestInFlight)
+    {
+        BufferedResponse response;
+        try
+        {
+            response = requestInFlight.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted waiting for request to Alfresco web script", ex);
+            return;
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof RuntimeException)
+            {
+                log.error("Rethrowing runtime exception.", ex.getCause());
+                throw (RuntimeException) ex.getCause();
+            }
+            log.error("Failed to make request to Alfresco web script", ex.getCause());
+            return;
+        }
+        if (response != null)
+        {
+            handler.handleResponse(new ByteArrayInputStream(response.body));
+        }
+    }
+
+    /**
+     * Execute a request, renewing the ticket and retrying once if the request is refused.
+     * 
+     * @return true if the request succeeded
+     */
+    private boolean execute(HttpMethod httpMethod, String servicePath, boolean ignoreUnauthorized) throws IOException
+    {
+        Integer timeout = endpointTimeouts.get(getEndpoint(servicePath));
+        if (timeout != null)
+        {
+            httpMethod.getParams().setSoTimeout(timeout);
+        }
+        requests.incrementAndGet();
+        int usedCredentialsVersion = credentialsVersion;
+        httpClient.executeMethod(httpMethod);
+
+        if ((httpMethod.getStatusCode() == 401 || httpMethod.getStatusCode() == 403) && !ignoreUnauthorized)
+        {
+            discardResponse(httpMethod);
+
+            renewTicket(usedCredentialsVersion);
+            requests.incrementAndGet();
+            httpClient.executeMethod(httpMethod);
+        }
+        return httpMethod.getStatusCode() == 200;
+    }
+
+    /**
+     * Wait for one of the permits of an endpoint that limits the number of concurrent requests, for as long as a
+     * request would wait for a free connection
+     * 
+     * @return the permits of the endpoint, or null if not limited
+     * @throws IOException if no permit became free in time
+     */
+    private Semaphore acquirePermit(String servicePath) throws IOException
+    {
+        String endpoint = getEndpoint(servicePath);
+        Semaphore permits = endpointPermits.get(endpoint);
+        if (permits == null)
+        {
+            return null;
+        }
+        try
+        {
+            if (permits.tryAcquire(connectionTimeout, TimeUnit.MILLISECONDS))
+            {
+                return permits;
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        rejectedRequests.incrementAndGet();
+        throw new IOException("Too many concurrent requests to Alfresco web script " + endpoint);
+    }
+
+    private void releasePermit(Semaphore permits)
+    {
+        if (permits != null)
+        {
+            permits.release();
         }
     }
 
+    private static String getEndpoint(String servicePath)
+    {
+        int end = servicePath.indexOf('/');
+        return (end == -1) ? servicePath : servicePath.substring(0, end);
+    }
+
     void discardResponse(HttpMethod httpMethod) throws IOException
     {
         if (log.isDebugEnabled())
@@ -227,7 +577,10 @@ public class WebScriptCallerImpl implements WebScriptCaller
         {
             byte[] buf = localBuffer.get();
             InputStream responseStream = httpMethod.getResponseBodyAsStream();
-            while (responseStream.read(buf) != -1);
+            if (responseStream != null)
+            {
+                while (responseStream.read(buf) != -1);
+            }
         }
     }
 
@@ -275,6 +628,184 @@ public class WebScriptCallerImpl implements WebScriptCaller
         get(servicePath, handler, Arrays.asList(params));
     }
 
+    /**
+     * @return the number of requests made to the repository
+     */
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests that were served by an identical request in flight
+     */
+    public long getCoalescedRequestCount()
+    {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * @return the number of times the ticket was renewed after a request was refused
+     */
+    public long getTicketRenewalCount()
+    {
+        return ticketRenewals.get();
+    }
+
+    /**
+     * @return the number of requests rejected by an endpoint concurrency limit
+     */
+    public long getRejectedRequestCount()
+    {
+        return rejectedRequests.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "WebScriptCallerImpl[baseUrl=" + baseUrl + ", requests=" + requests.get() + ", coalesced=" + 
+                coalescedRequests.get() + ", ticketRenewals=" + ticketRenewals.get() + ", rejected=" + 
+                rejectedRequests.get() + "]";
+    }
+
+    private static class BufferedResponse
+    {
+        private final byte[] body;
+
+        private BufferedResponse(byte[] body)
+        {
+            this.body = body;
+        }
+    }
+
+    /**
+     * A request in flight that identical requests may join until its response starts to be read
+     */
+    private static class SharedRequest
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean closed = false;
+        private int waiters = 0;
+        private BufferedResponse response;
+        private Exception failure;
+
+        /**
+         * @return true if the caller will be handed the response, false if it is too late to join
+         */
+        private synchronized boolean join()
+        {
+            if (closed)
+            {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * Stop any more callers from joining
+         * 
+         * @return true if any caller has joined
+         */
+        private synchronized boolean close()
+        {
+            closed = true;
+            return waiters > 0;
+        }
+
+        /**
+         * Hand the response, or the failure, to the callers that joined. Only the first call has any effect.
+         */
+        private synchronized void complete(BufferedResponse response, Exception failure)
+        {
+            closed = true;
+            if (done.getCount() > 0)
+            {
+                this.response = response;
+                this.failure = failure;
+                done.countDown();
+            }
+        }
+
+        private BufferedResponse get() throws InterruptedException, ExecutionException
+        {
+            done.await();
+            synchronized (this)
+            {
+                if (failure != null)
+                {
+                    throw new ExecutionException(failure);
+                }
+                return response;
+            }
+        }
+    }
+
+    /**
+     * Copies what is read from a response to a buffer
+     */
+    private static class TeeInputStream extends FilterInputStream
+    {
+        private final OutputStream copy;
+
+        private TeeInputStream(InputStream in, OutputStream copy)
+        {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = in.read();
+            if (b != -1)
+            {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int read = in.read(b, off, len);
+            if (read > 0)
+            {
+                copy.write(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            byte[] buf = localBuffer.get();
+            int read = read(buf, 0, (int) Math.min(n, buf.length));
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            // The rest of the response is still to be copied
+        }
+
+        /**
+         * Copy the rest of the response
+         */
+        private void drain() throws IOException
+        {
+            byte[] buf = localBuffer.get();
+            while (read(buf, 0, buf.length) != -1);
+        }
+    }
+
     private static class JsonResponseHandler implements WebscriptResponseHandler
     {
         public JSONObject jsonObject;
@@ -298,7 +829,6 @@ public class WebScriptCallerImpl implements WebScriptCaller
         }
         
     }
-
     private static class TicketResponseHandler extends DefaultHandler implements WebscriptResponseHandler
     {
         private String ticket = null;
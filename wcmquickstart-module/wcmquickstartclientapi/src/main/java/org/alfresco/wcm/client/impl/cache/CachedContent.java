@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A reference counted item of content held by a {@link ContentCache}, either
+ * as a byte array or as a spooled temporary file.
+ */
+public final class CachedContent
+{
+    private static final Log log = LogFactory.getLog(CachedContent.class);
+
+    private final ContentCache cache;
+    private final byte[] data;
+    private final File file;
+    private final long size;
+    private final AtomicInteger references = new AtomicInteger(1);
+    /** Set (with the cache's monitor held) once the entry has been counted against the cache's budget */
+    boolean admitted = false;
+
+    CachedContent(ContentCache cache, byte[] data)
+    {
+        this.cache = cache;
+        this.data = data;
+        this.file = null;
+        this.size = data.length;
+    }
+
+    CachedContent(ContentCache cache, File file, long size)
+    {
+        this.cache = cache;
+        this.data = null;
+        this.file = file;
+        this.size = size;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public boolean isInMemory()
+    {
+        return data != null;
+    }
+
+    /**
+     * @return <tt>false</tt> if the content has already been disposed of
+     */
+    boolean retain()
+    {
+        while (true)
+        {
+            int current = references.get();
+            if (current <= 0)
+            {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release a reference obtained from the cache. Once the last reference has
+     * been released any spooled file is deleted.
+     */
+    public void release()
+    {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0)
+        {
+            if (file != null)
+            {
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Deleting temp cache file " + file.getPath());
+                }
+                if (!file.delete() && file.exists())
+                {
+                    log.warn("Failed to delete temp cache file " + file.getPath());
+                }
+            }
+            cache.disposed(this);
+        }
+        else if (remaining < 0)
+        {
+            throw new IllegalStateException("Cached content released too many times");
+        }
+    }
+
+    /**
+     * Write the content to the given output stream. Spooled content is
+     * transferred through the file channel rather than copied through a heap buffer.
+     */
+    public void output(OutputStream output) throws IOException
+    {
+        if (data != null)
+        {
+            output.write(data);
+            return;
+        }
+        FileInputStream is = new FileInputStream(file);
+        try
+        {
+            FileChannel source = is.getChannel();
+            WritableByteChannel target = (output instanceof FileOutputStream) ?
+                    ((FileOutputStream) output).getChannel() : Channels.newChannel(output);
+            long position = 0L;
+            long length = source.size();
+            while (position < length)
+            {
+                position += source.transferTo(position, length - position, target);
+            }
+            output.flush();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Open a stream onto the content. The caller's reference is handed over to
+     * the stream and released when the stream is closed.
+     */
+    public InputStream openStream() throws IOException
+    {
+        if (data != null)
+        {
+            release();
+            return new ByteArrayInputStream(data);
+        }
+        InputStream is;
+        try
+        {
+            is = new FileInputStream(file);
+        }
+        catch (IOException ex)
+        {
+            release();
+            throw ex;
+        }
+        return new FilterInputStream(is)
+        {
+            private final AtomicBoolean closed = new AtomicBoolean(false);
+
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    if (closed.compareAndSet(false, true))
+                    {
+                        release();
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.wcm.client.ContentStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded, size-aware cache of asset content.
+ * <p>
+ * Small items are held on the heap, larger ones are spooled to files in a
+ * temporary folder. Each tier has its own byte budget and the least recently
+ * used entries are evicted once a budget is exceeded. Items larger than
+ * <tt>maxEntrySize</tt> are never cached. An item whose length wasn't known up
+ * front and turned out to be too large is remembered as uncacheable, so it is
+ * not spooled again on every read until its entry is removed.
+ * <p>
+ * Entries are reference counted: the cache holds one reference and every
+ * reader holds another while it is streaming. A spooled file is deleted as soon
+ * as its entry has been evicted and the last reader has released it, so no
+ * finalizers are involved. The disk budget is a hard limit on the files owned
+ * by the cache; evicted files that are still being read are reported
+ * separately by {@link #getSpooledSize()}.
+ */
+public class ContentCache
+{
+    private static final Log log = LogFactory.getLog(ContentCache.class);
+    private static final String SYSTEM_PROPERTY_TEMP_DIR = "java.io.tmpdir";
+
+    private String tempFolderName = "alfresco-wqs";
+    private long maxMemorySize = 16L * 1024L * 1024L;
+    private long maxDiskSize = 512L * 1024L * 1024L;
+    private long maxInMemoryEntrySize = 64L * 1024L;
+    private long maxEntrySize = 32L * 1024L * 1024L;
+    private int maxUncacheableEntries = 1024;
+
+    /** Access-ordered so that iteration starts at the least recently used entry. Guarded by "this". */
+    private final LinkedHashMap<String, CachedContent> entries = new LinkedHashMap<String, CachedContent>(64, 0.75f, true);
+    private long memorySize = 0L;
+    private long diskSize = 0L;
+    private long spooledSize = 0L;
+
+    /** Keys of items found to be too large once read, least recently marked first. Guarded by "this". */
+    private final LinkedHashMap<String, Boolean> uncacheable = new LinkedHashMap<String, Boolean>(16, 0.75f, false)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+        {
+            return size() > maxUncacheableEntries;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    public void setTempFolderName(String tempFolderName)
+    {
+        this.tempFolderName = tempFolderName;
+    }
+
+    /**
+     * @param maxMemorySize the number of bytes that may be held on the heap by cached entries
+     */
+    public void setMaxMemorySize(long maxMemorySize)
+    {
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    /**
+     * @param maxDiskSize the number of bytes that may be held in spooled files by cached entries
+     */
+    public void setMaxDiskSize(long maxDiskSize)
+    {
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    /**
+     * @param maxInMemoryEntrySize items of this size or smaller are held on the heap rather than on disk
+     */
+    public void setMaxInMemoryEntrySize(long maxInMemoryEntrySize)
+    {
+        this.maxInMemoryEntrySize = maxInMemoryEntrySize;
+    }
+
+    /**
+     * @param maxEntrySize items larger than this are not cached at all
+     */
+    public void setMaxEntrySize(long maxEntrySize)
+    {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * @param maxUncacheableEntries the number of keys of items too large to cache that are remembered
+     */
+    public void setMaxUncacheableEntries(int maxUncacheableEntries)
+    {
+        this.maxUncacheableEntries = maxUncacheableEntries;
+    }
+
+    /**
+     * @param length the length of an item, or a negative number if it isn't known
+     * @return <tt>true</tt> if an item of the given length may be cached. Items
+     *         of unknown length are accepted here and checked once they have been read.
+     */
+    public boolean isCacheable(long length)
+    {
+        return length <= maxEntrySize && length <= maxDiskSize;
+    }
+
+    /**
+     * Look up a cached item. A non-null result has been retained on behalf of
+     * the caller, who must {@link CachedContent#release() release} it once finished with it.
+     * 
+     * @param key the cache key
+     * @return the retained content, or <tt>null</tt> if it isn't cached
+     */
+    public CachedContent get(String key)
+    {
+        CachedContent content;
+        synchronized (this)
+        {
+            content = entries.get(key);
+            if (content != null && !content.retain())
+            {
+                // Evicted and released between the lookup and now
+                content = null;
+            }
+        }
+        if (content == null)
+        {
+            misses.incrementAndGet();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+        return content;
+    }
+
+    /**
+     * Read the supplied content stream into the cache, replacing any existing
+     * entry for the same key. The result has been retained on behalf of the
+     * caller, who must {@link CachedContent#release() release} it once finished
+     * with it. If the content turns out to be too large to cache then it is
+     * still returned so that the caller can serve it, but it is disposed of as
+     * soon as it is released.
+     * 
+     * @param key the cache key
+     * @param contentStream the content to read
+     * @return the retained content, or <tt>null</tt> if the declared length of the
+     *         content is too large to cache or the item has already been found to be
+     *         too large (in either case the stream has not been read)
+     * @throws IOException if the content can't be read
+     */
+    public CachedContent put(String key, ContentStream contentStream) throws IOException
+    {
+        long length = contentStream.getLength();
+        if (!isCacheable(length) || isUncacheable(key))
+        {
+            rejections.incrementAndGet();
+            if (log.isDebugEnabled())
+            {
+                log.debug("Not caching content " + key + " of length " + length);
+            }
+            return null;
+        }
+
+        CachedContent content;
+        if (length >= 0 && length <= maxInMemoryEntrySize)
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) length);
+            contentStream.output(bytes);
+            content = new CachedContent(this, bytes.toByteArray());
+        }
+        else
+        {
+            File file = File.createTempFile("wqscontent-", null, getTempDir());
+            try
+            {
+                OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+                try
+                {
+                    contentStream.output(os);
+                }
+                finally
+                {
+                    os.close();
+                }
+            }
+            catch (IOException ex)
+            {
+                file.delete();
+                throw ex;
+            }
+            if (log.isDebugEnabled())
+            {
+                log.debug("Created temp cache file: " + file.getPath());
+            }
+            content = new CachedContent(this, file, file.length());
+        }
+
+        if (!isCacheable(content.getSize()))
+        {
+            // The length wasn't known up front. Serve it once, let it go and
+            // don't spool it again.
+            rejections.incrementAndGet();
+            synchronized (this)
+            {
+                uncacheable.put(key, Boolean.TRUE);
+            }
+            return content;
+        }
+
+        List<CachedContent> released = new ArrayList<CachedContent>();
+        synchronized (this)
+        {
+            content.retain();
+            content.admitted = true;
+            if (content.isInMemory())
+            {
+                memorySize += content.getSize();
+            }
+            else
+            {
+                diskSize += content.getSize();
+                spooledSize += content.getSize();
+            }
+            CachedContent previous = entries.put(key, content);
+            if (previous != null)
+            {
+                unlink(previous);
+                released.add(previous);
+            }
+            evict(released);
+        }
+        releaseAll(released);
+        return content;
+    }
+
+    /**
+     * Remove the entry for the given key. Readers that currently hold the entry can finish with it.
+     * 
+     * @param key the cache key
+     */
+    public void remove(String key)
+    {
+        CachedContent content;
+        synchronized (this)
+        {
+            uncacheable.remove(key);
+            content = entries.remove(key);
+            if (content != null)
+            {
+                unlink(content);
+            }
+        }
+        if (content != null)
+        {
+            content.release();
+        }
+    }
+
+    /**
+     * Remove the entry for the given key along with any entries whose keys start with the given prefix.
+     * 
+     * @param key the cache key
+     * @param prefix the prefix of dependent keys
+     */
+    public void removeAll(String key, String prefix)
+    {
+        List<CachedContent> released = new ArrayList<CachedContent>();
+        synchronized (this)
+        {
+            Iterator<Map.Entry<String, CachedContent>> iter = entries.entrySet().iterator();
+            while (iter.hasNext())
+            {
+                Map.Entry<String, CachedContent> entry = iter.next();
+                if (entry.getKey().equals(key) || entry.getKey().startsWith(prefix))
+                {
+                    iter.remove();
+                    unlink(entry.getValue());
+                    released.add(entry.getValue());
+                }
+            }
+            Iterator<String> keys = uncacheable.keySet().iterator();
+            while (keys.hasNext())
+            {
+                String uncacheableKey = keys.next();
+                if (uncacheableKey.equals(key) || uncacheableKey.startsWith(prefix))
+                {
+                    keys.remove();
+                }
+            }
+        }
+        releaseAll(released);
+    }
+
+    /**
+     * Remove all entries, deleting any spooled files that are not currently being read.
+     */
+    public void clear()
+    {
+        List<CachedContent> released;
+        synchronized (this)
+        {
+            released = new ArrayList<CachedContent>(entries.values());
+            for (CachedContent content : released)
+            {
+                unlink(content);
+            }
+            entries.clear();
+            uncacheable.clear();
+        }
+        releaseAll(released);
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public long getRejectionCount()
+    {
+        return rejections.get();
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @param key the cache key
+     * @return <tt>true</tt> if the item has been read and found to be too large to cache
+     */
+    public synchronized boolean isUncacheable(String key)
+    {
+        return uncacheable.containsKey(key);
+    }
+
+    /**
+     * @return the number of bytes held on the heap by cached entries
+     */
+    public synchronized long getMemorySize()
+    {
+        return memorySize;
+    }
+
+    /**
+     * @return the number of bytes held in spooled files by cached entries
+     */
+    public synchronized long getDiskSize()
+    {
+        return diskSize;
+    }
+
+    /**
+     * @return the number of bytes held in spooled files, including evicted files that are still being read
+     */
+    public synchronized long getSpooledSize()
+    {
+        return spooledSize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ContentCache[entries=" + getEntryCount() + ", memorySize=" + getMemorySize() + ", diskSize="
+                + getDiskSize() + ", spooledSize=" + getSpooledSize() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", rejections=" + rejections + "]";
+    }
+
+    /**
+     * Called with the monitor held once an entry is no longer reachable through the map.
+     */
+    private void unlink(CachedContent content)
+    {
+        if (content.isInMemory())
+        {
+            memorySize -= content.getSize();
+        }
+        else
+        {
+            diskSize -= content.getSize();
+        }
+    }
+
+    /**
+     * Called with the monitor held. Evicts least recently used entries until both tiers fit their budgets.
+     */
+    private void evict(List<CachedContent> released)
+    {
+        Iterator<CachedContent> iter = entries.values().iterator();
+        while (iter.hasNext() && (memorySize > maxMemorySize || diskSize > maxDiskSize))
+        {
+            CachedContent content = iter.next();
+            boolean overBudget = content.isInMemory() ? memorySize > maxMemorySize : diskSize > maxDiskSize;
+            if (overBudget)
+            {
+                iter.remove();
+                unlink(content);
+                released.add(content);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void releaseAll(List<CachedContent> released)
+    {
+        for (CachedContent content : released)
+        {
+            content.release();
+        }
+    }
+
+    /**
+     * Called once the last reference to a spooled entry has been released.
+     */
+    void disposed(CachedContent content)
+    {
+        if (content.admitted && !content.isInMemory())
+        {
+            synchronized (this)
+            {
+                spooledSize -= content.getSize();
+            }
+        }
+    }
+
+    private File getTempDir() throws IOException
+    {
+        String systemTempDirPath = System.getProperty(SYSTEM_PROPERTY_TEMP_DIR);
+        if (systemTempDirPath == null)
+        {
+            throw new IOException("System property not available: " + SYSTEM_PROPERTY_TEMP_DIR);
+        }
+        // append the Alfresco directory
+        File tempDir = new File(systemTempDirPath, tempFolderName);
+        // ensure that the temp directory exists
+        if (!tempDir.exists())
+        {
+            if (!tempDir.mkdirs() && !tempDir.isDirectory())
+            {
+                throw new IOException("Failed to create temp directory: " + tempDir);
+            }
+            if (log.isDebugEnabled())
+            {
+                log.debug("Created temp directory: " + tempDir);
+            }
+        }
+        return tempDir;
+    }
+}
@@ -35,20 +35,22 @@ public interface CmisSessionPool
 {
 
 	/** 
-	 * Get an anonymous connection for guest site visitors. 
+	 * Get an anonymous connection for guest site visitors. The session may be in use by other requests at 
+	 * the same time, and should be given back with {@link #closeSession(Session)} once it is no longer used.
 	 * @throws Exception 
 	 */
 	Session getGuestSession() throws Exception;
 	
 	/** 
-	 * Get a session authenticated against the repository.
+	 * Get a session authenticated against the repository. The session must be given back with 
+	 * {@link #closeSession(Session)} once it is no longer used.
 	 * @param username repository username
 	 * @param password repository password 
 	 */
 	Session getSession(String username, String password);
 	
 	/** 
-	 * Finish using a session.
+	 * Finish using a session, returning it to the pool.
 	 * @param session the CMIS session to close 
 	 * @throws Exception 
 	 */
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.util.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+
+/**
+ * KeyedPoolableObjectFactory for use with an apache commons GenericKeyedObjectPool. Sessions are keyed by the
+ * {@link Credentials} they were opened with, {@link Credentials#GUEST} for anonymous visitors. Guest sessions come
+ * from the {@link GuestSessionFactoryImpl}, which also opens the sessions of other users.
+ * <p>
+ * A session is only used for maxSessionLifetime milliseconds, so that guest sessions are replaced before their
+ * repository ticket expires. When the pool validates an idle session it also rejects sessions that would expire
+ * within renewAheadMillis, and checks that the session can still reach the repository.
+ */
+public class CmisSessionFactoryImpl implements KeyedPoolableObjectFactory
+{
+    private final static Log log = LogFactory.getLog(CmisSessionFactoryImpl.class);
+
+    private GuestSessionFactoryImpl guestSessionFactory;
+    private long maxSessionLifetime = 50 * 60 * 1000;
+    private long renewAheadMillis = 60 * 1000;
+    private final ConcurrentMap<Session, Long> createdTimes = new ConcurrentHashMap<Session, Long>();
+
+    public void setGuestSessionFactory(GuestSessionFactoryImpl guestSessionFactory)
+    {
+        this.guestSessionFactory = guestSessionFactory;
+    }
+
+    /**
+     * @param maxSessionLifetime
+     *            the number of milliseconds for which a session is used after it has been opened
+     */
+    public void setMaxSessionLifetime(long maxSessionLifetime)
+    {
+        this.maxSessionLifetime = maxSessionLifetime;
+    }
+
+    /**
+     * @param renewAheadMillis
+     *            idle sessions that would expire within this many milliseconds fail validation, so that they are
+     *            replaced before they are needed. Usually the time between the pool's eviction runs.
+     */
+    public void setRenewAheadMillis(long renewAheadMillis)
+    {
+        this.renewAheadMillis = renewAheadMillis;
+    }
+
+    /**
+     * @return true if the session has been open for longer than the maximum session lifetime, or was not opened by
+     *         this factory
+     */
+    public boolean isExpired(Session session)
+    {
+        Long created = createdTimes.get(session);
+        return created == null || currentTimeMillis() - created >= maxSessionLifetime;
+    }
+
+    /**
+     * @see org.apache.commons.pool.KeyedPoolableObjectFactory#makeObject(Object)
+     */
+    @Override
+    public Object makeObject(Object key) throws Exception
+    {
+        Credentials credentials = (Credentials) key;
+        Session session;
+        if (credentials.isGuest())
+        {
+            session = (Session) guestSessionFactory.makeObject();
+        }
+        else
+        {
+            session = guestSessionFactory.createSession(credentials.getUsername(), credentials.getPassword());
+        }
+        createdTimes.put(session, currentTimeMillis());
+        if (log.isDebugEnabled())
+        {
+            log.debug("Opened CMIS session for " + credentials);
+        }
+        return session;
+    }
+
+    /**
+     * Stop tracking a session that is no longer handed out, without clearing it as it may still be in use
+     */
+    public void forget(Session session)
+    {
+        createdTimes.remove(session);
+    }
+
+    /**
+     * @see org.apache.commons.pool.KeyedPoolableObjectFactory#destroyObject(Object, Object)
+     */
+    @Override
+    public void destroyObject(Object key, Object obj) throws Exception
+    {
+        Session session = (Session) obj;
+        createdTimes.remove(session);
+        // Release the objects the session has cached
+        session.clear();
+    }
+
+    /**
+     * @see org.apache.commons.pool.KeyedPoolableObjectFactory#validateObject(Object, Object)
+     */
+    @Override
+    public boolean validateObject(Object key, Object obj)
+    {
+        Session session = (Session) obj;
+        Long created = createdTimes.get(session);
+        if (created == null || currentTimeMillis() - created + renewAheadMillis >= maxSessionLifetime)
+        {
+            return false;
+        }
+        try
+        {
+            // Fetch the root folder from the repository rather than from the session's cache
+            OperationContext context = session.createOperationContext();
+            context.setCacheEnabled(false);
+            session.getRootFolder(context);
+            return true;
+        }
+        catch (RuntimeException ex)
+        {
+            log.warn("Discarding CMIS session for " + key + " that failed validation: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @see org.apache.commons.pool.KeyedPoolableObjectFactory#activateObject(Object, Object)
+     */
+    @Override
+    public void activateObject(Object key, Object obj) throws Exception
+    {
+    }
+
+    /**
+     * @see org.apache.commons.pool.KeyedPoolableObjectFactory#passivateObject(Object, Object)
+     */
+    @Override
+    public void passivateObject(Object key, Object obj) throws Exception
+    {
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * The user a session is opened for. The password is part of the key, so a session opened with an old
+     * password isn't handed out for a new one.
+     */
+    public static final class Credentials
+    {
+        /** Anonymous visitors, who use sessions opened by the {@link GuestSessionFactoryImpl} */
+        public static final Credentials GUEST = new Credentials(null, null);
+
+        private final String username;
+        private final String password;
+
+        public Credentials(String username, String password)
+        {
+            this.username = username;
+            this.password = password;
+        }
+
+        public boolean isGuest()
+        {
+            return username == null;
+        }
+
+        public String getUsername()
+        {
+            return username;
+        }
+
+        public String getPassword()
+        {
+            return password;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Credentials))
+            {
+                return false;
+            }
+            Credentials other = (Credentials) obj;
+            return equal(username, other.username) && equal(password, other.password);
+        }
+
+        private static boolean equal(String a, String b)
+        {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (username == null ? 0 : username.hashCode()) * 31 + (password == null ? 0 : password.hashCode());
+        }
+
+        /**
+         * Never includes the password, as credentials are logged
+         */
+        @Override
+        public String toString()
+        {
+            return isGuest() ? "guest" : username;
+        }
+    }
+}
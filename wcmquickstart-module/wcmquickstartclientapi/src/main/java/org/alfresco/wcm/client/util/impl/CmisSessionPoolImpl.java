@@ -25,97 +25,251 @@
  */
 package org.alfresco.wcm.client.util.impl;
 
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import org.alfresco.wcm.client.exception.RepositoryUnavailableException;
 import org.alfresco.wcm.client.util.CmisSessionPool;
+import org.alfresco.wcm.client.util.impl.CmisSessionFactoryImpl.Credentials;
 import org.apache.chemistry.opencmis.client.api.Session;
-import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pool.KeyedObjectPool;
 
 /**
- * Facade for CMIS collection pool implementations
+ * Provides the CMIS sessions for requests. CMIS sessions are thread-safe, so guest requests share a small, fixed
+ * number of guest sessions, taking them in turn. They never wait for a session, however many requests there are.
+ * The sessions of authenticated users are borrowed from a pool keyed by user for the duration of a request and
+ * given back with {@link #closeSession(Session)}. The limits on the number of user sessions, idle eviction and
+ * background validation are those of the underlying pool, which is normally a GenericKeyedObjectPool of sessions
+ * made by a {@link CmisSessionFactoryImpl}.
+ * <p>
+ * Sessions past their maximum lifetime are replaced when they are next used, and user sessions are also discarded 
+ * when they are returned. A background task validates the guest sessions and replaces those that are about to 
+ * expire or can no longer reach the repository, so that a request seldom has to open one.
  * 
  * @author Chris Lack
  * @author Brian
  */
 public class CmisSessionPoolImpl implements CmisSessionPool
 {
-    private ObjectPool guestSessionPool;
-    private Session session;
-    private ReadWriteLock sessionLock = new ReentrantReadWriteLock(true);
-    
-    private long ticketDuration = 60*60*1000;
-    private AtomicLong sessionLastTouched = new AtomicLong(System.currentTimeMillis());
-
-    public CmisSessionPoolImpl(ObjectPool guestSessionPool, long ticketDuration)
+    private final static Log log = LogFactory.getLog(CmisSessionPoolImpl.class);
+
+    private final KeyedObjectPool sessionPool;
+    private final CmisSessionFactoryImpl sessionFactory;
+    private final ConcurrentMap<Session, Credentials> borrowedSessions = new ConcurrentHashMap<Session, Credentials>();
+    private AtomicReferenceArray<Session> guestSessions = new AtomicReferenceArray<Session>(4);
+    private Object[] guestSessionLocks = newLocks(4);
+    private final AtomicInteger nextGuestSession = new AtomicInteger();
+    private long renewalInterval = 60 * 1000;
+    private Timer renewalTimer;
+
+    public CmisSessionPoolImpl(KeyedObjectPool sessionPool, CmisSessionFactoryImpl sessionFactory)
     {
-        this.guestSessionPool = guestSessionPool;
-        this.ticketDuration = ticketDuration;
+        this.sessionPool = sessionPool;
+        this.sessionFactory = sessionFactory;
     }
 
     /**
-     * @see org.alfresco.wcm.client.util.CmisSessionPool#closeSession(Session)
+     * @param guestSessions
+     *            the number of guest sessions that guest requests share
      */
-    @Override
-    public synchronized void closeSession(Session session) throws Exception
+    public void setGuestSessions(int guestSessions)
+    {
+        if (guestSessions < 1)
+        {
+            throw new IllegalArgumentException("At least one guest session is required");
+        }
+        this.guestSessions = new AtomicReferenceArray<Session>(guestSessions);
+        this.guestSessionLocks = newLocks(guestSessions);
+    }
+
+    private static Object[] newLocks(int count)
     {
-        //Do nothing. CMIS sessions no longer need to be pooled - they are fully thread-safe - so we
-        //now permanently "borrow" just one session from the backing pool and provide it to
-        //our clients. We never return it to the pool.
+        Object[] locks = new Object[count];
+        for (int i = 0; i < count; i++)
+        {
+            locks[i] = new Object();
+        }
+        return locks;
     }
 
     /**
-     * @see org.alfresco.wcm.client.util.CmisSessionPool#getGuestSession()
+     * @param renewalInterval
+     *            milliseconds between checks of the guest sessions
      */
-    @Override
-    public Session getGuestSession() throws Exception
+    public void setRenewalInterval(long renewalInterval)
     {
-        sessionLock.readLock().lock();
-        
-        boolean refreshSession = System.currentTimeMillis() >= sessionLastTouched.get() + ticketDuration;
-        
-        try
+        this.renewalInterval = renewalInterval;
+    }
+
+    public void init()
+    {
+        if (renewalInterval > 0)
+        {
+            renewalTimer = new Timer("WQS CMIS session renewal", true);
+            renewalTimer.schedule(new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    renewGuestSessions();
+                }
+            }, 0, renewalInterval);
+        }
+    }
+
+    public void destroy() throws Exception
+    {
+        if (renewalTimer != null)
         {
-            if (refreshSession || session == null)
+            renewalTimer.cancel();
+        }
+        for (int i = 0; i < guestSessions.length(); i++)
+        {
+            Session session = guestSessions.getAndSet(i, null);
+            if (session != null)
+            {
+                sessionFactory.destroyObject(Credentials.GUEST, session);
+            }
+        }
+        sessionPool.close();
+    }
+
+    /**
+     * Open any guest sessions that are missing, and replace those that fail validation. Failures are left for the
+     * next run, as the repository may not be available yet, and a session that failed validation is kept until it
+     * can be replaced.
+     */
+    void renewGuestSessions()
+    {
+        for (int i = 0; i < guestSessions.length(); i++)
+        {
+            Session session = guestSessions.get(i);
+            if (session == null || !sessionFactory.validateObject(Credentials.GUEST, session))
             {
-                sessionLock.readLock().unlock();
-                sessionLock.writeLock().lock();
                 try
                 {
-                    refreshSession = System.currentTimeMillis() >= sessionLastTouched.get() + ticketDuration;
-                    if (refreshSession || session == null)
-                    {
-                        if (session != null)
-                        {
-                            guestSessionPool.invalidateObject(session);
-                        }
-                        
-                        session = (Session) guestSessionPool.borrowObject();
-                    }
+                    replaceGuestSession(i, session);
                 }
-                finally
+                catch (Exception ex)
                 {
-                    sessionLock.readLock().lock();
-                    sessionLock.writeLock().unlock();
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("Unable to open guest CMIS session ahead of use: " + ex.getMessage());
+                    }
+                    return;
                 }
             }
-            sessionLastTouched.set(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @see org.alfresco.wcm.client.util.CmisSessionPool#getGuestSession()
+     */
+    @Override
+    public Session getGuestSession() throws Exception
+    {
+        int index = (nextGuestSession.getAndIncrement() & Integer.MAX_VALUE) % guestSessions.length();
+        Session session = guestSessions.get(index);
+        if (session == null || sessionFactory.isExpired(session))
+        {
+            session = replaceGuestSession(index, session);
+        }
+        return session;
+    }
+
+    /**
+     * Open a guest session in place of the given one, unless another thread has already replaced it. The old
+     * session isn't cleared, as other requests may still be using it. Only the slot being replaced is locked, so
+     * a slow login doesn't hold up requests that are given one of the other guest sessions.
+     * 
+     * @return the guest session now in place
+     */
+    private Session replaceGuestSession(int index, Session oldSession) throws Exception
+    {
+        synchronized (guestSessionLocks[index])
+        {
+            Session session = guestSessions.get(index);
+            if (session != oldSession)
+            {
+                return session;
+            }
+            session = (Session) sessionFactory.makeObject(Credentials.GUEST);
+            guestSessions.set(index, session);
+            if (oldSession != null)
+            {
+                sessionFactory.forget(oldSession);
+            }
             return session;
         }
-        finally
+    }
+
+    /**
+     * @see org.alfresco.wcm.client.util.CmisSessionPool#getSession(String, String)
+     */
+    @Override
+    public Session getSession(String username, String password)
+    {
+        if (username == null)
         {
-            sessionLock.readLock().unlock();
+            throw new IllegalArgumentException("A username is required for an authenticated session");
+        }
+        try
+        {
+            return borrowSession(new Credentials(username, password));
+        }
+        catch (RuntimeException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            throw new RepositoryUnavailableException(ex);
+        }
+    }
+
+    private Session borrowSession(Credentials credentials) throws Exception
+    {
+        while (true)
+        {
+            Session session = (Session) sessionPool.borrowObject(credentials);
+            if (!sessionFactory.isExpired(session))
+            {
+                borrowedSessions.put(session, credentials);
+                return session;
+            }
+            sessionPool.invalidateObject(credentials, session);
         }
     }
 
     /**
-     * @see org.alfresco.wcm.client.util.CmisSessionPool#getSession(String,
-     *      String)
+     * @see org.alfresco.wcm.client.util.CmisSessionPool#closeSession(Session)
      */
     @Override
-    public synchronized Session getSession(String username, String password)
+    public void closeSession(Session session) throws Exception
     {
-        throw new UnsupportedOperationException("Custom authenticated sessions not yet supported by this class");
+        if (session == null)
+        {
+            return;
+        }
+        Credentials credentials = borrowedSessions.remove(session);
+        if (credentials == null)
+        {
+            // A shared guest session, not borrowed from this pool, or already returned
+            return;
+        }
+        if (sessionFactory.isExpired(session))
+        {
+            sessionPool.invalidateObject(credentials, session);
+        }
+        else
+        {
+            sessionPool.returnObject(credentials, session);
+        }
     }
 }
@@ -31,6 +31,7 @@ import java.util.Map;
 
 import org.alfresco.wcm.client.exception.RepositoryUnavailableException;
 import org.apache.chemistry.opencmis.client.api.Repository;
+import org.apache.chemistry.opencmis.client.api.Session;
 import org.apache.chemistry.opencmis.client.bindings.spi.AbstractAuthenticationProvider;
 import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
 import org.apache.chemistry.opencmis.commons.SessionParameter;
@@ -210,6 +211,24 @@ public class GuestSessionFactoryImpl implements PoolableObjectFactory, Runnable
         return repository.createSession();
     }
 
+    /**
+     * Create a session authenticated as the given repository user rather than as the guest user.
+     * 
+     * @throws RepositoryUnavailableException if the repository hasn't been reached yet
+     */
+    public Session createSession(String username, String password)
+    {
+        if (repository == null)
+        {
+            throw new RepositoryUnavailableException(lastException);
+        }
+        Map<String, String> userParameters = new HashMap<String, String>(parameters);
+        userParameters.put(SessionParameter.USER, username);
+        userParameters.put(SessionParameter.PASSWORD, password);
+        userParameters.put(SessionParameter.REPOSITORY_ID, repository.getId());
+        return sessionFactory.createSession(userParameters);
+    }
+
     /**
      * @see org.apache.commons.pool.PoolableObjectFactory#passivateObject(Object)
      */
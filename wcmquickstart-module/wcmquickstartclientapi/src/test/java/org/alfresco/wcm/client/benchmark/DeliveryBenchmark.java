@@ -0,0 +1,638 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.alfresco.wcm.client.Asset;
+import org.alfresco.wcm.client.WebSiteService;
+import org.alfresco.wcm.client.impl.AssetDeserializerImpl;
+import org.alfresco.wcm.client.impl.AssetFactoryWebscriptImpl;
+import org.alfresco.wcm.client.impl.AssetFormat;
+import org.alfresco.wcm.client.impl.AssetReader;
+import org.alfresco.wcm.client.impl.CachingAssetFactoryImpl;
+import org.alfresco.wcm.client.impl.SectionFactoryWebscriptImpl;
+import org.alfresco.wcm.client.impl.WebSiteImpl;
+import org.alfresco.wcm.client.impl.cache.SimpleCache;
+import org.alfresco.wcm.client.util.impl.AlfrescoCmisIdEncoderImpl;
+import org.alfresco.wcm.client.util.impl.UrlUtilsImpl;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Throughput and latency benchmark for the WQS delivery path: asset lookup through the caching asset
+ * factory, section tree navigation, path resolution, URL generation and deserialisation of each of the
+ * repository's asset formats. The client API runs against a {@link FakeWebScriptCaller} serving a generated site, so the
+ * figures measure the client code alone and can be compared from one build to the next.
+ * <p>
+ * The deserialisation scenarios read responses written by the repository's own serializers: run the
+ * AssetSerializerBenchmark of the repository module with a responses directory and name the same directory here.
+ * Without one those scenarios are skipped.
+ * <p>
+ * Not run as part of the unit tests, execute the main method directly:
+ *
+ * <pre>
+ * DeliveryBenchmark [threads] [seconds per scenario] [results file] [responses directory]
+ * </pre>
+ *
+ * Each scenario is warmed up and then driven by the given number of threads. The p50 and p99 latency,
+ * throughput, bytes allocated per operation and web script calls per operation are printed and, if a
+ * results file is named, written to it as JSON.
+ */
+public class DeliveryBenchmark
+{
+    private static final int DEPTH = 3;
+    private static final int FAN_OUT = 6;
+    private static final int ARTICLES = 20;
+    private static final int IMAGES = 5;
+    private static final int DESERIALIZE_BATCH = 20;
+    private static final int DESERIALIZE_LARGE_BATCH = 1000;
+
+    private final GeneratedSite site;
+    private final FakeWebScriptCaller caller;
+    private final WebSiteImpl webSite;
+    private final AssetFactoryWebscriptImpl webscriptAssetFactory;
+    private final CachingAssetFactoryImpl cachingAssetFactory;
+    private final CachingAssetFactoryImpl revalidatingAssetFactory;
+    private final SectionFactoryWebscriptImpl sectionFactory;
+    private final UrlUtilsImpl urlUtils;
+    private final List<Asset> assets;
+    private final Map<AssetFormat, byte[]> assetResponses = new EnumMap<AssetFormat, byte[]>(AssetFormat.class);
+    private final Map<AssetFormat, byte[]> largeAssetResponses = new EnumMap<AssetFormat, byte[]>(AssetFormat.class);
+
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String resultsFile = args.length > 2 && args[2].length() > 0 ? args[2] : null;
+        File responsesDir = args.length > 3 ? new File(args[3]) : null;
+
+        DeliveryBenchmark benchmark = new DeliveryBenchmark(responsesDir);
+        JSONObject results = benchmark.run(threads, seconds);
+        if (resultsFile != null)
+        {
+            Writer out = new OutputStreamWriter(new FileOutputStream(resultsFile), "UTF-8");
+            try
+            {
+                out.write(results.toString(2));
+            }
+            finally
+            {
+                out.close();
+            }
+            System.out.println("Results written to " + resultsFile);
+        }
+    }
+
+    /**
+     * @param responsesDir
+     *            directory of asset responses written by the repository module's AssetSerializerBenchmark, or null
+     *            to skip the deserialisation scenarios
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public DeliveryBenchmark(File responsesDir) throws Exception
+    {
+        site = new GeneratedSite(DEPTH, FAN_OUT, ARTICLES, IMAGES, 42L);
+        caller = new FakeWebScriptCaller(site);
+
+        sectionFactory = new SectionFactoryWebscriptImpl();
+        sectionFactory.setWebscriptCaller(caller);
+        sectionFactory.setSectionsRefreshAfter(3600);
+
+        webscriptAssetFactory = new AssetFactoryWebscriptImpl();
+        webscriptAssetFactory.setWebscriptCaller(caller);
+        webscriptAssetFactory.setSectionFactory(sectionFactory);
+
+        cachingAssetFactory = new CachingAssetFactoryImpl();
+        cachingAssetFactory.setDelegate(webscriptAssetFactory);
+        cachingAssetFactory.setCache((SimpleCache) new MapCache());
+        cachingAssetFactory.setMinimumCacheSeconds(3600);
+
+        revalidatingAssetFactory = new CachingAssetFactoryImpl();
+        revalidatingAssetFactory.setDelegate(webscriptAssetFactory);
+        revalidatingAssetFactory.setCache((SimpleCache) new MapCache());
+        revalidatingAssetFactory.setMinimumCacheSeconds(0);
+
+        sectionFactory.setAssetFactory(cachingAssetFactory);
+
+        webSite = new WebSiteImpl(site.getRootSectionId(), "localhost", 8080, 3600);
+        webSite.setSectionFactory(sectionFactory);
+        webSite.setConfig(new HashMap<String, String>());
+
+        urlUtils = new UrlUtilsImpl();
+        urlUtils.setCmisIdEncoder(new AlfrescoCmisIdEncoderImpl());
+
+        WebSiteService.setThreadWebSite(webSite);
+        assets = webscriptAssetFactory.getAssetsById(site.getAssetIds());
+
+        if (responsesDir != null)
+        {
+            for (AssetFormat format : AssetFormat.values())
+            {
+                assetResponses.put(format, readResponse(responsesDir, DESERIALIZE_BATCH, format));
+                largeAssetResponses.put(format, readResponse(responsesDir, DESERIALIZE_LARGE_BATCH, format));
+            }
+        }
+    }
+
+    private static byte[] readResponse(File dir, int count, AssetFormat format) throws Exception
+    {
+        InputStream in = new FileInputStream(new File(dir, "assets-" + count + "." + format));
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public JSONObject run(int threads, int seconds) throws Exception
+    {
+        System.out.println("Site has " + site.getSectionCount() + " sections and " + site.getAssetCount() +
+                " assets, running with " + threads + " threads for " + seconds + "s per scenario");
+        if (assetResponses.isEmpty())
+        {
+            System.out.println("  No responses directory named, skipping the deserialisation scenarios");
+        }
+        JSONObject responseSizes = new JSONObject();
+        for (AssetFormat format : assetResponses.keySet())
+        {
+            int size = assetResponses.get(format).length;
+            int largeSize = largeAssetResponses.get(format).length;
+            System.out.println(String.format("  %-6s response: %8d bytes for %d assets, %8d bytes for %d assets",
+                    format, size, DESERIALIZE_BATCH, largeSize, DESERIALIZE_LARGE_BATCH));
+            responseSizes.put(format.name(), new JSONArray(Arrays.asList(size, largeSize)));
+        }
+        System.out.println(String.format("  %-32s %12s %10s %10s %10s %12s %10s", "scenario", "ops/s",
+                "p50 us", "p99 us", "max us", "bytes/op", "calls/op"));
+
+        final List<String> assetIds = site.getAssetIds();
+        final List<String> assetPaths = site.getAssetPaths();
+        final List<String[]> sectionPaths = site.getSectionPaths();
+        final String rootSectionId = site.getRootSectionId();
+        final List<String> shortUrls = new ArrayList<String>(assets.size());
+        for (Asset asset : assets)
+        {
+            shortUrls.add(urlUtils.getShortUrl(asset));
+        }
+
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        for (final AssetFormat format : assetResponses.keySet())
+        {
+            // The XML scenarios keep their original names so that results can be compared across builds
+            String suffix = (format == AssetFormat.xml) ? "" : "." + format;
+            final byte[] response = assetResponses.get(format);
+            final byte[] largeResponse = largeAssetResponses.get(format);
+            scenarios.add(new Scenario("deserialize." + DESERIALIZE_BATCH + "assets" + suffix)
+            {
+                public Object execute(Random random) throws Exception
+                {
+                    return new AssetDeserializerImpl().deserialize(new ByteArrayInputStream(response));
+                }
+            });
+            scenarios.add(new Scenario("deserialize." + DESERIALIZE_LARGE_BATCH + "assets" + suffix)
+            {
+                public Object execute(Random random) throws Exception
+                {
+                    return new AssetDeserializerImpl().deserialize(new ByteArrayInputStream(largeResponse));
+                }
+            });
+            scenarios.add(new Scenario("stream." + DESERIALIZE_LARGE_BATCH + "assets" + suffix)
+            {
+                public Object execute(Random random) throws Exception
+                {
+                    // Each asset is dropped as soon as it has been read, as a caller consuming a stream would
+                    AssetReader reader = format.createReader(new ByteArrayInputStream(largeResponse));
+                    Object last = null;
+                    while (reader.hasNext())
+                    {
+                        last = reader.next();
+                    }
+                    reader.close();
+                    return last;
+                }
+            });
+        }
+        scenarios.add(new Scenario("assetFactory.uncached")
+        {
+            public Object execute(Random random)
+            {
+                return webscriptAssetFactory.getAssetById(pick(random, assetIds));
+            }
+        });
+        scenarios.add(new Scenario("assetFactory.cached")
+        {
+            public Object execute(Random random)
+            {
+                return cachingAssetFactory.getAssetById(pick(random, assetIds));
+            }
+        });
+        scenarios.add(new Scenario("assetFactory.revalidating")
+        {
+            public Object execute(Random random)
+            {
+                return revalidatingAssetFactory.getAssetById(pick(random, assetIds));
+            }
+        });
+        scenarios.add(new Scenario("sectionFromPathSegments")
+        {
+            public Object execute(Random random)
+            {
+                return sectionFactory.getSectionFromPathSegments(rootSectionId, pick(random, sectionPaths));
+            }
+        });
+        scenarios.add(new Scenario("webSite.resolvePath")
+        {
+            public Object execute(Random random)
+            {
+                return webSite.resolvePath(pick(random, assetPaths));
+            }
+        });
+        scenarios.add(new Scenario("urlUtils.getUrl")
+        {
+            public Object execute(Random random)
+            {
+                return urlUtils.getUrl(pick(random, assets));
+            }
+        });
+        scenarios.add(new Scenario("urlUtils.getAssetIdFromShortUrl")
+        {
+            public Object execute(Random random)
+            {
+                return urlUtils.getAssetIdFromShortUrl(pick(random, shortUrls));
+            }
+        });
+
+        JSONArray scenarioResults = new JSONArray();
+        for (Scenario scenario : scenarios)
+        {
+            // Warm up with the same number of threads, then measure
+            drive(scenario, threads, Math.max(1, seconds / 2) * 1000L);
+            Result result = drive(scenario, threads, seconds * 1000L);
+            result.print();
+            scenarioResults.put(result.toJSON());
+        }
+
+        JSONObject results = new JSONObject();
+        results.put("timestamp", new Date().getTime());
+        results.put("javaVersion", System.getProperty("java.version"));
+        results.put("threads", threads);
+        results.put("secondsPerScenario", seconds);
+        results.put("sections", site.getSectionCount());
+        results.put("assets", site.getAssetCount());
+        results.put("responseBytes", responseSizes);
+        results.put("scenarios", scenarioResults);
+        return results;
+    }
+
+    private Result drive(final Scenario scenario, int threads, final long durationMillis) throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Recorder[] recorders = new Recorder[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            final Recorder recorder = new Recorder(i);
+            recorders[i] = recorder;
+            workers[i] = new Thread(scenario.name + "-" + i)
+            {
+                public void run()
+                {
+                    WebSiteService.setThreadWebSite(webSite);
+                    try
+                    {
+                        start.await();
+                        recorder.record(scenario, durationMillis);
+                    }
+                    catch (Exception ex)
+                    {
+                        recorder.failure = ex;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        long callsBefore = caller.getCallCount();
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        Result result = new Result(scenario.name, threads, elapsed, caller.getCallCount() - callsBefore);
+        for (Recorder recorder : recorders)
+        {
+            if (recorder.failure != null)
+            {
+                throw new RuntimeException("Scenario " + scenario.name + " failed", recorder.failure);
+            }
+            result.add(recorder);
+        }
+        return result;
+    }
+
+    private static <T> T pick(Random random, List<T> list)
+    {
+        return list.get(random.nextInt(list.size()));
+    }
+
+    private static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+    private abstract static class Scenario
+    {
+        final String name;
+
+        Scenario(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Perform one operation. The result is returned so that the work can't be optimised away.
+         */
+        public abstract Object execute(Random random) throws Exception;
+    }
+
+    /**
+     * Drives a scenario on one thread, recording the latency of every operation.
+     */
+    private static class Recorder
+    {
+        final Random random;
+        final Histogram latencies = new Histogram();
+        long allocated = -1L;
+        int nonNull;
+        Exception failure;
+
+        Recorder(int seed)
+        {
+            random = new Random(seed);
+        }
+
+        void record(Scenario scenario, long durationMillis) throws Exception
+        {
+            long allocatedBefore = allocatedBytes();
+            long deadline = System.nanoTime() + durationMillis * 1000000L;
+            long now = System.nanoTime();
+            while (now < deadline)
+            {
+                if (scenario.execute(random) != null)
+                {
+                    nonNull++;
+                }
+                long end = System.nanoTime();
+                latencies.record(end - now);
+                now = end;
+            }
+            if (allocatedBefore >= 0)
+            {
+                allocated = allocatedBytes() - allocatedBefore;
+            }
+        }
+    }
+
+    private static class Result
+    {
+        final String name;
+        final int threads;
+        final long elapsedNanos;
+        final long calls;
+        final Histogram latencies = new Histogram();
+        long allocated;
+        int nonNull;
+
+        Result(String name, int threads, long elapsedNanos, long calls)
+        {
+            this.name = name;
+            this.threads = threads;
+            this.elapsedNanos = elapsedNanos;
+            this.calls = calls;
+        }
+
+        void add(Recorder recorder)
+        {
+            latencies.add(recorder.latencies);
+            allocated = (allocated < 0 || recorder.allocated < 0) ? -1L : allocated + recorder.allocated;
+            nonNull += recorder.nonNull;
+        }
+
+        long ops()
+        {
+            return latencies.count;
+        }
+
+        double opsPerSecond()
+        {
+            return ops() * 1e9 / elapsedNanos;
+        }
+
+        double percentileMicros(double percentile)
+        {
+            return latencies.percentile(percentile) / 1000.0;
+        }
+
+        double perOp(long total)
+        {
+            return ops() == 0 ? 0.0 : (double) total / ops();
+        }
+
+        void print()
+        {
+            System.out.println(String.format("  %-32s %12.0f %10.2f %10.2f %10.2f %12.0f %10.3f", name,
+                    opsPerSecond(), percentileMicros(50), percentileMicros(99), percentileMicros(100),
+                    perOp(allocated), perOp(calls)));
+        }
+
+        JSONObject toJSON() throws Exception
+        {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("threads", threads);
+            json.put("operations", ops());
+            json.put("nonNullResults", nonNull);
+            json.put("opsPerSecond", opsPerSecond());
+            json.put("p50Micros", percentileMicros(50));
+            json.put("p99Micros", percentileMicros(99));
+            json.put("maxMicros", percentileMicros(100));
+            json.put("allocatedBytesPerOp", perOp(allocated));
+            json.put("allocatedBytesPerSecond", allocated < 0 ? -1.0 : allocated * 1e9 / elapsedNanos);
+            json.put("webscriptCallsPerOp", perOp(calls));
+            return json;
+        }
+    }
+
+    /**
+     * Latency histogram of a fixed size, so that recording doesn't allocate. Each power of two range is split into
+     * 64 buckets, which keeps the reported percentiles within 1.6% of the recorded values. The maximum is exact.
+     */
+    private static class Histogram
+    {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        final long[] buckets = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+        long count;
+        long max;
+
+        void record(long value)
+        {
+            value = Math.max(0L, value);
+            buckets[index(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        void add(Histogram other)
+        {
+            for (int i = 0; i < buckets.length; i++)
+            {
+                buckets[i] += other.buckets[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * @return the highest value in the bucket holding the given percentile, capped at the maximum recorded
+         */
+        long percentile(double percentile)
+        {
+            if (count == 0)
+            {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++)
+            {
+                seen += buckets[i];
+                if (seen >= rank)
+                {
+                    return Math.min(max, highestValue(i));
+                }
+            }
+            return max;
+        }
+
+        private static int index(long value)
+        {
+            if (value < SUB_BUCKETS)
+            {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        private static long highestValue(int index)
+        {
+            if (index < SUB_BUCKETS)
+            {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Stands in for the EHCache used in a deployed web application.
+     */
+    private static class MapCache implements SimpleCache<String, Object>
+    {
+        private final Map<String, Object> map = new ConcurrentHashMap<String, Object>();
+
+        public boolean contains(String key)
+        {
+            return map.containsKey(key);
+        }
+
+        public Collection<String> getKeys()
+        {
+            return map.keySet();
+        }
+
+        public Object get(String key)
+        {
+            return map.get(key);
+        }
+
+        public void put(String key, Object value)
+        {
+            map.put(key, value);
+        }
+
+        public void remove(String key)
+        {
+            map.remove(key);
+        }
+
+        public void clear()
+        {
+            map.clear();
+        }
+    }
+}
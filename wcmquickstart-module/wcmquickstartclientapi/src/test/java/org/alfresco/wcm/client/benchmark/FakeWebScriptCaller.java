@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.wcm.client.impl.WebScriptCaller;
+import org.alfresco.wcm.client.impl.WebscriptParam;
+import org.alfresco.wcm.client.impl.WebscriptResponseHandler;
+import org.json.JSONObject;
+
+/**
+ * A {@link WebScriptCaller} that answers the section and asset web scripts from a {@link GeneratedSite}
+ * held in memory, so that the client API can be measured without a repository. Every response is
+ * rendered and parsed in full, just as it would be over HTTP, and the number of calls is counted. Responses
+ * are always XML, whatever format is requested; the other formats are measured by DeliveryBenchmark against
+ * responses written by the repository's own serializers.
+ */
+public class FakeWebScriptCaller implements WebScriptCaller
+{
+    private final GeneratedSite site;
+    private final AtomicLong calls = new AtomicLong();
+
+    public FakeWebScriptCaller(GeneratedSite site)
+    {
+        this.site = site;
+    }
+
+    /**
+     * @return the number of web script calls made so far
+     */
+    public long getCallCount()
+    {
+        return calls.get();
+    }
+
+    @Override
+    public String getTicket(String user, String password)
+    {
+        return null;
+    }
+
+    @Override
+    public JSONObject getJsonObject(String servicePath, List<WebscriptParam> params)
+    {
+        calls.incrementAndGet();
+        return new JSONObject();
+    }
+
+    @Override
+    public JSONObject getJsonObject(String servicePath, WebscriptParam... params)
+    {
+        return getJsonObject(servicePath, Arrays.asList(params));
+    }
+
+    @Override
+    public void get(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params)
+    {
+        post(servicePath, handler, params);
+    }
+
+    @Override
+    public void get(String servicePath, WebscriptResponseHandler handler, WebscriptParam... params)
+    {
+        post(servicePath, handler, Arrays.asList(params));
+    }
+
+    @Override
+    public void post(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params)
+    {
+        calls.incrementAndGet();
+        try
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+            Writer out = new OutputStreamWriter(buffer, "UTF-8");
+            if ("websection".equals(servicePath))
+            {
+                site.writeSectionTree(out, param(params, "sectionId"));
+            }
+            else if ("webasset".equals(servicePath))
+            {
+                String nodeName = param(params, "nodename");
+                if (nodeName != null)
+                {
+                    site.writeSectionAsset(out, param(params, "sectionid"), nodeName);
+                }
+                else
+                {
+                    List<String> ids = new ArrayList<String>();
+                    for (WebscriptParam param : params)
+                    {
+                        if ("noderef".equals(param.getName()))
+                        {
+                            ids.add(param.getValue());
+                        }
+                    }
+                    site.writeAssets(out, ids, "true".equals(param(params, "modifiedTimeOnly")));
+                }
+            }
+            else
+            {
+                site.writeAssets(out, new ArrayList<String>(), false);
+            }
+            out.flush();
+            handler.handleResponse(new ByteArrayInputStream(buffer.toByteArray()));
+        }
+        catch (IOException ex)
+        {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private String param(List<WebscriptParam> params, String name)
+    {
+        for (WebscriptParam param : params)
+        {
+            if (name.equals(param.getName()))
+            {
+                return param.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An in-memory web site used by the delivery benchmarks. The section tree is generated with a fixed
+ * depth and fan-out, and every section holds an index page, a number of articles and a number of images.
+ * The site can render itself in the XML format produced by the repository's AssetSerializerXmlImpl so that
+ * it can stand in for the repository behind {@link FakeWebScriptCaller}.
+ */
+public class GeneratedSite
+{
+    public static final String ID_PREFIX = "workspace://SpacesStore/";
+
+    private static final String[] WORDS = { "alfresco", "quick", "start", "section", "news", "article",
+            "release", "product", "customer", "partner", "event", "blog", "report", "market", "service",
+            "support", "global", "digital", "content", "delivery", "platform", "cloud", "mobile", "enterprise" };
+
+    private final Random random;
+    private final Date modified = new Date();
+    private final String rootId;
+    private final Map<String, Node> sectionsById = new HashMap<String, Node>();
+    private final Map<String, Node> assetsById = new HashMap<String, Node>();
+    private final Map<String, Node> assetsBySectionAndName = new HashMap<String, Node>();
+    private final List<String> assetIds = new ArrayList<String>();
+    private final List<String> assetPaths = new ArrayList<String>();
+    private final List<String[]> sectionPaths = new ArrayList<String[]>();
+    private int nextId = 0;
+
+    /**
+     * @param depth
+     *            the number of section levels below the web root
+     * @param fanOut
+     *            the number of child sections in each section
+     * @param articles
+     *            the number of articles in each section, in addition to its index page
+     * @param images
+     *            the number of images in each section
+     * @param seed
+     *            random seed, so that repeated runs generate the same site
+     */
+    public GeneratedSite(int depth, int fanOut, int articles, int images, long seed)
+    {
+        random = new Random(seed);
+        Node root = new Node(newId(), "ws:webroot", "root", null);
+        rootId = root.id;
+        sectionsById.put(root.id, root);
+        populate(root, "/", new String[0], depth, fanOut, articles, images);
+    }
+
+    private void populate(Node section, String path, String[] segments, int depth, int fanOut, int articles,
+            int images)
+    {
+        sectionPaths.add(segments);
+        addAsset(section, path, "ws:indexPage", "index.html", "text/html");
+        for (int i = 0; i < articles; i++)
+        {
+            addAsset(section, path, "ws:article", "article-" + i + ".html", "text/html");
+        }
+        for (int i = 0; i < images; i++)
+        {
+            addAsset(section, path, "ws:image", "image-" + i + ".jpg", "image/jpeg");
+        }
+        if (depth > 0)
+        {
+            for (int i = 0; i < fanOut; i++)
+            {
+                Node child = new Node(newId(), "ws:section", words(1) + "-" + i, section.id);
+                section.children.add(child);
+                sectionsById.put(child.id, child);
+                String[] childSegments = new String[segments.length + 1];
+                System.arraycopy(segments, 0, childSegments, 0, segments.length);
+                childSegments[segments.length] = child.name;
+                populate(child, path + child.name + "/", childSegments, depth - 1, fanOut, articles, images);
+            }
+        }
+    }
+
+    private void addAsset(Node section, String path, String type, String name, String mimeType)
+    {
+        Node asset = new Node(newId(), type, name, section.id);
+        asset.mimeType = mimeType;
+        asset.size = 1024 + random.nextInt(64 * 1024);
+        assetsById.put(asset.id, asset);
+        assetsBySectionAndName.put(section.id + "/" + name, asset);
+        assetIds.add(asset.id);
+        assetPaths.add(path + name);
+    }
+
+    private String newId()
+    {
+        return ID_PREFIX + "00000000-0000-0000-0000-" + String.format("%012d", nextId++);
+    }
+
+    private String words(int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    public String getRootSectionId()
+    {
+        return rootId;
+    }
+
+    public int getSectionCount()
+    {
+        return sectionsById.size();
+    }
+
+    public int getAssetCount()
+    {
+        return assetsById.size();
+    }
+
+    public List<String> getAssetIds()
+    {
+        return assetIds;
+    }
+
+    /**
+     * @return the path of every asset in the site, such as "/news-0/article-1.html"
+     */
+    public List<String> getAssetPaths()
+    {
+        return assetPaths;
+    }
+
+    /**
+     * @return the path segments of every section in the site, including the empty path of the root
+     */
+    public List<String[]> getSectionPaths()
+    {
+        return sectionPaths;
+    }
+
+    /**
+     * Write the identified section and all of its descendants, parents before children.
+     */
+    public void writeSectionTree(Writer out, String sectionId) throws IOException
+    {
+        startAssets(out);
+        LinkedList<Node> queue = new LinkedList<Node>();
+        Node top = sectionsById.get(sectionId);
+        if (top != null)
+        {
+            queue.add(top);
+        }
+        while (!queue.isEmpty())
+        {
+            Node section = queue.removeFirst();
+            writeNode(out, section, false);
+            queue.addAll(section.children);
+        }
+        out.write("</assets>");
+    }
+
+    /**
+     * Write the identified assets. Unknown ids are skipped, as the repository does.
+     */
+    public void writeAssets(Writer out, Collection<String> ids, boolean modifiedTimeOnly) throws IOException
+    {
+        startAssets(out);
+        for (String id : ids)
+        {
+            Node asset = assetsById.get(id);
+            if (asset != null)
+            {
+                writeNode(out, asset, modifiedTimeOnly);
+            }
+        }
+        out.write("</assets>");
+    }
+
+    /**
+     * Write the named asset in the identified section, if there is one.
+     */
+    public void writeSectionAsset(Writer out, String sectionId, String name) throws IOException
+    {
+        startAssets(out);
+        Node asset = assetsBySectionAndName.get(sectionId + "/" + name);
+        if (asset != null)
+        {
+            writeNode(out, asset, false);
+        }
+        out.write("</assets>");
+    }
+
+    private void startAssets(Writer out) throws IOException
+    {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<assets>");
+    }
+
+    private void writeNode(Writer out, Node node, boolean modifiedTimeOnly) throws IOException
+    {
+        out.write("<asset id=\"");
+        out.write(node.id);
+        out.write("\" type=\"");
+        out.write(node.type);
+        out.write("\">");
+        writeValue(out, "cm:modified", "time", new SimpleDateFormat("yyyyMMdd-HH:mm:ss.SSSZ").format(modified));
+        if (!modifiedTimeOnly)
+        {
+            writeText(out, "cm:name", node.name);
+            writeText(out, "cm:title", node.title);
+            writeText(out, "cm:description", node.description);
+            if (node.mimeType == null)
+            {
+                if (node.parentId != null)
+                {
+                    writeValue(out, "ws:parentId", "id", node.parentId);
+                }
+            }
+            else
+            {
+                out.write("<property name=\"ws:parentSections\"><list><value type=\"id\">");
+                out.write(node.parentId);
+                out.write("</value></list></property>");
+                out.write("<property name=\"cm:content\"><value type=\"content\"><content mime=\"");
+                out.write(node.mimeType);
+                out.write("\" size=\"");
+                out.write(Long.toString(node.size));
+                out.write("\" enc=\"UTF-8\"></content></value></property>");
+            }
+        }
+        out.write("</asset>");
+    }
+
+    /**
+     * Text is written as CDATA, as AssetSerializerXmlImpl does
+     */
+    private void writeText(Writer out, String name, String value) throws IOException
+    {
+        writeValue(out, name, "text", "<![CDATA[" + value + "]]>");
+    }
+
+    private void writeValue(Writer out, String name, String type, String value) throws IOException
+    {
+        out.write("<property name=\"");
+        out.write(name);
+        out.write("\"><value type=\"");
+        out.write(type);
+        out.write("\">");
+        out.write(value);
+        out.write("</value></property>");
+    }
+
+    private class Node
+    {
+        final String id;
+        final String type;
+        final String name;
+        final String parentId;
+        final String title;
+        final String description;
+        final List<Node> children = new ArrayList<Node>();
+        String mimeType;
+        long size;
+
+        Node(String id, String type, String name, String parentId)
+        {
+            this.id = id;
+            this.type = type;
+            this.name = name;
+            this.parentId = parentId;
+            this.title = words(4);
+            this.description = words(20);
+        }
+    }
+}
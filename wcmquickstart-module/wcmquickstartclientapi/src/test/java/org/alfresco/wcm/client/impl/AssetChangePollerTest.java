@@ -0,0 +1,253 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.alfresco.wcm.client.Asset;
+import org.alfresco.wcm.client.AssetFactory;
+import org.alfresco.wcm.client.impl.cache.SimpleCache;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class AssetChangePollerTest extends TestCase
+{
+    private static final String LOG_ID = "log-1";
+
+    private FakeAssetChangeFeed feed;
+    private AssetChangePoller poller;
+    private AssetFactory delegate;
+    private MapCache cache;
+    private CachingAssetFactoryImpl assetFactory;
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        feed = new FakeAssetChangeFeed();
+        poller = new AssetChangePoller();
+        poller.setFeed(feed);
+        poller.setPollInterval(0L);
+
+        delegate = mock(AssetFactory.class);
+        Date modified = new Date();
+        for (String id : Arrays.asList("a", "b", "c"))
+        {
+            Asset asset = mock(Asset.class);
+            when(asset.getId()).thenReturn(id);
+            when(asset.getProperty(Asset.PROPERTY_MODIFIED_TIME)).thenReturn(modified);
+            when(delegate.getAssetById(id, false)).thenReturn(asset);
+            when(delegate.getModifiedTimeOfAsset(id)).thenReturn(modified);
+        }
+
+        cache = new MapCache();
+        assetFactory = new CachingAssetFactoryImpl();
+        assetFactory.setDelegate(delegate);
+        // The cache entry type is private to the factory
+        assetFactory.setCache((SimpleCache) cache);
+        assetFactory.setMinimumCacheSeconds(0);
+        assetFactory.setAssetChangePoller(poller);
+    }
+
+    public void testChangedAssetsAreEvicted()
+    {
+        poller.poll();
+        assertTrue(poller.isLive());
+
+        assetFactory.getAssetById("a");
+        assetFactory.getAssetById("b");
+        assetFactory.getAssetById("c");
+        assertEquals(3, cache.map.size());
+
+        feed.changes.add(new AssetChanges(LOG_ID, 2L, false, Arrays.asList("b")));
+        poller.poll();
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        // The next poll carries on from where this one stopped
+        poller.poll();
+        assertEquals(2L, feed.lastSince);
+
+        // The next request for the evicted asset goes to the repository
+        assetFactory.getAssetById("b");
+        verify(delegate, times(2)).getAssetById("b", false);
+        verify(delegate, times(1)).getAssetById("a", false);
+    }
+
+    public void testBacklogIsDrained()
+    {
+        poller.poll();
+        assetFactory.getAssetById("a");
+        assetFactory.getAssetById("b");
+        assetFactory.getAssetById("c");
+
+        feed.changes.add(new AssetChanges(LOG_ID, 2L, false, true, Arrays.asList("a")));
+        feed.changes.add(new AssetChanges(LOG_ID, 3L, false, true, Collections.<String> emptyList()));
+        feed.changes.add(new AssetChanges(LOG_ID, 4L, false, Arrays.asList("c")));
+        poller.poll();
+        assertEquals(Collections.singleton("b"), cache.map.keySet());
+        assertTrue(feed.changes.isEmpty());
+    }
+
+    public void testResetDiscardsEverything()
+    {
+        poller.poll();
+        assetFactory.getAssetById("a");
+        assetFactory.getAssetById("b");
+
+        feed.changes.add(new AssetChanges("log-2", 0L, true, null));
+        poller.poll();
+        assertTrue(cache.map.isEmpty());
+    }
+
+    public void testAssetEvictedWhileLoadingIsNotCached()
+    {
+        final Asset a = delegate.getAssetById("a", false);
+        when(delegate.getAssetById("a", false)).thenAnswer(new Answer<Asset>()
+        {
+            @Override
+            public Asset answer(InvocationOnMock invocation)
+            {
+                assetFactory.assetsChanged(Collections.singleton("a"));
+                return a;
+            }
+        });
+        assertSame(a, assetFactory.getAssetById("a"));
+        assertFalse(cache.contains("a"));
+
+        final Asset b = delegate.getAssetById("b", false);
+        final Asset c = delegate.getAssetById("c", false);
+        when(delegate.getAssetsById(Arrays.asList("b", "c"), false)).thenAnswer(new Answer<List<Asset>>()
+        {
+            @Override
+            public List<Asset> answer(InvocationOnMock invocation)
+            {
+                assetFactory.assetsChanged(Collections.singleton("c"));
+                return Arrays.asList(b, c);
+            }
+        });
+        assertEquals(Arrays.asList(b, c), assetFactory.getAssetsById(Arrays.asList("b", "c")));
+        assertTrue(cache.contains("b"));
+        assertFalse(cache.contains("c"));
+
+        // Once the load has finished, the asset is cached again
+        when(delegate.getAssetById("a", false)).thenReturn(a);
+        assetFactory.getAssetById("a");
+        assertTrue(cache.contains("a"));
+    }
+
+    public void testRevalidationOnlyWhenFeedIsDown()
+    {
+        poller.poll();
+        assetFactory.getAssetById("a");
+        assetFactory.getAssetById("a");
+        // The feed is live, so the cached asset isn't revalidated
+        verify(delegate, never()).getModifiedTimeOfAsset("a");
+
+        feed.failing = true;
+        poller.poll();
+        assertFalse(poller.isLive());
+        assetFactory.getAssetById("a");
+        verify(delegate, times(1)).getModifiedTimeOfAsset("a");
+        verify(delegate, times(1)).getAssetById("a", false);
+    }
+
+    private static class FakeAssetChangeFeed implements AssetChangeFeed
+    {
+        private final LinkedList<AssetChanges> changes = new LinkedList<AssetChanges>();
+        private boolean failing = false;
+        private long lastSince = -1L;
+        private long sequence = 1L;
+
+        @Override
+        public AssetChanges getChanges(String logId, long since)
+        {
+            if (failing)
+            {
+                throw new IllegalStateException("Repository unavailable");
+            }
+            lastSince = since;
+            if (logId == null)
+            {
+                return new AssetChanges(LOG_ID, sequence, true, null);
+            }
+            if (changes.isEmpty())
+            {
+                return new AssetChanges(logId, since, false, null);
+            }
+            AssetChanges next = changes.removeFirst();
+            sequence = next.getSequence();
+            return next;
+        }
+    }
+
+    private static class MapCache implements SimpleCache<String, Object>
+    {
+        private final Map<String, Object> map = new HashMap<String, Object>();
+
+        public boolean contains(String key)
+        {
+            return map.containsKey(key);
+        }
+
+        public Collection<String> getKeys()
+        {
+            return map.keySet();
+        }
+
+        public Object get(String key)
+        {
+            return map.get(key);
+        }
+
+        public void put(String key, Object value)
+        {
+            map.put(key, value);
+        }
+
+        public void remove(String key)
+        {
+            map.remove(key);
+        }
+
+        public void clear()
+        {
+            map.clear();
+        }
+    }
+}
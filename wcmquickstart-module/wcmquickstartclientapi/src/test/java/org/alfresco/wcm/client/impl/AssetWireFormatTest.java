@@ -0,0 +1,454 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.alfresco.wcm.client.Asset;
+import org.alfresco.wcm.client.exception.AssetDeserializationException;
+import org.json.JSONObject;
+
+/**
+ * Tests {@link AssetXmlReader}, {@link AssetJsonReader} and {@link AssetBinaryReader} against the golden responses 
+ * written by the repository's own serializers, held by the repository module under 
+ * src/test/resources/asset-responses (see AssetResponseFixtures there), and that every {@link AssetFormat} yields 
+ * the same assets.
+ */
+public class AssetWireFormatTest extends TestCase
+{
+    private static final String ARTICLE_ID = "workspace://SpacesStore/0b5c3e2a-9f41-4c7e-8d2b-6a1e4f3c2d01";
+    private static final String IMAGE_ID = "workspace://SpacesStore/0b5c3e2a-9f41-4c7e-8d2b-6a1e4f3c2d02";
+    private static final String SECTION_ID = "workspace://SpacesStore/7d1c1a37-0d3b-4f0e-9a4c-3b0f2b6f1a01";
+    private static final String OTHER_SECTION_ID = "workspace://SpacesStore/7d1c1a37-0d3b-4f0e-9a4c-3b0f2b6f1a02";
+
+    public void testGoldenResponseValues() throws Exception
+    {
+        for (AssetFormat format : AssetFormat.values())
+        {
+            AssetReader reader = AssetFormat.openReader(new ByteArrayInputStream(readResponse(format)));
+            assertEquals(format.name(), format.createReader(new ByteArrayInputStream(new byte[0])).getClass(),
+                    reader.getClass());
+            TreeMap<String, Serializable> article = reader.next();
+            TreeMap<String, Serializable> image = reader.next();
+            assertFalse(format.name(), reader.hasNext());
+            assertEquals(format.name(), 2L, reader.getHeader().get("totalResults"));
+
+            assertEquals(format.name(), ARTICLE_ID, article.get("id"));
+            assertEquals(format.name(), "ws:article", article.get("type"));
+            assertEquals(format.name(), "Caf\u00e9 <menu> & \"specials\".html", article.get("cm:name"));
+            assertEquals(format.name(), "Line one\nline two\ttabbed \u2014 \ud83d\ude00", article.get("cm:title"));
+            assertTrue(format.name(), article.containsKey("cm:description"));
+            assertNull(format.name(), article.get("cm:description"));
+            assertEquals(format.name(), new Date(1302002042054L), article.get("cm:modified"));
+            assertEquals(format.name(), 6737436288L, article.get("cm:sizeCurrent"));
+            assertEquals(format.name(), Arrays.asList(SECTION_ID, OTHER_SECTION_ID), article.get("ws:parentSections"));
+            assertEquals(format.name(), Boolean.FALSE, article.get("ws:excludeFromNavigation"));
+            Map<?, ?> feedbackConfig = (Map<?, ?>) article.get("ws:feedbackConfig");
+            assertEquals(format.name(), 2, feedbackConfig.size());
+            assertEquals(format.name(), "comment", feedbackConfig.get("ws:feedbackType"));
+            assertEquals(format.name(), 4L, feedbackConfig.get("ws:rating"));
+            assertContent(format.name(), "text/html", 1234L, "UTF-8", article.get("cm:content"));
+            // System properties and tags are not sent
+            assertFalse(format.name(), article.containsKey("sys:node-dbid"));
+            assertFalse(format.name(), article.containsKey("cm:taggable"));
+            assertEquals(format.name(), 11, article.size());
+
+            assertEquals(format.name(), IMAGE_ID, image.get("id"));
+            assertEquals(format.name(), "ws:image", image.get("type"));
+            assertEquals(format.name(), "photo.jpg", image.get("cm:name"));
+            assertEquals(format.name(), new Date(1302002043000L), image.get("cm:modified"));
+            assertEquals(format.name(), Arrays.asList(SECTION_ID), image.get("ws:parentSections"));
+            assertEquals(format.name(), new ArrayList<Serializable>(), image.get("cm:categories"));
+            assertEquals(format.name(), Boolean.TRUE, image.get("ws:excludeFromNavigation"));
+            assertEquals(format.name(), 1024L, image.get("exif:pixelXDimension"));
+            assertEquals(format.name(), 0.004, image.get("exif:exposureTime"));
+            assertContent(format.name(), "image/jpeg", 48213L, "UTF-8", image.get("cm:content"));
+            assertEquals(format.name(), 10, image.size());
+            reader.close();
+        }
+    }
+
+    public void testFormatsReadTheSameAssets() throws Exception
+    {
+        List<TreeMap<String, Serializable>> expected = read(AssetFormat.xml);
+        assertEquals(2, expected.size());
+        for (AssetFormat format : AssetFormat.values())
+        {
+            List<TreeMap<String, Serializable>> assets = read(format);
+            assertEquals(format.name(), expected.size(), assets.size());
+            for (int i = 0; i < assets.size(); i++)
+            {
+                assertSameAsset(format.name(), expected.get(i), assets.get(i));
+            }
+        }
+    }
+
+    public void testWireFormatIsRequestedByTheAssetFactory() throws Exception
+    {
+        GoldenResponseCaller caller = new GoldenResponseCaller();
+        AssetFactoryWebscriptImpl xmlFactory = new AssetFactoryWebscriptImpl();
+        xmlFactory.setWebscriptCaller(caller);
+        AssetFactoryWebscriptImpl binaryFactory = new AssetFactoryWebscriptImpl();
+        binaryFactory.setWebscriptCaller(caller);
+        binaryFactory.setWireFormat("binary");
+        AssetFactoryWebscriptImpl jsonFactory = new AssetFactoryWebscriptImpl();
+        jsonFactory.setWebscriptCaller(caller);
+        jsonFactory.setWireFormat(" JSON ");
+
+        List<String> ids = Arrays.asList(ARTICLE_ID, IMAGE_ID);
+        List<Asset> expected = xmlFactory.getAssetsById(ids);
+        assertEquals(AssetFormat.xml, caller.requested);
+        List<Asset> binaryAssets = binaryFactory.getAssetsById(ids);
+        assertEquals(AssetFormat.binary, caller.requested);
+        List<Asset> jsonAssets = jsonFactory.getAssetsById(ids);
+        assertEquals(AssetFormat.json, caller.requested);
+        assertEquals(2, expected.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(ids.get(i), expected.get(i).getId());
+            assertEquals(expected.get(i).getId(), binaryAssets.get(i).getId());
+            assertEquals(expected.get(i).getName(), binaryAssets.get(i).getName());
+            assertEquals(expected.get(i).getProperty("cm:modified"), binaryAssets.get(i).getProperty("cm:modified"));
+            assertEquals(expected.get(i).getName(), jsonAssets.get(i).getName());
+            assertEquals(expected.get(i).getSize(), jsonAssets.get(i).getSize());
+        }
+        assertEquals("Line one\nline two\ttabbed \u2014 \ud83d\ude00", jsonAssets.get(0).getTitle());
+
+        try
+        {
+            xmlFactory.setWireFormat("yaml");
+            fail("Unknown formats should be rejected");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            //Expected
+        }
+    }
+
+    public void testJsonValues() throws Exception
+    {
+        String json = "{ \"assets\" : [ {\"header\":{\"totalResults\":[\"integer\",2]}},\n" +
+                "{\"id\":\"workspace://SpacesStore/a\",\"type\":\"cm:content\",\"properties\":{" +
+                "\"cm:name\":[\"text\",\"Quote \\\" slash \\\\ tab \\t \\u00e9\\u0041\"]," +
+                "\"cm:modified\":[\"time\",\"20110405-12:14:02.054+0100\"]," +
+                "\"my:long\":[\"integer\",-6737436288]," +
+                "\"my:double\":[\"number\",1.324352E14]," +
+                "\"my:nan\":[\"number\",\"NaN\"]," +
+                "\"my:bool\":[\"bool\",false]," +
+                "\"my:missing\":null," +
+                "\"my:ids\":[\"list\",[[\"id\",\"workspace://SpacesStore/b\"],null]]," +
+                "\"my:empty\":[\"list\",[]]," +
+                "\"my:map\":[\"map\",{\"my:nested\":[\"integer\",678]}]," +
+                "\"cm:content\":[\"content\",{\"mime\":\"text/html\",\"size\":1234,\"enc\":null}]" +
+                "}}]}";
+        AssetReader reader = AssetFormat.openReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        assertTrue(reader instanceof AssetJsonReader);
+        TreeMap<String, Serializable> asset = reader.next();
+        assertFalse(reader.hasNext());
+        assertEquals(2L, reader.getHeader().get("totalResults"));
+
+        assertEquals("workspace://SpacesStore/a", asset.get("id"));
+        assertEquals("cm:content", asset.get("type"));
+        assertEquals("Quote \" slash \\ tab \t éA", asset.get("cm:name"));
+        assertEquals(new Date(1302002042054L), asset.get("cm:modified"));
+        assertEquals(-6737436288L, asset.get("my:long"));
+        assertEquals(1.324352E14, asset.get("my:double"));
+        assertTrue(((Double) asset.get("my:nan")).isNaN());
+        assertEquals(Boolean.FALSE, asset.get("my:bool"));
+        assertTrue(asset.containsKey("my:missing"));
+        assertNull(asset.get("my:missing"));
+        assertEquals(Arrays.asList("workspace://SpacesStore/b", null), asset.get("my:ids"));
+        assertEquals(new ArrayList<Serializable>(), asset.get("my:empty"));
+        assertEquals(678L, ((Map<?, ?>) asset.get("my:map")).get("my:nested"));
+        ContentInfo content = (ContentInfo) asset.get("cm:content");
+        assertEquals("text/html", content.getMimeType());
+        assertEquals(1234L, content.getSize());
+        assertNull(content.getEncoding());
+    }
+
+    public void testBinaryValues() throws Exception
+    {
+        // Names are numbered from 0 in the order they are first sent and referred to by their number plus 1
+        BinaryResponse header = new BinaryResponse();
+        header.bytes(1).bytes(1).string("totalResults").bytes(3, 4);
+        BinaryResponse record = new BinaryResponse();
+        record.string("workspace://SpacesStore/a").bytes(2).string("cm:content").bytes(8);
+        // -6737436288 zigzag encoded
+        record.bytes(3).string("my:long").bytes(3).varint(2L * 6737436288L - 1);
+        record.bytes(4).string("my:double").bytes(4).longValue(Double.doubleToLongBits(1.324352E14));
+        record.bytes(5).string("my:bool").bytes(6);
+        record.bytes(6).string("my:missing").bytes(0);
+        record.bytes(7).string("cm:modified").bytes(7).longValue(1302002042054L);
+        record.bytes(8).string("my:ids").bytes(9, 2, 1).string("workspace://SpacesStore/b").bytes(0);
+        record.bytes(9).string("my:map").bytes(10, 1, 3).bytes(3).varint(678 * 2);
+        record.bytes(2).bytes(8, 10).string("text/html").varint(1234).bytes(0);
+        BinaryResponse response = new BinaryResponse();
+        response.bytes('W', 'Q', 'S', 'B', 1);
+        response.bytes('H').varint(header.size()).bytes(header.toByteArray());
+        response.bytes('A').varint(record.size()).bytes(record.toByteArray());
+        response.bytes('E');
+
+        AssetReader reader = AssetFormat.openReader(new ByteArrayInputStream(response.toByteArray()));
+        assertTrue(reader instanceof AssetBinaryReader);
+        TreeMap<String, Serializable> asset = reader.next();
+        assertFalse(reader.hasNext());
+        assertEquals(2L, reader.getHeader().get("totalResults"));
+
+        assertEquals("workspace://SpacesStore/a", asset.get("id"));
+        assertEquals("cm:content", asset.get("type"));
+        assertEquals(-6737436288L, asset.get("my:long"));
+        assertEquals(1.324352E14, asset.get("my:double"));
+        assertEquals(Boolean.TRUE, asset.get("my:bool"));
+        assertTrue(asset.containsKey("my:missing"));
+        assertNull(asset.get("my:missing"));
+        assertEquals(new Date(1302002042054L), asset.get("cm:modified"));
+        assertEquals(Arrays.asList("workspace://SpacesStore/b", null), asset.get("my:ids"));
+        // The nested property refers back to the name "my:long" by its index
+        assertEquals(678L, ((Map<?, ?>) asset.get("my:map")).get("my:long"));
+        ContentInfo content = (ContentInfo) asset.get("cm:content");
+        assertEquals("text/html", content.getMimeType());
+        assertEquals(1234L, content.getSize());
+        assertNull(content.getEncoding());
+    }
+
+    public void testTruncatedResponses() throws Exception
+    {
+        for (AssetFormat format : Arrays.asList(AssetFormat.json, AssetFormat.binary))
+        {
+            byte[] response = readResponse(format);
+            byte[] truncated = Arrays.copyOf(response, response.length - 10);
+
+            AssetReader reader = format.createReader(new ByteArrayInputStream(truncated));
+            assertNotNull(reader.next());
+            try
+            {
+                reader.next();
+                fail(format + ": the truncated asset should not be returned");
+            }
+            catch (AssetDeserializationException ex)
+            {
+                //Expected
+            }
+            assertFalse(reader.hasNext());
+        }
+
+        try
+        {
+            new AssetBinaryReader(new ByteArrayInputStream("WQSB\u0002E".getBytes("UTF-8"))).hasNext();
+            fail("Later versions of the binary format should be rejected");
+        }
+        catch (AssetDeserializationException ex)
+        {
+            //Expected
+        }
+    }
+
+    /**
+     * @return the golden response of the given format
+     */
+    private static byte[] readResponse(AssetFormat format) throws Exception
+    {
+        String name = "asset-responses/assets." + format;
+        InputStream in = AssetWireFormatTest.class.getClassLoader().getResourceAsStream(name);
+        assertNotNull("Missing " + name, in);
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private List<TreeMap<String, Serializable>> read(AssetFormat format) throws Exception
+    {
+        AssetDeserializerImpl deserializer = new AssetDeserializerImpl();
+        return deserializer.deserialize(new ByteArrayInputStream(readResponse(format)));
+    }
+
+    private void assertContent(String message, String mimeType, long size, String encoding, Serializable value)
+    {
+        ContentInfo content = (ContentInfo) value;
+        assertEquals(message, mimeType, content.getMimeType());
+        assertEquals(message, size, content.getSize());
+        assertEquals(message, encoding, content.getEncoding());
+    }
+
+    private void assertSameAsset(String message, TreeMap<String, Serializable> expected,
+            TreeMap<String, Serializable> actual)
+    {
+        assertEquals(message, expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Serializable> property : expected.entrySet())
+        {
+            Serializable value = actual.get(property.getKey());
+            if (property.getValue() instanceof ContentInfo)
+            {
+                ContentInfo expectedContent = (ContentInfo) property.getValue();
+                ContentInfo content = (ContentInfo) value;
+                assertEquals(message, expectedContent.getMimeType(), content.getMimeType());
+                assertEquals(message, expectedContent.getEncoding(), content.getEncoding());
+                assertEquals(message, expectedContent.getSize(), content.getSize());
+            }
+            else
+            {
+                assertEquals(message + " " + property.getKey(), property.getValue(), value);
+            }
+        }
+    }
+
+    /**
+     * Answers the asset web script with the golden response in the requested format, as the repository would
+     */
+    private static class GoldenResponseCaller implements WebScriptCaller
+    {
+        AssetFormat requested;
+
+        @Override
+        public String getTicket(String user, String password)
+        {
+            return null;
+        }
+
+        @Override
+        public JSONObject getJsonObject(String servicePath, List<WebscriptParam> params)
+        {
+            return new JSONObject();
+        }
+
+        @Override
+        public JSONObject getJsonObject(String servicePath, WebscriptParam... params)
+        {
+            return new JSONObject();
+        }
+
+        @Override
+        public void get(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params)
+        {
+            post(servicePath, handler, params);
+        }
+
+        @Override
+        public void get(String servicePath, WebscriptResponseHandler handler, WebscriptParam... params)
+        {
+            post(servicePath, handler, Arrays.asList(params));
+        }
+
+        @Override
+        public void post(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params)
+        {
+            assertEquals("webasset", servicePath);
+            String format = null;
+            for (WebscriptParam param : params)
+            {
+                if ("format".equals(param.getName()))
+                {
+                    format = param.getValue();
+                }
+            }
+            requested = AssetFormat.forName(format);
+            try
+            {
+                handler.handleResponse(new ByteArrayInputStream(readResponse(requested)));
+            }
+            catch (Exception ex)
+            {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    /**
+     * Builds responses in the binary asset format byte by byte
+     */
+    private static class BinaryResponse extends ByteArrayOutputStream
+    {
+        BinaryResponse bytes(int... values)
+        {
+            for (int value : values)
+            {
+                write(value);
+            }
+            return this;
+        }
+
+        BinaryResponse bytes(byte[] values)
+        {
+            write(values, 0, values.length);
+            return this;
+        }
+
+        BinaryResponse varint(long value)
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+            return this;
+        }
+
+        BinaryResponse longValue(long value)
+        {
+            for (int shift = 56; shift >= 0; shift -= 8)
+            {
+                write((int) (value >>> shift));
+            }
+            return this;
+        }
+
+        BinaryResponse string(String value)
+        {
+            try
+            {
+                return varint(value.getBytes("UTF-8").length).bytes(value.getBytes("UTF-8"));
+            }
+            catch (java.io.UnsupportedEncodingException ex)
+            {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+}
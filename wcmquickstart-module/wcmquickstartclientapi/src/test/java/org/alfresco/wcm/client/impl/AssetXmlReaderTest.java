@@ -0,0 +1,337 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import junit.framework.TestCase;
+
+import org.alfresco.wcm.client.exception.AssetDeserializationException;
+
+/**
+ * Tests {@link AssetXmlReader} against responses in the form written by the repository's AssetSerializerXmlImpl.
+ */
+public class AssetXmlReaderTest extends TestCase
+{
+    private static final String DATE_FORMAT = "yyyyMMdd-HH:mm:ss.SSSZ";
+
+    public void testRoundTrip() throws Exception
+    {
+        Map<String, Object> header = new LinkedHashMap<String, Object>();
+        header.put("totalResults", 2L);
+
+        Map<String, Object> nested = new LinkedHashMap<String, Object>();
+        nested.put("myapp:textListProperty", Arrays.asList("One", "Two"));
+        nested.put("myapp:integerProperty", 678);
+        nested.put("myapp:dateProperty", new Date(1302002042054L));
+
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put("cm:name", "The радиатор <sat> on the mat & \"rug\" –");
+        properties.put("cm:modified", new Date(1302002042054L));
+        properties.put("myapp:noderefProperty", new NodeId("workspace://SpacesStore/b6b10862"));
+        properties.put("myapp:longProperty", 6737436288L);
+        properties.put("myapp:doubleProperty", 1.324352E14);
+        properties.put("myapp:boolProperty", true);
+        properties.put("myapp:missingProperty", null);
+        properties.put("myapp:intListProperty", Arrays.asList(1, 2, 3));
+        properties.put("myapp:mapProperty", nested);
+        properties.put("cm:content", new Content("text/html", 1234L, "UTF-8"));
+
+        byte[] xml = serialize(header, properties, properties);
+        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
+        List<TreeMap<String, Serializable>> assets = deserializer.deserialize(new ByteArrayInputStream(xml));
+
+        assertEquals(2, assets.size());
+        assertEquals(2L, deserializer.getHeader().get("totalResults"));
+        TreeMap<String, Serializable> asset = assets.get(1);
+        assertEquals("workspace://SpacesStore/asset1", asset.get("id"));
+        assertEquals("cm:content", asset.get("type"));
+        assertEquals(properties.get("cm:name"), asset.get("cm:name"));
+        assertEquals(new Date(1302002042054L), asset.get("cm:modified"));
+        assertEquals("workspace://SpacesStore/b6b10862", asset.get("myapp:noderefProperty"));
+        assertEquals(6737436288L, asset.get("myapp:longProperty"));
+        assertEquals(1.324352E14, asset.get("myapp:doubleProperty"));
+        assertEquals(Boolean.TRUE, asset.get("myapp:boolProperty"));
+        assertTrue(asset.containsKey("myapp:missingProperty"));
+        assertNull(asset.get("myapp:missingProperty"));
+        assertEquals(Arrays.asList(1L, 2L, 3L), asset.get("myapp:intListProperty"));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Serializable> map = (Map<String, Serializable>) asset.get("myapp:mapProperty");
+        assertEquals(Arrays.asList("One", "Two"), map.get("myapp:textListProperty"));
+        assertEquals(678L, map.get("myapp:integerProperty"));
+        assertEquals(new Date(1302002042054L), map.get("myapp:dateProperty"));
+
+        ContentInfo content = (ContentInfo) asset.get("cm:content");
+        assertEquals("text/html", content.getMimeType());
+        assertEquals("UTF-8", content.getEncoding());
+        assertEquals(1234L, content.getSize());
+
+        // Assets share their property names
+        assertSame(firstKey(assets.get(0), "myapp:longProperty"), firstKey(asset, "myapp:longProperty"));
+    }
+
+    public void testAssetsAreReadAsTheyArrive() throws Exception
+    {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put("cm:title", "Title");
+        byte[] xml = serialize(null, properties, properties, properties);
+        // Cut the response short in the middle of the third asset
+        String truncated = new String(xml, "UTF-8");
+        truncated = truncated.substring(0, truncated.lastIndexOf("<property"));
+
+        AssetXmlReader reader = new AssetXmlReader(new ByteArrayInputStream(truncated.getBytes("UTF-8")));
+        assertEquals("workspace://SpacesStore/asset0", reader.next().get("id"));
+        assertEquals("workspace://SpacesStore/asset1", reader.next().get("id"));
+        try
+        {
+            reader.hasNext();
+            fail("Truncated response was not reported");
+        }
+        catch (AssetDeserializationException ex)
+        {
+            // Expected
+        }
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    public void testMalformedResponses() throws Exception
+    {
+        assertMalformed("<?xml version=\"1.0\"?><html><body>Error</body></html>");
+        assertMalformed("<assets><asset id=\"a\" type=\"t\"><property name=\"p\"><value type=\"integer\">x</value></property></asset></assets>");
+        assertMalformed("<assets><asset id=\"a\" type=\"t\"><property name=\"p\"><value type=\"unknown\">x</value></property></asset></assets>");
+        assertMalformed("<assets><asset id=\"a\" type=\"t\"><property name=\"p\"><value type=\"time\">yesterday</value></property></asset></assets>");
+        assertMalformed("<assets><asset id=\"a\" type=\"t\"><value type=\"text\">x</value></asset></assets>");
+        assertMalformed("<assets><asset id=\"a\" type=\"t\">");
+
+        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
+        assertTrue(deserializer.deserialize(new ByteArrayInputStream("<assets/>".getBytes("UTF-8"))).isEmpty());
+        assertTrue(deserializer.getHeader().isEmpty());
+    }
+
+    public void testTimesMatchDateFormat() throws Exception
+    {
+        Random random = new Random(42L);
+        String[] zones = { "UTC", "Europe/London", "America/New_York", "Asia/Kolkata", "Pacific/Chatham" };
+        for (String zone : zones)
+        {
+            SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+            format.setTimeZone(TimeZone.getTimeZone(zone));
+            for (int i = 0; i < 1000; i++)
+            {
+                // Between 1601 and 2286
+                long time = (long) (random.nextDouble() * 10000000000000L) - 11600000000000L;
+                String text = format.format(new Date(time));
+                assertEquals(text, format.parse(text), AssetXmlReader.parseTime(text));
+            }
+        }
+
+        assertEquals(1302002042054L, AssetXmlReader.parseTime("2011-04-05T11:14:02.054Z").getTime());
+        assertEquals(1302002042054L, AssetXmlReader.parseTime("2011-04-05T12:14:02.054+01:00").getTime());
+        assertEquals(1302002042000L, AssetXmlReader.parseTime("2011-04-05T07:14:02-0400").getTime());
+        // Left to the date format
+        assertEquals(new SimpleDateFormat(DATE_FORMAT).parse("15000101-00:00:00.000+0000"), 
+                AssetXmlReader.parseTime("15000101-00:00:00.000+0000"));
+    }
+
+    private void assertMalformed(String xml) throws Exception
+    {
+        try
+        {
+            new AssetDeserializerXmlImpl().deserialize(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            fail("Malformed response was accepted: " + xml);
+        }
+        catch (AssetDeserializationException ex)
+        {
+            // Expected
+        }
+    }
+
+    private static String firstKey(TreeMap<String, Serializable> map, String key)
+    {
+        return map.ceilingKey(key);
+    }
+
+    /**
+     * Write a response in the same way as the repository's AssetSerializerXmlImpl
+     */
+    private static byte[] serialize(Map<String, Object> header, Map<String, Object>... assets) throws Exception
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(buffer, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("assets");
+        if (header != null)
+        {
+            writer.writeStartElement("header");
+            writeProperties(writer, header);
+            writer.writeEndElement();
+        }
+        for (int i = 0; i < assets.length; i++)
+        {
+            writer.writeStartElement("asset");
+            writer.writeAttribute("id", "workspace://SpacesStore/asset" + i);
+            writer.writeAttribute("type", "cm:content");
+            writeProperties(writer, assets[i]);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        return buffer.toByteArray();
+    }
+
+    private static void writeProperties(XMLStreamWriter writer, Map<String, Object> properties) throws Exception
+    {
+        for (Map.Entry<String, Object> property : properties.entrySet())
+        {
+            writer.writeStartElement("property");
+            writer.writeAttribute("name", property.getKey());
+            writeValue(writer, property.getValue());
+            writer.writeEndElement();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(XMLStreamWriter writer, Object value) throws Exception
+    {
+        if (value instanceof List)
+        {
+            writer.writeStartElement("list");
+            for (Object element : (List<Object>) value)
+            {
+                writeValue(writer, element);
+            }
+            writer.writeEndElement();
+        }
+        else if (value instanceof Map)
+        {
+            writer.writeStartElement("map");
+            writeProperties(writer, (Map<String, Object>) value);
+            writer.writeEndElement();
+        }
+        else
+        {
+            writer.writeStartElement("value");
+            if (value == null)
+            {
+                writer.writeAttribute("type", "missing");
+            }
+            else if (value instanceof Integer || value instanceof Long)
+            {
+                writer.writeAttribute("type", "integer");
+                writer.writeCharacters(value.toString());
+            }
+            else if (value instanceof Float || value instanceof Double)
+            {
+                writer.writeAttribute("type", "number");
+                writer.writeCharacters(value.toString());
+            }
+            else if (value instanceof Boolean)
+            {
+                writer.writeAttribute("type", "bool");
+                writer.writeCharacters(value.toString());
+            }
+            else if (value instanceof Date)
+            {
+                writer.writeAttribute("type", "time");
+                writer.writeCharacters(new SimpleDateFormat(DATE_FORMAT).format((Date) value));
+            }
+            else if (value instanceof NodeId)
+            {
+                writer.writeAttribute("type", "id");
+                writer.writeCharacters(value.toString());
+            }
+            else if (value instanceof Content)
+            {
+                Content content = (Content) value;
+                writer.writeAttribute("type", "content");
+                writer.writeEmptyElement("content");
+                writer.writeAttribute("mime", content.mimeType);
+                writer.writeAttribute("size", Long.toString(content.size));
+                writer.writeAttribute("enc", content.encoding);
+            }
+            else
+            {
+                writer.writeAttribute("type", "text");
+                writer.writeCData(value.toString());
+            }
+            writer.writeEndElement();
+        }
+    }
+
+    /**
+     * Stands in for a NodeRef property
+     */
+    private static class NodeId
+    {
+        private final String id;
+
+        private NodeId(String id)
+        {
+            this.id = id;
+        }
+
+        @Override
+        public String toString()
+        {
+            return id;
+        }
+    }
+
+    /**
+     * Stands in for a ContentData property
+     */
+    private static class Content
+    {
+        private final String mimeType;
+        private final long size;
+        private final String encoding;
+
+        private Content(String mimeType, long size, String encoding)
+        {
+            this.mimeType = mimeType;
+            this.size = size;
+            this.encoding = encoding;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.alfresco.wcm.client.Section;
+
+/**
+ * Tests the incremental refresh of the section trees cached by {@link AbstractCachingSectionFactoryImpl}, using a
+ * fake section source that is changed between refreshes.
+ */
+public class IncrementalSectionRefreshTest extends TestCase
+{
+    private static final String ROOT = "root";
+
+    private FakeSectionFactory factory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        factory = new FakeSectionFactory();
+        factory.setIncrementalRefresh(true);
+        factory.setSectionsRefreshAfter(0);
+        factory.add(ROOT, "webroot", null, 0);
+        factory.add("news", "news", ROOT, 1);
+        factory.add("blog", "blog", ROOT, 2);
+        factory.add("world", "world", "news", 1);
+        factory.add("europe", "europe", "world", 1);
+        factory.add("asia", "asia", "world", 2);
+    }
+
+    public void testUnchangedTreeIsNotReloaded() throws Exception
+    {
+        Section europe = resolve("news/world/europe");
+        assertEquals("europe", europe.getId());
+        assertEquals(1, factory.fullLoads.get());
+
+        expire();
+        assertSame(europe, resolve("news/world/europe"));
+        assertEquals(1, factory.fullLoads.get());
+        assertEquals(1, factory.versionLoads.get());
+        assertEquals(0, factory.sectionsLoaded.get());
+    }
+
+    public void testRenamedSectionIsPatched() throws Exception
+    {
+        Section news = resolve("news");
+        Section europe = resolve("news/world/europe");
+
+        factory.rename("world", "earth");
+        expire();
+        assertNull(resolve("news/world"));
+        Section earth = resolve("news/earth");
+        assertEquals("world", earth.getId());
+        assertEquals(1, factory.sectionsLoaded.get());
+
+        // the unchanged sections are kept, and linked to the new section
+        assertSame(europe, resolve("news/earth/europe"));
+        assertSame(earth, resolve("news").getSections().get(0));
+        assertSame(europe, earth.getSection("europe"));
+        assertEquals("/news/earth/europe/", europe.getPath());
+
+        // the parent is copied rather than modified, so the previous tree is left as it was
+        assertNotSame(news, resolve("news"));
+        assertEquals("world", news.getSections().get(0).getName());
+        assertSame(news.getSections().get(0), news.getSection("world"));
+    }
+
+    public void testPreviousTreeIsLeftAsItWas() throws Exception
+    {
+        Section root = resolve("");
+        Section blog = root.getSection("blog");
+
+        factory.move("asia", "blog");
+        expire();
+        assertEquals("asia", resolve("blog/asia").getId());
+
+        // a reader still navigating the previous tree by its children sees it as it was
+        Section world = root.getSection("news").getSection("world");
+        assertEquals("asia", world.getSection("asia").getId());
+        assertEquals(2, world.getSections().size());
+        assertNull(blog.getSection("asia"));
+        assertTrue(blog.getSections().isEmpty());
+        assertSame(blog, root.getSections().get(1));
+
+        // only the old and new parents and their ancestors are copied
+        Section refreshedRoot = resolve("");
+        assertNotSame(root, refreshedRoot);
+        assertNotSame(blog, refreshedRoot.getSection("blog"));
+        assertSame(world.getSection("europe"), refreshedRoot.getSection("news").getSection("world").getSection("europe"));
+        assertEquals(1, factory.sectionsLoaded.get());
+    }
+
+    public void testAddedMovedAndDeletedSections() throws Exception
+    {
+        resolve("news/world/europe");
+
+        factory.add("sport", "sport", "news", 0);
+        factory.move("asia", "blog");
+        factory.delete("europe");
+        expire();
+
+        assertNull(resolve("news/world/europe"));
+        assertNull(resolve("news/world/asia"));
+        assertEquals("asia", resolve("blog/asia").getId());
+        assertEquals("sport", resolve("news/sport").getId());
+        // ordered by order index, and the deleted section is no longer a child
+        List<Section> newsSections = resolve("news").getSections();
+        assertEquals(2, newsSections.size());
+        assertEquals("sport", newsSections.get(0).getId());
+        assertEquals("world", newsSections.get(1).getId());
+        assertTrue(resolve("news/world").getSections().isEmpty());
+        assertEquals(1, factory.fullLoads.get());
+    }
+
+    public void testMovedSubtree() throws Exception
+    {
+        Section europe = resolve("news/world/europe");
+
+        factory.move("world", "blog");
+        expire();
+
+        assertNull(resolve("news/world"));
+        assertSame(europe, resolve("blog/world/europe"));
+        assertEquals("/blog/world/europe/", europe.getPath());
+        assertEquals(1, factory.sectionsLoaded.get());
+    }
+
+    public void testFullReloadWhenNotIncremental() throws Exception
+    {
+        factory.setIncrementalRefresh(false);
+        resolve("news");
+        factory.rename("news", "headlines");
+        expire();
+        assertEquals("news", resolve("headlines").getId());
+        assertEquals(2, factory.fullLoads.get());
+        assertEquals(0, factory.versionLoads.get());
+    }
+
+    public void testReportedChangeExpiresTree() throws Exception
+    {
+        factory.setSectionsRefreshAfter(3600);
+        resolve("news");
+        factory.rename("world", "earth");
+
+        // a change to an asset that is not a cached section leaves the tree alone
+        factory.assetsChanged(Collections.singleton("article"));
+        assertNotNull(resolve("news/world"));
+        assertEquals(0, factory.versionLoads.get());
+
+        factory.assetsChanged(Collections.singleton("world"));
+        assertNull(resolve("news/world"));
+        assertEquals("world", resolve("news/earth").getId());
+        assertEquals(1, factory.versionLoads.get());
+        assertEquals(1, factory.fullLoads.get());
+    }
+
+    public void testReadersDoNotWaitForRefresh() throws Exception
+    {
+        final Section news = resolve("news");
+        factory.rename("news", "headlines");
+        expire();
+
+        // a refresh that is held up in the repository
+        factory.block = new CountDownLatch(1);
+        final CountDownLatch refreshing = new CountDownLatch(1);
+        factory.refreshing = refreshing;
+        Thread refresher = new Thread()
+        {
+            public void run()
+            {
+                resolve("news");
+            }
+        };
+        refresher.start();
+        assertTrue(refreshing.await(5, TimeUnit.SECONDS));
+
+        // other readers use the current tree meanwhile
+        final AtomicReference<Section> read = new AtomicReference<Section>();
+        Thread reader = new Thread()
+        {
+            public void run()
+            {
+                read.set(resolve("news"));
+            }
+        };
+        reader.start();
+        reader.join(5000);
+        assertFalse("Reader waited for the refresh", reader.isAlive());
+        assertSame(news, read.get());
+
+        factory.block.countDown();
+        refresher.join(5000);
+        assertNull(resolve("news"));
+        assertEquals("news", resolve("headlines").getId());
+    }
+
+    public void testConcurrentReadersSeeConsistentTree() throws Exception
+    {
+        resolve("news");
+        final AtomicInteger failures = new AtomicInteger();
+        final long end = System.currentTimeMillis() + 500;
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++)
+        {
+            Thread reader = new Thread()
+            {
+                public void run()
+                {
+                    while (System.currentTimeMillis() < end)
+                    {
+                        // asia is moved back and forth, the rest of the tree stays put
+                        Section asia = resolve("blog/asia");
+                        if (resolve("news/world/europe") == null || resolve("blog") == null
+                                || (asia != null && !"asia".equals(asia.getId())))
+                        {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            readers.add(reader);
+            reader.start();
+        }
+        int moves = 0;
+        while (System.currentTimeMillis() < end)
+        {
+            factory.move("asia", (moves++ % 2 == 0) ? "blog" : "world");
+            Thread.sleep(2);
+        }
+        for (Thread reader : readers)
+        {
+            reader.join(5000);
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1, factory.fullLoads.get());
+    }
+
+    public void testReadersNavigatingByChildrenSeeConsistentTree() throws Exception
+    {
+        resolve("news");
+        final AtomicInteger failures = new AtomicInteger();
+        final long end = System.currentTimeMillis() + 500;
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++)
+        {
+            Thread reader = new Thread()
+            {
+                public void run()
+                {
+                    while (System.currentTimeMillis() < end)
+                    {
+                        // asia is moved back and forth, but in any one tree it has a single parent that lists it
+                        // both by position and by name
+                        Section root = resolve("");
+                        int parents = 0;
+                        for (Section parent : Arrays.asList(root.getSection("news").getSection("world"), 
+                                root.getSection("blog")))
+                        {
+                            boolean listed = false;
+                            for (Section child : parent.getSections())
+                            {
+                                listed |= "asia".equals(child.getId());
+                            }
+                            if (listed != (parent.getSection("asia") != null))
+                            {
+                                failures.incrementAndGet();
+                            }
+                            parents += listed ? 1 : 0;
+                        }
+                        if (parents != 1)
+                        {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            readers.add(reader);
+            reader.start();
+        }
+        int moves = 0;
+        while (System.currentTimeMillis() < end)
+        {
+            factory.move("asia", (moves++ % 2 == 0) ? "blog" : "world");
+            Thread.sleep(2);
+        }
+        for (Thread reader : readers)
+        {
+            reader.join(5000);
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1, factory.fullLoads.get());
+    }
+
+    private Section resolve(String path)
+    {
+        return factory.getSectionFromPathSegments(ROOT, path.split("/"));
+    }
+
+    private void expire() throws InterruptedException
+    {
+        // the tree expires once more than zero milliseconds have passed
+        Thread.sleep(5);
+    }
+
+    /**
+     * Section factory backed by an in-memory tree of sections
+     */
+    private static class FakeSectionFactory extends AbstractCachingSectionFactoryImpl
+    {
+        private final Map<String, Map<String, Serializable>> sections = new TreeMap<String, Map<String, Serializable>>();
+        private final AtomicInteger fullLoads = new AtomicInteger();
+        private final AtomicInteger versionLoads = new AtomicInteger();
+        private final AtomicInteger sectionsLoaded = new AtomicInteger();
+        private volatile CountDownLatch refreshing;
+        private volatile CountDownLatch block;
+        private long lastModified = System.currentTimeMillis();
+
+        synchronized void add(String id, String name, String parentId, int orderIndex)
+        {
+            Map<String, Serializable> props = new HashMap<String, Serializable>();
+            props.put("id", id);
+            props.put("type", "ws:section");
+            props.put("cm:name", name);
+            // the repository returns the order index as a Long
+            props.put("ws:orderIndex", Long.valueOf(orderIndex));
+            props.put("ws:parentId", parentId);
+            sections.put(id, props);
+            touch(id);
+        }
+
+        synchronized void rename(String id, String name)
+        {
+            sections.get(id).put("cm:name", name);
+            touch(id);
+        }
+
+        /**
+         * A move does not change the modified time of the section
+         */
+        synchronized void move(String id, String parentId)
+        {
+            sections.get(id).put("ws:parentId", parentId);
+        }
+
+        synchronized void delete(String id)
+        {
+            sections.remove(id);
+        }
+
+        private void touch(String id)
+        {
+            // modified times must differ, even within the same millisecond
+            lastModified = Math.max(lastModified + 1, System.currentTimeMillis());
+            sections.get(id).put("cm:modified", new Date(lastModified));
+        }
+
+        private SectionImpl build(Map<String, Serializable> props)
+        {
+            SectionImpl section = new SectionImpl();
+            section.setProperties(props);
+            section.setSectionFactory(this);
+            section.setPrimarySectionId((String) props.get("ws:parentId"));
+            return section;
+        }
+
+        @Override
+        protected synchronized Map<String, Section> findSectionWithChildren(String topSectionId)
+        {
+            fullLoads.incrementAndGet();
+            Map<String, Section> loaded = new TreeMap<String, Section>();
+            for (Map<String, Serializable> props : sections.values())
+            {
+                SectionImpl section = build(props);
+                loaded.put(section.getId(), section);
+            }
+            List<Section> ordered = new ArrayList<Section>(loaded.values());
+            java.util.Collections.sort(ordered, new java.util.Comparator<Section>()
+            {
+                public int compare(Section s1, Section s2)
+                {
+                    return ((Long) s1.getProperty("ws:orderIndex")).compareTo((Long) s2.getProperty("ws:orderIndex"));
+                }
+            });
+            for (Section section : ordered)
+            {
+                String parentId = ((SectionImpl) section).getPrimarySectionId();
+                if (parentId != null)
+                {
+                    ((SectionImpl) loaded.get(parentId)).addChild(section);
+                }
+            }
+            return loaded;
+        }
+
+        @Override
+        protected Map<String, SectionVersion> findSectionVersions(String topSectionId)
+        {
+            versionLoads.incrementAndGet();
+            if (refreshing != null)
+            {
+                refreshing.countDown();
+                try
+                {
+                    block.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this)
+            {
+                Map<String, SectionVersion> versions = new HashMap<String, SectionVersion>();
+                for (Map<String, Serializable> props : sections.values())
+                {
+                    versions.put((String) props.get("id"), 
+                            new SectionVersion((Date) props.get("cm:modified"), (String) props.get("ws:parentId")));
+                }
+                return versions;
+            }
+        }
+
+        @Override
+        protected synchronized Map<String, Section> findSections(Collection<String> sectionIds)
+        {
+            Map<String, Section> loaded = new HashMap<String, Section>();
+            for (String id : sectionIds)
+            {
+                Map<String, Serializable> props = sections.get(id);
+                if (props != null)
+                {
+                    sectionsLoaded.incrementAndGet();
+                    loaded.put(id, build(props));
+                }
+            }
+            return loaded;
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests {@link WebScriptCallerImpl} against an in-process HTTP server that counts the calls made to it.
+ */
+public class WebScriptCallerImplTest extends TestCase
+{
+    private HttpServer server;
+    private StubWebScripts webScripts;
+    private WebScriptCallerImpl caller;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        webScripts = new StubWebScripts();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/service/api/", webScripts);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        caller = new WebScriptCallerImpl();
+        caller.setBaseUrl("http://localhost:" + server.getAddress().getPort() + "/service/api");
+        caller.setUsername("admin");
+        caller.setPassword("admin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        webScripts.release.countDown();
+        webScripts.holdBody.countDown();
+        server.stop(0);
+        super.tearDown();
+    }
+
+    public void testIdenticalGetsAreCoalesced() throws Exception
+    {
+        caller.init();
+        caller.getTicket("admin", "admin");
+        webScripts.release = new CountDownLatch(1);
+
+        List<Call> calls = new ArrayList<Call>();
+        for (int i = 0; i < 5; i++)
+        {
+            calls.add(new Call("webassetsearch", "query", "news"));
+        }
+        waitFor(4, caller, "coalesced");
+        webScripts.release.countDown();
+
+        for (Call call : calls)
+        {
+            assertEquals("news", call.result().getString("id"));
+        }
+        assertEquals(1, webScripts.calls("webassetsearch"));
+        assertEquals(4, caller.getCoalescedRequestCount());
+
+        // Once the request has completed, the next one goes to the repository again
+        assertEquals("news", caller.getJsonObject("webassetsearch", new WebscriptParam("query", "news")).getString("id"));
+        assertEquals(2, webScripts.calls("webassetsearch"));
+    }
+
+    public void testIdenticalAssetPostsAreCoalesced() throws Exception
+    {
+        caller.init();
+        caller.getTicket("admin", "admin");
+        webScripts.release = new CountDownLatch(1);
+
+        // Assets and sections are loaded with POST requests, the form parameters may be given in any order
+        List<Call> calls = new ArrayList<Call>();
+        for (int i = 0; i < 4; i++)
+        {
+            calls.add(new Call(true, "webasset", new WebscriptParam("id", "asset1"), new WebscriptParam("id", "asset2"), 
+                    new WebscriptParam("format", "json")));
+        }
+        calls.add(new Call(true, "webasset", new WebscriptParam("format", "json"), new WebscriptParam("id", "asset1"), 
+                new WebscriptParam("id", "asset2")));
+        waitFor(4, caller, "coalesced");
+        webScripts.release.countDown();
+
+        for (Call call : calls)
+        {
+            assertEquals("asset1,asset2", call.result().getString("id"));
+        }
+        assertEquals(1, webScripts.calls("webasset"));
+
+        // The order of the ids is kept
+        assertEquals("asset2,asset1", post("webasset", new WebscriptParam("id", "asset2"), 
+                new WebscriptParam("id", "asset1")).getString("id"));
+        assertEquals(2, webScripts.calls("webasset"));
+    }
+
+    public void testResponseIsStreamedToTheCallerThatMadeTheRequest() throws Exception
+    {
+        caller.init();
+        caller.getTicket("admin", "admin");
+        webScripts.holdBody = new CountDownLatch(1);
+
+        // The start of the response is read while the repository is still sending the rest of it
+        final CountDownLatch reading = new CountDownLatch(1);
+        final StringBuilder body = new StringBuilder();
+        Thread first = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                caller.post("webasset", new WebscriptResponseHandler()
+                {
+                    @Override
+                    public void handleResponse(InputStream in)
+                    {
+                        try
+                        {
+                            int read = in.read();
+                            reading.countDown();
+                            for (; read != -1; read = in.read())
+                            {
+                                body.append((char) read);
+                            }
+                        }
+                        catch (IOException e)
+                        {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }, Arrays.asList(new WebscriptParam("id", "asset1")));
+            }
+        };
+        first.start();
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+        // Too late to share the response being read, so an identical request goes to the repository
+        Call second = new Call(true, "webasset", new WebscriptParam("id", "asset1"));
+        webScripts.waitForArrivals("webasset", 2);
+        webScripts.holdBody.countDown();
+
+        first.join(5000);
+        assertFalse(first.isAlive());
+        assertEquals("{\"id\":\"asset1\"}", body.toString());
+        assertEquals("asset1", second.result().getString("id"));
+        assertEquals(2, webScripts.calls("webasset"));
+        assertEquals(0, caller.getCoalescedRequestCount());
+    }
+
+    public void testOtherPostsAreNotCoalesced() throws Exception
+    {
+        caller.init();
+        caller.getTicket("admin", "admin");
+        webScripts.release = new CountDownLatch(1);
+
+        List<Call> calls = new ArrayList<Call>();
+        for (int i = 0; i < 3; i++)
+        {
+            calls.add(new Call(true, "webassetupdate", new WebscriptParam("id", "asset1")));
+        }
+        webScripts.waitForArrivals("webassetupdate", 3);
+        webScripts.release.countDown();
+        for (Call call : calls)
+        {
+            assertEquals("asset1", call.result().getString("id"));
+        }
+        assertEquals(3, webScripts.calls("webassetupdate"));
+        assertEquals(0, caller.getCoalescedRequestCount());
+    }
+
+    public void testDifferentRequestsAreNotCoalesced() throws Exception
+    {
+        caller.init();
+        caller.getTicket("admin", "admin");
+        assertEquals("a", post("webasset", new WebscriptParam("id", "a")).getString("id"));
+        assertEquals("b", post("webasset", new WebscriptParam("id", "b")).getString("id"));
+        assertEquals("a", caller.getJsonObject("webasset", new WebscriptParam("id", "a")).getString("id"));
+        assertEquals(3, webScripts.calls("webasset"));
+        assertEquals(0, caller.getCoalescedRequestCount());
+    }
+
+    public void testCoalescingCanBeDisabled() throws Exception
+    {
+        caller.setCoalesceRequests(false);
+        caller.init();
+        caller.getTicket("admin", "admin");
+        webScripts.release = new CountDownLatch(1);
+
+        List<Call> calls = new ArrayList<Call>();
+        for (int i = 0; i < 3; i++)
+        {
+            calls.add(new Call(true, "webasset", new WebscriptParam("id", "asset1")));
+        }
+        webScripts.waitForArrivals("webasset", 3);
+        webScripts.release.countDown();
+        for (Call call : calls)
+        {
+            assertEquals("asset1", call.result().getString("id"));
+        }
+        assertEquals(3, webScripts.calls("webasset"));
+    }
+
+    public void testExpiredTicketIsRenewedOnce() throws Exception
+    {
+        caller.init();
+        caller.getTicket("admin", "admin");
+        assertEquals(1, webScripts.calls("login"));
+
+        // The ticket expires while requests are in progress
+        webScripts.release = new CountDownLatch(1);
+        List<Call> calls = new ArrayList<Call>();
+        for (int i = 0; i < 5; i++)
+        {
+            calls.add(new Call(true, "webasset", new WebscriptParam("id", "asset" + i)));
+        }
+        webScripts.waitForArrivals("webasset", 5);
+        webScripts.expireTicket();
+        webScripts.release.countDown();
+
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals("asset" + i, calls.get(i).result().getString("id"));
+        }
+        assertEquals(2, webScripts.calls("login"));
+        assertEquals(1, caller.getTicketRenewalCount());
+        assertEquals(10, webScripts.calls("webasset"));
+    }
+
+    public void testNoTicketIsFetchedUntilRefused() throws Exception
+    {
+        caller.init();
+        assertEquals("a", caller.getJsonObject("webasset", new WebscriptParam("id", "a")).getString("id"));
+        assertEquals(1, webScripts.calls("login"));
+        assertEquals(2, webScripts.calls("webasset"));
+    }
+
+    public void testEndpointConcurrencyLimit() throws Exception
+    {
+        caller.setEndpointConcurrencyLimits(Collections.singletonMap("webassetsearch", 1));
+        caller.setConnectionTimeout(200);
+        caller.init();
+        caller.getTicket("admin", "admin");
+        webScripts.release = new CountDownLatch(1);
+
+        Call slowSearch = new Call("webassetsearch", "query", "slow");
+        webScripts.waitForArrivals("webassetsearch", 1);
+        // Refused without calling the repository while the first search holds the only permit
+        assertNull(caller.getJsonObject("webassetsearch", new WebscriptParam("query", "other")));
+        assertEquals(1, caller.getRejectedRequestCount());
+        // Other endpoints are not affected
+        assertEquals("a", caller.getJsonObject("webasset", new WebscriptParam("id", "a")).getString("id"));
+
+        webScripts.release.countDown();
+        slowSearch.result();
+        assertEquals("fast", caller.getJsonObject("webassetsearch", new WebscriptParam("query", "fast")).getString("id"));
+        assertEquals(2, webScripts.calls("webassetsearch"));
+    }
+
+    public void testEndpointTimeout() throws Exception
+    {
+        caller.setEndpointTimeouts(Collections.singletonMap("webassetsearch", 200));
+        caller.init();
+        caller.getTicket("admin", "admin");
+        webScripts.release = new CountDownLatch(1);
+
+        long start = System.currentTimeMillis();
+        assertNull(caller.getJsonObject("webassetsearch", new WebscriptParam("query", "slow")));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        // The default read timeout applies elsewhere
+        Call call = new Call("webasset", "id", "a");
+        webScripts.waitForArrivals("webasset", 1);
+        Thread.sleep(300);
+        webScripts.release.countDown();
+        assertEquals("a", call.result().getString("id"));
+    }
+
+    private JSONObject post(String servicePath, WebscriptParam... params)
+    {
+        JsonHandler handler = new JsonHandler();
+        caller.post(servicePath, handler, Arrays.asList(params));
+        return handler.json;
+    }
+
+    private static void waitFor(long expected, WebScriptCallerImpl caller, String what) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while (caller.getCoalescedRequestCount() < expected && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(5);
+        }
+        assertEquals(what, expected, caller.getCoalescedRequestCount());
+    }
+
+    /**
+     * A call to the web script caller on a thread of its own
+     */
+    private class Call extends Thread
+    {
+        private final boolean post;
+        private final String servicePath;
+        private final WebscriptParam[] params;
+        private volatile JSONObject result;
+
+        private Call(String servicePath, String paramName, String paramValue)
+        {
+            this(false, servicePath, new WebscriptParam(paramName, paramValue));
+        }
+
+        private Call(boolean post, String servicePath, WebscriptParam... params)
+        {
+            this.post = post;
+            this.servicePath = servicePath;
+            this.params = params;
+            start();
+        }
+
+        @Override
+        public void run()
+        {
+            result = post ? post(servicePath, params) : caller.getJsonObject(servicePath, params);
+        }
+
+        private JSONObject result() throws InterruptedException
+        {
+            join(5000);
+            assertFalse(isAlive());
+            return result;
+        }
+    }
+
+    /**
+     * Reads a JSON response
+     */
+    private static class JsonHandler implements WebscriptResponseHandler
+    {
+        private JSONObject json;
+
+        @Override
+        public void handleResponse(InputStream in)
+        {
+            try
+            {
+                json = new JSONObject(new JSONTokener(new InputStreamReader(in, "UTF-8")));
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Serves the login web script and echoes the values of the "id" parameter of any other web script, or of its
+     * first parameter if there is none, as a JSON "id". The parameters are read from the query string or the form
+     * posted. Requests that do not carry the current ticket are refused, and requests are held until the release
+     * latch is counted down. Responses are sent in two chunks, the second once the hold body latch is counted down.
+     */
+    private static class StubWebScripts implements HttpHandler
+    {
+        private final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+        private final ConcurrentMap<String, AtomicInteger> arrivals = new ConcurrentHashMap<String, AtomicInteger>();
+        private final AtomicInteger tickets = new AtomicInteger();
+        private volatile String ticket;
+        private volatile CountDownLatch release = new CountDownLatch(0);
+        private volatile CountDownLatch holdBody = new CountDownLatch(0);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            String script = exchange.getRequestURI().getPath().substring("/service/api/".length());
+            String query = exchange.getRequestURI().getRawQuery();
+            InputStream in = exchange.getRequestBody();
+            ByteArrayOutputStream form = new ByteArrayOutputStream();
+            int read;
+            while ((read = in.read()) != -1)
+            {
+                form.write(read);
+            }
+            if (query == null)
+            {
+                query = form.toString("UTF-8");
+            }
+
+            count(calls, script);
+            String body;
+            int status = 200;
+            if (script.equals("login"))
+            {
+                ticket = "TICKET_" + tickets.incrementAndGet();
+                body = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<ticket>" + ticket + "</ticket>";
+            }
+            else
+            {
+                count(arrivals, script);
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                String validTicket = ticket;
+                String auth = exchange.getRequestHeaders().getFirst("Authorization");
+                if (validTicket == null || 
+                        !("Basic " + Base64.getEncoder().encodeToString((":" + validTicket).getBytes("UTF-8"))).equals(auth))
+                {
+                    status = 401;
+                    body = "Unauthorized";
+                }
+                else
+                {
+                    body = "{\"id\":\"" + echo(query) + "\"}";
+                }
+            }
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes, 0, 1);
+            out.flush();
+            try
+            {
+                holdBody.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            out.write(bytes, 1, bytes.length - 1);
+            out.close();
+        }
+
+        private static String echo(String query) throws IOException
+        {
+            StringBuilder ids = new StringBuilder();
+            String first = null;
+            for (String param : query.split("&"))
+            {
+                String value = URLDecoder.decode(param.substring(param.indexOf('=') + 1), "UTF-8");
+                if (first == null)
+                {
+                    first = value;
+                }
+                if (param.startsWith("id="))
+                {
+                    ids.append(ids.length() == 0 ? "" : ",").append(value);
+                }
+            }
+            return ids.length() == 0 ? first : ids.toString();
+        }
+
+        private void expireTicket()
+        {
+            ticket = null;
+        }
+
+        private int calls(String script)
+        {
+            AtomicInteger count = calls.get(script);
+            return (count == null) ? 0 : count.get();
+        }
+
+        private void waitForArrivals(String script, int expected) throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < end)
+            {
+                AtomicInteger count = arrivals.get(script);
+                if (count != null && count.get() >= expected)
+                {
+                    return;
+                }
+                Thread.sleep(5);
+            }
+            fail("Requests to " + script + " did not arrive");
+        }
+
+        private static void count(ConcurrentMap<String, AtomicInteger> counts, String script)
+        {
+            counts.putIfAbsent(script, new AtomicInteger());
+            counts.get(script).incrementAndGet();
+        }
+    }
+}
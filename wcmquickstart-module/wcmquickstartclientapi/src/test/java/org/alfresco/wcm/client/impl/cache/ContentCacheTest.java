@@ -0,0 +1,329 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.alfresco.wcm.client.ContentStream;
+import org.alfresco.wcm.client.impl.CachingContentStreamImpl;
+
+public class ContentCacheTest extends TestCase
+{
+    private ContentCache contentCache;
+    private File tempDir;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        String folderName = "alfresco-wqs-test-" + System.nanoTime();
+        tempDir = new File(System.getProperty("java.io.tmpdir"), folderName);
+        contentCache = new ContentCache();
+        contentCache.setTempFolderName(folderName);
+        contentCache.setMaxInMemoryEntrySize(4 * 1024);
+        contentCache.setMaxMemorySize(16 * 1024);
+        contentCache.setMaxDiskSize(100 * 1024);
+        contentCache.setMaxEntrySize(64 * 1024);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        contentCache.clear();
+        tempDir.delete();
+        super.tearDown();
+    }
+
+    public void testTiers() throws Exception
+    {
+        CachedContent small = contentCache.put("small", new BytesContentStream(content(1, 1000)));
+        CachedContent large = contentCache.put("large", new BytesContentStream(content(2, 20000)));
+        assertTrue(small.isInMemory());
+        assertFalse(large.isInMemory());
+        assertEquals(1000, contentCache.getMemorySize());
+        assertEquals(20000, contentCache.getDiskSize());
+        assertTrue(Arrays.equals(content(2, 20000), read(large)));
+        small.release();
+        large.release();
+        assertEquals(1, countFiles());
+
+        CachedContent hit = contentCache.get("large");
+        assertNotNull(hit);
+        hit.release();
+        assertNull(contentCache.get("missing"));
+        assertEquals(1, contentCache.getHitCount());
+        assertEquals(1, contentCache.getMissCount());
+
+        contentCache.removeAll("large", "large/");
+        assertEquals(0, contentCache.getDiskSize());
+        assertEquals(0, countFiles());
+    }
+
+    public void testOversizedContentIsNotCached() throws Exception
+    {
+        BytesContentStream oversized = new BytesContentStream(content(3, 70000));
+        assertFalse(contentCache.isCacheable(oversized.getLength()));
+        assertNull(contentCache.put("oversized", oversized));
+        assertEquals(0, oversized.reads.get());
+
+        // Unknown length: read once, served, then discarded
+        BytesContentStream unknown = new BytesContentStream(content(4, 70000), -1L);
+        CachedContent content = contentCache.put("unknown", unknown);
+        assertTrue(Arrays.equals(content(4, 70000), read(content)));
+        content.release();
+        assertNull(contentCache.get("unknown"));
+        assertEquals(2, contentCache.getRejectionCount());
+        assertEquals(0, contentCache.getDiskSize());
+        assertEquals(0, countFiles());
+
+        // ... and isn't spooled again on the next read
+        assertTrue(contentCache.isUncacheable("unknown"));
+        BytesContentStream again = new BytesContentStream(content(4, 70000), -1L);
+        assertNull(contentCache.put("unknown", again));
+        assertEquals(0, again.reads.get());
+        assertEquals(3, contentCache.getRejectionCount());
+
+        // until the item changes
+        contentCache.remove("unknown");
+        assertFalse(contentCache.isUncacheable("unknown"));
+        BytesContentStream changed = new BytesContentStream(content(5, 1000), -1L);
+        content = contentCache.put("unknown", changed);
+        assertTrue(Arrays.equals(content(5, 1000), read(content)));
+        content.release();
+        CachedContent hit = contentCache.get("unknown");
+        assertNotNull(hit);
+        hit.release();
+    }
+
+    public void testEvictionKeepsWithinBudget() throws Exception
+    {
+        for (int i = 0; i < 50; i++)
+        {
+            contentCache.put("disk" + i, new BytesContentStream(content(i, 20000))).release();
+            contentCache.put("mem" + i, new BytesContentStream(content(i, 3000))).release();
+            assertTrue(contentCache.getDiskSize() <= 100 * 1024);
+            assertTrue(contentCache.getMemorySize() <= 16 * 1024);
+        }
+        assertEquals(5, countFiles());
+        assertTrue(contentCache.getEvictionCount() >= 90);
+
+        // The most recently used entries survive
+        CachedContent recent = contentCache.get("disk49");
+        assertNotNull(recent);
+        recent.release();
+        assertNull(contentCache.get("disk0"));
+    }
+
+    public void testEvictedContentRemainsReadableUntilReleased() throws Exception
+    {
+        contentCache.put("held", new BytesContentStream(content(5, 20000))).release();
+        CachedContent held = contentCache.get("held");
+        InputStream stream = contentCache.get("held").openStream();
+        contentCache.clear();
+        assertEquals(1, countFiles());
+        assertTrue(Arrays.equals(content(5, 20000), read(held)));
+        held.release();
+        assertEquals(0, contentCache.getDiskSize());
+        assertEquals(20000, contentCache.getSpooledSize());
+        assertEquals(1, countFiles());
+        byte[] buffer = new byte[20000];
+        int total = 0;
+        int count;
+        while ((count = stream.read(buffer, total, buffer.length - total)) > 0)
+        {
+            total += count;
+        }
+        assertTrue(Arrays.equals(content(5, 20000), buffer));
+        stream.close();
+        stream.close();
+        assertEquals(0, countFiles());
+        assertEquals(0, contentCache.getSpooledSize());
+    }
+
+    public void testConcurrentReadersDuringEviction() throws Exception
+    {
+        final int keyCount = 40;
+        final List<CachingContentStreamImpl> streams = new ArrayList<CachingContentStreamImpl>();
+        final List<BytesContentStream> sources = new ArrayList<BytesContentStream>();
+        for (int i = 0; i < keyCount; i++)
+        {
+            final BytesContentStream source = new BytesContentStream(content(i, i % 2 == 0 ? 2000 : 20000));
+            sources.add(source);
+            streams.add(new CachingContentStreamImpl(source, contentCache, "asset" + i,
+                    new CachingContentStreamImpl.Source()
+                    {
+                        @Override
+                        public ContentStream getContentStream()
+                        {
+                            return source;
+                        }
+                    }));
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger maxSpooledSize = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int seed = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < 500; i++)
+                        {
+                            int key = (seed * 31 + i * 7) % keyCount;
+                            ByteArrayOutputStream output = new ByteArrayOutputStream();
+                            streams.get(key).output(output);
+                            if (!Arrays.equals(sources.get(key).bytes, output.toByteArray()))
+                            {
+                                throw new AssertionError("Corrupt content for key " + key);
+                            }
+                            maxSpooledSize.set(Math.max(maxSpooledSize.get(), (int) contentCache.getSpooledSize()));
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        if (failure.get() != null)
+        {
+            throw new AssertionError(failure.get());
+        }
+
+        assertTrue(contentCache.getEvictionCount() > 0);
+        // Evicted files may still be in use by a reader or waiting to be released by the thread that
+        // evicted them, but never more than one of each per thread
+        assertTrue(maxSpooledSize.get() <= 100 * 1024 + 2 * threads.length * 20000);
+        assertTrue(contentCache.getDiskSize() <= 100 * 1024);
+        assertTrue(contentCache.getMemorySize() <= 16 * 1024);
+        assertEquals(contentCache.getDiskSize(), contentCache.getSpooledSize());
+        assertEquals(countFiles(), contentCache.getSpooledSize() / 20000);
+
+        contentCache.clear();
+        assertEquals(0, contentCache.getSpooledSize());
+        assertEquals(0, contentCache.getMemorySize());
+        assertEquals(0, countFiles());
+    }
+
+    private int countFiles()
+    {
+        String[] files = tempDir.list();
+        return files == null ? 0 : files.length;
+    }
+
+    private static byte[] content(int seed, int length)
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = (byte) (seed + i);
+        }
+        return bytes;
+    }
+
+    private static byte[] read(CachedContent content) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        content.output(output);
+        return output.toByteArray();
+    }
+
+    private static class BytesContentStream implements ContentStream
+    {
+        private final byte[] bytes;
+        private final long length;
+        private final AtomicInteger reads = new AtomicInteger();
+
+        public BytesContentStream(byte[] bytes)
+        {
+            this(bytes, bytes.length);
+        }
+
+        public BytesContentStream(byte[] bytes, long length)
+        {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        public String getFileName()
+        {
+            return "test.bin";
+        }
+
+        public long getLength()
+        {
+            return length;
+        }
+
+        public String getMimeType()
+        {
+            return "application/octet-stream";
+        }
+
+        public InputStream getStream()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void write(Writer writer) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void write(Writer writer, String encoding) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void output(OutputStream output) throws IOException
+        {
+            reads.incrementAndGet();
+            output.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.util.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests {@link CmisSessionPoolImpl} and {@link CmisSessionFactoryImpl} with a fake session factory in place of the
+ * repository.
+ */
+public class CmisSessionPoolImplTest extends TestCase
+{
+    private static final long LIFETIME = 60000L;
+    private static final long RENEW_AHEAD = 5000L;
+
+    private FakeGuestSessionFactory guestSessionFactory;
+    private AtomicLong now;
+    private GenericKeyedObjectPool keyedPool;
+    private CmisSessionPoolImpl sessionPool;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        guestSessionFactory = new FakeGuestSessionFactory();
+        now = new AtomicLong(1000000L);
+        CmisSessionFactoryImpl sessionFactory = new CmisSessionFactoryImpl()
+        {
+            @Override
+            protected long currentTimeMillis()
+            {
+                return now.get();
+            }
+        };
+        sessionFactory.setGuestSessionFactory(guestSessionFactory);
+        sessionFactory.setMaxSessionLifetime(LIFETIME);
+        sessionFactory.setRenewAheadMillis(RENEW_AHEAD);
+
+        keyedPool = new GenericKeyedObjectPool(sessionFactory);
+        keyedPool.setMaxActive(3);
+        keyedPool.setMaxTotal(5);
+        keyedPool.setMaxIdle(3);
+        keyedPool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK);
+        keyedPool.setMaxWait(100);
+        keyedPool.setTestWhileIdle(true);
+        keyedPool.setNumTestsPerEvictionRun(-1);
+
+        sessionPool = new CmisSessionPoolImpl(keyedPool, sessionFactory);
+        sessionPool.setGuestSessions(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        sessionPool.destroy();
+        super.tearDown();
+    }
+
+    public void testGuestSessionsAreShared() throws Exception
+    {
+        Session first = sessionPool.getGuestSession();
+        Session second = sessionPool.getGuestSession();
+        assertNotSame("Requests should be spread over the guest sessions", first, second);
+        assertSame(first, sessionPool.getGuestSession());
+        assertSame(second, sessionPool.getGuestSession());
+        assertEquals(2, guestSessionFactory.guestSessions.size());
+
+        // Giving guest sessions back makes no difference, nor do unknown and repeated returns
+        sessionPool.closeSession(first);
+        sessionPool.closeSession(first);
+        sessionPool.closeSession(mock(Session.class));
+        sessionPool.closeSession(null);
+        assertSame(first, sessionPool.getGuestSession());
+        assertEquals(0, keyedPool.getNumActive());
+        assertEquals(0, keyedPool.getNumIdle());
+    }
+
+    public void testUserSessionsAreKeyedByCredentials() throws Exception
+    {
+        Session guest = sessionPool.getGuestSession();
+        Session alice = sessionPool.getSession("alice", "secret");
+        assertNotSame(guest, alice);
+        assertEquals(Collections.singletonList("alice/secret"), guestSessionFactory.userSessions);
+
+        sessionPool.closeSession(alice);
+        assertSame(alice, sessionPool.getSession("alice", "secret"));
+
+        Session bob = sessionPool.getSession("bob", "secret");
+        Session aliceWithNewPassword = sessionPool.getSession("alice", "changed");
+        assertNotSame(alice, bob);
+        assertNotSame(alice, aliceWithNewPassword);
+        assertEquals(3, guestSessionFactory.userSessions.size());
+
+        sessionPool.closeSession(bob);
+        assertEquals(0, keyedPool.getNumIdle(new CmisSessionFactoryImpl.Credentials("alice", "secret")));
+        assertEquals(1, keyedPool.getNumIdle(new CmisSessionFactoryImpl.Credentials("bob", "secret")));
+    }
+
+    public void testSessionLimits() throws Exception
+    {
+        List<Session> sessions = new ArrayList<Session>();
+        for (int i = 0; i < 3; i++)
+        {
+            sessions.add(sessionPool.getSession("alice", "secret"));
+        }
+        try
+        {
+            sessionPool.getSession("alice", "secret");
+            fail("Only maxActive sessions should be lent for each user");
+        }
+        catch (NoSuchElementException ex)
+        {
+            //Expected
+        }
+
+        sessions.add(sessionPool.getSession("bob", "secret"));
+        sessions.add(sessionPool.getSession("bob", "secret"));
+        try
+        {
+            sessionPool.getSession("carol", "secret");
+            fail("Only maxTotal sessions should be lent across all users");
+        }
+        catch (NoSuchElementException ex)
+        {
+            //Expected
+        }
+
+        // Guests don't wait for the pool
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++)
+        {
+            assertNotNull(sessionPool.getGuestSession());
+        }
+        assertTrue(System.currentTimeMillis() - start < 100);
+
+        sessionPool.closeSession(sessions.get(0));
+        assertNotNull(sessionPool.getSession("carol", "secret"));
+    }
+
+    public void testExpiredSessionsAreReplaced() throws Exception
+    {
+        Session guest = sessionPool.getGuestSession();
+        sessionPool.getGuestSession();
+        assertSame(guest, sessionPool.getGuestSession());
+        now.addAndGet(LIFETIME);
+        sessionPool.getGuestSession();
+        Session newGuest = sessionPool.getGuestSession();
+        assertNotSame(guest, newGuest);
+        // Other requests may still be using the old session
+        verify(guest, never()).clear();
+        assertTrue(guestSessionFactory.guestSessions.contains(newGuest));
+
+        Session first = sessionPool.getSession("alice", "secret");
+        sessionPool.closeSession(first);
+        now.addAndGet(LIFETIME);
+        Session second = sessionPool.getSession("alice", "secret");
+        assertNotSame(first, second);
+        verify(first).clear();
+
+        // A session that expires while it is lent isn't put back
+        now.addAndGet(LIFETIME);
+        sessionPool.closeSession(second);
+        assertEquals(0, keyedPool.getNumIdle(new CmisSessionFactoryImpl.Credentials("alice", "secret")));
+        verify(second).clear();
+    }
+
+    public void testGuestSessionsAreValidatedAndRenewedInTheBackground() throws Exception
+    {
+        sessionPool.renewGuestSessions();
+        assertEquals(2, guestSessionFactory.guestSessions.size());
+        List<Session> original = new ArrayList<Session>(guestSessionFactory.guestSessions);
+        sessionPool.renewGuestSessions();
+        assertEquals(2, guestSessionFactory.guestSessions.size());
+
+        // Sessions within the renewal margin of their lifetime fail validation and are replaced before use
+        now.addAndGet(LIFETIME - RENEW_AHEAD);
+        sessionPool.renewGuestSessions();
+        assertEquals(4, guestSessionFactory.guestSessions.size());
+        assertFalse(original.contains(sessionPool.getGuestSession()));
+        assertFalse(original.contains(sessionPool.getGuestSession()));
+
+        // Sessions that can no longer reach the repository are replaced, or kept until they can be
+        guestSessionFactory.repositoryDown = true;
+        guestSessionFactory.refuseSessions = true;
+        Session current = sessionPool.getGuestSession();
+        sessionPool.renewGuestSessions();
+        assertEquals(4, guestSessionFactory.guestSessions.size());
+        guestSessionFactory.refuseSessions = false;
+        sessionPool.renewGuestSessions();
+        assertEquals(6, guestSessionFactory.guestSessions.size());
+        assertNotSame(current, sessionPool.getGuestSession());
+    }
+
+    public void testSlowGuestLoginOnlyHoldsUpItsOwnSession() throws Exception
+    {
+        guestSessionFactory.holdNextLogin = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<Session> held = executor.submit(new Callable<Session>()
+            {
+                @Override
+                public Session call() throws Exception
+                {
+                    return sessionPool.getGuestSession();
+                }
+            });
+            assertTrue(guestSessionFactory.loginStarted.await(5, TimeUnit.SECONDS));
+
+            // The other guest session is opened while the first login is still in progress
+            Session other = sessionPool.getGuestSession();
+            assertFalse(held.isDone());
+
+            guestSessionFactory.holdNextLogin.countDown();
+            assertNotSame(other, held.get(5, TimeUnit.SECONDS));
+            assertEquals(2, guestSessionFactory.guestSessions.size());
+        }
+        finally
+        {
+            guestSessionFactory.holdNextLogin.countDown();
+            executor.shutdown();
+        }
+    }
+
+    public void testIdleUserSessionsAreValidated() throws Exception
+    {
+        CmisSessionFactoryImpl.Credentials alice = new CmisSessionFactoryImpl.Credentials("alice", "secret");
+        sessionPool.closeSession(sessionPool.getSession("alice", "secret"));
+        keyedPool.evict();
+        assertEquals(1, keyedPool.getNumIdle(alice));
+
+        now.addAndGet(LIFETIME - RENEW_AHEAD);
+        keyedPool.evict();
+        assertEquals(0, keyedPool.getNumIdle(alice));
+
+        sessionPool.closeSession(sessionPool.getSession("alice", "secret"));
+        guestSessionFactory.repositoryDown = true;
+        keyedPool.evict();
+        assertEquals(0, keyedPool.getNumIdle(alice));
+    }
+
+    public void testConcurrentRequests() throws Exception
+    {
+        keyedPool.setMaxActive(4);
+        keyedPool.setMaxTotal(8);
+        keyedPool.setMaxWait(10000);
+        final Set<Session> inUse = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final boolean guest = (i % 2 == 0);
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < 500; j++)
+                        {
+                            if (guest)
+                            {
+                                Session session = sessionPool.getGuestSession();
+                                Thread.yield();
+                                sessionPool.closeSession(session);
+                                continue;
+                            }
+                            Session session = sessionPool.getSession("alice", "secret");
+                            if (!inUse.add(session))
+                            {
+                                throw new AssertionError("User session lent twice");
+                            }
+                            Thread.yield();
+                            inUse.remove(session);
+                            sessionPool.closeSession(session);
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        if (failure.get() != null)
+        {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(2, guestSessionFactory.guestSessions.size());
+        assertTrue(guestSessionFactory.userSessions.size() <= 4);
+        assertEquals(0, keyedPool.getNumActive());
+    }
+
+    /**
+     * Makes mock sessions rather than connecting to a repository
+     */
+    private static class FakeGuestSessionFactory extends GuestSessionFactoryImpl
+    {
+        final List<Session> guestSessions = Collections.synchronizedList(new ArrayList<Session>());
+        final List<String> userSessions = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean repositoryDown = false;
+        volatile boolean refuseSessions = false;
+        volatile CountDownLatch holdNextLogin;
+        final CountDownLatch loginStarted = new CountDownLatch(1);
+
+        @Override
+        public Object makeObject() throws Exception
+        {
+            if (refuseSessions)
+            {
+                throw new CmisConnectionException("Repository unavailable");
+            }
+            CountDownLatch hold = holdNextLogin;
+            if (hold != null && loginStarted.getCount() > 0)
+            {
+                loginStarted.countDown();
+                hold.await();
+            }
+            Session session = newSession();
+            guestSessions.add(session);
+            return session;
+        }
+
+        @Override
+        public Session createSession(String username, String password)
+        {
+            userSessions.add(username + "/" + password);
+            return newSession();
+        }
+
+        private Session newSession()
+        {
+            final Session session = mock(Session.class);
+            when(session.createOperationContext()).thenReturn(mock(OperationContext.class));
+            when(session.getRootFolder(any(OperationContext.class))).thenAnswer(
+                    new Answer<Object>()
+                    {
+                        @Override
+                        public Object answer(InvocationOnMock invocation)
+                        {
+                            if (repositoryDown)
+                            {
+                                throw new CmisConnectionException("Repository unavailable");
+                            }
+                            return null;
+                        }
+                    });
+            return session;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+<#escape x as jsonUtils.encodeJSONString(x)>
+{
+    data:
+    {
+        "logId" : "${changes.logId}",
+        "sequence" : ${changes.sequence?c},
+        "reset" : ${changes.reset?string},
+        "more" : ${changes.more?string},
+        "changes" :
+        [
+        <#list changes.changes as change>
+            {
+                "sequence" : ${change.sequence?c},
+                "id" : "${change.id}",
+                "type" : "${change.type}"
+            }<#if change_has_next>,</#if>
+        </#list>
+        ]
+    }
+}
+</#escape>
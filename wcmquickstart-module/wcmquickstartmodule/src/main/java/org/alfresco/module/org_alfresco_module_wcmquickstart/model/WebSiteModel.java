@@ -60,6 +60,7 @@ public interface WebSiteModel
     public static final QName PROP_QUEUED_NODE = QName.createQName(NAMESPACE, "queuedNode");
     public static final QName PROP_QUEUED_NODE_FOR_REMOVAL = QName.createQName(NAMESPACE, "queuedNodeForRemoval");
     public static final QName PROP_FAILED_ATTEMPTS_COUNT = QName.createQName(NAMESPACE, "failedAttemptsCount");
+    public static final QName PROP_NEXT_PUBLISH_ATTEMPT = QName.createQName(NAMESPACE, "nextPublishAttempt");
 
     // ws:section type
     public static final QName TYPE_SECTION = QName.createQName(NAMESPACE, "section");
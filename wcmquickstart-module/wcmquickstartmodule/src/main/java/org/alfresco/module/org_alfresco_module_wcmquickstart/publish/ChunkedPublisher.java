@@ -0,0 +1,225 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.publish;
+
+import java.util.List;
+
+/**
+ * Publishes a list of queued items in chunks of bounded size. If the transfer of a chunk fails then the chunk
+ * is split in two and each half is transferred separately, so that the items that cause the failure are
+ * isolated and everything else in the chunk still gets published. Items that fail on their own are reported
+ * back to the caller, which uses {@link #getRetryDelay(int)} to decide when to try them again.
+ * <p>
+ * Before a failed chunk is split the transfer target is checked. If it is unavailable then the fault does not
+ * lie with the items, so none of them are reported as failed and the chunk and those after it are left for a
+ * later run.
+ */
+public class ChunkedPublisher<T>
+{
+    /**
+     * Performs the transfers on behalf of the publisher.
+     */
+    public interface Callback<T>
+    {
+        /**
+         * Transfer the supplied items.
+         *
+         * @return true if the items were transferred, false if the transfer failed
+         */
+        boolean transfer(List<T> items);
+
+        /**
+         * Called for each item that could not be transferred, even on its own.
+         */
+        void failed(T item);
+
+        /**
+         * Called when a chunk has failed, before it is split.
+         *
+         * @return true if the transfer target is available, false if it is not and so every transfer would fail
+         */
+        boolean isTargetAvailable();
+    }
+
+    private int maxNodesPerTransfer = 100;
+    private long initialRetryDelay = 60000L;
+    private long maxRetryDelay = 3600000L;
+
+    /**
+     * @param maxNodesPerTransfer
+     *            the maximum number of queued items to include in any one transfer
+     */
+    public void setMaxNodesPerTransfer(int maxNodesPerTransfer)
+    {
+        if (maxNodesPerTransfer < 1)
+        {
+            throw new IllegalArgumentException("maxNodesPerTransfer == " + maxNodesPerTransfer);
+        }
+        this.maxNodesPerTransfer = maxNodesPerTransfer;
+    }
+
+    /**
+     * @param initialRetryDelay
+     *            the time, in milliseconds, to wait before retrying an item that has failed once. The delay is
+     *            doubled for each further failure.
+     */
+    public void setInitialRetryDelay(long initialRetryDelay)
+    {
+        this.initialRetryDelay = initialRetryDelay;
+    }
+
+    /**
+     * @param maxRetryDelay
+     *            the longest time, in milliseconds, to wait before retrying a failed item
+     */
+    public void setMaxRetryDelay(long maxRetryDelay)
+    {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    /**
+     * @param failedAttempts
+     *            the number of times an item has failed so far
+     * @return the time, in milliseconds, to wait before trying the item again
+     */
+    public long getRetryDelay(int failedAttempts)
+    {
+        if (failedAttempts <= 0)
+        {
+            return 0L;
+        }
+        long delay = initialRetryDelay << Math.min(failedAttempts - 1, 30);
+        return (delay < 0L || delay > maxRetryDelay) ? maxRetryDelay : delay;
+    }
+
+    /**
+     * Publish the supplied items, in order.
+     */
+    public Result publish(List<T> items, Callback<T> callback)
+    {
+        Result result = new Result();
+        for (int start = 0; start < items.size(); start += maxNodesPerTransfer)
+        {
+            List<T> chunk = items.subList(start, Math.min(items.size(), start + maxNodesPerTransfer));
+            result.transfers++;
+            if (callback.transfer(chunk))
+            {
+                result.published += chunk.size();
+            }
+            else if (callback.isTargetAvailable())
+            {
+                isolateFailures(chunk, callback, result);
+            }
+            else
+            {
+                result.deferred = items.size() - start;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the items of a failed chunk that cause it to fail, by transferring each half of it separately.
+     */
+    private void isolateFailures(List<T> chunk, Callback<T> callback, Result result)
+    {
+        if (chunk.size() == 1)
+        {
+            result.failed++;
+            callback.failed(chunk.get(0));
+        }
+        else
+        {
+            int middle = chunk.size() / 2;
+            publishPart(chunk.subList(0, middle), callback, result);
+            publishPart(chunk.subList(middle, chunk.size()), callback, result);
+        }
+    }
+
+    private void publishPart(List<T> part, Callback<T> callback, Result result)
+    {
+        result.transfers++;
+        if (callback.transfer(part))
+        {
+            result.published += part.size();
+        }
+        else
+        {
+            isolateFailures(part, callback, result);
+        }
+    }
+
+    /**
+     * The outcome of a call to {@link ChunkedPublisher#publish(List, Callback)}.
+     */
+    public static class Result
+    {
+        private int published;
+        private int failed;
+        private int deferred;
+        private int transfers;
+
+        /**
+         * @return the number of items that were transferred
+         */
+        public int getPublished()
+        {
+            return published;
+        }
+
+        /**
+         * @return the number of items that could not be transferred
+         */
+        public int getFailed()
+        {
+            return failed;
+        }
+
+        /**
+         * @return the number of items that were left for a later run because the transfer target was unavailable
+         */
+        public int getDeferred()
+        {
+            return deferred;
+        }
+
+        /**
+         * @return the number of transfers that were made
+         */
+        public int getTransfers()
+        {
+            return transfers;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "published=" + published + ", failed=" + failed + ", deferred=" + deferred + ", transfers=" +
+                    transfers;
+        }
+    }
+}
@@ -26,10 +26,13 @@
 package org.alfresco.module.org_alfresco_module_wcmquickstart.publish;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,6 +43,7 @@ import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.util.SiteHelper;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.cmr.repository.AssociationRef;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
@@ -49,6 +53,7 @@ import org.alfresco.service.cmr.repository.Path;
 import org.alfresco.service.cmr.transfer.NodeCrawler;
 import org.alfresco.service.cmr.transfer.NodeCrawlerFactory;
 import org.alfresco.service.cmr.transfer.TransferDefinition;
+import org.alfresco.service.cmr.transfer.TransferException;
 import org.alfresco.service.cmr.transfer.TransferFailureException;
 import org.alfresco.service.cmr.transfer.TransferService2;
 import org.alfresco.service.namespace.NamespaceService;
@@ -63,6 +68,7 @@ public class PublishServiceImpl implements PublishService
 {
     private final static Log log = LogFactory.getLog(PublishServiceImpl.class);
     private final static String PUBLISH_QUEUE_NAME = "publishingQueue";
+    private final static String NODES_QUEUED_IN_TXN = PublishServiceImpl.class.getName() + ".nodesQueuedInTxn";
     private final static Set<String> DEFAULT_ASPECTS_TO_EXCLUDE = new TreeSet<String>();
     
     static 
@@ -81,6 +87,7 @@ public class PublishServiceImpl implements PublishService
     private String transferTargetName = "Internal Target";
     private Set<String> aspectsToExclude = DEFAULT_ASPECTS_TO_EXCLUDE;
     private int maxPublishAttempts = 3;
+    private ChunkedPublisher<QueuedNode> publisher = new ChunkedPublisher<QueuedNode>();
 
     public void setSiteHelper(SiteHelper siteHelper)
     {
@@ -145,6 +152,31 @@ public class PublishServiceImpl implements PublishService
         this.maxPublishAttempts = maxPublishAttempts;
     }
 
+    /**
+     * @param maxNodesPerTransfer the maximum number of queued nodes to publish in a single transfer
+     */
+    public void setMaxNodesPerTransfer(int maxNodesPerTransfer)
+    {
+        publisher.setMaxNodesPerTransfer(maxNodesPerTransfer);
+    }
+
+    /**
+     * @param seconds how long to wait before retrying a node that has failed to publish. This is doubled for
+     * each further failure of the same node.
+     */
+    public void setRetryDelaySeconds(int seconds)
+    {
+        publisher.setInitialRetryDelay(seconds * 1000L);
+    }
+
+    /**
+     * @param seconds the longest time to wait before retrying a node that has failed to publish
+     */
+    public void setMaxRetryDelaySeconds(int seconds)
+    {
+        publisher.setMaxRetryDelay(seconds * 1000L);
+    }
+
     public void enqueuePublishedNodes(final NodeRef... nodes)
     {
         enqueueNodes(false, nodes);
@@ -183,21 +215,39 @@ public class PublishServiceImpl implements PublishService
             NodeRef publishingQueue = siteHelper.getWebSiteContainer(nodes[0], PUBLISH_QUEUE_NAME);
             if (publishingQueue != null && !nodeService.hasAspect(publishingQueue, ContentModel.ASPECT_PENDING_DELETE)) // DW
             {
+                Set<String> queuedInTxn = getNodesQueuedInTransaction();
                 for (NodeRef node : nodes)
                 {
-                    Map<QName, Serializable> props = new HashMap<QName, Serializable>();
-                    String name = GUID.generate();
-                    props.put(ContentModel.PROP_NAME, name);
-                    //Storing noderefs of deleted nodes doesn't work, so we'll store a text representation instead...
-                    props.put(WebSiteModel.PROP_QUEUED_NODE, node.toString());
-                    props.put(WebSiteModel.PROP_QUEUED_NODE_FOR_REMOVAL, remove);
-                    nodeService.createNode(publishingQueue, ContentModel.ASSOC_CONTAINS, QName.createQName(
-                            WebSiteModel.NAMESPACE, name), WebSiteModel.TYPE_PUBLISH_QUEUE_ENTRY, props);
+                    //A node is often queued several times within one transaction. Only the first of these is recorded,
+                    //and entries made by separate transactions are merged when the queue is published
+                    if (queuedInTxn.add(publishingQueue + "|" + remove + "|" + node))
+                    {
+                        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+                        String name = GUID.generate();
+                        props.put(ContentModel.PROP_NAME, name);
+                        //Storing noderefs of deleted nodes doesn't work, so we'll store a text representation instead...
+                        props.put(WebSiteModel.PROP_QUEUED_NODE, node.toString());
+                        props.put(WebSiteModel.PROP_QUEUED_NODE_FOR_REMOVAL, remove);
+                        nodeService.createNode(publishingQueue, ContentModel.ASSOC_CONTAINS, QName.createQName(
+                                WebSiteModel.NAMESPACE, name), WebSiteModel.TYPE_PUBLISH_QUEUE_ENTRY, props);
+                    }
                 }
             }
         }
     }
     
+    @SuppressWarnings("unchecked")
+    private Set<String> getNodesQueuedInTransaction()
+    {
+        Set<String> queuedInTxn = (Set<String>) AlfrescoTransactionSupport.getResource(NODES_QUEUED_IN_TXN);
+        if (queuedInTxn == null)
+        {
+            queuedInTxn = new HashSet<String>(89);
+            AlfrescoTransactionSupport.bindResource(NODES_QUEUED_IN_TXN, queuedInTxn);
+        }
+        return queuedInTxn;
+    }
+
     public void publishQueue(final NodeRef websiteId)
     {
         if (websiteId == null)
@@ -216,98 +266,18 @@ public class PublishServiceImpl implements PublishService
             Path targetPath = nodeService.getPath(targetSite);
             pathMapper.addPathMapping(sourcePath, targetPath);
 
-            Set<NodeRef> nodesToTransfer = new HashSet<NodeRef>(89);
-            Set<NodeRef> nodesToRemoveOnTransfer = new HashSet<NodeRef>(89);
             NodeRef queue = siteHelper.getWebSiteContainer(websiteId, PUBLISH_QUEUE_NAME);
             if (queue != null)
             {
-                List<ChildAssociationRef> publishedNodes = nodeService.getChildAssocs(queue,
-                        ContentModel.ASSOC_CONTAINS, RegexQNamePattern.MATCH_ALL);
-                for (ChildAssociationRef assoc : publishedNodes)
-                {
-                    NodeRef queueEntry = assoc.getChildRef();
-                    NodeRef node = new NodeRef((String) nodeService.getProperty(queueEntry, WebSiteModel.PROP_QUEUED_NODE));
-                    boolean remove = (Boolean) nodeService.getProperty(queueEntry, WebSiteModel.PROP_QUEUED_NODE_FOR_REMOVAL);
-                    if (remove)
-                    {
-                        nodesToRemoveOnTransfer.add(node);
-                    }
-                    else
-                    {
-                        nodesToTransfer.add(node);
-                    }
-                }
-                if (!nodesToTransfer.isEmpty() || !nodesToRemoveOnTransfer.isEmpty())
+                List<QueuedNode> queuedNodes = readQueue(queue);
+                if (!queuedNodes.isEmpty())
                 {
+                    //Each chunk is transferred and removed from the queue in a transaction of its own, so 
+                    //a failure part way through a large queue doesn't lose the progress made so far
+                    ChunkedPublisher.Result result = publisher.publish(queuedNodes, new QueueTransferCallback());
                     if (log.isDebugEnabled())
                     {
-                        log.debug("PublishService is about to crawl these nodes: " + nodesToTransfer);
-                    }
-                    //Given the nodes that have been supplied, find any others that we will want to transfer too
-                    // (note that we don't do any crawling of nodes that are to be removed)
-                    NodeCrawler crawler = nodeCrawlerFactory.getNodeCrawler();
-                    configureNodeCrawler(crawler);
-                    nodesToTransfer = crawler.crawl(nodesToTransfer);
-
-                    if (log.isDebugEnabled())
-                    {
-                        log.debug("PublishService has crawled the queued nodes and is about to transfer these nodes: " + nodesToTransfer);
-                    }
-                    
-                    TransferDefinition def = new TransferDefinition();
-                    def.setNodes(nodesToTransfer);
-                    def.setNodesToRemove(nodesToRemoveOnTransfer);
-                    Set<QName> aspectQNames = new HashSet<QName>();
-                    for (String aspectToExclude : aspectsToExclude)
-                    {
-                        aspectQNames.add(QName.createQName(aspectToExclude, namespaceService));
-                    }
-                    def.setExcludedAspects(aspectQNames);
-                    
-                    try
-                    {
-                        transferService.transfer(transferTargetName, def);
-                    }
-                    catch (TransferFailureException e)
-                    {
-                        final List<ChildAssociationRef> finalPublishedNodes = publishedNodes;
-                        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Object>()
-                        {
-
-                            @Override
-                            public Object execute() throws Throwable
-                            {
-                                for (ChildAssociationRef childRef : finalPublishedNodes)
-                                {
-                                    Integer failedAttCount = (Integer) nodeService.getProperty(childRef.getChildRef(), WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT);
-                                    if (failedAttCount == null)
-                                    {
-                                        failedAttCount = 0;
-                                    }
-
-                                    failedAttCount++;
-                                    if (failedAttCount == maxPublishAttempts)
-                                    {
-                                        nodeService.deleteNode(childRef.getChildRef());
-                                    }
-                                    else
-                                    {
-                                        nodeService.setProperty(childRef.getChildRef(), WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT, failedAttCount);
-                                    }
-                                }
-                                return null;
-                            }
-
-                        }, false, true);
-
-                        throw e;
-                    }
-    
-                    // If we get here then the transfer must have completed. Delete
-                    // the queue entries that we have processed
-                    for (ChildAssociationRef assoc : publishedNodes)
-                    {
-                        nodeService.deleteNode(assoc.getChildRef());
+                        log.debug("PublishService has processed the publishing queue of " + websiteId + ": " + result);
                     }
                 }
             }
@@ -327,6 +297,109 @@ public class PublishServiceImpl implements PublishService
         }
     }
     
+    /**
+     * Read the entries in the supplied publishing queue, merging those that refer to the same node. 
+     * @param queue NodeRef
+     * @return the queued nodes that are due to be published, in the order in which they were queued
+     */
+    private List<QueuedNode> readQueue(NodeRef queue)
+    {
+        long now = System.currentTimeMillis();
+        Map<String, QueuedNode> queuedNodes = new LinkedHashMap<String, QueuedNode>(89);
+        List<ChildAssociationRef> entries = nodeService.getChildAssocs(queue,
+                ContentModel.ASSOC_CONTAINS, RegexQNamePattern.MATCH_ALL);
+        for (ChildAssociationRef assoc : entries)
+        {
+            NodeRef queueEntry = assoc.getChildRef();
+            Map<QName, Serializable> props = nodeService.getProperties(queueEntry);
+            String node = (String) props.get(WebSiteModel.PROP_QUEUED_NODE);
+            QueuedNode queuedNode = queuedNodes.get(node);
+            if (queuedNode == null)
+            {
+                queuedNode = new QueuedNode(new NodeRef(node));
+                queuedNodes.put(node, queuedNode);
+            }
+            //If a node has been queued more than once then the latest entry decides whether it is to be removed
+            queuedNode.entries.add(queueEntry);
+            queuedNode.remove = Boolean.TRUE.equals(props.get(WebSiteModel.PROP_QUEUED_NODE_FOR_REMOVAL));
+            Integer failedAttempts = (Integer) props.get(WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT);
+            if (failedAttempts != null && failedAttempts > queuedNode.failedAttempts)
+            {
+                queuedNode.failedAttempts = failedAttempts;
+            }
+            //A node that is backing off after a failure is tried again early if it has been queued again since
+            Date nextAttempt = (Date) props.get(WebSiteModel.PROP_NEXT_PUBLISH_ATTEMPT);
+            if (nextAttempt == null || nextAttempt.getTime() <= now)
+            {
+                queuedNode.due = true;
+            }
+        }
+        List<QueuedNode> dueNodes = new ArrayList<QueuedNode>(queuedNodes.size());
+        for (QueuedNode queuedNode : queuedNodes.values())
+        {
+            if (queuedNode.due)
+            {
+                dueNodes.add(queuedNode);
+            }
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Publishing queue " + queue + " holds " + entries.size() + " entries for " + 
+                    queuedNodes.size() + " nodes, of which " + dueNodes.size() + " are due to be published");
+        }
+        return dueNodes;
+    }
+
+    /**
+     * Transfer the supplied queued nodes to the current transfer target
+     * @param queuedNodes List<QueuedNode>
+     */
+    private void transferNodes(List<QueuedNode> queuedNodes)
+    {
+        Set<NodeRef> nodesToTransfer = new HashSet<NodeRef>(89);
+        Set<NodeRef> nodesToRemoveOnTransfer = new HashSet<NodeRef>(89);
+        for (QueuedNode queuedNode : queuedNodes)
+        {
+            if (queuedNode.remove)
+            {
+                nodesToRemoveOnTransfer.add(queuedNode.node);
+            }
+            else
+            {
+                nodesToTransfer.add(queuedNode.node);
+            }
+        }
+        if (!nodesToTransfer.isEmpty())
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("PublishService is about to crawl these nodes: " + nodesToTransfer);
+            }
+            //Given the nodes that have been supplied, find any others that we will want to transfer too
+            // (note that we don't do any crawling of nodes that are to be removed)
+            NodeCrawler crawler = nodeCrawlerFactory.getNodeCrawler();
+            configureNodeCrawler(crawler);
+            nodesToTransfer = crawler.crawl(nodesToTransfer);
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("PublishService has crawled the queued nodes and is about to transfer these nodes: " + nodesToTransfer);
+        }
+        
+        TransferDefinition def = new TransferDefinition();
+        def.setNodes(nodesToTransfer);
+        def.setNodesToRemove(nodesToRemoveOnTransfer);
+        Set<QName> aspectQNames = new HashSet<QName>();
+        for (String aspectToExclude : aspectsToExclude)
+        {
+            aspectQNames.add(QName.createQName(aspectToExclude, namespaceService));
+        }
+        def.setExcludedAspects(aspectQNames);
+        
+        transferService.transfer(transferTargetName, def);
+    }
+    
     /**
      * Set up the supplied node crawler to find other nodes that should be published too.
      * Override this if necessary, or (preferably) inject a different configurer
@@ -341,4 +414,130 @@ public class PublishServiceImpl implements PublishService
     {
         return transferTargetName;
     }
+
+    /**
+     * Transfers chunks of the publishing queue, removing the entries of those that succeed and recording
+     * the failure against those that don't.
+     */
+    private class QueueTransferCallback implements ChunkedPublisher.Callback<QueuedNode>
+    {
+        @Override
+        public boolean transfer(final List<QueuedNode> queuedNodes)
+        {
+            try
+            {
+                transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Object>()
+                {
+                    @Override
+                    public Object execute() throws Throwable
+                    {
+                        transferNodes(queuedNodes);
+                        
+                        // If we get here then the transfer must have completed. Delete
+                        // the queue entries that we have processed
+                        for (QueuedNode queuedNode : queuedNodes)
+                        {
+                            for (NodeRef queueEntry : queuedNode.entries)
+                            {
+                                if (nodeService.exists(queueEntry))
+                                {
+                                    nodeService.deleteNode(queueEntry);
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }, false, true);
+                return true;
+            }
+            catch (TransferFailureException e)
+            {
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Failed to transfer " + queuedNodes.size() + " queued nodes: " + queuedNodes, e);
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public void failed(final QueuedNode queuedNode)
+        {
+            transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Object>()
+            {
+                @Override
+                public Object execute() throws Throwable
+                {
+                    int failedAttCount = queuedNode.failedAttempts + 1;
+                    if (failedAttCount >= maxPublishAttempts)
+                    {
+                        log.warn("Failed to publish " + queuedNode.node + " after " + failedAttCount + 
+                                " attempts. Removing it from the publishing queue.");
+                        for (NodeRef queueEntry : queuedNode.entries)
+                        {
+                            if (nodeService.exists(queueEntry))
+                            {
+                                nodeService.deleteNode(queueEntry);
+                            }
+                        }
+                    }
+                    else
+                    {
+                        Date nextAttempt = new Date(System.currentTimeMillis() + publisher.getRetryDelay(failedAttCount));
+                        if (log.isInfoEnabled())
+                        {
+                            log.info("Failed to publish " + queuedNode.node + ". Will try again after " + nextAttempt);
+                        }
+                        for (NodeRef queueEntry : queuedNode.entries)
+                        {
+                            if (nodeService.exists(queueEntry))
+                            {
+                                nodeService.setProperty(queueEntry, WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT, failedAttCount);
+                                nodeService.setProperty(queueEntry, WebSiteModel.PROP_NEXT_PUBLISH_ATTEMPT, nextAttempt);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }, false, true);
+        }
+
+        @Override
+        public boolean isTargetAvailable()
+        {
+            try
+            {
+                transferService.verify(transferService.getTransferTarget(transferTargetName));
+                return true;
+            }
+            catch (TransferException e)
+            {
+                log.warn("Transfer target " + transferTargetName + " is unavailable. Publishing will be retried later.", e);
+                return false;
+            }
+        }
+    }
+    
+    /**
+     * A node in the publishing queue, together with all the queue entries that refer to it
+     */
+    private static class QueuedNode
+    {
+        final NodeRef node;
+        final List<NodeRef> entries = new ArrayList<NodeRef>(1);
+        boolean remove;
+        int failedAttempts;
+        boolean due;
+        
+        QueuedNode(NodeRef node)
+        {
+            this.node = node;
+        }
+
+        @Override
+        public String toString()
+        {
+            return node.toString();
+        }
+    }
 }
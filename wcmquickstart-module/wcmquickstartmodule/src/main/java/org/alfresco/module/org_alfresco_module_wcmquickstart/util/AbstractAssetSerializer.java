@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.model.ApplicationModel;
+import org.alfresco.model.ContentModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Base class of the asset serializers, holding what all of the formats share: the properties that are not 
+ * written, the prefixed form of property names and the format of times.
+ * <p>
+ * A serializer writes a single response and is used by one thread.
+ */
+public abstract class AbstractAssetSerializer implements AssetSerializer
+{
+    protected static final Set<QName> DEFAULT_PROPERTIES_TO_IGNORE;
+    private static ThreadLocal<DateFormat> dateFormat = new ThreadLocal<DateFormat>()
+    {
+        @Override
+        protected DateFormat initialValue()
+        {
+            return new SimpleDateFormat("yyyyMMdd-HH:mm:ss.SSSZ");
+        }
+    };
+
+    static
+    {
+        Set<QName> ignoreSet = new HashSet<QName>();
+        ignoreSet.add(ContentModel.PROP_STORE_IDENTIFIER);
+        ignoreSet.add(ContentModel.PROP_STORE_NAME);
+        ignoreSet.add(ContentModel.PROP_STORE_PROTOCOL);
+        ignoreSet.add(ContentModel.PROP_NODE_DBID);
+        ignoreSet.add(ContentModel.PROP_NODE_REF);
+        ignoreSet.add(ContentModel.PROP_NODE_UUID);
+        ignoreSet.add(ContentModel.PROP_TAGS);
+        ignoreSet.add(ApplicationModel.PROP_EDITINLINE);
+        ignoreSet.add(WebSiteModel.PROP_ANCESTOR_SECTIONS);
+        DEFAULT_PROPERTIES_TO_IGNORE = Collections.unmodifiableSet(ignoreSet);
+    }
+
+    private NamespaceService namespaceService;
+    private Set<QName> propertiesToIgnore = DEFAULT_PROPERTIES_TO_IGNORE;
+    private final Map<QName, String> prefixStrings = new HashMap<QName, String>();
+
+    public void setNamespaceService(NamespaceService namespaceService)
+    {
+        this.namespaceService = namespaceService;
+    }
+
+    /**
+     * Start writing UTF-8 text to a stream
+     */
+    @Override
+    public void start(OutputStream out) throws AssetSerializationException
+    {
+        try
+        {
+            start(new OutputStreamWriter(out, "UTF-8"));
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    protected boolean isIgnored(QName propertyName)
+    {
+        return propertiesToIgnore.contains(propertyName);
+    }
+
+    /**
+     * Return the prefixed form of a name. The same few names are written over and over, so they are only 
+     * resolved once per response.
+     */
+    protected String toPrefixString(QName name)
+    {
+        String prefixString = prefixStrings.get(name);
+        if (prefixString == null)
+        {
+            prefixString = name.toPrefixString(namespaceService);
+            prefixStrings.put(name, prefixString);
+        }
+        return prefixString;
+    }
+
+    protected String formatTime(Date time)
+    {
+        return dateFormat.get().format(time);
+    }
+}
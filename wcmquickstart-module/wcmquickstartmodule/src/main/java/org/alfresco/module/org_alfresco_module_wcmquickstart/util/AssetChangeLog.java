@@ -0,0 +1,345 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.node.Transaction;
+import org.alfresco.repo.node.archive.NodeArchiveService;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.descriptor.DescriptorService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A sequenced log of the web assets and sections that have been modified or
+ * deleted, used by website clients to evict exactly the entries that have
+ * changed rather than repeatedly revalidating everything they have cached.
+ * <p>
+ * The log is read from the repository's own transaction records, so every
+ * node of a cluster serves the same log and reports the changes made on the
+ * other nodes. The position in the log is a transaction commit time.
+ * Transactions are only reported once they are commitLagMillis old, so that
+ * transactions still committing, possibly on a node whose clock is a little
+ * behind, are not passed over. A client that presents a different log id
+ * (because it is talking to another repository) or asks for changes from
+ * transactions that have since been purged is told to flush everything.
+ * <p>
+ * A section that has been modified is reported with its parent section, as
+ * the children of the parent may have changed. Deleted nodes are reported if
+ * they have been archived as web assets or sections.
+ */
+public class AssetChangeLog implements WebSiteModel
+{
+    private static final Log log = LogFactory.getLog(AssetChangeLog.class);
+
+    public static final String CHANGE_MODIFIED = "modified";
+    public static final String CHANGE_DELETED = "deleted";
+
+    private NodeDAO nodeDAO;
+    private NodeService nodeService;
+    private DictionaryService dictionaryService;
+    private NodeArchiveService nodeArchiveService;
+    private DescriptorService descriptorService;
+    private long commitLagMillis = 5000L;
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setDictionaryService(DictionaryService dictionaryService)
+    {
+        this.dictionaryService = dictionaryService;
+    }
+
+    public void setNodeArchiveService(NodeArchiveService nodeArchiveService)
+    {
+        this.nodeArchiveService = nodeArchiveService;
+    }
+
+    public void setDescriptorService(DescriptorService descriptorService)
+    {
+        this.descriptorService = descriptorService;
+    }
+
+    /**
+     * @param commitLagMillis how old a transaction must be before it is
+     *            reported. Must be more than the time a transaction takes to
+     *            commit plus the difference between the clocks of the nodes of
+     *            a cluster.
+     */
+    public void setCommitLagMillis(long commitLagMillis)
+    {
+        this.commitLagMillis = commitLagMillis;
+    }
+
+    /**
+     * @return the id of the log, which is the id of the repository
+     */
+    public String getLogId()
+    {
+        return descriptorService.getCurrentRepositoryDescriptor().getId();
+    }
+
+    /**
+     * Get the changes that have been committed since the given point in the log
+     * 
+     * @param clientLogId the log id that the client last saw, or null if it has none
+     * @param since the sequence number that the client was last given
+     * @param maxChanges the maximum number of changes to return. More are
+     *            returned if the changes made in a single millisecond exceed it.
+     * @return the changes
+     */
+    public ChangeSet getChanges(String clientLogId, long since, int maxChanges)
+    {
+        String logId = getLogId();
+        long now = currentTimeMillis() - commitLagMillis;
+        long to = now;
+        Long oldest = nodeDAO.getMinTxnCommitTime();
+        if (!logId.equals(clientLogId) || since <= 0L || (oldest != null && since < oldest))
+        {
+            // The client has never seen this log, or has fallen too far behind
+            return new ChangeSet(logId, to, true, false, Collections.<Change> emptyList());
+        }
+        if (since >= to)
+        {
+            return new ChangeSet(logId, since, false, false, Collections.<Change> emptyList());
+        }
+
+        List<Transaction> txns = nodeDAO.getTxnsByCommitTimeAscending(since, to, maxChanges, null, false);
+        if (txns.size() >= maxChanges)
+        {
+            // There may be more transactions in the last millisecond, so leave them for the next request. If
+            // they all committed in the same millisecond, read the whole of that millisecond now.
+            long last = txns.get(txns.size() - 1).getCommitTimeMs();
+            if (txns.get(0).getCommitTimeMs() == last)
+            {
+                to = last + 1;
+                txns = nodeDAO.getTxnsByCommitTimeAscending(last, to, Integer.MAX_VALUE, null, false);
+            }
+            else
+            {
+                to = last;
+            }
+        }
+
+        Map<String, Change> changes = new LinkedHashMap<String, Change>();
+        long previousCommitTime = since;
+        for (Transaction txn : txns)
+        {
+            long commitTime = txn.getCommitTimeMs();
+            if (commitTime >= to)
+            {
+                break;
+            }
+            if (changes.size() >= maxChanges && commitTime != previousCommitTime)
+            {
+                // Stop at a millisecond boundary, so that the next request starts with this transaction
+                to = commitTime;
+                break;
+            }
+            previousCommitTime = commitTime;
+            for (NodeRef.Status status : nodeDAO.getTxnChanges(txn.getId()))
+            {
+                addChanges(changes, txn.getId(), status);
+            }
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Found " + changes.size() + " asset changes committed between " + since + " and " + to);
+        }
+        // If the changes have been cut short, there are more to read straight away
+        return new ChangeSet(logId, to, false, to < now, new ArrayList<Change>(changes.values()));
+    }
+
+    private void addChanges(Map<String, Change> changes, long txnId, NodeRef.Status status)
+    {
+        NodeRef nodeRef = status.getNodeRef();
+        if (!StoreRef.STORE_REF_WORKSPACE_SPACESSTORE.equals(nodeRef.getStoreRef()))
+        {
+            return;
+        }
+        if (status.isDeleted())
+        {
+            NodeRef archivedNode = nodeArchiveService.getArchivedNode(nodeRef);
+            if (nodeService.exists(archivedNode) && (isAsset(archivedNode) || isSection(archivedNode)))
+            {
+                addChange(changes, txnId, nodeRef, CHANGE_DELETED);
+            }
+        }
+        else if (nodeService.exists(nodeRef))
+        {
+            boolean section = isSection(nodeRef);
+            if (section || isAsset(nodeRef))
+            {
+                addChange(changes, txnId, nodeRef, CHANGE_MODIFIED);
+            }
+            if (section)
+            {
+                // Website clients that cache the section tree need to know that the children of the parent
+                // may have changed
+                NodeRef parent = nodeService.getPrimaryParent(nodeRef).getParentRef();
+                if (parent != null && isSection(parent))
+                {
+                    addChange(changes, txnId, parent, CHANGE_MODIFIED);
+                }
+            }
+        }
+        // Otherwise the node has been deleted by a later transaction, which reports it
+    }
+
+    /**
+     * Add a change, in place of any earlier change to the same node
+     */
+    private void addChange(Map<String, Change> changes, long txnId, NodeRef nodeRef, String type)
+    {
+        String id = nodeRef.toString();
+        changes.remove(id);
+        changes.put(id, new Change(txnId, id, type));
+    }
+
+    private boolean isAsset(NodeRef nodeRef)
+    {
+        return nodeService.hasAspect(nodeRef, ASPECT_WEBASSET);
+    }
+
+    private boolean isSection(NodeRef nodeRef)
+    {
+        return dictionaryService.isSubClass(nodeService.getType(nodeRef), TYPE_SECTION);
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * A single change reported by the log
+     */
+    public static class Change
+    {
+        private final long sequence;
+        private final String id;
+        private final String type;
+
+        /**
+         * @param sequence the id of the transaction that made the change
+         * @param id the node id
+         * @param type the type of change
+         */
+        public Change(long sequence, String id, String type)
+        {
+            this.sequence = sequence;
+            this.id = id;
+            this.type = type;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+    }
+
+    /**
+     * The result of asking the log for changes
+     */
+    public static class ChangeSet
+    {
+        private final String logId;
+        private final long sequence;
+        private final boolean reset;
+        private final boolean more;
+        private final List<Change> changes;
+
+        public ChangeSet(String logId, long sequence, boolean reset, boolean more, List<Change> changes)
+        {
+            this.logId = logId;
+            this.sequence = sequence;
+            this.reset = reset;
+            this.more = more;
+            this.changes = changes;
+        }
+
+        public String getLogId()
+        {
+            return logId;
+        }
+
+        /**
+         * @return the sequence number that the client should present next time
+         */
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        /**
+         * @return true if the client must discard everything it has cached
+         */
+        public boolean isReset()
+        {
+            return reset;
+        }
+
+        /**
+         * @return true if there are more changes that the client can ask for straight away
+         */
+        public boolean isMore()
+        {
+            return more;
+        }
+
+        public List<Change> getChanges()
+        {
+            return changes;
+        }
+    }
+}
@@ -25,6 +25,7 @@
  */
 package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
 
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.Writer;
 import java.util.Map;
@@ -37,6 +38,11 @@ public interface AssetSerializer
 
     void start(Writer underlyingWriter) throws AssetSerializationException;
 
+    /**
+     * Start writing to a stream. Serializers of text formats write UTF-8.
+     */
+    void start(OutputStream out) throws AssetSerializationException;
+
     void end() throws AssetSerializationException;
 
     void writeHeader(Map<QName, Serializable> properties) throws AssetSerializationException;
@@ -0,0 +1,328 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Writes assets in a compact binary format. The stream starts with the bytes "WQSB" and a version byte, followed
+ * by one record per header or asset and an end marker:
+ * 
+ * <pre>
+ * record     = 'H' length properties | 'A' length string(id) name(type) properties | 'E'
+ * properties = varint(count) (name value)*
+ * name       = varint(0) for null | varint(index + 1) of a name already sent | varint(size + 1) string, 
+ *              which adds the string to the names at index size
+ * string     = varint(byte length) UTF-8 bytes
+ * value      = 0 (missing) | 1 string (id) | 2 string (text) | 3 zigzag varint (integer) 
+ *              | 4 8-byte double (number) | 5 (false) | 6 (true) | 7 8-byte milliseconds (time)
+ *              | 8 name(mime type) varint(size) name(encoding) (content) | 9 varint(count) value* (list) 
+ *              | 10 properties (map)
+ * </pre>
+ * 
+ * The length of a record is the number of bytes that follow it, as a varint. Varints are unsigned, 7 bits per 
+ * byte, least significant first. Property names, asset types, MIME types and encodings are sent in full once per
+ * response and referred to by index after that.
+ */
+public class AssetSerializerBinaryImpl extends AbstractAssetSerializer
+{
+    public static final String MIME_TYPE = "application/vnd.alfresco.wqs-assets";
+
+    static final byte[] MAGIC = { 'W', 'Q', 'S', 'B' };
+    static final int VERSION = 1;
+
+    static final int RECORD_HEADER = 'H';
+    static final int RECORD_ASSET = 'A';
+    static final int RECORD_END = 'E';
+
+    static final int VALUE_MISSING = 0;
+    static final int VALUE_ID = 1;
+    static final int VALUE_TEXT = 2;
+    static final int VALUE_INTEGER = 3;
+    static final int VALUE_NUMBER = 4;
+    static final int VALUE_FALSE = 5;
+    static final int VALUE_TRUE = 6;
+    static final int VALUE_TIME = 7;
+    static final int VALUE_CONTENT = 8;
+    static final int VALUE_LIST = 9;
+    static final int VALUE_MAP = 10;
+
+    private OutputStream out;
+    private final RecordBuffer record = new RecordBuffer();
+    private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+    @Override
+    public void start(Writer underlyingWriter) throws AssetSerializationException
+    {
+        throw new AssetSerializationException(new UnsupportedOperationException(
+                "The binary asset format must be written to a stream"));
+    }
+
+    @Override
+    public void start(OutputStream out) throws AssetSerializationException
+    {
+        this.out = new BufferedOutputStream(out, 8192);
+        names.clear();
+        try
+        {
+            this.out.write(MAGIC);
+            this.out.write(VERSION);
+        }
+        catch (IOException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void end() throws AssetSerializationException
+    {
+        try
+        {
+            out.write(RECORD_END);
+            out.flush();
+        }
+        catch (IOException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void writeHeader(Map<QName, Serializable> properties) throws AssetSerializationException
+    {
+        try
+        {
+            record.reset();
+            writeProperties(properties);
+            writeRecord(RECORD_HEADER);
+        }
+        catch (IOException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void writeNode(NodeRef nodeRef, QName type, Map<QName, Serializable> properties)
+            throws AssetSerializationException
+    {
+        try
+        {
+            record.reset();
+            record.writeString(nodeRef.toString());
+            writeName(toPrefixString(type));
+            writeProperties(properties);
+            writeRecord(RECORD_ASSET);
+        }
+        catch (IOException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    private void writeRecord(int recordType) throws IOException
+    {
+        out.write(recordType);
+        writeVarLong(out, record.size());
+        record.writeTo(out);
+    }
+
+    private void writeProperties(Map<QName, ?> properties) throws IOException
+    {
+        int count = 0;
+        for (QName name : properties.keySet())
+        {
+            if (!isIgnored(name))
+            {
+                count++;
+            }
+        }
+        writeVarLong(record, count);
+        for (Map.Entry<QName, ?> property : properties.entrySet())
+        {
+            if (!isIgnored(property.getKey()))
+            {
+                writeName(toPrefixString(property.getKey()));
+                writeValue(property.getValue());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(Object value) throws IOException
+    {
+        if (value instanceof List)
+        {
+            List<?> list = (List<?>) value;
+            record.write(VALUE_LIST);
+            writeVarLong(record, list.size());
+            for (Object element : list)
+            {
+                writeValue(element);
+            }
+            return;
+        }
+        else if (value instanceof Map)
+        {
+            record.write(VALUE_MAP);
+            writeProperties((Map<QName, ?>) value);
+            return;
+        }
+
+        switch (AssetValueType.of(value))
+        {
+        case missing:
+            record.write(VALUE_MISSING);
+            break;
+
+        case id:
+            record.write(VALUE_ID);
+            record.writeString(value.toString());
+            break;
+
+        case integer:
+            long integer = ((Number) value).longValue();
+            record.write(VALUE_INTEGER);
+            writeVarLong(record, (integer << 1) ^ (integer >> 63));
+            break;
+
+        case number:
+            record.write(VALUE_NUMBER);
+            record.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+            break;
+
+        case bool:
+            record.write(((Boolean) value) ? VALUE_TRUE : VALUE_FALSE);
+            break;
+
+        case time:
+            record.write(VALUE_TIME);
+            record.writeLong(((Date) value).getTime());
+            break;
+
+        case content:
+            ContentData contentData = (ContentData) value;
+            record.write(VALUE_CONTENT);
+            writeName(contentData.getMimetype());
+            writeVarLong(record, contentData.getSize());
+            writeName(contentData.getEncoding());
+            break;
+
+        default:
+            record.write(VALUE_TEXT);
+            record.writeString(value.toString());
+            break;
+        }
+    }
+
+    /**
+     * Write a reference to a name, sending the name itself the first time it is used
+     */
+    private void writeName(String name) throws IOException
+    {
+        if (name == null)
+        {
+            writeVarLong(record, 0);
+            return;
+        }
+        Integer index = names.get(name);
+        if (index != null)
+        {
+            writeVarLong(record, index + 1);
+        }
+        else
+        {
+            index = names.size();
+            names.put(name, index);
+            writeVarLong(record, index + 1);
+            record.writeString(name);
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    @Override
+    public String getMimeType()
+    {
+        return MIME_TYPE;
+    }
+
+    /**
+     * Buffers a record so that its length can be written ahead of it
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream
+    {
+        private RecordBuffer()
+        {
+            super(1024);
+        }
+
+        private void writeString(String text) throws UnsupportedEncodingException
+        {
+            byte[] bytes = text.getBytes("UTF-8");
+            try
+            {
+                writeVarLong(this, bytes.length);
+            }
+            catch (IOException ex)
+            {
+                //Not thrown when writing to memory
+            }
+            write(bytes, 0, bytes.length);
+        }
+
+        private void writeLong(long value)
+        {
+            for (int shift = 56; shift >= 0; shift -= 8)
+            {
+                write((int) (value >>> shift));
+            }
+        }
+    }
+}
@@ -28,4 +28,9 @@ package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
 public interface AssetSerializerFactory
 {
     AssetSerializer getAssetSerializer();
+
+    /**
+     * Returns a serializer for the named format (e.g. "xml"), or null if the format is not supported
+     */
+    AssetSerializer getAssetSerializer(String format);
 }
@@ -0,0 +1,290 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Writes assets as JSON, as they are given rather than building a document first. The response is an object whose
+ * "assets" array holds a {"header": {properties}} object for the header and an 
+ * {"id": ..., "type": ..., "properties": {properties}} object for each asset. Each property value is written as a
+ * [type, value] pair using the same types as the XML format, for example ["integer", 678] or 
+ * ["time", "20110405-12:14:02.054+0100"]. Content is written as ["content", {"mime": ..., "size": ..., "enc": ...}],
+ * lists as ["list", [values]], maps as ["map", {properties}] and missing values as null.
+ */
+public class AssetSerializerJsonImpl extends AbstractAssetSerializer
+{
+    public static final String MIME_TYPE = "application/json";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Writer writer;
+    private boolean firstRecord;
+
+    @Override
+    public void start(Writer underlyingWriter) throws AssetSerializationException
+    {
+        writer = underlyingWriter;
+        firstRecord = true;
+        try
+        {
+            writer.write("{\"assets\":[");
+        }
+        catch (IOException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void end() throws AssetSerializationException
+    {
+        try
+        {
+            writer.write("]}");
+            writer.flush();
+        }
+        catch (IOException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void writeHeader(Map<QName, Serializable> properties) throws AssetSerializationException
+    {
+        try
+        {
+            startRecord();
+            writer.write("{\"header\":");
+            writeProperties(properties);
+            writer.write('}');
+        }
+        catch (IOException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void writeNode(NodeRef nodeRef, QName type, Map<QName, Serializable> properties)
+            throws AssetSerializationException
+    {
+        try
+        {
+            startRecord();
+            writer.write("{\"id\":");
+            writeString(nodeRef.toString());
+            writer.write(",\"type\":");
+            writeString(toPrefixString(type));
+            writer.write(",\"properties\":");
+            writeProperties(properties);
+            writer.write('}');
+        }
+        catch (IOException ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    private void startRecord() throws IOException
+    {
+        if (!firstRecord)
+        {
+            writer.write(',');
+        }
+        firstRecord = false;
+    }
+
+    private void writeProperties(Map<QName, ?> properties) throws IOException
+    {
+        writer.write('{');
+        boolean first = true;
+        for (Map.Entry<QName, ?> property : properties.entrySet())
+        {
+            if (!isIgnored(property.getKey()))
+            {
+                if (!first)
+                {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(toPrefixString(property.getKey()));
+                writer.write(':');
+                writeValue(property.getValue());
+            }
+        }
+        writer.write('}');
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(Object value) throws IOException
+    {
+        if (value instanceof List)
+        {
+            writer.write("[\"list\",[");
+            boolean first = true;
+            for (Object element : (List<?>) value)
+            {
+                if (!first)
+                {
+                    writer.write(',');
+                }
+                first = false;
+                writeValue(element);
+            }
+            writer.write("]]");
+            return;
+        }
+        else if (value instanceof Map)
+        {
+            writer.write("[\"map\",");
+            writeProperties((Map<QName, ?>) value);
+            writer.write(']');
+            return;
+        }
+
+        AssetValueType valueType = AssetValueType.of(value);
+        switch (valueType)
+        {
+        case missing:
+            writer.write("null");
+            break;
+
+        case integer:
+        case bool:
+            writer.write("[\"");
+            writer.write(valueType.toString());
+            writer.write("\",");
+            writer.write(value.toString());
+            writer.write(']');
+            break;
+
+        case number:
+            writer.write("[\"number\",");
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number))
+            {
+                //Not valid JSON numbers
+                writeString(value.toString());
+            }
+            else
+            {
+                writer.write(value.toString());
+            }
+            writer.write(']');
+            break;
+
+        case time:
+            writer.write("[\"time\",");
+            writeString(formatTime((Date) value));
+            writer.write(']');
+            break;
+
+        case content:
+            ContentData contentData = (ContentData) value;
+            writer.write("[\"content\",{\"mime\":");
+            writeString(contentData.getMimetype());
+            writer.write(",\"size\":");
+            writer.write(Long.toString(contentData.getSize()));
+            writer.write(",\"enc\":");
+            writeString(contentData.getEncoding());
+            writer.write("}]");
+            break;
+
+        default:
+            writer.write("[\"");
+            writer.write(valueType.toString());
+            writer.write("\",");
+            writeString(value.toString());
+            writer.write(']');
+            break;
+        }
+    }
+
+    private void writeString(String text) throws IOException
+    {
+        if (text == null)
+        {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\')
+            {
+                writer.write(text, start, i - start);
+                start = i + 1;
+                switch (c)
+                {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write("\\u");
+                    writer.write(HEX[(c >> 12) & 0xf]);
+                    writer.write(HEX[(c >> 8) & 0xf]);
+                    writer.write(HEX[(c >> 4) & 0xf]);
+                    writer.write(HEX[c & 0xf]);
+                    break;
+                }
+            }
+        }
+        writer.write(text, start, length - start);
+        writer.write('"');
+    }
+
+    @Override
+    public String getMimeType()
+    {
+        return MIME_TYPE;
+    }
+}
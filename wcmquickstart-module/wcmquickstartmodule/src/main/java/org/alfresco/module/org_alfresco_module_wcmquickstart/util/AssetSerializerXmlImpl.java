@@ -27,22 +27,12 @@ package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
 
 import java.io.Serializable;
 import java.io.Writer;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.alfresco.model.ApplicationModel;
-import org.alfresco.model.ContentModel;
-import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.service.cmr.repository.ContentData;
-import org.alfresco.service.cmr.repository.MLText;
 import org.alfresco.service.cmr.repository.NodeRef;
-import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
@@ -51,47 +41,11 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
-public class AssetSerializerXmlImpl implements AssetSerializer
+public class AssetSerializerXmlImpl extends AbstractAssetSerializer
 {
-    private static enum ValueType
-    {
-        id, text, integer, number, bool, time, content, missing
-    };
-
     private final static AttributesImpl EMPTY_ATTRIBUTES = new AttributesImpl();
-    private static Set<QName> DEFAULT_PROPERTIES_TO_IGNORE;
-    private static ThreadLocal<DateFormat> dateFormat = new ThreadLocal<DateFormat>()
-    {
-        @Override
-        protected DateFormat initialValue()
-        {
-            return new SimpleDateFormat("yyyyMMdd-HH:mm:ss.SSSZ");
-        }
-    };
-
-    static
-    {
-        Set<QName> ignoreSet = new HashSet<QName>();
-        ignoreSet.add(ContentModel.PROP_STORE_IDENTIFIER);
-        ignoreSet.add(ContentModel.PROP_STORE_NAME);
-        ignoreSet.add(ContentModel.PROP_STORE_PROTOCOL);
-        ignoreSet.add(ContentModel.PROP_NODE_DBID);
-        ignoreSet.add(ContentModel.PROP_NODE_REF);
-        ignoreSet.add(ContentModel.PROP_NODE_UUID);
-        ignoreSet.add(ContentModel.PROP_TAGS);
-        ignoreSet.add(ApplicationModel.PROP_EDITINLINE);
-        ignoreSet.add(WebSiteModel.PROP_ANCESTOR_SECTIONS);
-        DEFAULT_PROPERTIES_TO_IGNORE = Collections.unmodifiableSet(ignoreSet);
-    }
 
     private XMLWriter writer;
-    private NamespaceService namespaceService;
-    private Set<QName> propertiesToIgnore = DEFAULT_PROPERTIES_TO_IGNORE;
-
-    public void setNamespaceService(NamespaceService namespaceService)
-    {
-        this.namespaceService = namespaceService;
-    }
 
     /*
      * (non-Javadoc)
@@ -127,6 +81,7 @@ public class AssetSerializerXmlImpl implements AssetSerializer
         try
         {
             endElement("assets");
+            writer.flush();
         }
         catch (Exception ex)
         {
@@ -142,7 +97,7 @@ public class AssetSerializerXmlImpl implements AssetSerializer
             startElement("header", EMPTY_ATTRIBUTES);
             for (Map.Entry<QName, Serializable> property : properties.entrySet())
             {
-                if (!propertiesToIgnore.contains(property.getKey()))
+                if (!isIgnored(property.getKey()))
                 {
                     writeProperty(property.getKey(), property.getValue());
                 }
@@ -169,11 +124,11 @@ public class AssetSerializerXmlImpl implements AssetSerializer
         {
             AttributesImpl attributes = new AttributesImpl();
             attributes.addAttribute(null, "id", "id", "String", nodeRef.toString());
-            attributes.addAttribute(null, "type", "type", "String", type.toPrefixString(namespaceService));
+            attributes.addAttribute(null, "type", "type", "String", toPrefixString(type));
             startElement("asset", attributes);
             for (Map.Entry<QName, Serializable> property : properties.entrySet())
             {
-                if (!propertiesToIgnore.contains(property.getKey()))
+                if (!isIgnored(property.getKey()))
                 {
                     writeProperty(property.getKey(), property.getValue());
                 }
@@ -189,7 +144,7 @@ public class AssetSerializerXmlImpl implements AssetSerializer
     private void writeProperty(QName name, Object value) throws Exception
     {
         AttributesImpl attrs = new AttributesImpl();
-        attrs.addAttribute(null, "name", "name", "String", name.toPrefixString(namespaceService));
+        attrs.addAttribute(null, "name", "name", "String", toPrefixString(name));
         startElement("property", attrs);
         writeValue(value);
         endElement("property");
@@ -221,7 +176,7 @@ public class AssetSerializerXmlImpl implements AssetSerializer
         }
         else
         {
-            ValueType valueType = getValueType(value);
+            AssetValueType valueType = AssetValueType.of(value);
             AttributesImpl attrs = new AttributesImpl();
             attrs.addAttribute(null, "type", "type", "String", valueType.toString());
             startElement("value", attrs);
@@ -230,7 +185,7 @@ public class AssetSerializerXmlImpl implements AssetSerializer
         }
     }
 
-    private void writeValue(ValueType valueType, Object value) throws Exception
+    private void writeValue(AssetValueType valueType, Object value) throws Exception
     {
         switch (valueType)
         {
@@ -256,7 +211,7 @@ public class AssetSerializerXmlImpl implements AssetSerializer
             break;
 
         case time:
-            writer.write(getDateFormat().format((Date) value));
+            writer.write(formatTime((Date) value));
             break;
 
         case missing:
@@ -265,11 +220,6 @@ public class AssetSerializerXmlImpl implements AssetSerializer
         }
     }
 
-    private DateFormat getDateFormat()
-    {
-        return dateFormat.get();
-    }
-
     private void startElement(String elementName, Attributes attributes) throws SAXException
     {
         writer.startElement(null, elementName, elementName, attributes);
@@ -280,64 +230,6 @@ public class AssetSerializerXmlImpl implements AssetSerializer
         writer.endElement(null, elementName, elementName);
     }
 
-    private ValueType getValueType(Object value)
-    {
-        ValueType valueType = ValueType.text;
-        if (value == null)
-        {
-            valueType = ValueType.missing;
-        }
-        else
-        {
-            Class<?> valueClass = value.getClass();
-            if (String.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.text;
-            }
-            if (MLText.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.text;
-            }
-            else if (Integer.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.integer;
-            }
-            else if (Long.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.integer;
-            }
-            else if (ContentData.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.content;
-            }
-            else if (Float.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.number;
-            }
-            else if (Double.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.number;
-            }
-            else if (Date.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.time;
-            }
-            else if (Boolean.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.bool;
-            }
-            else if (NodeRef.class.isAssignableFrom(valueClass))
-            {
-                valueType = ValueType.id;
-            }
-            else
-            {
-                valueType = ValueType.text;
-            }
-        }
-        return valueType;
-    }
-
     @Override
     public String getMimeType()
     {
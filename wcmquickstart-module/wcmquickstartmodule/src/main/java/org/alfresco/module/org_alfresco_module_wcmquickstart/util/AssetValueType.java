@@ -0,0 +1,77 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import java.util.Date;
+
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * The types of single property values understood by the asset serializers. Lists and maps of values are written 
+ * as such by each serializer.
+ */
+public enum AssetValueType
+{
+    id, text, integer, number, bool, time, content, missing;
+
+    /**
+     * Return the type that a single property value is written as
+     */
+    public static AssetValueType of(Object value)
+    {
+        if (value == null)
+        {
+            return missing;
+        }
+        else if (value instanceof Integer || value instanceof Long)
+        {
+            return integer;
+        }
+        else if (value instanceof ContentData)
+        {
+            return content;
+        }
+        else if (value instanceof Float || value instanceof Double)
+        {
+            return number;
+        }
+        else if (value instanceof Date)
+        {
+            return time;
+        }
+        else if (value instanceof Boolean)
+        {
+            return bool;
+        }
+        else if (value instanceof NodeRef)
+        {
+            return id;
+        }
+        //Strings, MLText and anything else are written as text
+        return text;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+/**
+ * Asset serializer factory that supports the XML format, which is the default, along with the more compact "json"
+ * and "binary" formats.
+ */
+public class MultiFormatAssetSerializerFactory extends XmlAssetSerializerFactory
+{
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_BINARY = "binary";
+
+    @Override
+    public AssetSerializer getAssetSerializer(String format)
+    {
+        AbstractAssetSerializer serializer;
+        if (FORMAT_JSON.equals(format))
+        {
+            serializer = new AssetSerializerJsonImpl();
+        }
+        else if (FORMAT_BINARY.equals(format))
+        {
+            serializer = new AssetSerializerBinaryImpl();
+        }
+        else
+        {
+            return super.getAssetSerializer(format);
+        }
+        serializer.setNamespaceService(getNamespaceService());
+        return serializer;
+    }
+}
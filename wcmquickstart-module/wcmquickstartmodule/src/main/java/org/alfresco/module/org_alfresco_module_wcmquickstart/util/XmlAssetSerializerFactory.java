@@ -29,6 +29,8 @@ import org.alfresco.service.namespace.NamespaceService;
 
 public class XmlAssetSerializerFactory implements AssetSerializerFactory
 {
+    public static final String FORMAT_XML = "xml";
+
     private NamespaceService namespaceService;
     
     public void setNamespaceService(NamespaceService namespaceService)
@@ -36,6 +38,11 @@ public class XmlAssetSerializerFactory implements AssetSerializerFactory
         this.namespaceService = namespaceService;
     }
 
+    protected NamespaceService getNamespaceService()
+    {
+        return namespaceService;
+    }
+
     @Override
     public AssetSerializer getAssetSerializer()
     {
@@ -44,4 +51,10 @@ public class XmlAssetSerializerFactory implements AssetSerializerFactory
         return serializer;
     }
 
+    @Override
+    public AssetSerializer getAssetSerializer(String format)
+    {
+        return (format == null || FORMAT_XML.equals(format)) ? getAssetSerializer() : null;
+    }
+
 }
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.webscript;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.AssetChangeLog;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.AssetChangeLog.Change;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.AssetChangeLog.ChangeSet;
+import org.alfresco.repo.node.archive.NodeArchiveService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+/**
+ * Web asset changes GET implementation. Returns the ids of the web assets and
+ * sections that have been modified or deleted since a given point in the
+ * {@link AssetChangeLog}.
+ * <p>
+ * Only the changes to nodes that the current user can read are returned. A
+ * deleted node is checked in the archive store; nodes that were deleted
+ * without being archived are left out, and clients pick those up when they
+ * next revalidate their cached copies.
+ */
+public class AssetChangesGet extends DeclarativeWebScript
+{
+    private static final String PARAM_LOG_ID = "logid";
+    private static final String PARAM_SINCE = "since";
+    private static final String PARAM_MAX = "max";
+
+    private AssetChangeLog assetChangeLog;
+    private NodeService nodeService;
+    private PermissionService permissionService;
+    private NodeArchiveService nodeArchiveService;
+    private int maxChanges = 1000;
+
+    public void setAssetChangeLog(AssetChangeLog assetChangeLog)
+    {
+        this.assetChangeLog = assetChangeLog;
+    }
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setPermissionService(PermissionService permissionService)
+    {
+        this.permissionService = permissionService;
+    }
+
+    public void setNodeArchiveService(NodeArchiveService nodeArchiveService)
+    {
+        this.nodeArchiveService = nodeArchiveService;
+    }
+
+    public void setMaxChanges(int maxChanges)
+    {
+        this.maxChanges = maxChanges;
+    }
+
+    /**
+     * @see org.springframework.extensions.webscripts.DeclarativeWebScript#executeImpl(org.springframework.extensions.webscripts.WebScriptRequest,
+     *      org.springframework.extensions.webscripts.Status,
+     *      org.springframework.extensions.webscripts.Cache)
+     */
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
+    {
+        String logId = req.getParameter(PARAM_LOG_ID);
+        long since = 0L;
+        int max = maxChanges;
+        try
+        {
+            String sinceText = req.getParameter(PARAM_SINCE);
+            if (sinceText != null && sinceText.length() != 0)
+            {
+                since = Long.parseLong(sinceText);
+            }
+            String maxText = req.getParameter(PARAM_MAX);
+            if (maxText != null && maxText.length() != 0)
+            {
+                max = Math.min(maxChanges, Integer.parseInt(maxText));
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "since and max must be numeric");
+        }
+
+        Map<String, Object> model = new HashMap<String, Object>(1);
+        model.put("changes", filterReadable(assetChangeLog.getChanges(logId, since, Math.max(1, max))));
+        return model;
+    }
+
+    /**
+     * Remove the changes to nodes that the current user can't read. The
+     * sequence number is unchanged, so the client moves past them too.
+     * 
+     * @param changeSet the changes from the log
+     * @return the changes the current user may see
+     */
+    protected ChangeSet filterReadable(ChangeSet changeSet)
+    {
+        List<Change> readable = new ArrayList<Change>(changeSet.getChanges().size());
+        for (Change change : changeSet.getChanges())
+        {
+            NodeRef nodeRef = new NodeRef(change.getId());
+            if (AssetChangeLog.CHANGE_DELETED.equals(change.getType()))
+            {
+                nodeRef = nodeArchiveService.getArchivedNode(nodeRef);
+            }
+            if (nodeService.exists(nodeRef) && 
+                    permissionService.hasPermission(nodeRef, PermissionService.READ) == AccessStatus.ALLOWED)
+            {
+                readable.add(change);
+            }
+        }
+        return new ChangeSet(changeSet.getLogId(), changeSet.getSequence(), changeSet.isReset(), changeSet.isMore(), 
+                readable);
+    }
+}
@@ -27,7 +27,6 @@ package org.alfresco.module.org_alfresco_module_wcmquickstart.webscript;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -52,6 +51,7 @@ import org.alfresco.service.namespace.RegexQNamePattern;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Status;
 import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
@@ -179,11 +179,15 @@ public class AssetGet extends AbstractWebScript
                 }
             }
 
-            res.setContentEncoding("UTF-8");
-            Writer writer = res.getWriter();
-            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer();
+            // The format argument selects the serialization, XML unless "json" or "binary" is requested
+            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer(req.getFormat());
+            if (assetSerializer == null)
+            {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Unsupported format: " + req.getFormat());
+            }
             res.setContentType(assetSerializer.getMimeType());
-            assetSerializer.start(writer);
+            res.setContentEncoding("UTF-8");
+            assetSerializer.start(res.getOutputStream());
             for (NodeRef nodeRef : foundNodes)
             {
                 QName typeName = nodeService.getType(nodeRef);
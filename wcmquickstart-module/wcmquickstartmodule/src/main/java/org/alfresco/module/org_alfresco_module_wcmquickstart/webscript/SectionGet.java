@@ -168,9 +168,11 @@ public class SectionGet extends AbstractWebScript
                 Map<QName, Serializable> properties;
                 if (onlyModifiedTime)
                 {
+                    // The parent is included so that clients can tell when a section has been moved
                     properties = new HashMap<QName, Serializable>(3);
                     properties.put(ContentModel.PROP_MODIFIED, nodeService.getProperty(nodeRef,
                             ContentModel.PROP_MODIFIED));
+                    properties.put(PROP_PARENT_ID, nodeService.getPrimaryParent(nodeRef).getParentRef());
                 }
                 else
                 {
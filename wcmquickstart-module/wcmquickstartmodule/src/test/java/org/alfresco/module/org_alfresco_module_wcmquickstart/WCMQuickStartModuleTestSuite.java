@@ -30,6 +30,7 @@ import junit.framework.TestSuite;
 
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.TemporaryMultilingualAspectTest;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebRootModelTest;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.publish.PublishQueueTest;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.rendition.RenditionTest;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.webscript.WebscriptTest;
 
@@ -52,6 +53,7 @@ public class WCMQuickStartModuleTestSuite extends TestSuite
         suite.addTestSuite(TemporaryMultilingualAspectTest.class);
         suite.addTestSuite(WebscriptTest.class);
         suite.addTestSuite(RenditionTest.class);
+        suite.addTestSuite(PublishQueueTest.class);
         return suite;
     }
 }
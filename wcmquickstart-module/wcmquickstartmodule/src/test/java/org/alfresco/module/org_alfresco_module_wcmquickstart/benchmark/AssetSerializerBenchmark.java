@@ -0,0 +1,553 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.benchmark;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.AssetSerializer;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.MultiFormatAssetSerializerFactory;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.XmlAssetSerializerFactory;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Throughput and latency benchmark for the repository side of asset delivery: the serializers of
+ * {@link MultiFormatAssetSerializerFactory} writing the responses of the webasset web script for a generated
+ * site. The assets carry the same properties as those of the site generated by the client API's
+ * DeliveryBenchmark, which reads the responses written here to measure the client side of each format.
+ * <p>
+ * Not run as part of the unit tests, execute the main method directly:
+ *
+ * <pre>
+ * AssetSerializerBenchmark [threads] [seconds per scenario] [results file] [responses directory]
+ * </pre>
+ *
+ * Each scenario is warmed up and then driven by the given number of threads. The p50 and p99 latency,
+ * throughput, bytes allocated per operation and response size are printed and, if a results file is named,
+ * written to it as JSON. If a responses directory is named, the response of each format for each batch of
+ * assets is written to it, as assets-20.xml, assets-20.json, assets-20.binary and so on.
+ */
+public class AssetSerializerBenchmark
+{
+    public static final String[] FORMATS = { XmlAssetSerializerFactory.FORMAT_XML,
+            MultiFormatAssetSerializerFactory.FORMAT_JSON, MultiFormatAssetSerializerFactory.FORMAT_BINARY };
+    public static final int[] BATCHES = { 20, 1000 };
+
+    private static final int ARTICLES = 20;
+    private static final int IMAGES = 5;
+    private static final String[] WORDS = { "alfresco", "quick", "start", "section", "news", "article",
+            "release", "product", "customer", "partner", "event", "blog", "report", "market", "service",
+            "support", "global", "digital", "content", "delivery", "platform", "cloud", "mobile", "enterprise" };
+
+    private final MultiFormatAssetSerializerFactory factory;
+    private final List<Asset> assets = new ArrayList<Asset>();
+
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String resultsFile = args.length > 2 && args[2].length() > 0 ? args[2] : null;
+        String responsesDir = args.length > 3 ? args[3] : null;
+
+        AssetSerializerBenchmark benchmark = new AssetSerializerBenchmark();
+        if (responsesDir != null)
+        {
+            benchmark.writeResponses(new File(responsesDir));
+        }
+        JSONObject results = benchmark.run(threads, seconds);
+        if (resultsFile != null)
+        {
+            Writer out = new OutputStreamWriter(new FileOutputStream(resultsFile), "UTF-8");
+            try
+            {
+                out.write(results.toString(2));
+            }
+            finally
+            {
+                out.close();
+            }
+            System.out.println("Results written to " + resultsFile);
+        }
+    }
+
+    public AssetSerializerBenchmark()
+    {
+        final Map<String, String> prefixes = new HashMap<String, String>();
+        prefixes.put(NamespaceService.CONTENT_MODEL_1_0_URI, NamespaceService.CONTENT_MODEL_PREFIX);
+        prefixes.put(WebSiteModel.NAMESPACE, "ws");
+        NamespaceService namespaceService = mock(NamespaceService.class);
+        doAnswer(new Answer<Collection<String>>()
+                {
+                    @Override
+                    public Collection<String> answer(InvocationOnMock invocation) throws Throwable
+                    {
+                        return Collections.singletonList(prefixes.get(invocation.getArguments()[0]));
+                    }
+                }).when(namespaceService).getPrefixes(any(String.class));
+        factory = new MultiFormatAssetSerializerFactory();
+        factory.setNamespaceService(namespaceService);
+
+        // Sections of an index page, articles and images, as in the client API's generated site
+        Random random = new Random(42L);
+        Date modified = new Date();
+        int assetsPerSection = 1 + ARTICLES + IMAGES;
+        int maxBatch = BATCHES[BATCHES.length - 1];
+        for (int i = 0; i < maxBatch; i++)
+        {
+            NodeRef section = newNodeRef(1, i / assetsPerSection);
+            int position = i % assetsPerSection;
+            if (position == 0)
+            {
+                assets.add(new Asset(newNodeRef(0, i), WebSiteModel.TYPE_INDEX_PAGE, "index.html", "text/html",
+                        section, modified, random));
+            }
+            else if (position <= ARTICLES)
+            {
+                assets.add(new Asset(newNodeRef(0, i), WebSiteModel.TYPE_ARTICLE, "article-" + (position - 1) + ".html",
+                        "text/html", section, modified, random));
+            }
+            else
+            {
+                assets.add(new Asset(newNodeRef(0, i), WebSiteModel.TYPE_IMAGE, "image-" + (position - 1 - ARTICLES) + ".jpg",
+                        "image/jpeg", section, modified, random));
+            }
+        }
+    }
+
+    private static NodeRef newNodeRef(int kind, int number)
+    {
+        return new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE,
+                String.format("00000000-0000-0000-%04d-%012d", kind, number));
+    }
+
+    /**
+     * Write the given number of assets in the given format, as the webasset web script does.
+     */
+    public void serialize(String format, int count, OutputStream out) throws Exception
+    {
+        AssetSerializer serializer = factory.getAssetSerializer(format);
+        serializer.start(out);
+        for (Asset asset : assets.subList(0, count))
+        {
+            serializer.writeNode(asset.nodeRef, asset.type, asset.properties);
+        }
+        serializer.end();
+    }
+
+    private byte[] serialize(String format, int count) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        serialize(format, count, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the response of each format for each batch of assets to the given directory.
+     */
+    public void writeResponses(File dir) throws Exception
+    {
+        dir.mkdirs();
+        for (String format : FORMATS)
+        {
+            for (int count : BATCHES)
+            {
+                File file = new File(dir, "assets-" + count + "." + format);
+                OutputStream out = new FileOutputStream(file);
+                try
+                {
+                    out.write(serialize(format, count));
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+        }
+        System.out.println("Responses written to " + dir);
+    }
+
+    public JSONObject run(int threads, int seconds) throws Exception
+    {
+        System.out.println("Running with " + threads + " threads for " + seconds + "s per scenario");
+        System.out.println(String.format("  %-32s %12s %10s %10s %10s %12s %12s", "scenario", "ops/s", "p50 us",
+                "p99 us", "max us", "bytes/op", "response"));
+
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        for (final String format : FORMATS)
+        {
+            for (final int count : BATCHES)
+            {
+                final int size = serialize(format, count).length;
+                scenarios.add(new Scenario("serialize." + count + "assets." + format, size)
+                {
+                    public Object execute() throws Exception
+                    {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+                        serialize(format, count, out);
+                        return out;
+                    }
+                });
+            }
+        }
+
+        JSONArray scenarioResults = new JSONArray();
+        for (Scenario scenario : scenarios)
+        {
+            // Warm up with the same number of threads, then measure
+            drive(scenario, threads, Math.max(1, seconds / 2) * 1000L);
+            Result result = drive(scenario, threads, seconds * 1000L);
+            result.print();
+            scenarioResults.put(result.toJSON());
+        }
+
+        JSONObject results = new JSONObject();
+        results.put("timestamp", new Date().getTime());
+        results.put("javaVersion", System.getProperty("java.version"));
+        results.put("threads", threads);
+        results.put("secondsPerScenario", seconds);
+        results.put("scenarios", scenarioResults);
+        return results;
+    }
+
+    private Result drive(final Scenario scenario, int threads, final long durationMillis) throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Recorder[] recorders = new Recorder[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            final Recorder recorder = new Recorder();
+            recorders[i] = recorder;
+            workers[i] = new Thread(scenario.name + "-" + i)
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        recorder.record(scenario, durationMillis);
+                    }
+                    catch (Exception ex)
+                    {
+                        recorder.failure = ex;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        Result result = new Result(scenario, threads, elapsed);
+        for (Recorder recorder : recorders)
+        {
+            if (recorder.failure != null)
+            {
+                throw new RuntimeException("Scenario " + scenario.name + " failed", recorder.failure);
+            }
+            result.add(recorder);
+        }
+        return result;
+    }
+
+    private static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+    /**
+     * An asset as the webasset web script finds it in the repository.
+     */
+    private static class Asset
+    {
+        final NodeRef nodeRef;
+        final QName type;
+        final Map<QName, Serializable> properties = new LinkedHashMap<QName, Serializable>();
+
+        Asset(NodeRef nodeRef, QName type, String name, String mimeType, NodeRef section, Date modified,
+                Random random)
+        {
+            this.nodeRef = nodeRef;
+            this.type = type;
+            ArrayList<NodeRef> parentSections = new ArrayList<NodeRef>(1);
+            parentSections.add(section);
+            properties.put(ContentModel.PROP_MODIFIED, modified);
+            properties.put(ContentModel.PROP_NAME, name);
+            properties.put(ContentModel.PROP_TITLE, words(random, 4));
+            properties.put(ContentModel.PROP_DESCRIPTION, words(random, 20));
+            properties.put(WebSiteModel.PROP_PARENT_SECTIONS, parentSections);
+            properties.put(ContentModel.PROP_CONTENT, new ContentData(null, mimeType, 1024 + random.nextInt(64 * 1024),
+                    "UTF-8"));
+        }
+
+        private static String words(Random random, int count)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < count; i++)
+            {
+                if (i > 0)
+                {
+                    sb.append(' ');
+                }
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            return sb.toString();
+        }
+    }
+
+    private abstract static class Scenario
+    {
+        final String name;
+        final int responseBytes;
+
+        Scenario(String name, int responseBytes)
+        {
+            this.name = name;
+            this.responseBytes = responseBytes;
+        }
+
+        /**
+         * Perform one operation. The result is returned so that the work can't be optimised away.
+         */
+        public abstract Object execute() throws Exception;
+    }
+
+    /**
+     * Drives a scenario on one thread, recording the latency of every operation.
+     */
+    private static class Recorder
+    {
+        final Histogram latencies = new Histogram();
+        long allocated = -1L;
+        int nonNull;
+        Exception failure;
+
+        void record(Scenario scenario, long durationMillis) throws Exception
+        {
+            long allocatedBefore = allocatedBytes();
+            long deadline = System.nanoTime() + durationMillis * 1000000L;
+            long now = System.nanoTime();
+            while (now < deadline)
+            {
+                if (scenario.execute() != null)
+                {
+                    nonNull++;
+                }
+                long end = System.nanoTime();
+                latencies.record(end - now);
+                now = end;
+            }
+            if (allocatedBefore >= 0)
+            {
+                allocated = allocatedBytes() - allocatedBefore;
+            }
+        }
+    }
+
+    private static class Result
+    {
+        final Scenario scenario;
+        final int threads;
+        final long elapsedNanos;
+        final Histogram latencies = new Histogram();
+        long allocated;
+        int nonNull;
+
+        Result(Scenario scenario, int threads, long elapsedNanos)
+        {
+            this.scenario = scenario;
+            this.threads = threads;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void add(Recorder recorder)
+        {
+            latencies.add(recorder.latencies);
+            allocated = (allocated < 0 || recorder.allocated < 0) ? -1L : allocated + recorder.allocated;
+            nonNull += recorder.nonNull;
+        }
+
+        long ops()
+        {
+            return latencies.count;
+        }
+
+        double opsPerSecond()
+        {
+            return ops() * 1e9 / elapsedNanos;
+        }
+
+        double percentileMicros(double percentile)
+        {
+            return latencies.percentile(percentile) / 1000.0;
+        }
+
+        double allocatedPerOp()
+        {
+            return (ops() == 0 || allocated < 0) ? -1.0 : (double) allocated / ops();
+        }
+
+        void print()
+        {
+            System.out.println(String.format("  %-32s %12.0f %10.2f %10.2f %10.2f %12.0f %12d", scenario.name,
+                    opsPerSecond(), percentileMicros(50), percentileMicros(99), percentileMicros(100),
+                    allocatedPerOp(), scenario.responseBytes));
+        }
+
+        JSONObject toJSON() throws Exception
+        {
+            JSONObject json = new JSONObject();
+            json.put("name", scenario.name);
+            json.put("threads", threads);
+            json.put("operations", ops());
+            json.put("nonNullResults", nonNull);
+            json.put("opsPerSecond", opsPerSecond());
+            json.put("p50Micros", percentileMicros(50));
+            json.put("p99Micros", percentileMicros(99));
+            json.put("maxMicros", percentileMicros(100));
+            json.put("allocatedBytesPerOp", allocatedPerOp());
+            json.put("allocatedBytesPerSecond", allocated < 0 ? -1.0 : allocated * 1e9 / elapsedNanos);
+            json.put("responseBytes", scenario.responseBytes);
+            return json;
+        }
+    }
+
+    /**
+     * Latency histogram of a fixed size, so that recording doesn't allocate. Each power of two range is split into
+     * 64 buckets, which keeps the reported percentiles within 1.6% of the recorded values. The maximum is exact.
+     */
+    private static class Histogram
+    {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        final long[] buckets = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+        long count;
+        long max;
+
+        void record(long value)
+        {
+            value = Math.max(0L, value);
+            buckets[index(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        void add(Histogram other)
+        {
+            for (int i = 0; i < buckets.length; i++)
+            {
+                buckets[i] += other.buckets[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * @return the highest value in the bucket holding the given percentile, capped at the maximum recorded
+         */
+        long percentile(double percentile)
+        {
+            if (count == 0)
+            {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++)
+            {
+                seen += buckets[i];
+                if (seen >= rank)
+                {
+                    return Math.min(max, highestValue(i));
+                }
+            }
+            return max;
+        }
+
+        private static int index(long value)
+        {
+            if (value < SUB_BUCKETS)
+            {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        private static long highestValue(int index)
+        {
+            if (index < SUB_BUCKETS)
+            {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.publish;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ */
+public class ChunkedPublisherTest extends TestCase
+{
+    private ChunkedPublisher<Integer> publisher;
+    private RecordingCallback callback;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        publisher = new ChunkedPublisher<Integer>();
+        publisher.setMaxNodesPerTransfer(10);
+        callback = new RecordingCallback();
+    }
+
+    public void testChunksAreBounded()
+    {
+        ChunkedPublisher.Result result = publisher.publish(items(25), callback);
+        assertEquals(25, result.getPublished());
+        assertEquals(0, result.getFailed());
+        assertEquals(3, result.getTransfers());
+        assertEquals(Arrays.asList(10, 10, 5), callback.transferSizes);
+        assertEquals(items(25), callback.transferred);
+    }
+
+    public void testBadItemsAreIsolated()
+    {
+        callback.badItems.add(3);
+        callback.badItems.add(17);
+        ChunkedPublisher.Result result = publisher.publish(items(20), callback);
+        assertEquals(18, result.getPublished());
+        assertEquals(2, result.getFailed());
+        assertEquals(0, result.getDeferred());
+        assertEquals(Arrays.asList(3, 17), callback.failed);
+        List<Integer> expected = items(20);
+        expected.removeAll(callback.badItems);
+        assertEquals(new HashSet<Integer>(expected), new HashSet<Integer>(callback.transferred));
+        // Bisection needs far fewer transfers than trying each item on its own
+        assertTrue(result.getTransfers() < 20);
+    }
+
+    public void testUnavailableTargetDefersTheRest()
+    {
+        callback.targetAvailable = false;
+        ChunkedPublisher.Result result = publisher.publish(items(25), callback);
+        assertEquals(0, result.getPublished());
+        assertEquals(0, result.getFailed());
+        assertEquals(25, result.getDeferred());
+        // The failed chunk is not split and none of its items are charged with the failure
+        assertEquals(1, result.getTransfers());
+        assertTrue(callback.failed.isEmpty());
+        assertTrue(callback.transferred.isEmpty());
+    }
+
+    public void testTargetFailingPartWayDefersTheRest()
+    {
+        callback.availableTransfers = 1;
+        ChunkedPublisher.Result result = publisher.publish(items(25), callback);
+        assertEquals(10, result.getPublished());
+        assertEquals(0, result.getFailed());
+        assertEquals(15, result.getDeferred());
+        assertEquals(2, result.getTransfers());
+        assertEquals(items(10), callback.transferred);
+    }
+
+    public void testWholeChunkOfBadItemsIsIsolated()
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            callback.badItems.add(i);
+        }
+        ChunkedPublisher.Result result = publisher.publish(items(25), callback);
+        assertEquals(15, result.getPublished());
+        assertEquals(10, result.getFailed());
+        assertEquals(0, result.getDeferred());
+        assertEquals(items(10), callback.failed);
+    }
+
+    public void testRetryDelayBacksOff()
+    {
+        publisher.setInitialRetryDelay(1000L);
+        publisher.setMaxRetryDelay(10000L);
+        assertEquals(0L, publisher.getRetryDelay(0));
+        assertEquals(1000L, publisher.getRetryDelay(1));
+        assertEquals(2000L, publisher.getRetryDelay(2));
+        assertEquals(8000L, publisher.getRetryDelay(4));
+        assertEquals(10000L, publisher.getRetryDelay(5));
+        assertEquals(10000L, publisher.getRetryDelay(100));
+    }
+
+    private List<Integer> items(int count)
+    {
+        List<Integer> items = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++)
+        {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private static class RecordingCallback implements ChunkedPublisher.Callback<Integer>
+    {
+        final Set<Integer> badItems = new HashSet<Integer>();
+        final List<Integer> transferSizes = new ArrayList<Integer>();
+        final List<Integer> transferred = new ArrayList<Integer>();
+        final List<Integer> failed = new ArrayList<Integer>();
+        boolean targetAvailable = true;
+        int availableTransfers = Integer.MAX_VALUE;
+
+        public boolean transfer(List<Integer> items)
+        {
+            transferSizes.add(items.size());
+            if (availableTransfers-- <= 0)
+            {
+                targetAvailable = false;
+            }
+            if (!targetAvailable)
+            {
+                return false;
+            }
+            for (Integer item : items)
+            {
+                if (badItems.contains(item))
+                {
+                    return false;
+                }
+            }
+            transferred.addAll(items);
+            return true;
+        }
+
+        public void failed(Integer item)
+        {
+            failed.add(item);
+        }
+
+        public boolean isTargetAvailable()
+        {
+            return targetAvailable;
+        }
+    }
+}
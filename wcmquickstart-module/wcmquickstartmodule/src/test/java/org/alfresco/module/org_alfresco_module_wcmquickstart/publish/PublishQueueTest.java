@@ -0,0 +1,281 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.publish;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.transaction.UserTransaction;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.WCMQuickStartTest;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.SiteHelper;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.transfer.NodeCrawlerFactory;
+import org.alfresco.service.cmr.transfer.TransferDefinition;
+import org.alfresco.service.cmr.transfer.TransferEndEvent;
+import org.alfresco.service.cmr.transfer.TransferException;
+import org.alfresco.service.cmr.transfer.TransferFailureException;
+import org.alfresco.service.cmr.transfer.TransferService2;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.mockito.Mockito;
+
+/**
+ * Publishes the queue of a web site through the module's in-process transfer target. The transfer service is
+ * wrapped so that the transfer of chosen nodes, or of everything, can be made to fail.
+ */
+public class PublishQueueTest extends WCMQuickStartTest
+{
+    private static final String PUBLISH_QUEUE_NAME = "publishingQueue";
+
+    private PublishServiceImpl publishService;
+    private SiteHelper siteHelper;
+    private final Set<NodeRef> badNodes = new HashSet<NodeRef>();
+    private final List<Set<NodeRef>> transfers = new ArrayList<Set<NodeRef>>();
+    private boolean targetDown;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        siteHelper = (SiteHelper) appContext.getBean("org_alfresco_module_wcmquickstart_siteHelper");
+        final TransferService2 transferService = (TransferService2) appContext
+                .getBean("org_alfresco_module_wcmquickstart_transferService");
+
+        publishService = new PublishServiceImpl();
+        publishService.setNodeService(nodeService);
+        publishService.setNamespaceService((NamespaceService) appContext.getBean("NamespaceService"));
+        publishService.setSiteHelper(siteHelper);
+        publishService.setTransferService((TransferService2) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { TransferService2.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                    {
+                        if (targetDown && method.getName().equals("verify"))
+                        {
+                            throw new TransferException("Target is down");
+                        }
+                        if (method.getName().equals("transfer"))
+                        {
+                            Set<NodeRef> nodes = ((TransferDefinition) args[1]).getNodes();
+                            for (NodeRef node : nodes)
+                            {
+                                if (targetDown || badNodes.contains(node))
+                                {
+                                    throw new TransferFailureException(Mockito.mock(TransferEndEvent.class));
+                                }
+                            }
+                            transfers.add(new HashSet<NodeRef>(nodes));
+                        }
+                        try
+                        {
+                            return method.invoke(transferService, args);
+                        }
+                        catch (InvocationTargetException e)
+                        {
+                            throw e.getCause();
+                        }
+                    }
+                }));
+        publishService.setPathMapper((TransferPathMapper) appContext
+                .getBean("org_alfresco_module_wcmquickstart_transferManifestNodeFactory"));
+        publishService.setNodeCrawlerFactory((NodeCrawlerFactory) appContext.getBean("NodeCrawlerFactory"));
+        publishService.setCrawlerConfigurer((NodeCrawlerConfigurer) appContext
+                .getBean("wqsmodule_publishingCrawlerConfigurer"));
+        publishService.setTransactionService(transactionService);
+        publishService.setMaxPublishAttempts(3);
+        publishService.setMaxNodesPerTransfer(10);
+        publishService.setRetryDelaySeconds(3600);
+        publishService.setMaxRetryDelaySeconds(3600);
+
+        UserTransaction userTransaction = transactionService.getUserTransaction();
+        userTransaction.begin();
+        nodeService.createAssociation(editorialSite, liveSite, WebSiteModel.ASSOC_PUBLISH_TARGET);
+        userTransaction.commit();
+    }
+
+    public void testQueueEntriesAreMerged() throws Exception
+    {
+        NodeRef page = createPage("merged.html");
+        NodeRef other = createPage("other.html");
+        enqueue(page);
+        enqueue(page, other);
+        assertEquals(3, getQueueEntries().size());
+
+        publishQueue();
+
+        // Both entries for the page are published by the one transfer and then removed
+        assertEquals(1, transfers.size());
+        assertTrue(transfers.get(0).contains(page));
+        assertTrue(transfers.get(0).contains(other));
+        assertTrue(getQueueEntries().isEmpty());
+        assertPublished("merged.html");
+        assertPublished("other.html");
+    }
+
+    public void testFailedNodeBacksOff() throws Exception
+    {
+        NodeRef good = createPage("good.html");
+        NodeRef bad = createPage("bad.html");
+        badNodes.add(bad);
+        enqueue(good, bad);
+
+        long start = System.currentTimeMillis();
+        publishQueue();
+
+        // The good node is isolated from the bad one and published, the bad one waits before it is tried again
+        assertPublished("good.html");
+        List<NodeRef> entries = getQueueEntries();
+        assertEquals(1, entries.size());
+        Map<QName, Serializable> props = getProperties(entries.get(0));
+        assertEquals(1, props.get(WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT));
+        Date nextAttempt = (Date) props.get(WebSiteModel.PROP_NEXT_PUBLISH_ATTEMPT);
+        assertTrue(nextAttempt.getTime() >= start + 3600000L);
+
+        transfers.clear();
+        publishQueue();
+        assertTrue(transfers.isEmpty());
+        assertEquals(1, getQueueEntries().size());
+
+        // Queuing the node again brings its next attempt forward and its entries are failed together
+        enqueue(bad);
+        publishService.setRetryDelaySeconds(0);
+        publishQueue();
+        entries = getQueueEntries();
+        assertEquals(2, entries.size());
+        for (NodeRef entry : entries)
+        {
+            assertEquals(2, getProperties(entry).get(WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT));
+        }
+
+        // The last permitted attempt removes the node from the queue
+        publishQueue();
+        assertTrue(getQueueEntries().isEmpty());
+    }
+
+    public void testChunksAreRemovedFromTheQueueAsTheyArePublished() throws Exception
+    {
+        publishService.setMaxNodesPerTransfer(1);
+        NodeRef first = createPage("first.html");
+        NodeRef second = createPage("second.html");
+        enqueue(first);
+        enqueue(second);
+
+        targetDown = true;
+        publishQueue();
+
+        // Nothing is charged with the failure of the target
+        List<NodeRef> entries = getQueueEntries();
+        assertEquals(2, entries.size());
+        for (NodeRef entry : entries)
+        {
+            assertNull(getProperties(entry).get(WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT));
+        }
+
+        targetDown = false;
+        badNodes.add(second);
+        publishQueue();
+
+        // The first chunk was removed from the queue when it was published, regardless of the second
+        assertEquals(1, transfers.size());
+        assertTrue(transfers.get(0).contains(first));
+        entries = getQueueEntries();
+        assertEquals(1, entries.size());
+        assertEquals(second.toString(), getProperties(entries.get(0)).get(WebSiteModel.PROP_QUEUED_NODE));
+        assertPublished("first.html");
+    }
+
+    private NodeRef createPage(String name) throws Exception
+    {
+        UserTransaction userTransaction = transactionService.getUserTransaction();
+        userTransaction.begin();
+        NodeRef page = fileFolderService.create(editorialSiteRoot, name, ContentModel.TYPE_CONTENT).getNodeRef();
+        userTransaction.commit();
+        return page;
+    }
+
+    private void enqueue(NodeRef... nodes) throws Exception
+    {
+        UserTransaction userTransaction = transactionService.getUserTransaction();
+        userTransaction.begin();
+        publishService.enqueuePublishedNodes(nodes);
+        userTransaction.commit();
+    }
+
+    private void publishQueue() throws Exception
+    {
+        UserTransaction userTransaction = transactionService.getUserTransaction();
+        userTransaction.begin();
+        publishService.publishQueue(editorialSite);
+        userTransaction.commit();
+    }
+
+    private List<NodeRef> getQueueEntries() throws Exception
+    {
+        UserTransaction userTransaction = transactionService.getUserTransaction();
+        userTransaction.begin();
+        List<NodeRef> entries = new ArrayList<NodeRef>();
+        NodeRef queue = siteHelper.getWebSiteContainer(editorialSite, PUBLISH_QUEUE_NAME);
+        for (ChildAssociationRef assoc : nodeService.getChildAssocs(queue, ContentModel.ASSOC_CONTAINS,
+                RegexQNamePattern.MATCH_ALL))
+        {
+            entries.add(assoc.getChildRef());
+        }
+        userTransaction.commit();
+        return entries;
+    }
+
+    private Map<QName, Serializable> getProperties(NodeRef node) throws Exception
+    {
+        UserTransaction userTransaction = transactionService.getUserTransaction(true);
+        userTransaction.begin();
+        Map<QName, Serializable> props = nodeService.getProperties(node);
+        userTransaction.commit();
+        return props;
+    }
+
+    private void assertPublished(String name) throws Exception
+    {
+        UserTransaction userTransaction = transactionService.getUserTransaction(true);
+        userTransaction.begin();
+        assertNotNull(name + " has not been published", fileFolderService.searchSimple(liveSiteRoot, name));
+        userTransaction.commit();
+    }
+}
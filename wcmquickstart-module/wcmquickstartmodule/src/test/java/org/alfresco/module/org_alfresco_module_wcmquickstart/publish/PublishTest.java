@@ -188,7 +188,11 @@ public class PublishTest extends TestCase implements WebSiteModel
 //		transferService.transfer(targetName, def);
 		
         publishService.enqueuePublishedNodes(section,sectionChild,page);
+        userTransaction.commit();
 
+        //Queued nodes are transferred in transactions of their own, so they must have been committed first
+        userTransaction = transactionService.getUserTransaction();
+        userTransaction.begin();
         long start = System.currentTimeMillis();
 
         publishService.publishQueue(editorialWebroot);
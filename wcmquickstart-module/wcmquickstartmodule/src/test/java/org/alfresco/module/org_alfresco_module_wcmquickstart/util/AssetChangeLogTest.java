@@ -0,0 +1,261 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.AssetChangeLog.Change;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.AssetChangeLog.ChangeSet;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.node.Transaction;
+import org.alfresco.repo.node.archive.NodeArchiveService;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.descriptor.Descriptor;
+import org.alfresco.service.descriptor.DescriptorService;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Tests {@link AssetChangeLog} against mock transaction records
+ */
+public class AssetChangeLogTest extends TestCase
+{
+    private static final String LOG_ID = "repository-id";
+    private static final long NOW = 100000L;
+    private static final long LAG = 5000L;
+    private static final long TO = NOW - LAG;
+    private static final QName TYPE_CONTENT = QName.createQName("http://www.alfresco.org/model/content/1.0", "content");
+
+    private NodeDAO nodeDAO;
+    private NodeService nodeService;
+    private NodeArchiveService nodeArchiveService;
+    private AssetChangeLog changeLog;
+    private long txnId = 0L;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        nodeDAO = mock(NodeDAO.class);
+        nodeService = mock(NodeService.class);
+        nodeArchiveService = mock(NodeArchiveService.class);
+        DictionaryService dictionaryService = mock(DictionaryService.class);
+        when(dictionaryService.isSubClass(WebSiteModel.TYPE_SECTION, WebSiteModel.TYPE_SECTION)).thenReturn(true);
+        Descriptor descriptor = mock(Descriptor.class);
+        when(descriptor.getId()).thenReturn(LOG_ID);
+        DescriptorService descriptorService = mock(DescriptorService.class);
+        when(descriptorService.getCurrentRepositoryDescriptor()).thenReturn(descriptor);
+
+        changeLog = new AssetChangeLog()
+        {
+            @Override
+            protected long currentTimeMillis()
+            {
+                return NOW;
+            }
+        };
+        changeLog.setNodeDAO(nodeDAO);
+        changeLog.setNodeService(nodeService);
+        changeLog.setDictionaryService(dictionaryService);
+        changeLog.setNodeArchiveService(nodeArchiveService);
+        changeLog.setDescriptorService(descriptorService);
+        changeLog.setCommitLagMillis(LAG);
+    }
+
+    public void testUnknownClientIsReset()
+    {
+        ChangeSet changes = changeLog.getChanges(null, 0L, 100);
+        assertTrue(changes.isReset());
+        assertEquals(LOG_ID, changes.getLogId());
+        assertEquals(TO, changes.getSequence());
+        assertTrue(changes.getChanges().isEmpty());
+
+        assertTrue(changeLog.getChanges("some-other-repository", 1000L, 100).isReset());
+        assertTrue(changeLog.getChanges(LOG_ID, 0L, 100).isReset());
+    }
+
+    public void testPurgedTransactionsAreReset()
+    {
+        when(nodeDAO.getMinTxnCommitTime()).thenReturn(2000L);
+        assertTrue(changeLog.getChanges(LOG_ID, 1000L, 100).isReset());
+        assertFalse(changeLog.getChanges(LOG_ID, 2000L, 100).isReset());
+    }
+
+    public void testRecentTransactionsAreNotReportedYet()
+    {
+        ChangeSet changes = changeLog.getChanges(LOG_ID, TO, 100);
+        assertFalse(changes.isReset());
+        assertFalse(changes.isMore());
+        assertEquals(TO, changes.getSequence());
+        assertTrue(changes.getChanges().isEmpty());
+    }
+
+    public void testChangesSince()
+    {
+        NodeRef a = asset("a");
+        NodeRef other = node("other", TYPE_CONTENT);
+        NodeRef b = asset("b");
+        NodeRef c = asset("c");
+        Transaction txn1 = txn(1000L, modified(a), modified(other), modified(new NodeRef("archive", "SpacesStore", "x")));
+        Transaction txn2 = txn(1500L, deleted(b, true), deleted(c, false), modified(a));
+        when(nodeDAO.getTxnsByCommitTimeAscending(900L, TO, 100, null, false)).thenReturn(Arrays.asList(txn1, txn2));
+
+        ChangeSet changes = changeLog.getChanges(LOG_ID, 900L, 100);
+        assertFalse(changes.isReset());
+        assertFalse(changes.isMore());
+        assertEquals(TO, changes.getSequence());
+        // The latest change to a node takes its place, and unarchived deletions and other nodes are left out
+        assertEquals(Arrays.asList(b.toString(), a.toString()), ids(changes));
+        assertEquals(AssetChangeLog.CHANGE_DELETED, changes.getChanges().get(0).getType());
+        assertEquals(AssetChangeLog.CHANGE_MODIFIED, changes.getChanges().get(1).getType());
+        assertEquals(txn2.getId().longValue(), changes.getChanges().get(1).getSequence());
+    }
+
+    public void testSectionChangeReportsParentSection()
+    {
+        NodeRef parent = node("parent", WebSiteModel.TYPE_SECTION);
+        NodeRef section = node("section", WebSiteModel.TYPE_SECTION);
+        when(nodeService.getPrimaryParent(section)).thenReturn(
+                new ChildAssociationRef(null, parent, null, section));
+        NodeRef folder = node("folder", TYPE_CONTENT);
+        when(nodeService.getPrimaryParent(parent)).thenReturn(new ChildAssociationRef(null, folder, null, parent));
+        Transaction txn = txn(1000L, modified(section));
+        when(nodeDAO.getTxnsByCommitTimeAscending(900L, TO, 100, null, false)).thenReturn(Arrays.asList(txn));
+
+        assertEquals(Arrays.asList(section.toString(), parent.toString()), ids(changeLog.getChanges(LOG_ID, 900L, 100)));
+    }
+
+    public void testLimitStopsAtMillisecondBoundary()
+    {
+        Transaction txn1 = txn(1000L, modified(asset("a")), modified(asset("b")));
+        Transaction txn2 = txn(1100L, modified(asset("c")));
+        when(nodeDAO.getTxnsByCommitTimeAscending(900L, TO, 2, null, false)).thenReturn(Arrays.asList(txn1, txn2));
+
+        ChangeSet changes = changeLog.getChanges(LOG_ID, 900L, 2);
+        assertTrue(changes.isMore());
+        assertEquals(1100L, changes.getSequence());
+        assertEquals(2, changes.getChanges().size());
+
+        // Enough changes may come from fewer transactions than the limit
+        Transaction txn3 = txn(1200L, modified(asset("d")));
+        when(nodeDAO.getTxnsByCommitTimeAscending(1100L, TO, 1, null, false)).thenReturn(Arrays.asList(txn2));
+        when(nodeDAO.getTxnsByCommitTimeAscending(1100L, 1101L, Integer.MAX_VALUE, null, false)).thenReturn(
+                Arrays.asList(txn2));
+        changes = changeLog.getChanges(LOG_ID, 1100L, 1);
+        assertTrue(changes.isMore());
+        assertEquals(1101L, changes.getSequence());
+        assertEquals(Arrays.asList(asset("c").toString()), ids(changes));
+
+        when(nodeDAO.getTxnsByCommitTimeAscending(1101L, TO, 5, null, false)).thenReturn(Arrays.asList(txn3));
+        changes = changeLog.getChanges(LOG_ID, 1101L, 5);
+        assertFalse(changes.isMore());
+        assertEquals(TO, changes.getSequence());
+    }
+
+    public void testTransactionsInOneMillisecondAreReadTogether()
+    {
+        Transaction txn1 = txn(1000L, modified(asset("a")));
+        Transaction txn2 = txn(1000L, modified(asset("b")));
+        Transaction txn3 = txn(1000L, modified(asset("c")));
+        when(nodeDAO.getTxnsByCommitTimeAscending(900L, TO, 2, null, false)).thenReturn(Arrays.asList(txn1, txn2));
+        when(nodeDAO.getTxnsByCommitTimeAscending(1000L, 1001L, Integer.MAX_VALUE, null, false)).thenReturn(
+                Arrays.asList(txn1, txn2, txn3));
+
+        ChangeSet changes = changeLog.getChanges(LOG_ID, 900L, 2);
+        assertTrue(changes.isMore());
+        assertEquals(1001L, changes.getSequence());
+        assertEquals(3, changes.getChanges().size());
+    }
+
+    private NodeRef asset(String id)
+    {
+        NodeRef nodeRef = node(id, TYPE_CONTENT);
+        when(nodeService.hasAspect(nodeRef, WebSiteModel.ASPECT_WEBASSET)).thenReturn(true);
+        return nodeRef;
+    }
+
+    private NodeRef node(String id, QName type)
+    {
+        NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+        when(nodeService.exists(nodeRef)).thenReturn(true);
+        when(nodeService.getType(nodeRef)).thenReturn(type);
+        return nodeRef;
+    }
+
+    private Transaction txn(long commitTime, NodeRef.Status... changes)
+    {
+        Transaction txn = mock(Transaction.class);
+        Long id = ++txnId;
+        when(txn.getId()).thenReturn(id);
+        when(txn.getCommitTimeMs()).thenReturn(commitTime);
+        when(nodeDAO.getTxnChanges(id)).thenReturn(Arrays.asList(changes));
+        return txn;
+    }
+
+    private NodeRef.Status modified(NodeRef nodeRef)
+    {
+        NodeRef.Status status = mock(NodeRef.Status.class);
+        when(status.getNodeRef()).thenReturn(nodeRef);
+        return status;
+    }
+
+    private NodeRef.Status deleted(NodeRef nodeRef, boolean archived)
+    {
+        NodeRef.Status status = modified(nodeRef);
+        when(status.isDeleted()).thenReturn(true);
+        when(nodeService.exists(nodeRef)).thenReturn(false);
+        NodeRef archivedNode = new NodeRef(StoreRef.STORE_REF_ARCHIVE_SPACESSTORE, nodeRef.getId());
+        when(nodeArchiveService.getArchivedNode(nodeRef)).thenReturn(archivedNode);
+        if (archived)
+        {
+            when(nodeService.exists(archivedNode)).thenReturn(true);
+            when(nodeService.getType(archivedNode)).thenReturn(TYPE_CONTENT);
+            when(nodeService.hasAspect(archivedNode, WebSiteModel.ASPECT_WEBASSET)).thenReturn(true);
+        }
+        return status;
+    }
+
+    private static List<String> ids(ChangeSet changes)
+    {
+        List<String> ids = new ArrayList<String>();
+        for (Change change : changes.getChanges())
+        {
+            ids.add(change.getId());
+        }
+        return ids;
+    }
+}
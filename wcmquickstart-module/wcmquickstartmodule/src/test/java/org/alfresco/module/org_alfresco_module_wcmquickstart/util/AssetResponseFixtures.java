@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * The golden asset responses held under src/test/resources/asset-responses, one for each format of
+ * {@link MultiFormatAssetSerializerFactory}. They are written by the serializers themselves from a fixed header and
+ * fixed assets covering every value type, so the client API tests its readers against what the repository really
+ * sends, and {@link AssetSerializerFormatsTest} checks that the serializers still write them byte for byte.
+ * <p>
+ * After a deliberate change to a format, write the responses again by running the main method with the test
+ * resources directory:
+ *
+ * <pre>
+ * AssetResponseFixtures src/test/resources
+ * </pre>
+ */
+public class AssetResponseFixtures
+{
+    public static final String DIRECTORY = "asset-responses";
+    public static final String[] FORMATS = { XmlAssetSerializerFactory.FORMAT_XML,
+            MultiFormatAssetSerializerFactory.FORMAT_JSON, MultiFormatAssetSerializerFactory.FORMAT_BINARY };
+
+    private static final String EXIF_MODEL_URI = "http://www.alfresco.org/model/exif/1.0";
+
+    public static void main(String[] args) throws Exception
+    {
+        File dir = new File(args.length > 0 ? args[0] : "src/test/resources", DIRECTORY);
+        dir.mkdirs();
+        for (String format : FORMATS)
+        {
+            File file = new File(dir, "assets." + format);
+            OutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write(serialize(format));
+            }
+            finally
+            {
+                out.close();
+            }
+            System.out.println("Written " + file);
+        }
+    }
+
+    /**
+     * @return the classpath resource name of the golden response of the given format
+     */
+    public static String getResourceName(String format)
+    {
+        return DIRECTORY + "/assets." + format;
+    }
+
+    /**
+     * Write the fixed header and assets in the given format. Times are written in UTC, whatever the time zone of
+     * the JVM, so that the response is the same wherever it is written.
+     */
+    public static byte[] serialize(final String format) throws Exception
+    {
+        // The serializers format times with a per thread formatter, taking the default time zone when it is
+        // first used on the thread, so the response is written on a thread of its own
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            return executor.submit(new Callable<byte[]>()
+            {
+                @Override
+                public byte[] call() throws Exception
+                {
+                    return write(format);
+                }
+            }).get();
+        }
+        finally
+        {
+            TimeZone.setDefault(defaultTimeZone);
+            executor.shutdown();
+        }
+    }
+
+    private static byte[] write(String format) throws Exception
+    {
+        final Map<String, String> prefixes = new HashMap<String, String>();
+        prefixes.put(NamespaceService.DEFAULT_URI, NamespaceService.DEFAULT_PREFIX);
+        prefixes.put(NamespaceService.CONTENT_MODEL_1_0_URI, NamespaceService.CONTENT_MODEL_PREFIX);
+        prefixes.put(WebSiteModel.NAMESPACE, "ws");
+        prefixes.put(EXIF_MODEL_URI, "exif");
+        NamespaceService namespaceService = mock(NamespaceService.class);
+        doAnswer(new Answer<Collection<String>>()
+                {
+                    @Override
+                    public Collection<String> answer(InvocationOnMock invocation) throws Throwable
+                    {
+                        return Collections.singletonList(prefixes.get(invocation.getArguments()[0]));
+                    }
+                }).when(namespaceService).getPrefixes(any(String.class));
+        MultiFormatAssetSerializerFactory factory = new MultiFormatAssetSerializerFactory();
+        factory.setNamespaceService(namespaceService);
+
+        NodeRef section = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "7d1c1a37-0d3b-4f0e-9a4c-3b0f2b6f1a01");
+        NodeRef otherSection = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE,
+                "7d1c1a37-0d3b-4f0e-9a4c-3b0f2b6f1a02");
+
+        // Search results carry a header, the number of matches found
+        Map<QName, Serializable> header = new LinkedHashMap<QName, Serializable>();
+        header.put(QName.createQName("totalResults"), new Long(2L));
+
+        Map<QName, Serializable> feedbackConfig = new LinkedHashMap<QName, Serializable>();
+        feedbackConfig.put(WebSiteModel.PROP_FEEDBACK_TYPE, "comment");
+        feedbackConfig.put(WebSiteModel.PROP_RATING, new Integer(4));
+
+        Map<QName, Serializable> article = new LinkedHashMap<QName, Serializable>();
+        article.put(ContentModel.PROP_NAME, "Café <menu> & \"specials\".html");
+        article.put(ContentModel.PROP_TITLE, "Line one\nline two\ttabbed — 😀");
+        article.put(ContentModel.PROP_DESCRIPTION, null);
+        article.put(ContentModel.PROP_MODIFIED, new Date(1302002042054L));
+        article.put(ContentModel.PROP_SIZE_CURRENT, new Long(6737436288L));
+        article.put(WebSiteModel.PROP_PARENT_SECTIONS, new ArrayList<NodeRef>(Arrays.asList(section, otherSection)));
+        article.put(WebSiteModel.PROP_EXCLUDE_FROM_NAV, Boolean.FALSE);
+        article.put(WebSiteModel.PROP_FEEDBACK_CONFIG, (Serializable) feedbackConfig);
+        article.put(ContentModel.PROP_CONTENT, new ContentData(null, "text/html", 1234L, "UTF-8"));
+        // Not sent
+        article.put(ContentModel.PROP_NODE_DBID, new Long(1021L));
+        article.put(ContentModel.PROP_TAGS, new ArrayList<NodeRef>(Arrays.asList(otherSection)));
+
+        Map<QName, Serializable> image = new LinkedHashMap<QName, Serializable>();
+        image.put(ContentModel.PROP_NAME, "photo.jpg");
+        image.put(ContentModel.PROP_MODIFIED, new Date(1302002043000L));
+        image.put(WebSiteModel.PROP_PARENT_SECTIONS, new ArrayList<NodeRef>(Arrays.asList(section)));
+        image.put(ContentModel.PROP_CATEGORIES, new ArrayList<NodeRef>());
+        image.put(WebSiteModel.PROP_EXCLUDE_FROM_NAV, Boolean.TRUE);
+        image.put(QName.createQName(EXIF_MODEL_URI, "pixelXDimension"), new Integer(1024));
+        image.put(QName.createQName(EXIF_MODEL_URI, "exposureTime"), new Double(0.004));
+        image.put(ContentModel.PROP_CONTENT, new ContentData(null, "image/jpeg", 48213L, "UTF-8"));
+
+        AssetSerializer serializer = factory.getAssetSerializer(format);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.start(out);
+        serializer.writeHeader(header);
+        serializer.writeNode(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE,
+                "0b5c3e2a-9f41-4c7e-8d2b-6a1e4f3c2d01"), WebSiteModel.TYPE_ARTICLE, article);
+        serializer.writeNode(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE,
+                "0b5c3e2a-9f41-4c7e-8d2b-6a1e4f3c2d02"), WebSiteModel.TYPE_IMAGE, image);
+        serializer.end();
+        return out.toByteArray();
+    }
+}
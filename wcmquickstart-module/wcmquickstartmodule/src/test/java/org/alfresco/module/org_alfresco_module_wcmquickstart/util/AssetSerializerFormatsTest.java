@@ -0,0 +1,211 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import junit.framework.TestCase;
+
+public class AssetSerializerFormatsTest extends TestCase
+{
+    private static final NodeRef NODE = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "a");
+
+    private MultiFormatAssetSerializerFactory factory;
+    private Map<QName, Serializable> props;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        NamespaceService namespaceService = mock(NamespaceService.class);
+        doAnswer(new Answer<Collection<String>>()
+                {
+                    @Override
+                    public Collection<String> answer(InvocationOnMock invocation) throws Throwable
+                    {
+                        List<String> reply = new ArrayList<String>();
+                        reply.add("myapp");
+                        return reply;
+                    }
+                }).when(namespaceService).getPrefixes(any(String.class));
+        factory = new MultiFormatAssetSerializerFactory();
+        factory.setNamespaceService(namespaceService);
+
+        props = new LinkedHashMap<QName, Serializable>();
+        props.put(QName.createQName("uri", "textProperty"), "Quote \" and\nnew line");
+        props.put(QName.createQName("uri", "longProperty"), new Long(-6737436288L));
+        props.put(QName.createQName("uri", "doubleProperty"), new Double(132.4352e12));
+        props.put(QName.createQName("uri", "boolProperty"), Boolean.TRUE);
+        props.put(QName.createQName("uri", "dateProperty"), new Date(1302002042054L));
+        props.put(QName.createQName("uri", "missingProperty"), null);
+        props.put(QName.createQName("uri", "contentProperty"), new ContentData(null, "text/html", 1234L, "UTF-8"));
+        props.put(QName.createQName("uri", "intListProperty"), new ArrayList<Integer>(Arrays.asList(1, 2)));
+    }
+
+    public void testFormats() throws Exception
+    {
+        assertTrue(factory.getAssetSerializer(null) instanceof AssetSerializerXmlImpl);
+        assertTrue(factory.getAssetSerializer("xml") instanceof AssetSerializerXmlImpl);
+        assertTrue(factory.getAssetSerializer("json") instanceof AssetSerializerJsonImpl);
+        assertTrue(factory.getAssetSerializer("binary") instanceof AssetSerializerBinaryImpl);
+        assertNull(factory.getAssetSerializer("html"));
+    }
+
+    public void testJson() throws Exception
+    {
+        AssetSerializer serializer = factory.getAssetSerializer("json");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.start(out);
+        serializer.writeNode(NODE, QName.createQName("uri", "MyType"), props);
+        serializer.end();
+
+        JSONObject asset = new JSONObject(out.toString("UTF-8")).getJSONArray("assets").getJSONObject(0);
+        assertEquals(NODE.toString(), asset.getString("id"));
+        assertEquals("myapp:MyType", asset.getString("type"));
+        JSONObject properties = asset.getJSONObject("properties");
+        assertEquals("Quote \" and\nnew line", properties.getJSONArray("myapp:textProperty").getString(1));
+        assertEquals("integer", properties.getJSONArray("myapp:longProperty").getString(0));
+        assertEquals(-6737436288L, properties.getJSONArray("myapp:longProperty").getLong(1));
+        assertEquals(132.4352e12, properties.getJSONArray("myapp:doubleProperty").getDouble(1));
+        assertTrue(properties.getJSONArray("myapp:boolProperty").getBoolean(1));
+        assertEquals("time", properties.getJSONArray("myapp:dateProperty").getString(0));
+        assertTrue(properties.isNull("myapp:missingProperty"));
+        JSONObject content = properties.getJSONArray("myapp:contentProperty").getJSONObject(1);
+        assertEquals("text/html", content.getString("mime"));
+        assertEquals(1234L, content.getLong("size"));
+        JSONArray list = properties.getJSONArray("myapp:intListProperty");
+        assertEquals("list", list.getString(0));
+        assertEquals(2L, list.getJSONArray(1).getJSONArray(1).getLong(1));
+    }
+
+    public void testBinary() throws Exception
+    {
+        AssetSerializer serializer = factory.getAssetSerializer("binary");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.start(out);
+        serializer.writeNode(NODE, QName.createQName("uri", "MyType"), props);
+        serializer.writeNode(NODE, QName.createQName("uri", "MyType"), props);
+        serializer.end();
+        byte[] bytes = out.toByteArray();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        assertEquals("WQSB", new String(magic, "US-ASCII"));
+        assertEquals(AssetSerializerBinaryImpl.VERSION, in.read());
+        assertEquals(AssetSerializerBinaryImpl.RECORD_ASSET, in.read());
+        byte[] first = new byte[readVarInt(in)];
+        in.readFully(first);
+        assertEquals(AssetSerializerBinaryImpl.RECORD_ASSET, in.read());
+        byte[] second = new byte[readVarInt(in)];
+        in.readFully(second);
+        assertEquals(AssetSerializerBinaryImpl.RECORD_END, in.read());
+        assertEquals(-1, in.read());
+
+        // The second asset refers to the names sent with the first
+        String firstText = new String(first, "UTF-8");
+        String secondText = new String(second, "UTF-8");
+        assertTrue(firstText.contains("myapp:textProperty"));
+        assertTrue(firstText.contains("text/html"));
+        assertFalse(secondText.contains("myapp:textProperty"));
+        assertFalse(secondText.contains("text/html"));
+        assertTrue(second.length < first.length);
+    }
+
+    /**
+     * The golden responses read by the client API's tests must be what the serializers write
+     */
+    public void testGoldenResponses() throws Exception
+    {
+        for (String format : AssetResponseFixtures.FORMATS)
+        {
+            String resourceName = AssetResponseFixtures.getResourceName(format);
+            byte[] expected = readResource(resourceName);
+            assertTrue(format + " response no longer matches " + resourceName + ", write it again with " +
+                    AssetResponseFixtures.class.getSimpleName() + " if the change is intended",
+                    Arrays.equals(expected, AssetResponseFixtures.serialize(format)));
+        }
+    }
+
+    private byte[] readResource(String name) throws Exception
+    {
+        InputStream in = getClass().getClassLoader().getResourceAsStream(name);
+        assertNotNull("Missing " + name, in);
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private int readVarInt(DataInputStream in) throws Exception
+    {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do
+        {
+            b = in.read();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -37,7 +37,8 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 
 /**
- * Get a CMIS Session for the request.
+ * Take a guest CMIS Session from the pool for the request and give it back once the request is complete. Guest 
+ * sessions are shared between requests, so a request never waits for one.
  * @author Chris Lack
  */
 public class CmisSessionInterceptor extends HandlerInterceptorAdapter
@@ -58,7 +59,7 @@ public class CmisSessionInterceptor extends HandlerInterceptorAdapter
 			timings.set(System.currentTimeMillis());
 		}
 		
-		// Get an anonymous CMIS session
+		// Use one of the shared anonymous CMIS sessions for the duration of the request
 		Session session = sessionPool.getGuestSession();
 		
 		// Make the session available as a ThreadLocal variable to all
@@ -74,12 +75,17 @@ public class CmisSessionInterceptor extends HandlerInterceptorAdapter
 	@Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception
     {
-		super.afterCompletion(request, response, handler, ex);
-		
 		Session session = CmisSessionHelper.getSession();
-
-		// Return the session to the pool
-		sessionPool.closeSession(session);
+		CmisSessionHelper.setSession(null);
+		try
+		{
+			super.afterCompletion(request, response, handler, ex);
+		}
+		finally
+		{
+			// Return the session to the pool
+			sessionPool.closeSession(session);
+		}
 		
 		if (log.isDebugEnabled())
 		{
@@ -0,0 +1,282 @@
+/*
+ * #%L
+ * Alfresco Web Editor Plugin
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Cache of the JavaScript I18N messages bundles generated by the {@link MessagesWebScript}.
+ * <p>
+ * Each bundle is held as UTF-8 encoded bytes, and optionally gzip compressed as well, along with a strong ETag
+ * computed from a hash of the content. The bundle is written directly to the response, and a request that
+ * already has the current version of the bundle receives a 304 Not Modified response instead.
+ * <p>
+ * The caller decides what the bundle depends on and builds the key from it. The number of bundles held is
+ * bounded with least recently used eviction. The cache is cleared when the web scripts and I18N message
+ * bundles are reset.
+ */
+public class MessagesBundleCache
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private boolean gzip = false;
+    private int maxBundles = 64;
+    
+    private final Map<String, Bundle> bundles = new LinkedHashMap<String, Bundle>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bundle> eldest)
+        {
+            return size() > maxBundles;
+        }
+    };
+    
+    /**
+     * @param gzip  true to also hold a gzip compressed copy of each bundle for clients that accept it
+     */
+    public void setGzip(boolean gzip)
+    {
+        this.gzip = gzip;
+    }
+    
+    /**
+     * @param maxBundles    maximum number of bundles to cache - the least recently used bundle is removed once the cache is full
+     */
+    public void setMaxBundles(int maxBundles)
+    {
+        this.maxBundles = maxBundles;
+    }
+    
+    /**
+     * @param key   cache key
+     * 
+     * @return the cached bundle for the key, or null if there is none
+     */
+    public Bundle get(String key)
+    {
+        synchronized (this.bundles)
+        {
+            return this.bundles.get(key);
+        }
+    }
+    
+    /**
+     * Encode and cache a newly generated bundle.
+     * 
+     * @param key       cache key
+     * @param messages  the generated messages JavaScript
+     * 
+     * @return the encoded bundle
+     */
+    public Bundle put(String key, String messages)
+    {
+        Bundle bundle = new Bundle(messages.getBytes(UTF8), this.gzip);
+        synchronized (this.bundles)
+        {
+            this.bundles.put(key, bundle);
+        }
+        return bundle;
+    }
+    
+    /**
+     * Remove all cached bundles.
+     */
+    public void clear()
+    {
+        synchronized (this.bundles)
+        {
+            this.bundles.clear();
+        }
+    }
+    
+    /**
+     * @return the number of cached bundles
+     */
+    public int size()
+    {
+        synchronized (this.bundles)
+        {
+            return this.bundles.size();
+        }
+    }
+    
+    /**
+     * Write the bundle to the response - or a 304 Not Modified status if the request has an If-None-Match
+     * header with the current ETag of the bundle.
+     * 
+     * @param bundle    bundle to write
+     * @param req       WebScriptRequest
+     * @param res       WebScriptResponse
+     * 
+     * @throws IOException
+     */
+    public void write(Bundle bundle, WebScriptRequest req, WebScriptResponse res) throws IOException
+    {
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        final boolean gzipped = bundle.getGzipped() != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+        final String etag = gzipped ? bundle.getGzipETag() : bundle.getETag();
+        
+        res.setContentType("text/javascript");
+        res.setContentEncoding("UTF-8");
+        res.setHeader("ETag", etag);
+        if (bundle.getGzipped() != null)
+        {
+            res.setHeader("Vary", "Accept-Encoding");
+        }
+        if (matches(req.getHeader("If-None-Match"), etag))
+        {
+            res.setStatus(Status.STATUS_NOT_MODIFIED);
+        }
+        else
+        {
+            final byte[] content = gzipped ? bundle.getGzipped() : bundle.getContent();
+            if (gzipped)
+            {
+                res.setHeader("Content-Encoding", "gzip");
+            }
+            res.setHeader("Content-Length", Integer.toString(content.length));
+            res.getOutputStream().write(content);
+        }
+    }
+    
+    /**
+     * @return true if the If-None-Match header value includes the given ETag
+     */
+    private static boolean matches(String ifNoneMatch, String etag)
+    {
+        if (ifNoneMatch != null)
+        {
+            for (String value : ifNoneMatch.split(","))
+            {
+                value = value.trim();
+                if (value.equals("*") || value.equals(etag))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * An encoded messages bundle.
+     */
+    public static class Bundle
+    {
+        private final byte[] content;
+        private final byte[] gzipped;
+        private final String etag;
+        
+        Bundle(byte[] content, boolean gzip)
+        {
+            this.content = content;
+            this.etag = hash(content);
+            if (gzip)
+            {
+                try
+                {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4);
+                    GZIPOutputStream gzout = new GZIPOutputStream(out);
+                    gzout.write(content);
+                    gzout.close();
+                    this.gzipped = out.toByteArray();
+                }
+                catch (IOException err)
+                {
+                    throw new WebScriptException("Error compressing messages response.", err);
+                }
+            }
+            else
+            {
+                this.gzipped = null;
+            }
+        }
+        
+        private static String hash(byte[] content)
+        {
+            try
+            {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+                StringBuilder sb = new StringBuilder(digest.length * 2);
+                for (byte b : digest)
+                {
+                    sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                return sb.toString();
+            }
+            catch (NoSuchAlgorithmException err)
+            {
+                throw new WebScriptException("Unable to hash messages response.", err);
+            }
+        }
+        
+        /**
+         * @return the UTF-8 encoded bundle
+         */
+        public byte[] getContent()
+        {
+            return this.content;
+        }
+        
+        /**
+         * @return the gzip compressed bundle, or null if compression is not enabled
+         */
+        public byte[] getGzipped()
+        {
+            return this.gzipped;
+        }
+        
+        /**
+         * @return strong ETag for the uncompressed bundle
+         */
+        public String getETag()
+        {
+            return "\"" + this.etag + "\"";
+        }
+        
+        /**
+         * @return strong ETag for the gzip compressed bundle
+         */
+        public String getGzipETag()
+        {
+            return "\"" + this.etag + "-gzip\"";
+        }
+    }
+}
@@ -29,8 +29,12 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.Map;
 
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
 import org.springframework.extensions.surf.util.I18NUtil;
 import org.springframework.extensions.surf.util.StringBuilderWriter;
+import org.springframework.extensions.webscripts.Container;
+import org.springframework.extensions.webscripts.Description;
 import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
@@ -44,11 +48,70 @@ import org.springframework.extensions.webscripts.json.JSONWriter;
  * <code>
  * var msg = Alfresco.messages["messageid"];
  * </code>
+ * <p>
+ * If a {@link MessagesBundleCache} is configured then the generated response is cached per locale and theme,
+ * and served with an ETag so that clients holding the current version receive a 304 Not Modified response.
  * 
  * @author Kevin Roast
  */
 public class MessagesWebScript extends org.springframework.extensions.webscripts.MessagesWebScript
 {
+    private MessagesBundleCache messagesCache;
+    
+    /**
+     * @param messagesCache     cache of generated messages responses - if not set every response is generated
+     */
+    public void setMessagesCache(MessagesBundleCache messagesCache)
+    {
+        this.messagesCache = messagesCache;
+    }
+    
+    @Override
+    public void init(Container container, Description description)
+    {
+        super.init(container, description);
+        
+        // web scripts and message bundles have been reset - cached responses may no longer be valid
+        if (this.messagesCache != null)
+        {
+            this.messagesCache.clear();
+        }
+    }
+    
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
+    {
+        if (this.messagesCache == null)
+        {
+            super.execute(req, res);
+        }
+        else
+        {
+            String locale = req.getParameter("locale");
+            if (locale == null || locale.length() == 0)
+            {
+                locale = I18NUtil.getLocale().toString();
+            }
+            else
+            {
+                // locales written differently but parsed the same give the same messages - key them as one bundle
+                locale = I18NUtil.parseLocale(locale).toString();
+            }
+            String key = locale;
+            final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
+            if (rc != null)
+            {
+                key += '|' + rc.getThemeId();
+            }
+            MessagesBundleCache.Bundle bundle = this.messagesCache.get(key);
+            if (bundle == null)
+            {
+                bundle = this.messagesCache.put(key, generateMessages(req, res, locale));
+            }
+            this.messagesCache.write(bundle, req, res);
+        }
+    }
+    
     /**
      * Generate the message for a given locale.
      * 
@@ -25,6 +25,9 @@
  */
 package org.alfresco.web.config.forms;
 
+import java.util.Set;
+
+import org.alfresco.web.config.forms.EvaluatorMetadataCache.NodeMetadata;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONArray;
@@ -50,6 +53,24 @@ public class AspectEvaluator extends NodeMetadataBasedEvaluator
         return logger;
     }
 
+    /**
+     * This method checks if the specified condition is matched by any of the aspects
+     * within the specified node metadata.
+     * 
+     * @return true if any aspect matches the condition, else false.
+     */
+    @Override
+    protected boolean checkMetadataAgainstCondition(String condition, NodeMetadata metadata)
+    {
+        Set<String> aspects = metadata.getAspects();
+        if (aspects == null)
+        {
+            // report the problem with the response
+            return checkJsonAgainstCondition(condition, metadata.getJson());
+        }
+        return aspects.contains(condition);
+    }
+
     /**
      * This method checks if the specified condition is matched by any of the aspects
      * within the specified jsonResponse String.
@@ -0,0 +1,317 @@
+/*
+ * #%L
+ * Alfresco Web Framework common libraries
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.config.forms;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Cache of the node and task metadata retrieved by the {@link ServiceBasedEvaluator}s, shared
+ * across requests.
+ * <p>
+ * The evaluators are instantiated by the config service rather than by Spring, so a single shared
+ * instance is returned by {@link #getInstance()} - that method is also used as the factory method
+ * of the bean which configures it. Entries hold the parsed metadata so that each evaluation is a
+ * lookup rather than a remote call and JSON parse. They are keyed by the authenticated user as
+ * well as the node or task id, so a user is never given metadata retrieved with the permissions
+ * of another; nothing is cached when there is no authenticated user. The number of entries is
+ * bounded with least recently used eviction and each entry expires after a short time-to-live, as
+ * the type and aspects of a node may be changed at any time. The form UI invalidates the entries
+ * of a node when the form service reports a different type for it than the cached metadata.
+ */
+public class EvaluatorMetadataCache
+{
+    private static Log logger = LogFactory.getLog(EvaluatorMetadataCache.class);
+    
+    private static final EvaluatorMetadataCache INSTANCE = new EvaluatorMetadataCache();
+    
+    private static final String KEY_SEPARATOR = "\n";
+    
+    static final String KIND_NODE = "node";
+    static final String KIND_TASK = "task";
+    
+    private int maxEntries = 1000;
+    private long timeToLive = 10000L;
+    
+    private final Map<String, CachedMetadata> entries = new LinkedHashMap<String, CachedMetadata>(64, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedMetadata> eldest)
+        {
+            return size() > maxEntries;
+        }
+    };
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    
+    /**
+     * @return the instance shared by the evaluators
+     */
+    public static EvaluatorMetadataCache getInstance()
+    {
+        return INSTANCE;
+    }
+    
+    /**
+     * @param maxEntries    Maximum number of node and task metadata entries to hold, zero to disable the cache
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @param timeToLive    Time-to-live of a cached entry in milliseconds
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * Get cached metadata.
+     * 
+     * @param userId    The authenticated user the metadata was retrieved for
+     * @param kind      The kind of metadata e.g. "node" or "task"
+     * @param id        The node or task id
+     * 
+     * @return the parsed metadata or null if not cached or expired, or if there is no user
+     */
+    public Object get(String userId, String kind, String id)
+    {
+        if (userId == null)
+        {
+            return null;
+        }
+        String key = buildKey(userId, kind, id);
+        CachedMetadata cached;
+        synchronized (this.entries)
+        {
+            cached = this.entries.get(key);
+            if (cached != null && cached.expires <= System.currentTimeMillis())
+            {
+                this.entries.remove(key);
+                cached = null;
+            }
+        }
+        if (cached != null)
+        {
+            this.hits.incrementAndGet();
+            return cached.metadata;
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+    
+    /**
+     * Cache metadata.
+     * 
+     * @param userId    The authenticated user the metadata was retrieved for, nothing is cached if null
+     * @param kind      The kind of metadata e.g. "node" or "task"
+     * @param id        The node or task id
+     * @param metadata  The parsed metadata - must not be modified once cached
+     */
+    public void put(String userId, String kind, String id, Object metadata)
+    {
+        if (this.maxEntries <= 0 || userId == null || metadata == null)
+        {
+            return;
+        }
+        CachedMetadata cached = new CachedMetadata(metadata, System.currentTimeMillis() + this.timeToLive);
+        synchronized (this.entries)
+        {
+            this.entries.put(buildKey(userId, kind, id), cached);
+        }
+    }
+    
+    /**
+     * Invalidate the cached metadata of a node or task for all users.
+     * 
+     * @param id    The node or task id
+     */
+    public void invalidate(String id)
+    {
+        final String suffix = KEY_SEPARATOR + id;
+        synchronized (this.entries)
+        {
+            for (Iterator<String> keys = this.entries.keySet().iterator(); keys.hasNext(); /**/)
+            {
+                if (keys.next().endsWith(suffix))
+                {
+                    keys.remove();
+                }
+            }
+        }
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Invalidated cached evaluator metadata of " + id);
+    }
+    
+    /**
+     * @return the number of cached entries
+     */
+    public int getSize()
+    {
+        synchronized (this.entries)
+        {
+            return this.entries.size();
+        }
+    }
+    
+    /**
+     * @return the number of lookups served from the cache
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+    
+    /**
+     * @return the number of lookups not found in the cache
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "EvaluatorMetadataCache[size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+    
+    private static String buildKey(String userId, String kind, String id)
+    {
+        return new StringBuilder(96).append(userId).append(KEY_SEPARATOR)
+                    .append(kind).append(KEY_SEPARATOR).append(id).toString();
+    }
+    
+    
+    /**
+     * A cached entry with its expiry time.
+     */
+    private static class CachedMetadata
+    {
+        final Object metadata;
+        final long expires;
+        
+        CachedMetadata(Object metadata, long expires)
+        {
+            this.metadata = metadata;
+            this.expires = expires;
+        }
+    }
+    
+    /**
+     * The parsed response of the metadata service for a node.
+     */
+    public static class NodeMetadata
+    {
+        private static final String JSON_TYPE = "type";
+        private static final String JSON_ASPECTS = "aspects";
+        
+        private final String json;
+        private final String type;
+        private final Set<String> aspects;
+        
+        /**
+         * @param json  The JSON response of the metadata service. If the type or aspects cannot
+         *              be read from it they are left as null.
+         */
+        public NodeMetadata(String json)
+        {
+            this.json = json;
+            String type = null;
+            Set<String> aspects = null;
+            try
+            {
+                JSONObject obj = new JSONObject(new JSONTokener(json));
+                Object typeObj = obj.opt(JSON_TYPE);
+                if (typeObj instanceof String)
+                {
+                    type = (String)typeObj;
+                }
+                Object aspectsObj = obj.opt(JSON_ASPECTS);
+                if (aspectsObj instanceof JSONArray)
+                {
+                    JSONArray aspectsArray = (JSONArray)aspectsObj;
+                    aspects = new HashSet<String>(aspectsArray.length() * 2);
+                    for (int i = 0; i < aspectsArray.length(); i++)
+                    {
+                        aspects.add(aspectsArray.getString(i));
+                    }
+                    aspects = Collections.unmodifiableSet(aspects);
+                }
+            }
+            catch (JSONException e)
+            {
+                aspects = null;
+            }
+            this.type = type;
+            this.aspects = aspects;
+        }
+        
+        /**
+         * @return the JSON response of the metadata service
+         */
+        public String getJson()
+        {
+            return this.json;
+        }
+        
+        /**
+         * @return the short QName of the node type, null if not present in the response
+         */
+        public String getType()
+        {
+            return this.type;
+        }
+        
+        /**
+         * @return the short QNames of the node aspects, null if not present in the response
+         */
+        public Set<String> getAspects()
+        {
+            return this.aspects;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * Alfresco Web Framework common libraries
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.config.forms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, pre-computed view of the field visibility of a single
+ * {@link FormConfigElement}.
+ * <P/>
+ * The {@link FieldVisibilityManager} applies its show/hide algorithm to the full
+ * sequence of instructions each time it is asked about a field. As the instructions
+ * of a form element do not change once the config has been read (a config reset
+ * parses new elements), this class runs the algorithm once per mode and keeps the
+ * results as ordered lists and hash sets so that form rendering does not have to
+ * rescan the instructions for every field.
+ */
+final class FieldVisibilityIndex
+{
+    private final boolean hasInstructions;
+    private final boolean managingShownFields;
+    
+    private final Map<Mode, List<String>> visibleFields = new EnumMap<Mode, List<String>>(Mode.class);
+    private final Map<Mode, Set<String>> visibleFieldSet = new EnumMap<Mode, Set<String>>(Mode.class);
+    private final Map<Mode, List<String>> hiddenFields = new EnumMap<Mode, List<String>>(Mode.class);
+    private final Map<Mode, Set<String>> explicitlyHiddenFields = new EnumMap<Mode, Set<String>>(Mode.class);
+    private final Map<Mode, Map<String, List<String>>> visibleFieldsBySet = new EnumMap<Mode, Map<String, List<String>>>(Mode.class);
+    private final Set<String> forcedFields;
+    private final Map<String, FormField> fields;
+    
+    /**
+     * 
+     * @param fvm the visibility manager holding the show/hide instructions
+     * @param fields the fields declared in the &lt;appearance&gt; block
+     * @param setIds the ids of all the sets declared for the form
+     * @param forcedFields the ids of the fields declared as 'force'd
+     */
+    FieldVisibilityIndex(FieldVisibilityManager fvm, Map<String, FormField> fields,
+            Set<String> setIds, List<String> forcedFields)
+    {
+        List<FieldVisibilityInstruction> instructions = fvm.getInstructions();
+        this.hasInstructions = !instructions.isEmpty();
+        this.managingShownFields = fvm.getIndexOfFirstShow() != -1;
+        
+        Set<String> fieldsVisibleInAnyMode = new LinkedHashSet<String>();
+        for (Mode m : Mode.values())
+        {
+            List<String> visible = fvm.getFieldNamesVisibleInMode(m);
+            visibleFields.put(m, visible);
+            hiddenFields.put(m, fvm.getFieldNamesHiddenInMode(m));
+            
+            if (visible != null)
+            {
+                visibleFieldSet.put(m, new HashSet<String>(visible));
+                fieldsVisibleInAnyMode.addAll(visible);
+            }
+            
+            Set<String> hides = new HashSet<String>();
+            for (FieldVisibilityInstruction fvi : instructions)
+            {
+                if (fvi.getShowOrHide().equals(Visibility.HIDE) && fvi.getModes().contains(m))
+                {
+                    hides.add(fvi.getFieldId());
+                }
+            }
+            explicitlyHiddenFields.put(m, hides);
+        }
+        
+        // The combined map of fields, as returned by FormConfigElement.getFields().
+        Map<String, FormField> allFields = new LinkedHashMap<String, FormField>(fields);
+        for (String fieldId : fieldsVisibleInAnyMode)
+        {
+            if (allFields.containsKey(fieldId) == false)
+            {
+                allFields.put(fieldId, new FormField(fieldId, null));
+            }
+        }
+        this.fields = Collections.unmodifiableMap(allFields);
+        
+        // Group the visible fields of each mode by set, keeping their order.
+        for (Mode m : Mode.values())
+        {
+            List<String> visible = visibleFields.get(m);
+            if (visible == null)
+            {
+                continue;
+            }
+            Map<String, List<String>> bySet = new HashMap<String, List<String>>(setIds.size() * 2);
+            for (String setId : setIds)
+            {
+                bySet.put(setId, new ArrayList<String>());
+            }
+            for (String fieldId : visible)
+            {
+                String set = this.fields.get(fieldId).getSet();
+                if (set == null)
+                {
+                    // All fields without an explicit set are in the default set.
+                    set = FormConfigElement.DEFAULT_SET_ID;
+                }
+                List<String> members = bySet.get(set);
+                if (members != null)
+                {
+                    members.add(fieldId);
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : bySet.entrySet())
+            {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            visibleFieldsBySet.put(m, bySet);
+        }
+        
+        this.forcedFields = new HashSet<String>(forcedFields);
+    }
+    
+    /**
+     * @see FieldVisibilityManager#isFieldVisible(String, Mode)
+     */
+    boolean isFieldVisible(String fieldId, Mode m)
+    {
+        if (!hasInstructions)
+        {
+            return true;
+        }
+        else if (managingShownFields)
+        {
+            return visibleFieldSet.get(m).contains(fieldId);
+        }
+        else
+        {
+            // There are no "show" tags, only hides.
+            return !explicitlyHiddenFields.get(m).contains(fieldId);
+        }
+    }
+    
+    /**
+     * @see FieldVisibilityManager#isFieldHidden(String, Mode)
+     */
+    boolean isFieldHidden(String fieldId, Mode m)
+    {
+        return explicitlyHiddenFields.get(m).contains(fieldId);
+    }
+    
+    /**
+     * @see FieldVisibilityManager#getFieldNamesVisibleInMode(Mode)
+     */
+    List<String> getFieldNamesVisibleInMode(Mode m)
+    {
+        return visibleFields.get(m);
+    }
+    
+    /**
+     * @see FieldVisibilityManager#getFieldNamesHiddenInMode(Mode)
+     */
+    List<String> getFieldNamesHiddenInMode(Mode m)
+    {
+        return hiddenFields.get(m);
+    }
+    
+    /**
+     * Returns the fields visible in the specified mode which are members of the
+     * specified set.
+     * 
+     * @return the list of field ids or <code>null</code> if the set is unknown or
+     *         the visible fields are not knowable.
+     */
+    List<String> getVisibleFieldNamesForSet(String setId, Mode m)
+    {
+        Map<String, List<String>> bySet = visibleFieldsBySet.get(m);
+        return bySet == null ? null : bySet.get(setId);
+    }
+    
+    boolean isFieldForced(String fieldId)
+    {
+        return forcedFields.contains(fieldId);
+    }
+    
+    /**
+     * @see FormConfigElement#getFields()
+     */
+    Map<String, FormField> getFields()
+    {
+        return fields;
+    }
+}
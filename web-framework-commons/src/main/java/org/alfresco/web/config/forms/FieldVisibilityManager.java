@@ -124,6 +124,16 @@ class FieldVisibilityManager
         return result;
     }
     
+    /**
+     * Returns the show/hide instructions in the order in which they were read.
+     * 
+     * @return an unmodifiable List of the instructions.
+     */
+    List<FieldVisibilityInstruction> getInstructions()
+    {
+        return Collections.unmodifiableList(this.visibilityInstructions);
+    }
+    
     /**
      * This method checks whether the specified field is visible in the specified mode.
      * 
@@ -29,7 +29,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -67,6 +66,10 @@ public class FormConfigElement extends ConfigElementAdapter
     private Map<String, FormField> fields = new LinkedHashMap<String, FormField>(8);
     private List<String> forcedFields = new ArrayList<String>(4);
     
+    // Compiled from the above once the element has been read or combined,
+    // the element is not modified after that point.
+    private transient volatile FieldVisibilityIndex visibilityIndex;
+    
     public FormConfigElement()
     {
         this(FORM_NAME_ID);
@@ -115,6 +118,8 @@ public class FormConfigElement extends ConfigElementAdapter
         
         combineFields(otherFormElem, result);
         
+        result.compileVisibilityIndex();
+        
         return result;
     }
 
@@ -194,6 +199,7 @@ public class FormConfigElement extends ConfigElementAdapter
         FieldVisibilityManager combinedManager
                 = this.fieldVisibilityManager.combine(otherFormElem.fieldVisibilityManager);
         result.fieldVisibilityManager = combinedManager;
+        result.visibilityIndex = null;
     }
 
     private void combineTemplates(FormConfigElement otherFormElem,
@@ -287,39 +293,9 @@ public class FormConfigElement extends ConfigElementAdapter
     public Map<String, FormField> getFields()
     {
         // In the case where we have <field-visibility> but no <appearance> i.e. no <fields>
-        // this method should include FormField objects for each 'show'n field.
+        // this map includes FormField objects for each 'show'n field.
         // These objects will have no associated metadata.
-        
-        // Get field names that are visible in any mode.
-        Set<String> fieldsVisibleInAnyMode = new LinkedHashSet<String>();
-        for (Mode m : Mode.values())
-        {
-            List<String> newFields = fieldVisibilityManager.getFieldNamesVisibleInMode(m);
-            
-            // Insertion order is not affected if an element is re-inserted into the LinkedHashSet
-            if (newFields != null)
-            {
-                fieldsVisibleInAnyMode.addAll(newFields);
-            }
-        }
-        
-        // Put any fields from the <appearance> block into the result.
-        // These fields will have config data.
-        Map<String, FormField> result = new LinkedHashMap<String, FormField>();
-        result.putAll(this.fields);
-
-        // Go through those fields marked as to-be-shown in <field-visibility>
-        // and if they are not already included, add them to the result.
-        // These fields will not have associated data.
-        for (String s : fieldsVisibleInAnyMode)
-        {
-            if (result.containsKey(s) == false) 
-            {
-                result.put(s, new FormField(s, null));
-            }
-        }
-
-        return Collections.unmodifiableMap(result);
+        return getVisibilityIndex().getFields();
     }
     
     public String[] getHiddenCreateFieldNames()
@@ -504,50 +480,8 @@ public class FormConfigElement extends ConfigElementAdapter
 
     private List<String> getVisibleFieldNamesFor(String setId, Mode mode)
     {
-        List <String> result = new ArrayList<String>();
-
-        // Does the requested setId exist?
-        FormSet specifiedSet = getSets().get(setId);
-        if (specifiedSet == null)
-        {
-            return null;
-        }
-
-        // Get all fields visible in the specified mode - irrespective of set membership.
-        final List<String> visibleFields = getFieldNamesVisibleInMode(mode);
-        if (visibleFields == null)
-        {
-            return null;
-        }
-        
-        // Now go through the fields and filter out those that are not members of
-        // the specified set
-        for (String fieldName : visibleFields)
-        {
-            // get field defined in <appearance> block
-            final FormField appearanceField = this.fields.get(fieldName);
-            // if field defined only in <field-visibility>, create it without associated data.
-            final FormField formField = (appearanceField != null) ? appearanceField : new FormField(fieldName, null);
-            
-            String set = null;
-            if (formField != null)
-            {
-                set = formField.getSet();
-            }
-            
-            if (set == null)
-            {
-                // All fields without an explicit set are in the default set.
-                set = FormConfigElement.DEFAULT_SET_ID;
-            }
-            
-            // if set of field matches requested one add to results
-            if (set.equals(setId))
-            {
-                result.add(fieldName);
-            }
-        }
-        return result;
+        // null if the requested setId does not exist or the visible fields are not known.
+        return getVisibilityIndex().getVisibleFieldNamesForSet(setId, mode);
     }
 
     public String getCreateTemplate()
@@ -595,7 +529,7 @@ public class FormConfigElement extends ConfigElementAdapter
      */
     public boolean isFieldVisible(String fieldId, Mode m)
     {
-        return fieldVisibilityManager.isFieldVisible(fieldId, m);
+        return getVisibilityIndex().isFieldVisible(fieldId, m);
     }
     
     /**
@@ -607,7 +541,7 @@ public class FormConfigElement extends ConfigElementAdapter
      */
     public boolean isFieldHidden(String fieldId, Mode m)
     {
-        return fieldVisibilityManager.isFieldHidden(fieldId, m);
+        return getVisibilityIndex().isFieldHidden(fieldId, m);
     }
 
     /**
@@ -653,7 +587,7 @@ public class FormConfigElement extends ConfigElementAdapter
      */
     public boolean isFieldForced(String fieldId)
     {
-        return this.forcedFields.contains(fieldId);
+        return getVisibilityIndex().isFieldForced(fieldId);
     }
     
     public String[] getForcedFields()
@@ -673,14 +607,39 @@ public class FormConfigElement extends ConfigElementAdapter
 
     private List<String> getFieldNamesHiddenInMode(Mode mode)
     {
-        List<String> result = fieldVisibilityManager.getFieldNamesHiddenInMode(mode);
-        return result;
+        return getVisibilityIndex().getFieldNamesHiddenInMode(mode);
     }
 
     private List<String> getFieldNamesVisibleInMode(Mode mode)
     {
-        List<String> result = fieldVisibilityManager.getFieldNamesVisibleInMode(mode);
-        return result;
+        return getVisibilityIndex().getFieldNamesVisibleInMode(mode);
+    }
+    
+    /**
+     * Returns the visibility index for this element, compiling it if the element
+     * has been modified since it was last compiled.
+     */
+    private FieldVisibilityIndex getVisibilityIndex()
+    {
+        FieldVisibilityIndex index = this.visibilityIndex;
+        if (index == null)
+        {
+            index = compileVisibilityIndex();
+        }
+        return index;
+    }
+    
+    /**
+     * Compiles the field visibility, set membership and forced fields of this element
+     * into an immutable {@link FieldVisibilityIndex}. Called once the element has been
+     * read from the config or combined with another element.
+     */
+    /* package */FieldVisibilityIndex compileVisibilityIndex()
+    {
+        FieldVisibilityIndex index = new FieldVisibilityIndex(
+                fieldVisibilityManager, fields, sets.keySet(), forcedFields);
+        this.visibilityIndex = index;
+        return index;
     }
 
     /* package */void setSubmissionURL(String newURL)
@@ -716,6 +675,7 @@ public class FormConfigElement extends ConfigElementAdapter
             String mode, String forceString)
     {
         fieldVisibilityManager.addInstruction(showOrHide, fieldId, mode);
+        this.visibilityIndex = null;
         
         boolean isForced = new Boolean(forceString);
         if (isForced && (this.forcedFields.contains(fieldId) == false))
@@ -759,6 +719,7 @@ public class FormConfigElement extends ConfigElementAdapter
         }
         
         sets.put(setId, newFormSetObject);
+        this.visibilityIndex = null;
         
         // Set parent/child references
         if (parentSetId != null)
@@ -801,6 +762,7 @@ public class FormConfigElement extends ConfigElementAdapter
             attrs.put(attributeNames.get(i), attributeValues.get(i));
         }
         fields.put(fieldId, new FormField(fieldId, attrs));
+        this.visibilityIndex = null;
     }
     
     /* package */ void setFields(Map<String, FormField> newFieldsMap)
@@ -810,6 +772,7 @@ public class FormConfigElement extends ConfigElementAdapter
             logger.debug("Setting new fields map " + newFieldsMap);
         }
         this.fields = newFieldsMap;
+        this.visibilityIndex = null;
     }
     
     /* package */ void addControlForField(String fieldId, String template,
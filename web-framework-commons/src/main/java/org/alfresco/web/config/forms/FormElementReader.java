@@ -94,6 +94,8 @@ class FormElementReader implements ConfigElementReader
 
         parseAppearanceTag(formElement, result);
 
+        result.compileVisibilityIndex();
+
         return result;
     }
 
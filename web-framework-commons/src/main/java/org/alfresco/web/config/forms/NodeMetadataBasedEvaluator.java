@@ -25,9 +25,10 @@
  */
 package org.alfresco.web.config.forms;
 
-import java.util.regex.Matcher;
+import java.util.Collection;
 import java.util.regex.Pattern;
 
+import org.alfresco.web.config.forms.EvaluatorMetadataCache.NodeMetadata;
 import org.springframework.extensions.surf.exception.ConnectorServiceException;
 
 /**
@@ -48,6 +49,18 @@ public abstract class NodeMetadataBasedEvaluator extends ServiceBasedEvaluator
      */
     protected abstract boolean checkJsonAgainstCondition(String condition, String jsonResponseString);
 
+    /**
+     * This method checks if the specified condition is matched by the specified
+     * node metadata. The default implementation checks the JSON response, subclasses
+     * may override it to use the parsed metadata instead.
+     * 
+     * @return true if there is a match, else false.
+     */
+    protected boolean checkMetadataAgainstCondition(String condition, NodeMetadata metadata)
+    {
+        return checkJsonAgainstCondition(condition, metadata.getJson());
+    }
+
     /**
      * Determines whether the given node type matches the path of the given
      * object
@@ -65,34 +78,16 @@ public abstract class NodeMetadataBasedEvaluator extends ServiceBasedEvaluator
             // quick test before running slow match for full NodeRef pattern
             if (objAsString.indexOf(':') != -1)
             {
-                Matcher m = nodeRefPattern.matcher(objAsString);
-                if (m.matches())
+                // a cached entry means the NodeRef pattern has already been matched
+                String userId = getCurrentUserId();
+                NodeMetadata metadata = (NodeMetadata)getMetadataCache().get(userId, EvaluatorMetadataCache.KIND_NODE, objAsString);
+                if (metadata == null && nodeRefPattern.matcher(objAsString).matches())
+                {
+                    metadata = retrieveNodeMetadata(userId, objAsString);
+                }
+                if (metadata != null)
                 {
-                    try
-                    {
-                        String jsonResponseString = callMetadataService(objAsString);
-                        
-                        if (jsonResponseString != null)
-                        {
-                            result = checkJsonAgainstCondition(condition, jsonResponseString);
-                        }
-                        else if (getLogger().isWarnEnabled())
-                        {
-                            getLogger().warn("Metadata service response appears to be null!");
-                        }
-                    }
-                    catch (NotAuthenticatedException ne)
-                    {
-                       // ignore the fact that the lookup failed, the form UI component
-                       // will handle this and return the appropriate status code.
-                    }
-                    catch (ConnectorServiceException e)
-                    {
-                        if (getLogger().isWarnEnabled())
-                        {
-                            getLogger().warn("Failed to connect to metadata service.", e);
-                        }
-                    }
+                    result = checkMetadataAgainstCondition(condition, metadata);
                 }
             }
         }
@@ -100,6 +95,97 @@ public abstract class NodeMetadataBasedEvaluator extends ServiceBasedEvaluator
         return result;
     }
 
+    /**
+     * Returns the metadata of the given node cached for the current user, without calling the
+     * metadata service.
+     * 
+     * @param nodeRef the NodeRef of the node
+     * @return the cached node metadata or null if none is cached
+     */
+    public NodeMetadata getCachedMetadata(String nodeRef)
+    {
+        return (NodeMetadata)getMetadataCache().get(getCurrentUserId(), EvaluatorMetadataCache.KIND_NODE, nodeRef);
+    }
+
+    /**
+     * Returns the metadata of the given node for the current user, calling the metadata service
+     * only if it is not already cached.
+     * 
+     * @param nodeRef the NodeRef of the node
+     * @return the node metadata or null if it could not be retrieved
+     */
+    public NodeMetadata getMetadata(String nodeRef)
+    {
+        NodeMetadata metadata = getCachedMetadata(nodeRef);
+        if (metadata == null && nodeRefPattern.matcher(nodeRef).matches())
+        {
+            metadata = retrieveNodeMetadata(getCurrentUserId(), nodeRef);
+        }
+        return metadata;
+    }
+
+    /**
+     * Retrieves the metadata of the given nodes for the current user in advance, so that the
+     * conditions of all the evaluators subsequently applied to them are evaluated against a
+     * single metadata call for each node. Nodes whose metadata is already cached are skipped.
+     * 
+     * @param nodeRefs the NodeRefs of the nodes
+     * @return the number of nodes whose metadata was retrieved
+     */
+    public int prefetch(Collection<String> nodeRefs)
+    {
+        int retrieved = 0;
+        String userId = getCurrentUserId();
+        EvaluatorMetadataCache cache = getMetadataCache();
+        for (String nodeRef : nodeRefs)
+        {
+            if (cache.get(userId, EvaluatorMetadataCache.KIND_NODE, nodeRef) == null &&
+                nodeRefPattern.matcher(nodeRef).matches() &&
+                retrieveNodeMetadata(userId, nodeRef) != null)
+            {
+                retrieved++;
+            }
+        }
+        return retrieved;
+    }
+
+    /**
+     * Calls the metadata service for the given node and caches the parsed response.
+     * 
+     * @return the node metadata or null if it could not be retrieved
+     */
+    protected NodeMetadata retrieveNodeMetadata(String userId, String nodeRef)
+    {
+        NodeMetadata metadata = null;
+        try
+        {
+            String jsonResponseString = callMetadataService(nodeRef);
+            
+            if (jsonResponseString != null)
+            {
+                metadata = new NodeMetadata(jsonResponseString);
+                getMetadataCache().put(userId, EvaluatorMetadataCache.KIND_NODE, nodeRef, metadata);
+            }
+            else if (getLogger().isWarnEnabled())
+            {
+                getLogger().warn("Metadata service response appears to be null!");
+            }
+        }
+        catch (NotAuthenticatedException ne)
+        {
+           // ignore the fact that the lookup failed, the form UI component
+           // will handle this and return the appropriate status code.
+        }
+        catch (ConnectorServiceException e)
+        {
+            if (getLogger().isWarnEnabled())
+            {
+                getLogger().warn("Failed to connect to metadata service.", e);
+            }
+        }
+        return metadata;
+    }
+
     protected String callMetadataService(String nodeString) throws ConnectorServiceException
     {
         return callService("/api/metadata?nodeRef=" + nodeString + "&shortQNames=true");
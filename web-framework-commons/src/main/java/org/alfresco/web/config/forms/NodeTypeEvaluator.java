@@ -25,6 +25,7 @@
  */
 package org.alfresco.web.config.forms;
 
+import org.alfresco.web.config.forms.EvaluatorMetadataCache.NodeMetadata;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONException;
@@ -48,6 +49,24 @@ public class NodeTypeEvaluator extends NodeMetadataBasedEvaluator
         return logger;
     }
 
+    /**
+     * This method checks if the specified condition is matched by the node type
+     * within the specified node metadata.
+     * 
+     * @return true if the node type matches the condition, else false.
+     */
+    @Override
+    protected boolean checkMetadataAgainstCondition(String condition, NodeMetadata metadata)
+    {
+        String type = metadata.getType();
+        if (type == null)
+        {
+            // report the problem with the response
+            return checkJsonAgainstCondition(condition, metadata.getJson());
+        }
+        return condition.equals(type);
+    }
+
     /**
      * This method checks if the specified condition is matched by the node type
      * within the specified jsonResponse String.
@@ -55,6 +55,23 @@ public abstract class ServiceBasedEvaluator implements Evaluator
 
     protected abstract Log getLogger();
 
+    /**
+     * @return the cache of parsed node and task metadata shared across requests
+     */
+    protected EvaluatorMetadataCache getMetadataCache()
+    {
+        return EvaluatorMetadataCache.getInstance();
+    }
+
+    /**
+     * @return the id of the authenticated user of the current request, null if there is no request
+     */
+    protected String getCurrentUserId()
+    {
+        RequestContext requestContext = ThreadLocalRequestContext.getRequestContext();
+        return requestContext != null ? requestContext.getUserId() : null;
+    }
+
     /**
      * Calls the given service
      * 
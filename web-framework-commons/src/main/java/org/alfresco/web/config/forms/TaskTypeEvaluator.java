@@ -25,7 +25,6 @@
  */
 package org.alfresco.web.config.forms;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -78,72 +77,89 @@ public class TaskTypeEvaluator extends ServiceBasedEvaluator
         {
             String taskId = (String)obj;
             
+            // a cached type means the task id pattern has already been matched
+            String userId = getCurrentUserId();
+            String type = (String)getMetadataCache().get(userId, EvaluatorMetadataCache.KIND_TASK, taskId);
+            
             // make sure we're looking for something that looks like a task id
-            Matcher m = taskIdPattern.matcher(taskId);
-            if (m.matches())
+            if (type == null && taskIdPattern.matcher(taskId).matches())
+            {
+                type = retrieveTaskType(userId, taskId);
+            }
+            
+            // determine whether the condition matches
+            result = condition.equals(type);
+        }
+
+        return result;
+    }
+
+    /**
+     * Calls the task instances service for the given task and caches its type.
+     * 
+     * @return the task type or null if it could not be retrieved
+     */
+    protected String retrieveTaskType(String userId, String taskId)
+    {
+        String type = null;
+        try
+        {
+            // get the task instance details
+            String jsonResponseString = callService("/api/task-instances/" + taskId);
+            
+            // read the task type from the response
+            if (jsonResponseString != null)
             {
-                try
+                JSONObject json = new JSONObject(new JSONTokener(jsonResponseString));
+                if (json.has(JSON_DATA))
                 {
-                    // get the task instance details
-                    String type = null;
-                    String jsonResponseString = callService("/api/task-instances/" + taskId);
-                    
-                    // determine whether the condition matches
-                    if (jsonResponseString != null)
+                    JSONObject dataObj = json.getJSONObject(JSON_DATA);
+                    if (dataObj.has(JSON_DEFINITION))
                     {
-                        JSONObject json = new JSONObject(new JSONTokener(jsonResponseString));
-                        if (json.has(JSON_DATA))
+                        JSONObject defObj = dataObj.getJSONObject(JSON_DEFINITION);
+                        if (defObj.has(JSON_TYPE))
                         {
-                            JSONObject dataObj = json.getJSONObject(JSON_DATA);
-                            if (dataObj.has(JSON_DEFINITION))
+                            JSONObject typeObj = defObj.getJSONObject(JSON_TYPE);
+                            if (typeObj.has(JSON_NAME))
                             {
-                                JSONObject defObj = dataObj.getJSONObject(JSON_DEFINITION);
-                                if (defObj.has(JSON_TYPE))
-                                {
-                                    JSONObject typeObj = defObj.getJSONObject(JSON_TYPE);
-                                    if (typeObj.has(JSON_NAME))
-                                    {
-                                        type = typeObj.getString(JSON_NAME);
-                                        result = (condition.equals(type));
-                                    }
-                                }
+                                type = typeObj.getString(JSON_NAME);
+                                getMetadataCache().put(userId, EvaluatorMetadataCache.KIND_TASK, taskId, type);
                             }
                         }
-                        
-                        // log warning if the type wasn't found
-                        if (type == null && getLogger().isWarnEnabled())
-                        {
-                            getLogger().warn("Failed to find task type for '" + taskId + "' in JSON response from task instances service");
-                        }
-                                    
-                    }
-                    else if (getLogger().isWarnEnabled())
-                    {
-                        getLogger().warn("Task instances service response appears to be null for '" + taskId + "'");
                     }
                 }
-                catch (NotAuthenticatedException ne)
+                
+                // log warning if the type wasn't found
+                if (type == null && getLogger().isWarnEnabled())
                 {
-                   // ignore the fact that the lookup failed, the form UI component
-                   // will handle this and return the appropriate status code.
-                }
-                catch (ConnectorServiceException e)
-                {
-                    if (getLogger().isWarnEnabled())
-                    {
-                        getLogger().warn("Failed to connect to task instances service.", e);
-                    }
-                }
-                catch (JSONException je)
-                {
-                    if (getLogger().isWarnEnabled())
-                    {
-                        getLogger().warn("Failed to find task type for '" + taskId + "' in JSON response from task instances service.", je);
-                    }
+                    getLogger().warn("Failed to find task type for '" + taskId + "' in JSON response from task instances service");
                 }
+                            
+            }
+            else if (getLogger().isWarnEnabled())
+            {
+                getLogger().warn("Task instances service response appears to be null for '" + taskId + "'");
             }
         }
-
-        return result;
+        catch (NotAuthenticatedException ne)
+        {
+           // ignore the fact that the lookup failed, the form UI component
+           // will handle this and return the appropriate status code.
+        }
+        catch (ConnectorServiceException e)
+        {
+            if (getLogger().isWarnEnabled())
+            {
+                getLogger().warn("Failed to connect to task instances service.", e);
+            }
+        }
+        catch (JSONException je)
+        {
+            if (getLogger().isWarnEnabled())
+            {
+                getLogger().warn("Failed to find task type for '" + taskId + "' in JSON response from task instances service.", je);
+            }
+        }
+        return type;
     }
 }
\ No newline at end of file
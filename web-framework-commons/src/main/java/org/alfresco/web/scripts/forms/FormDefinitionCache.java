@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * Alfresco Web Framework common libraries
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts.forms;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.web.config.forms.Mode;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Cache of the type level structure of forms, shared across requests.
+ * <p>
+ * For the <code>type</code> item kind the form definition retrieved from the repository FormService
+ * is cached, as it consists of the field definitions, constraints and default values only. A
+ * <code>node</code> form definition also holds the current values of the node, so the form UI caches
+ * the part of its model that is built from the field definitions and form config instead, and fills
+ * in the values of each node from a fresh form definition. Node forms are keyed by the type and
+ * aspects of the node rather than the node itself, so they are shared by all nodes that have the
+ * same type and aspects. Item kinds such as <code>task</code> are not cached by default.
+ * <p>
+ * Entries are keyed by tenant, item kind, item id, form id, the requested and forced fields, form
+ * mode and locale. The number of entries is bounded with least recently used eviction, each entry
+ * expires after a configurable time-to-live and the whole cache is invalidated when the data
+ * dictionary changes e.g. when a model is activated through the Custom Model Manager.
+ */
+public class FormDefinitionCache
+{
+    private static Log logger = LogFactory.getLog(FormDefinitionCache.class);
+    
+    private static final String KEY_SEPARATOR = "\n";
+    
+    private int maxEntries = 256;
+    private long timeToLive = 300000L;
+    private Set<String> cacheableItemKinds = new HashSet<String>(Arrays.asList("type", "node"));
+    
+    private final Map<String, CachedDefinition> definitions = new LinkedHashMap<String, CachedDefinition>(64, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedDefinition> eldest)
+        {
+            boolean evict = size() > maxEntries;
+            if (evict)
+            {
+                evictions.incrementAndGet();
+            }
+            return evict;
+        }
+    };
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    
+    
+    /**
+     * @param maxEntries    Maximum number of form definitions to hold
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @param timeToLive    Time-to-live of a cached form definition in milliseconds
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * @param cacheableItemKinds    The item kinds whose form definitions may be cached
+     */
+    public void setCacheableItemKinds(Set<String> cacheableItemKinds)
+    {
+        this.cacheableItemKinds = cacheableItemKinds;
+    }
+    
+    /**
+     * @param itemKind  The form item kind
+     * 
+     * @return true if forms for the item kind may be cached
+     */
+    public boolean isCacheable(String itemKind)
+    {
+        return this.maxEntries > 0 && this.cacheableItemKinds.contains(itemKind);
+    }
+    
+    /**
+     * Build the key of a form definition.
+     * 
+     * @param userId        The current user id - only the tenant domain is used
+     * @param itemKind      The form item kind
+     * @param itemId        The form item id, for a node the id of its type and aspects
+     * @param formId        The form id or null for the default form
+     * @param visibleFields The requested fields or null for all fields
+     * @param forcedFields  The forced fields or null
+     * @param mode          The form mode
+     * @param locale        The current locale
+     * 
+     * @return the key
+     */
+    public String buildKey(String userId, String itemKind, String itemId, String formId, List<String> visibleFields,
+                List<String> forcedFields, Mode mode, Locale locale)
+    {
+        StringBuilder key = new StringBuilder(128);
+        int idx = (userId != null ? userId.indexOf('@') : -1);
+        key.append(idx != -1 ? userId.substring(idx) : "").append(KEY_SEPARATOR)
+           .append(itemKind).append(KEY_SEPARATOR)
+           .append(itemId).append(KEY_SEPARATOR)
+           .append(formId).append(KEY_SEPARATOR)
+           .append(visibleFields).append(KEY_SEPARATOR)
+           .append(forcedFields).append(KEY_SEPARATOR)
+           .append(mode).append(KEY_SEPARATOR)
+           .append(locale);
+        return key.toString();
+    }
+    
+    /**
+     * Get a cached form definition or node form structure.
+     * 
+     * @param key   The key from {@link #buildKey}
+     * 
+     * @return the form definition or structure, or null if not cached or expired. It is shared and
+     *         must not be modified by the caller.
+     */
+    public Object get(String key)
+    {
+        CachedDefinition cached;
+        synchronized (this.definitions)
+        {
+            cached = this.definitions.get(key);
+            if (cached != null && cached.expires <= System.currentTimeMillis())
+            {
+                this.definitions.remove(key);
+                cached = null;
+            }
+        }
+        if (cached != null)
+        {
+            this.hits.incrementAndGet();
+            return cached.definition;
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+    
+    /**
+     * Cache a form definition or node form structure.
+     * 
+     * @param key           The key from {@link #buildKey}
+     * @param definition    The parsed form definition or the structure - must not be modified once cached
+     */
+    public void put(String key, Object definition)
+    {
+        CachedDefinition cached = new CachedDefinition(definition, System.currentTimeMillis() + this.timeToLive);
+        synchronized (this.definitions)
+        {
+            this.definitions.put(key, cached);
+        }
+    }
+    
+    /**
+     * Invalidate all cached form definitions e.g. following a change to the data dictionary.
+     */
+    public void invalidateAll()
+    {
+        synchronized (this.definitions)
+        {
+            this.definitions.clear();
+        }
+        this.invalidations.incrementAndGet();
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Invalidated all cached form definitions.");
+    }
+    
+    /**
+     * Invalidate the cached form definitions for an item.
+     * 
+     * @param itemKind  The form item kind
+     * @param itemId    The form item id
+     */
+    public void invalidate(String itemKind, String itemId)
+    {
+        final String match = KEY_SEPARATOR + itemKind + KEY_SEPARATOR + itemId + KEY_SEPARATOR;
+        synchronized (this.definitions)
+        {
+            for (Iterator<String> keys = this.definitions.keySet().iterator(); keys.hasNext(); /**/)
+            {
+                if (keys.next().contains(match))
+                {
+                    keys.remove();
+                }
+            }
+        }
+        this.invalidations.incrementAndGet();
+    }
+    
+    /**
+     * @return the number of cached form definitions
+     */
+    public int getSize()
+    {
+        synchronized (this.definitions)
+        {
+            return this.definitions.size();
+        }
+    }
+    
+    /**
+     * @return the number of requests served from the cache
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+    
+    /**
+     * @return the number of requests for cacheable definitions not found in the cache
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+    
+    /**
+     * @return the number of definitions evicted to keep within the maximum number of entries
+     */
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+    
+    /**
+     * @return the number of invalidations performed
+     */
+    public long getInvalidations()
+    {
+        return this.invalidations.get();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "FormDefinitionCache[size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() +
+               ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + "]";
+    }
+    
+    
+    /**
+     * A cached form definition or structure with its expiry time.
+     */
+    private static class CachedDefinition
+    {
+        final Object definition;
+        final long expires;
+        
+        CachedDefinition(Object definition, long expires)
+        {
+            this.definition = definition;
+            this.expires = expires;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 import javax.servlet.http.HttpSession;
 
@@ -40,11 +41,15 @@ import org.alfresco.web.config.forms.ConstraintHandlersConfigElement;
 import org.alfresco.web.config.forms.Control;
 import org.alfresco.web.config.forms.ControlParam;
 import org.alfresco.web.config.forms.DefaultControlsConfigElement;
+import org.alfresco.web.config.forms.EvaluatorMetadataCache;
+import org.alfresco.web.config.forms.EvaluatorMetadataCache.NodeMetadata;
 import org.alfresco.web.config.forms.FormConfigElement;
 import org.alfresco.web.config.forms.FormField;
 import org.alfresco.web.config.forms.FormSet;
 import org.alfresco.web.config.forms.FormsConfigElement;
 import org.alfresco.web.config.forms.Mode;
+import org.alfresco.web.config.forms.NodeMetadataBasedEvaluator;
+import org.alfresco.web.config.forms.NodeTypeEvaluator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONArray;
@@ -126,6 +131,8 @@ public class FormUIGet extends DeclarativeWebScript
     
     protected static final String CONFIG_FORMS = "forms";
     
+    protected static final String ITEM_KIND_NODE = "node";
+    
     protected static final String PARAM_ITEM_KIND = "itemKind";
     protected static final String PARAM_ITEM_ID = "itemId";
     protected static final String PARAM_FORM_ID = "formId";
@@ -205,8 +212,12 @@ public class FormUIGet extends DeclarativeWebScript
      
     protected ConfigService configService;
     
+    protected FormDefinitionCache formDefinitionCache;
+    
     private MessageHelper messageHelper = null;
     
+    private final NodeMetadataBasedEvaluator nodeMetadataEvaluator = new NodeTypeEvaluator();
+    
     /**
      * Sets the ConfigService instance
      * 
@@ -216,6 +227,16 @@ public class FormUIGet extends DeclarativeWebScript
     {
         this.configService = configService;
     }
+    
+    /**
+     * Sets the optional cache of form definitions shared across requests
+     * 
+     * @param formDefinitionCache FormDefinitionCache
+     */
+    public void setFormDefinitionCache(FormDefinitionCache formDefinitionCache)
+    {
+        this.formDefinitionCache = formDefinitionCache;
+    }
 
     @Override
     protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
@@ -259,6 +280,12 @@ public class FormUIGet extends DeclarativeWebScript
      */
     protected Map<String, Object> generateModel(String itemKind, String itemId, 
                 WebScriptRequest request, Status status, Cache cache)
+    {
+        return generateModel(itemKind, itemId, request, status, cache, true);
+    }
+    
+    private Map<String, Object> generateModel(String itemKind, String itemId, 
+                WebScriptRequest request, Status status, Cache cache, boolean checkNodeType)
     {
         Map<String, Object> model = null;
         
@@ -274,11 +301,62 @@ public class FormUIGet extends DeclarativeWebScript
         FormConfigElement formConfig = getFormConfig(itemId, formId);
         List<String> visibleFields = getVisibleFields(mode, formConfig);
         
+        // node forms share their type level structure with the other nodes of the same type and aspects
+        String cacheKey = null;
+        if (this.formDefinitionCache != null && this.formDefinitionCache.isCacheable(itemKind))
+        {
+            String cacheItemId = (ITEM_KIND_NODE.equals(itemKind) ? getNodeStructureId(itemId) : itemId);
+            if (cacheItemId != null)
+            {
+                cacheKey = this.formDefinitionCache.buildKey(ThreadLocalRequestContext.getRequestContext().getUserId(),
+                            itemKind, cacheItemId, formId, visibleFields, getForcedFields(visibleFields, formConfig),
+                            mode, I18NUtil.getLocale());
+            }
+        }
+        
+        // use the cached form definition if the item kind describes type level structure only
+        if (cacheKey != null && !ITEM_KIND_NODE.equals(itemKind))
+        {
+            JSONObject formDefinition = (JSONObject)this.formDefinitionCache.get(cacheKey);
+            if (formDefinition != null)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Using cached form definition for item: [" + itemKind + "]" + itemId);
+                
+                return generateFormModel(request, mode, formDefinition, formConfig);
+            }
+        }
+        
         // get the form definition from the form service
         Response formSvcResponse = retrieveFormDefinition(itemKind, itemId, visibleFields, formConfig);
         if (formSvcResponse.getStatus().getCode() == Status.STATUS_OK)
         {
-            model = generateFormModel(request, mode, formSvcResponse, formConfig);
+            if (ITEM_KIND_NODE.equals(itemKind))
+            {
+                JSONObject formDefinition = parseFormDefinition(formSvcResponse);
+                if (formDefinition != null)
+                {
+                    if (checkNodeType && invalidateChangedNodeMetadata(itemId, formDefinition))
+                    {
+                        // the form config was looked up against a type the node no longer has
+                        return generateModel(itemKind, itemId, request, status, cache, false);
+                    }
+                    model = generateNodeFormModel(request, mode, formDefinition, formConfig, cacheKey);
+                }
+            }
+            else if (cacheKey != null)
+            {
+                JSONObject formDefinition = parseFormDefinition(formSvcResponse);
+                if (formDefinition != null)
+                {
+                    this.formDefinitionCache.put(cacheKey, formDefinition);
+                    model = generateFormModel(request, mode, formDefinition, formConfig);
+                }
+            }
+            else
+            {
+                model = generateFormModel(request, mode, formSvcResponse, formConfig);
+            }
         }
         else if (formSvcResponse.getStatus().getCode() == Status.STATUS_UNAUTHORIZED)
         {
@@ -335,6 +413,49 @@ public class FormUIGet extends DeclarativeWebScript
         return value; 
     }
     
+    /**
+     * Invalidates the cached metadata of the node the form is for if the form definition gives the
+     * node a different type. The metadata may have been cached by an earlier request, before the
+     * type of the node was changed, and the form config would then have been looked up against the
+     * old type. Otherwise the cached metadata is used until it expires.
+     * 
+     * @param nodeRef The NodeRef of the node
+     * @param formDefinition The form definition of the node
+     * @return true if the metadata was invalidated
+     */
+    protected boolean invalidateChangedNodeMetadata(String nodeRef, JSONObject formDefinition)
+    {
+        NodeMetadata metadata = this.nodeMetadataEvaluator.getCachedMetadata(nodeRef);
+        JSONObject data = formDefinition.optJSONObject(MODEL_DATA);
+        String type = (data != null ? data.optString(MODEL_TYPE, null) : null);
+        if (metadata != null && type != null && !type.equals(metadata.getType()))
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Type of node " + nodeRef + " has changed from " + metadata.getType() + " to " + type);
+            
+            EvaluatorMetadataCache.getInstance().invalidate(nodeRef);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns an id for the type and aspects of a node, under which the type level structure of its
+     * forms is cached.
+     * 
+     * @param nodeRef The NodeRef of the node
+     * @return The id or null if the metadata of the node could not be retrieved
+     */
+    protected String getNodeStructureId(String nodeRef)
+    {
+        NodeMetadata metadata = this.nodeMetadataEvaluator.getMetadata(nodeRef);
+        if (metadata == null || metadata.getType() == null || metadata.getAspects() == null)
+        {
+            return null;
+        }
+        return metadata.getType() + new TreeSet<String>(metadata.getAspects());
+    }
+    
     /**
      * Returns the form configuration for the given item id and optional form id.
      * 
@@ -500,6 +621,33 @@ public class FormUIGet extends DeclarativeWebScript
         return response;
     }
     
+    /**
+     * Returns the list of the given visible fields that are configured to be forced.
+     * 
+     * @param visibleFields The list of visible field names or null
+     * @param formConfig The form configuration
+     * @return List of forced field names or null if there are none
+     */
+    protected List<String> getForcedFields(List<String> visibleFields, FormConfigElement formConfig)
+    {
+        List<String> forcedFields = null;
+        if (visibleFields != null && visibleFields.size() > 0)
+        {
+            for (String fieldId : visibleFields)
+            {
+                if (formConfig.isFieldForced(fieldId))
+                {
+                    if (forcedFields == null)
+                    {
+                        forcedFields = new ArrayList<String>(4);
+                    }
+                    forcedFields.add(fieldId);
+                }
+            }
+        }
+        return forcedFields;
+    }
+    
     /**
      * Helper to build a map of the default headers for script requests - we send over
      * the current users locale so it can be respected by any appropriate REST APIs.
@@ -610,6 +758,70 @@ public class FormUIGet extends DeclarativeWebScript
      */
     protected Map<String, Object> generateFormModel(WebScriptRequest request, Mode mode, 
                 Response formSvcResponse, FormConfigElement formConfig)
+    {
+        JSONObject formDefinition = parseFormDefinition(formSvcResponse);
+        return formDefinition != null ? generateFormModel(request, mode, formDefinition, formConfig) : null;
+    }
+    
+    /**
+     * Generates the "form" model passed to the FreeMarker engine.
+     * 
+     * @param request The WebScriptRequest
+     * @param mode The mode of the form
+     * @param formDefinition The form definition, this is not modified
+     * @param formConfig The form configuration
+     * @return Map representing the "form" model
+     */
+    protected Map<String, Object> generateFormModel(WebScriptRequest request, Mode mode, 
+                JSONObject formDefinition, FormConfigElement formConfig)
+    {
+        // create model to return
+        Map<String, Object> model = new HashMap<String, Object>(1);
+        model.put(MODEL_FORM, generateFormUIModel(new ModelContext(request, mode, formDefinition, formConfig)));
+        return model;
+    }
+    
+    /**
+     * Generates the "form" model of a node. If the type level part of the model has been cached for
+     * nodes with the same type and aspects it is reused, and only the values of the fields are taken
+     * from the form definition. Otherwise the whole model is generated and its type level part cached.
+     * 
+     * @param request The WebScriptRequest
+     * @param mode The mode of the form
+     * @param formDefinition The form definition of the node, this is not modified
+     * @param formConfig The form configuration
+     * @param cacheKey The key of the type level part of the model or null if it is not to be cached
+     * @return Map representing the "form" model
+     */
+    protected Map<String, Object> generateNodeFormModel(WebScriptRequest request, Mode mode, 
+                JSONObject formDefinition, FormConfigElement formConfig, String cacheKey)
+    {
+        FormStructure formStructure = null;
+        if (cacheKey != null)
+        {
+            formStructure = (FormStructure)this.formDefinitionCache.get(cacheKey);
+        }
+        
+        ModelContext context = new ModelContext(request, mode, formDefinition, formConfig);
+        context.setFormStructure(formStructure);
+        Map<String, Object> model = new HashMap<String, Object>(1);
+        model.put(MODEL_FORM, generateFormUIModel(context));
+        
+        if (cacheKey != null && formStructure == null)
+        {
+            this.formDefinitionCache.put(cacheKey, new FormStructure(context));
+        }
+        
+        return model;
+    }
+    
+    /**
+     * Parses the form definition from the FormService response.
+     * 
+     * @param formSvcResponse Response representing the form definition
+     * @return JSONObject representing the form definition or null if it could not be parsed
+     */
+    protected JSONObject parseFormDefinition(Response formSvcResponse)
     {
         try
         {
@@ -619,12 +831,7 @@ public class FormUIGet extends DeclarativeWebScript
                 logger.debug("form definition JSON = \n" + jsonResponse);
                 
             // create JSON representation of form defintion from response
-            JSONObject formDefinition = new JSONObject(new JSONTokener(jsonResponse));
-        
-            // create model to return
-            Map<String, Object> model = new HashMap<String, Object>(1);
-            model.put(MODEL_FORM, generateFormUIModel(new ModelContext(request, mode, formDefinition, formConfig)));
-            return model;
+            return new JSONObject(new JSONTokener(jsonResponse));
         }
         catch (JSONException je)
         {
@@ -1101,7 +1308,11 @@ public class FormUIGet extends DeclarativeWebScript
     {
         List<String> visibleFields = getVisibleFields(context.getMode(), context.getFormConfig());
         
-        if (context.getFormConfig() != null && visibleFields != null && visibleFields.size() > 0)
+        if (context.getFormStructure() != null)
+        {
+            processCachedFields(context);
+        }
+        else if (context.getFormConfig() != null && visibleFields != null && visibleFields.size() > 0)
         {
            processVisibleFields(context);
         }
@@ -1115,6 +1326,39 @@ public class FormUIGet extends DeclarativeWebScript
         formUIModel.put(MODEL_CONSTRAINTS, context.getConstraints());
     }
     
+    /**
+     * Processes the fields from a cached form structure, filling in the values
+     * of the fields from the form definition.
+     * 
+     * @param context The context
+     */
+    protected void processCachedFields(ModelContext context)
+    {
+        FormStructure formStructure = context.getFormStructure();
+        context.getStructure().addAll(formStructure.getStructure());
+        context.getConstraints().addAll(formStructure.getConstraints());
+        
+        for (Map.Entry<String, Field> entry : formStructure.getFields().entrySet())
+        {
+            Field field = new Field(entry.getValue());
+            if (!field.isTransitory())
+            {
+                JSONObject fieldDefinition = discoverFieldDefinition(context, field.getConfigName());
+                try
+                {
+                    processFieldValue(context, field, fieldDefinition);
+                    processFieldContent(context, field, fieldDefinition, null);
+                }
+                catch (JSONException je)
+                {
+                    if (logger.isErrorEnabled())
+                        logger.error("Failed to process value of field \"" + field.getConfigName() + "\"", je);
+                }
+            }
+            context.getFields().put(entry.getKey(), field);
+        }
+    }
+    
     /**
      * Processes the fields configured to be visible for the form.
      * 
@@ -1701,6 +1945,28 @@ public class FormUIGet extends DeclarativeWebScript
             field.setDataType(fieldDefinition.getString(MODEL_ENDPOINT_TYPE));
         }
         field.setDataKeyName(fieldDefinition.getString(MODEL_DATA_KEY_NAME));
+        processFieldValue(context, field, fieldDefinition);
+        
+        if (fieldDefinition.has(MODEL_INDEX_TOKENISATION_MODE))
+        {
+            if (fieldDefinition.getString(MODEL_INDEX_TOKENISATION_MODE).toUpperCase().equals("FALSE"))
+            {
+                field.setIndexTokenisationMode(fieldDefinition.getString(MODEL_INDEX_TOKENISATION_MODE));
+            }
+        }
+    }
+    
+    /**
+     * Processes the value of the field.
+     * 
+     * @param context The context
+     * @param field The field to be processed
+     * @param fieldDefinition The definition of the field to be processed, may be null
+     * @throws JSONException
+     */
+    protected void processFieldValue(ModelContext context, Field field, 
+                JSONObject fieldDefinition) throws JSONException
+    {
         field.setValue("");
 
         // extract the data for the field from the 'formData' JSON object
@@ -1717,18 +1983,10 @@ public class FormUIGet extends DeclarativeWebScript
         // if the value is still empty, we're in create mode and the 
         // field has a default value use it for initial value
         if (field.getValue().equals("") && context.getMode().equals(Mode.CREATE) &&
-            fieldDefinition.has(MODEL_DEFAULT_VALUE))
+            fieldDefinition != null && fieldDefinition.has(MODEL_DEFAULT_VALUE))
         {
             field.setValue(fieldDefinition.getString(MODEL_DEFAULT_VALUE));
         }
-        
-        if (fieldDefinition.has(MODEL_INDEX_TOKENISATION_MODE))
-        {
-            if (fieldDefinition.getString(MODEL_INDEX_TOKENISATION_MODE).toUpperCase().equals("FALSE"))
-            {
-                field.setIndexTokenisationMode(fieldDefinition.getString(MODEL_INDEX_TOKENISATION_MODE));
-            }
-        }
     }
     
     /**
@@ -1895,7 +2153,9 @@ public class FormUIGet extends DeclarativeWebScript
         
         if (constraintDefinition.has(MODEL_PARAMETERS))
         {
-            constraintParams = constraintDefinition.getJSONObject(MODEL_PARAMETERS);
+            // copy the parameters as the constraint model adds to them and the form
+            // definition may be shared with other requests via the FormDefinitionCache
+            constraintParams = new JSONObject(constraintDefinition.getJSONObject(MODEL_PARAMETERS).toString());
         }
         else
         {
@@ -2483,6 +2743,7 @@ public class FormUIGet extends DeclarativeWebScript
         private List<Constraint> constraints;
         private List<Element> structure;
         private Map<String, Field> fields;
+        private FormStructure formStructure;
         
         protected ModelContext(WebScriptRequest request, Mode mode, 
                     JSONObject formDefinition, FormConfigElement formConfig)
@@ -2595,6 +2856,54 @@ public class FormUIGet extends DeclarativeWebScript
             
             return this.fields;
         }
+
+        public FormStructure getFormStructure()
+        {
+            return this.formStructure;
+        }
+
+        public void setFormStructure(FormStructure formStructure)
+        {
+            this.formStructure = formStructure;
+        }
+    }
+    
+    /**
+     * Inner class used to hold the type level part of the model of a node form: the fields
+     * without their values, the structure and the constraints. It is shared by the forms of
+     * all the nodes with the same type and aspects, so it is not modified once created.
+     */
+    protected class FormStructure
+    {
+        private final Map<String, Field> fields;
+        private final List<Element> structure;
+        private final List<Constraint> constraints;
+        
+        protected FormStructure(ModelContext context)
+        {
+            this.fields = new HashMap<String, Field>(context.getFields().size() * 2);
+            for (Map.Entry<String, Field> entry : context.getFields().entrySet())
+            {
+                this.fields.put(entry.getKey(), new Field(entry.getValue()));
+            }
+            this.structure = new ArrayList<Element>(context.getStructure());
+            this.constraints = new ArrayList<Constraint>(context.getConstraints());
+        }
+
+        public Map<String, Field> getFields()
+        {
+            return this.fields;
+        }
+
+        public List<Element> getStructure()
+        {
+            return this.structure;
+        }
+
+        public List<Constraint> getConstraints()
+        {
+            return this.constraints;
+        }
     }
     
     /**
@@ -2752,6 +3061,33 @@ public class FormUIGet extends DeclarativeWebScript
             this.kind = FIELD;
         }
         
+        /**
+         * Copies the given field, other than its value and content. The value of a
+         * transitory field is not taken from the form data so is copied too.
+         */
+        Field(Field field)
+        {
+            this.kind = FIELD;
+            this.id = field.id;
+            this.name = field.name;
+            this.configName = field.configName;
+            this.label = field.label;
+            this.description = field.description;
+            this.help = field.help;
+            this.helpEncodeHtml = field.helpEncodeHtml;
+            this.control = field.control;
+            this.dataKeyName = field.dataKeyName;
+            this.dataType = field.dataType;
+            this.type = field.type;
+            this.endpointDirection = field.endpointDirection;
+            this.value = (field.transitory ? field.value : null);
+            this.disabled = field.disabled;
+            this.mandatory = field.mandatory;
+            this.transitory = field.transitory;
+            this.repeating = field.repeating;
+            this.indexTokenisationMode = field.indexTokenisationMode;
+        }
+        
         public void setId(String id)
         {
             this.id = id;
@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * Alfresco Web Framework common libraries
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.config.forms;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.alfresco.web.config.forms.EvaluatorMetadataCache.NodeMetadata;
+
+/**
+ * Tests for the {@link EvaluatorMetadataCache} and its use by the node metadata evaluators.
+ */
+public class EvaluatorMetadataCacheTest extends TestCase
+{
+    private static final String NODE_REF = "workspace://SpacesStore/a1b2c3";
+    private static final String METADATA = "{\"type\":\"cm:content\",\"aspects\":[\"cm:titled\",\"cm:auditable\"]}";
+    
+    private EvaluatorMetadataCache cache;
+    private String userId;
+    private int calls;
+    
+    @Override
+    public void setUp()
+    {
+        cache = new EvaluatorMetadataCache();
+        userId = "admin";
+        calls = 0;
+    }
+    
+    public void testKeyedByUser()
+    {
+        cache.put("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$1", "wf:adhocTask");
+        assertEquals("wf:adhocTask", cache.get("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$1"));
+        assertNull(cache.get("bob", EvaluatorMetadataCache.KIND_TASK, "jbpm$1"));
+        assertNull(cache.get("admin", EvaluatorMetadataCache.KIND_NODE, "jbpm$1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+    
+    public void testExpiryAndBounds()
+    {
+        cache.setTimeToLive(0L);
+        cache.put("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$1", "wf:adhocTask");
+        assertNull(cache.get("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$1"));
+        
+        cache.setTimeToLive(60000L);
+        cache.setMaxEntries(2);
+        cache.put("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$1", "wf:adhocTask");
+        cache.put("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$2", "wf:adhocTask");
+        cache.get("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$1");
+        cache.put("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$3", "wf:adhocTask");
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$2"));
+        
+        cache.setMaxEntries(0);
+        cache.put("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$4", "wf:adhocTask");
+        assertNull(cache.get("admin", EvaluatorMetadataCache.KIND_TASK, "jbpm$4"));
+    }
+    
+    public void testNotCachedWithoutUser()
+    {
+        cache.put(null, EvaluatorMetadataCache.KIND_TASK, "jbpm$1", "wf:adhocTask");
+        assertEquals(0, cache.getSize());
+        
+        userId = null;
+        NodeTypeEvaluator type = new TestNodeTypeEvaluator();
+        assertTrue(type.applies(NODE_REF, "cm:content"));
+        assertTrue(type.applies(NODE_REF, "cm:content"));
+        assertEquals(0, cache.getSize());
+        assertEquals(2, calls);
+    }
+    
+    public void testInvalidate()
+    {
+        cache.put("admin", EvaluatorMetadataCache.KIND_NODE, NODE_REF, new NodeMetadata(METADATA));
+        cache.put("bob", EvaluatorMetadataCache.KIND_NODE, NODE_REF, new NodeMetadata(METADATA));
+        cache.put("bob", EvaluatorMetadataCache.KIND_NODE, NODE_REF + "d", new NodeMetadata(METADATA));
+        cache.invalidate(NODE_REF);
+        assertEquals(1, cache.getSize());
+    }
+    
+    public void testNodeMetadata()
+    {
+        NodeMetadata metadata = new NodeMetadata(METADATA);
+        assertEquals("cm:content", metadata.getType());
+        assertTrue(metadata.getAspects().contains("cm:titled"));
+        assertFalse(metadata.getAspects().contains("cm:versionable"));
+        
+        metadata = new NodeMetadata("not json");
+        assertNull(metadata.getType());
+        assertNull(metadata.getAspects());
+    }
+    
+    public void testEvaluatorsShareOneCall()
+    {
+        AspectEvaluator aspect = new TestAspectEvaluator();
+        NodeTypeEvaluator type = new TestNodeTypeEvaluator();
+        
+        assertTrue(type.applies(NODE_REF, "cm:content"));
+        assertFalse(type.applies(NODE_REF, "cm:folder"));
+        assertTrue(aspect.applies(NODE_REF, "cm:titled"));
+        assertFalse(aspect.applies(NODE_REF, "cm:versionable"));
+        assertEquals(1, calls);
+        
+        // another user makes their own call
+        userId = "bob";
+        assertTrue(aspect.applies(NODE_REF, "cm:auditable"));
+        assertEquals(2, calls);
+        
+        // objects which are not NodeRefs are not looked up
+        assertFalse(aspect.applies("cm:content", "cm:titled"));
+        assertFalse(aspect.applies("a:b", "cm:titled"));
+        assertEquals(2, calls);
+    }
+    
+    public void testPrefetch()
+    {
+        NodeTypeEvaluator type = new TestNodeTypeEvaluator();
+        assertNull(type.getCachedMetadata(NODE_REF));
+        assertEquals(2, type.prefetch(Arrays.asList(NODE_REF, NODE_REF + "2", "cm:content")));
+        assertEquals(0, type.prefetch(Arrays.asList(NODE_REF)));
+        assertEquals("cm:content", type.getCachedMetadata(NODE_REF).getType());
+        assertSame(type.getCachedMetadata(NODE_REF), type.getMetadata(NODE_REF));
+        assertNull(type.getMetadata("cm:content"));
+        assertTrue(type.applies(NODE_REF + "2", "cm:content"));
+        assertTrue(new TestAspectEvaluator().applies(NODE_REF, "cm:titled"));
+        assertEquals(2, calls);
+    }
+    
+    public void testTaskType()
+    {
+        TaskTypeEvaluator evaluator = new TaskTypeEvaluator()
+        {
+            @Override
+            protected EvaluatorMetadataCache getMetadataCache()
+            {
+                return cache;
+            }
+            
+            @Override
+            protected String getCurrentUserId()
+            {
+                return userId;
+            }
+            
+            @Override
+            protected String callService(String serviceUrl)
+            {
+                calls++;
+                assertEquals("/api/task-instances/activiti$42", serviceUrl);
+                return "{\"data\":{\"definition\":{\"type\":{\"name\":\"wf:adhocTask\"}}}}";
+            }
+        };
+        assertTrue(evaluator.applies("activiti$42", "wf:adhocTask"));
+        assertFalse(evaluator.applies("activiti$42", "wf:reviewTask"));
+        assertFalse(evaluator.applies("activiti$xx", "wf:adhocTask"));
+        assertEquals(1, calls);
+    }
+    
+    private String callMetadataService(String nodeString)
+    {
+        calls++;
+        return METADATA;
+    }
+    
+    private class TestAspectEvaluator extends AspectEvaluator
+    {
+        @Override
+        protected EvaluatorMetadataCache getMetadataCache()
+        {
+            return cache;
+        }
+        
+        @Override
+        protected String getCurrentUserId()
+        {
+            return userId;
+        }
+        
+        @Override
+        protected String callMetadataService(String nodeString)
+        {
+            return EvaluatorMetadataCacheTest.this.callMetadataService(nodeString);
+        }
+    }
+    
+    private class TestNodeTypeEvaluator extends NodeTypeEvaluator
+    {
+        @Override
+        protected EvaluatorMetadataCache getMetadataCache()
+        {
+            return cache;
+        }
+        
+        @Override
+        protected String getCurrentUserId()
+        {
+            return userId;
+        }
+        
+        @Override
+        protected String callMetadataService(String nodeString)
+        {
+            return EvaluatorMetadataCacheTest.this.callMetadataService(nodeString);
+        }
+    }
+}
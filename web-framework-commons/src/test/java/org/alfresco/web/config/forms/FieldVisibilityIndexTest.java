@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * Alfresco Web Framework common libraries
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.config.forms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the {@link FieldVisibilityIndex} compiled by a {@link FormConfigElement}
+ * gives the same answers as the {@link FieldVisibilityManager} algorithm.
+ */
+public class FieldVisibilityIndexTest extends TestCase
+{
+    private static final String[] FIELDS = { "A", "B", "C", "D", "E", "F" };
+    private static final String[] MODES = { null, "", "create", "edit", "view", "create,edit", "view,edit" };
+    
+    public void testHideOnly()
+    {
+        FormConfigElement form = new FormConfigElement();
+        form.addFieldVisibility("hide", "A", null, null);
+        form.addFieldVisibility("hide", "B", "view", null);
+        form.compileVisibilityIndex();
+        
+        assertFalse(form.isFieldVisible("A", Mode.EDIT));
+        assertTrue(form.isFieldVisible("B", Mode.EDIT));
+        assertFalse(form.isFieldVisible("B", Mode.VIEW));
+        assertTrue(form.isFieldVisible("Z", Mode.VIEW));
+        assertTrue(form.isFieldHidden("B", Mode.VIEW));
+        assertNull(form.getVisibleViewFieldNamesAsList());
+        assertEquals(Arrays.asList("A", "B"), form.getHiddenViewFieldNamesAsList());
+        assertNull(form.getVisibleViewFieldNamesForSetAsList(FormConfigElement.DEFAULT_SET_ID));
+    }
+    
+    public void testShowWithSetsAndForce()
+    {
+        FormConfigElement form = new FormConfigElement();
+        form.addSet("details", null, "panel", null, null);
+        form.addFieldVisibility("show", "A", null, null);
+        form.addFieldVisibility("show", "B", "edit", "true");
+        form.addFieldVisibility("show", "C", null, null);
+        form.addField("B", Arrays.asList("set"), Arrays.asList("details"));
+        form.compileVisibilityIndex();
+        
+        assertEquals(Arrays.asList("A", "B", "C"), form.getVisibleEditFieldNamesAsList());
+        assertEquals(Arrays.asList("A", "C"), form.getVisibleViewFieldNamesAsList());
+        assertEquals(Arrays.asList("A", "C"), form.getVisibleEditFieldNamesForSetAsList(FormConfigElement.DEFAULT_SET_ID));
+        assertEquals(Arrays.asList("B"), form.getVisibleEditFieldNamesForSetAsList("details"));
+        assertEquals(0, form.getVisibleViewFieldNamesForSetAsList("details").size());
+        assertNull(form.getVisibleViewFieldNamesForSetAsList("nosuchset"));
+        assertTrue(form.isFieldForced("B"));
+        assertFalse(form.isFieldForced("A"));
+        assertEquals(Arrays.asList("B", "A", "C"), new ArrayList<String>(form.getFields().keySet()));
+        assertNull(form.getHiddenEditFieldNamesAsList());
+    }
+    
+    public void testModifiedAfterCompile()
+    {
+        FormConfigElement form = new FormConfigElement();
+        form.addFieldVisibility("show", "A", null, null);
+        form.compileVisibilityIndex();
+        assertFalse(form.isFieldVisible("B", Mode.CREATE));
+        
+        form.addFieldVisibility("show", "B", "create", "true");
+        assertTrue(form.isFieldVisible("B", Mode.CREATE));
+        assertTrue(form.isFieldForced("B"));
+        assertEquals(Arrays.asList("A", "B"), form.getVisibleCreateFieldNamesAsList());
+    }
+    
+    public void testMatchesManagerForRandomInstructions()
+    {
+        Random random = new Random(42);
+        for (int run = 0; run < 500; run++)
+        {
+            FormConfigElement first = randomForm(random);
+            FormConfigElement second = randomForm(random);
+            assertMatchesManager(first);
+            assertMatchesManager((FormConfigElement)first.combine(second));
+        }
+    }
+    
+    private static FormConfigElement randomForm(Random random)
+    {
+        FormConfigElement form = new FormConfigElement();
+        int count = random.nextInt(8);
+        boolean hidesOnly = random.nextBoolean();
+        for (int i = 0; i < count; i++)
+        {
+            String showOrHide = hidesOnly || random.nextBoolean() ? "hide" : "show";
+            form.addFieldVisibility(showOrHide, FIELDS[random.nextInt(FIELDS.length)],
+                        MODES[random.nextInt(MODES.length)], null);
+        }
+        return form;
+    }
+    
+    private static void assertMatchesManager(FormConfigElement form)
+    {
+        FieldVisibilityManager fvm = form.fieldVisibilityManager;
+        for (Mode m : Mode.values())
+        {
+            String context = fvm.getInstructions() + " " + m;
+            for (String fieldId : FIELDS)
+            {
+                assertEquals(context + " " + fieldId, fvm.isFieldVisible(fieldId, m), form.isFieldVisible(fieldId, m));
+                assertEquals(context + " " + fieldId, fvm.isFieldHidden(fieldId, m), form.isFieldHidden(fieldId, m));
+            }
+            assertEquals(context, fvm.isFieldVisible("A", m), form.isFieldVisibleInMode("A", m.toString()));
+            assertEquals(context, fvm.isFieldHidden("A", m), form.isFieldHiddenInMode("A", m.toString()));
+        }
+        assertEquals(fvm.getFieldNamesVisibleInMode(Mode.CREATE), form.getVisibleCreateFieldNamesAsList());
+        assertEquals(fvm.getFieldNamesVisibleInMode(Mode.EDIT), form.getVisibleEditFieldNamesAsList());
+        assertEquals(fvm.getFieldNamesVisibleInMode(Mode.VIEW), form.getVisibleViewFieldNamesAsList());
+        assertEquals(fvm.getFieldNamesHiddenInMode(Mode.CREATE), form.getHiddenCreateFieldNamesAsList());
+        assertEquals(fvm.getFieldNamesHiddenInMode(Mode.EDIT), form.getHiddenEditFieldNamesAsList());
+        assertEquals(fvm.getFieldNamesHiddenInMode(Mode.VIEW), form.getHiddenViewFieldNamesAsList());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * Alfresco Web Framework common libraries
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.config.forms;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark comparing the field visibility lookups made while rendering a form against
+ * the per-call {@link FieldVisibilityManager} algorithm and the {@link FieldVisibilityIndex}
+ * compiled by {@link FormConfigElement}. Not run as part of the unit tests, execute the
+ * main method directly. The optional argument is the number of fields in the generated form.
+ */
+public class FormVisibilityBenchmark
+{
+    private static final int ITERATIONS = 200;
+    
+    public static void main(String[] args) throws Exception
+    {
+        final int fieldCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final FormConfigElement form = generate(fieldCount);
+        final FieldVisibilityManager fvm = form.fieldVisibilityManager;
+        System.out.println("Form of " + fieldCount + " fields and " + fvm.getInstructions().size() + " instructions");
+        
+        long sink = 0;
+        for (int run=0; run<3; run++)
+        {
+            System.out.println("Run " + (run + 1));
+            long start = System.nanoTime();
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                // as FormUIGet: the visible fields for the mode, then the checks made for each of them
+                for (Mode m : Mode.values())
+                {
+                    List<String> visible = fvm.getFieldNamesVisibleInMode(m);
+                    for (String fieldId : visible)
+                    {
+                        if (fvm.isFieldVisible(fieldId, m) && !fvm.isFieldHidden(fieldId, m)) sink++;
+                        if (form.getForcedFieldsAsList().contains(fieldId)) sink++;
+                    }
+                }
+            }
+            report("manager", System.nanoTime() - start);
+            
+            start = System.nanoTime();
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                for (Mode m : Mode.values())
+                {
+                    List<String> visible = visibleFields(form, m);
+                    for (String fieldId : visible)
+                    {
+                        if (form.isFieldVisible(fieldId, m) && !form.isFieldHidden(fieldId, m)) sink++;
+                        if (form.isFieldForced(fieldId)) sink++;
+                    }
+                }
+            }
+            report("index", System.nanoTime() - start);
+            
+            start = System.nanoTime();
+            for (int i=0; i<ITERATIONS; i++)
+            {
+                sink += form.compileVisibilityIndex().getFieldNamesVisibleInMode(Mode.EDIT).size();
+            }
+            report("compile", System.nanoTime() - start);
+        }
+        System.out.println("(" + sink + ")");
+    }
+    
+    private static List<String> visibleFields(FormConfigElement form, Mode m)
+    {
+        switch (m)
+        {
+            case CREATE: return form.getVisibleCreateFieldNamesAsList();
+            case EDIT: return form.getVisibleEditFieldNamesAsList();
+            default: return form.getVisibleViewFieldNamesAsList();
+        }
+    }
+    
+    private static void report(String name, long total)
+    {
+        System.out.println(String.format("  %-10s %10.3f ms per form", name, total / 1e6 / ITERATIONS));
+    }
+    
+    /**
+     * Generates a form which shows every field in some modes, hides a third of them
+     * again in view mode, forces a tenth of them and spreads them over a few sets.
+     */
+    static FormConfigElement generate(int fieldCount)
+    {
+        FormConfigElement form = new FormConfigElement();
+        for (int s=0; s<5; s++)
+        {
+            form.addSet("set" + s, null, "fieldset", null, null);
+        }
+        for (int i=0; i<fieldCount; i++)
+        {
+            String fieldId = "my:field" + i;
+            form.addFieldVisibility("show", fieldId, i % 4 == 0 ? "edit,create" : null, i % 10 == 0 ? "true" : null);
+            form.addField(fieldId, Arrays.asList("set"), Arrays.asList("set" + (i % 5)));
+        }
+        for (int i=0; i<fieldCount; i+=3)
+        {
+            form.addFieldVisibility("hide", "my:field" + i, "view", null);
+        }
+        form.compileVisibilityIndex();
+        return form;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * Alfresco Web Framework common libraries
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts.forms;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import org.alfresco.web.config.forms.Mode;
+import org.json.JSONObject;
+
+/**
+ * Tests for the {@link FormDefinitionCache}.
+ */
+public class FormDefinitionCacheTest extends TestCase
+{
+    private FormDefinitionCache cache;
+    
+    @Override
+    public void setUp()
+    {
+        cache = new FormDefinitionCache();
+    }
+    
+    public void testTypeAndNodeItemsAreCacheable()
+    {
+        assertTrue(cache.isCacheable("type"));
+        assertTrue(cache.isCacheable("node"));
+        assertFalse(cache.isCacheable("task"));
+        
+        cache.setMaxEntries(0);
+        assertFalse(cache.isCacheable("type"));
+    }
+    
+    public void testKeyIncludesTenantFormFieldsModeAndLocale()
+    {
+        String key = cache.buildKey("admin", "type", "cm:content", null, Arrays.asList("cm:name"), null, Mode.CREATE, Locale.ENGLISH);
+        assertEquals(key, cache.buildKey("bob", "type", "cm:content", null, Arrays.asList("cm:name"), null, Mode.CREATE, Locale.ENGLISH));
+        assertFalse(key.equals(cache.buildKey("admin@acme.com", "type", "cm:content", null, Arrays.asList("cm:name"), null, Mode.CREATE, Locale.ENGLISH)));
+        assertFalse(key.equals(cache.buildKey("admin", "type", "cm:content", null, Arrays.asList("cm:name", "cm:title"), null, Mode.CREATE, Locale.ENGLISH)));
+        assertFalse(key.equals(cache.buildKey("admin", "type", "cm:content", null, Arrays.asList("cm:name"), Arrays.asList("cm:name"), Mode.CREATE, Locale.ENGLISH)));
+        assertFalse(key.equals(cache.buildKey("admin", "type", "cm:content", null, Arrays.asList("cm:name"), null, Mode.EDIT, Locale.ENGLISH)));
+        assertFalse(key.equals(cache.buildKey("admin", "type", "cm:content", null, Arrays.asList("cm:name"), null, Mode.CREATE, Locale.FRENCH)));
+        assertFalse(key.equals(cache.buildKey("admin", "type", "cm:content", "doclib-simple-metadata", Arrays.asList("cm:name"), null, Mode.CREATE, Locale.ENGLISH)));
+    }
+    
+    public void testHitsAndMisses() throws Exception
+    {
+        String key = cache.buildKey("admin", "type", "cm:content", null, null, null, Mode.CREATE, Locale.ENGLISH);
+        assertNull(cache.get(key));
+        
+        JSONObject definition = new JSONObject("{\"data\":{}}");
+        cache.put(key, definition);
+        assertSame(definition, cache.get(key));
+        assertSame(definition, cache.get(key));
+        
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+    
+    public void testEntriesExpire() throws Exception
+    {
+        cache.setTimeToLive(1);
+        String key = cache.buildKey("admin", "type", "cm:content", null, null, null, Mode.CREATE, Locale.ENGLISH);
+        cache.put(key, new JSONObject());
+        Thread.sleep(5);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getSize());
+    }
+    
+    public void testLeastRecentlyUsedEviction() throws Exception
+    {
+        cache.setMaxEntries(2);
+        String first = cache.buildKey("admin", "type", "cm:content", null, null, null, Mode.CREATE, Locale.ENGLISH);
+        String second = cache.buildKey("admin", "type", "cm:folder", null, null, null, Mode.CREATE, Locale.ENGLISH);
+        String third = cache.buildKey("admin", "type", "cm:person", null, null, null, Mode.CREATE, Locale.ENGLISH);
+        cache.put(first, new JSONObject());
+        cache.put(second, new JSONObject());
+        assertNotNull(cache.get(first));
+        cache.put(third, new JSONObject());
+        
+        assertEquals(2, cache.getSize());
+        assertNotNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertEquals(1, cache.getEvictions());
+    }
+    
+    public void testInvalidation() throws Exception
+    {
+        String content = cache.buildKey("admin", "type", "cm:content", null, null, null, Mode.CREATE, Locale.ENGLISH);
+        String folder = cache.buildKey("admin", "type", "cm:folder", null, null, null, Mode.CREATE, Locale.ENGLISH);
+        cache.put(content, new JSONObject());
+        cache.put(folder, new JSONObject());
+        
+        cache.invalidate("type", "cm:content");
+        assertNull(cache.get(content));
+        assertNotNull(cache.get(folder));
+        
+        cache.invalidateAll();
+        assertNull(cache.get(folder));
+        assertEquals(2, cache.getInvalidations());
+    }
+}